@@ -0,0 +1,799 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import mechanicshop.jdbc.LatencyHistogram;
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMappers;
+import mechanicshop.jdbc.SqlExecutor;
+
+/**
+ * This class keeps suppliers, parts and catalog in memory, indexed for the
+ * parts desk's lookups:
+ *
+ *  - every part's offers sorted by cost, so its cheapest supplier is the
+ *    first one;
+ *  - every supplier's parts as a bitset, so the suppliers of a whole parts
+ *    list are the suppliers of its rarest part whose bits are all set;
+ *  - every offer in one array sorted by cost, so a price band is a binary
+ *    search and a scan of the offers inside it.
+ *
+ * Ids are kept as ints and costs as whole cents.  Triggers installed by
+ * the first load write the key of every row inserted, updated or deleted
+ * to catalog_change, with the writing transaction.  refresh() reads the
+ * keys written by the transactions that ended since the last refresh
+ * (from the xmin of its snapshot up to the xmin of the current one, so
+ * through an index and never a table scan), then those rows; a long
+ * transaction holds the next changes back until it ends.  Offers whose
+ * cost changed are moved within their part at once and kept in a small
+ * sorted array of recent changes, merged into every price band lookup,
+ * until the main price band array is sorted again.  Rows are read without
+ * the lock and applied under it, so lookups only wait for the apply.
+ * Nothing is ever removed from the index, so when a row was deleted or
+ * had its key updated, everything is loaded again, in the background.
+ * Changes are deleted once every reader that refreshed within
+ * embeddedsql.catalog.changeMinutes (default 60) has read them, and a
+ * reader that has not refreshed for half that loads everything again too.
+ *
+ */
+public class CatalogIndex {
+
+   /**
+    * A supplier's price for a part.
+    */
+   public static class Offer {
+      public final int sid;
+      public final String sname;
+      public final int pid;
+      public final String pname;
+      public final String color;
+      public final BigDecimal cost;
+
+      Offer (int sid, String sname, int pid, String pname, String color, long cents) {
+         this.sid = sid;
+         this.sname = sname;
+         this.pid = pid;
+         this.pname = pname;
+         this.color = color;
+         this.cost = BigDecimal.valueOf (cents, 2);
+      }
+   }//end Offer
+
+   /**
+    * A supplier of every part of a list, with what the whole list costs.
+    */
+   public static class Cover {
+      public final int sid;
+      public final String sname;
+      public final BigDecimal total;
+
+      Cover (int sid, String sname, long cents) {
+         this.sid = sid;
+         this.sname = sname;
+         this.total = BigDecimal.valueOf (cents, 2);
+      }
+   }//end Cover
+
+   static final String SUPPLIERS = "SELECT CAST(sid AS integer), sname FROM suppliers";
+   static final String PARTS = "SELECT CAST(pid AS integer), pname, color FROM parts";
+   static final String CATALOG = "SELECT CAST(sid AS integer), CAST(pid AS integer), CAST(round(cost * 100) AS bigint) FROM catalog";
+
+   //minutes the changes are kept for the readers that have not read them yet
+   static final long CHANGE_MINUTES = Long.getLong ("embeddedsql.catalog.changeMinutes", 60L);
+
+   //the key of every row written, with its transaction; a truncate is a delete without a key
+   static final String[] CHANGE_LOG = {
+      "CREATE TABLE IF NOT EXISTS catalog_change (txid BIGINT NOT NULL DEFAULT txid_current(), tbl VARCHAR(16) NOT NULL, "
+         + "sid NUMERIC(9,0), pid NUMERIC(9,0), deleted BOOLEAN NOT NULL)",
+      "CREATE INDEX IF NOT EXISTS catalog_change_txid ON catalog_change (txid)",
+      "CREATE OR REPLACE FUNCTION catalog_change_log() RETURNS trigger AS $$ "
+         + "DECLARE old_sid NUMERIC; old_pid NUMERIC; new_sid NUMERIC; new_pid NUMERIC; BEGIN "
+         + "IF TG_OP = 'TRUNCATE' THEN INSERT INTO catalog_change (tbl, deleted) VALUES (TG_TABLE_NAME, true); RETURN NULL; END IF; "
+         + "IF TG_OP <> 'INSERT' THEN "
+         + "IF TG_TABLE_NAME <> 'parts' THEN old_sid := OLD.sid; END IF; "
+         + "IF TG_TABLE_NAME <> 'suppliers' THEN old_pid := OLD.pid; END IF; "
+         + "END IF; "
+         + "IF TG_OP <> 'DELETE' THEN "
+         + "IF TG_TABLE_NAME <> 'parts' THEN new_sid := NEW.sid; END IF; "
+         + "IF TG_TABLE_NAME <> 'suppliers' THEN new_pid := NEW.pid; END IF; "
+         + "INSERT INTO catalog_change (tbl, sid, pid, deleted) VALUES (TG_TABLE_NAME, new_sid, new_pid, false); "
+         + "END IF; "
+         + "IF TG_OP = 'DELETE' OR old_sid IS DISTINCT FROM new_sid OR old_pid IS DISTINCT FROM new_pid THEN "
+         + "INSERT INTO catalog_change (tbl, sid, pid, deleted) VALUES (TG_TABLE_NAME, old_sid, old_pid, true); "
+         + "END IF; "
+         + "RETURN NULL; END $$ LANGUAGE plpgsql",
+      changeTriggers ("suppliers"),
+      changeTriggers ("parts"),
+      changeTriggers ("catalog")
+   };
+
+   //the oldest transaction still running: every change of an older one has been committed or rolled back
+   static final String XMIN = "SELECT txid_snapshot_xmin(txid_current_snapshot())";
+   //the changes of the transactions that ended between two refreshes
+   static final String WINDOW = " FROM catalog_change WHERE tbl = '%s' AND txid >= ? AND txid < ?";
+   static final String DELETED = "SELECT count(*) FROM catalog_change WHERE txid >= ? AND txid < ? AND deleted";
+   static final String CHANGED_SUPPLIERS = SUPPLIERS + " WHERE sid IN (SELECT sid" + String.format (WINDOW, "suppliers") + ")";
+   static final String CHANGED_PARTS = PARTS + " WHERE pid IN (SELECT pid" + String.format (WINDOW, "parts") + ")";
+   static final String CHANGED_CATALOG = CATALOG + " WHERE (sid, pid) IN (SELECT sid, pid" + String.format (WINDOW, "catalog") + ")";
+   static final String PRUNE = "DELETE FROM catalog_change WHERE txid < ?";
+
+   //created once, since CREATE TRIGGER has no IF NOT EXISTS
+   private static String changeTriggers (String table) {
+      return "DO $$ BEGIN IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = '" + table + "_catalog_change') THEN "
+         + "CREATE TRIGGER " + table + "_catalog_change AFTER INSERT OR UPDATE OR DELETE ON " + table
+         + " FOR EACH ROW EXECUTE PROCEDURE catalog_change_log(); "
+         + "CREATE TRIGGER " + table + "_catalog_truncate AFTER TRUNCATE ON " + table
+         + " FOR EACH STATEMENT EXECUTE PROCEDURE catalog_change_log(); END IF; END $$";
+   }//end changeTriggers
+
+   //a band key is the cost in cents above the offer's slot
+   private static final int SLOT_BITS = 29;
+   private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+   /*
+    * Everything the lookups read.  Suppliers, parts and offers (slots) are
+    * numbered densely in the order they were first read; none is removed
+    * until the next full load builds a new Data.
+    */
+   static final class Data {
+      final IntMap suppliersById = new IntMap ();
+      int[] sids = new int[16];
+      String[] snames = new String[16];
+      //parts of each supplier, one bit per part number
+      long[][] supplies = new long[16][];
+      int suppliers = 0;
+
+      final IntMap partsById = new IntMap ();
+      int[] pids = new int[16];
+      String[] pnames = new String[16];
+      String[] colors = new String[16];
+      //slots of each part's offers, cheapest first
+      int[][] offers = new int[16][];
+      int[] offerCount = new int[16];
+      int parts = 0;
+
+      //offers by supplier and part
+      final IntMap slotsByKey = new IntMap ();
+      int[] slotSupplier = new int[1024];
+      int[] slotPart = new int[1024];
+      long[] slotCents = new long[1024];
+      int slots = 0;
+
+      //band keys of every slot sorted once, then those of the slots changed since, also sorted
+      long[] band = new long[0];
+      boolean[] recent = new boolean[1024];
+      long[] recentKeys = new long[64];
+      int recentCount = 0;
+
+      int supplier (int sid) {
+         int s = this.suppliersById.get (sid);
+         if (s >= 0)
+            return s;
+         if (this.suppliers == this.sids.length){
+            int capacity = this.suppliers * 2;
+            this.sids = Arrays.copyOf (this.sids, capacity);
+            this.snames = Arrays.copyOf (this.snames, capacity);
+            this.supplies = Arrays.copyOf (this.supplies, capacity);
+         }//end if
+         s = this.suppliers++;
+         this.sids[s] = sid;
+         this.snames[s] = "";
+         this.supplies[s] = new long[1];
+         this.suppliersById.put (sid, s);
+         return s;
+      }//end supplier
+
+      int part (int pid) {
+         int p = this.partsById.get (pid);
+         if (p >= 0)
+            return p;
+         if (this.parts == this.pids.length){
+            int capacity = this.parts * 2;
+            this.pids = Arrays.copyOf (this.pids, capacity);
+            this.pnames = Arrays.copyOf (this.pnames, capacity);
+            this.colors = Arrays.copyOf (this.colors, capacity);
+            this.offers = Arrays.copyOf (this.offers, capacity);
+            this.offerCount = Arrays.copyOf (this.offerCount, capacity);
+         }//end if
+         p = this.parts++;
+         this.pids[p] = pid;
+         this.pnames[p] = "";
+         this.colors[p] = "";
+         this.offers[p] = new int[2];
+         this.partsById.put (pid, p);
+         return p;
+      }//end part
+
+      boolean hasPart (int s, int p) {
+         long[] bits = this.supplies[s];
+         return (p >>> 6) < bits.length && (bits[p >>> 6] & (1L << p)) != 0;
+      }//end hasPart
+
+      /*
+       * Adds the offer or changes its cost.  While loading, offers are
+       * appended and sorted once at the end (sorted == false).
+       */
+      void put (int sid, int pid, long cents, boolean sorted) {
+         int s = supplier (sid);
+         int p = part (pid);
+         long key = ((long) sid << 32) | (pid & 0xffffffffL);
+         int slot = this.slotsByKey.get (key);
+         if (slot >= 0){
+            if (this.slotCents[slot] == cents)
+               return;
+            long old = this.slotCents[slot];
+            unlist (p, slot);
+            this.slotCents[slot] = cents;
+            list (p, slot, sorted);
+            changed (slot, old);
+            return;
+         }//end if
+         if (this.slots == this.slotCents.length){
+            int capacity = this.slots * 2;
+            this.slotSupplier = Arrays.copyOf (this.slotSupplier, capacity);
+            this.slotPart = Arrays.copyOf (this.slotPart, capacity);
+            this.slotCents = Arrays.copyOf (this.slotCents, capacity);
+            this.recent = Arrays.copyOf (this.recent, capacity);
+         }//end if
+         slot = this.slots++;
+         this.slotSupplier[slot] = s;
+         this.slotPart[slot] = p;
+         this.slotCents[slot] = cents;
+         this.slotsByKey.put (key, slot);
+         long[] bits = this.supplies[s];
+         if ((p >>> 6) >= bits.length)
+            bits = this.supplies[s] = Arrays.copyOf (bits, Math.max ((p >>> 6) + 1, bits.length * 2));
+         bits[p >>> 6] |= 1L << p;
+         list (p, slot, sorted);
+         if (sorted)
+            changed (slot, cents);
+      }//end offer
+
+      //cheaper first, then by supplier id, so equal costs list in a stable order
+      int compare (int a, int b) {
+         int c = Long.compare (this.slotCents[a], this.slotCents[b]);
+         return c != 0 ? c : Integer.compare (this.sids[this.slotSupplier[a]], this.sids[this.slotSupplier[b]]);
+      }//end compare
+
+      private void list (int p, int slot, boolean sorted) {
+         int n = this.offerCount[p];
+         int[] list = this.offers[p];
+         if (n == list.length)
+            list = this.offers[p] = Arrays.copyOf (list, n * 2);
+         int at = n;
+         if (sorted){
+            int lo = 0;
+            int hi = n;
+            while (lo < hi){
+               int mid = (lo + hi) >>> 1;
+               if (compare (list[mid], slot) < 0)
+                  lo = mid + 1;
+               else
+                  hi = mid;
+            }//end while
+            at = lo;
+            System.arraycopy (list, at, list, at + 1, n - at);
+         }//end if
+         list[at] = slot;
+         this.offerCount[p] = n + 1;
+      }//end list
+
+      private void unlist (int p, int slot) {
+         int n = this.offerCount[p];
+         int[] list = this.offers[p];
+         for (int i = 0; i < n; i++){
+            if (list[i] == slot){
+               System.arraycopy (list, i + 1, list, i, n - i - 1);
+               this.offerCount[p] = n - 1;
+               return;
+            }//end if
+         }//end for
+      }//end unlist
+
+      //moves the slot's band key among the recent ones; old is its cost before the change
+      private void changed (int slot, long old) {
+         if (this.recent[slot]){
+            int at = lowerBound (this.recentKeys, this.recentCount, (old << SLOT_BITS) + slot);
+            System.arraycopy (this.recentKeys, at + 1, this.recentKeys, at, this.recentCount - at - 1);
+            this.recentCount--;
+         }//end if
+         this.recent[slot] = true;
+         if (this.recentCount == this.recentKeys.length)
+            this.recentKeys = Arrays.copyOf (this.recentKeys, this.recentCount * 2);
+         long key = (this.slotCents[slot] << SLOT_BITS) + slot;
+         int at = lowerBound (this.recentKeys, this.recentCount, key);
+         System.arraycopy (this.recentKeys, at, this.recentKeys, at + 1, this.recentCount - at);
+         this.recentKeys[at] = key;
+         this.recentCount++;
+      }//end changed
+
+      //sorts every part's offers and the band keys, emptying the recent changes
+      void sort (boolean parts) {
+         if (parts){
+            Integer[] boxed = new Integer[0];
+            for (int p = 0; p < this.parts; p++){
+               int n = this.offerCount[p];
+               if (n < 2)
+                  continue;
+               if (boxed.length < n)
+                  boxed = new Integer[Math.max (n, boxed.length * 2)];
+               for (int i = 0; i < n; i++)
+                  boxed[i] = this.offers[p][i];
+               Arrays.sort (boxed, 0, n, new Comparator<Integer> () {
+                  public int compare (Integer a, Integer b) { return Data.this.compare (a, b); }
+               });
+               for (int i = 0; i < n; i++)
+                  this.offers[p][i] = boxed[i];
+            }//end for
+         }//end if
+         long[] band = new long[this.slots];
+         for (int slot = 0; slot < this.slots; slot++)
+            band[slot] = (this.slotCents[slot] << SLOT_BITS) + slot;
+         Arrays.sort (band);
+         this.band = band;
+         for (int i = 0; i < this.recentCount; i++)
+            this.recent[(int) (this.recentKeys[i] & SLOT_MASK)] = false;
+         this.recentCount = 0;
+      }//end sort
+
+      Offer offer (int slot) {
+         int s = this.slotSupplier[slot];
+         int p = this.slotPart[slot];
+         return new Offer (this.sids[s], this.snames[s], this.pids[p], this.pnames[p], this.colors[p], this.slotCents[slot]);
+      }//end offer
+   }//end Data
+
+   private final SqlExecutor _sql;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock ();
+   private Data _data = new Data ();
+   private boolean _logged = false;
+   //the xmin the last refresh read up to, and when it was taken
+   private long _since = -1;
+   private long _sinceAt = 0;
+   //the xmin of every refresh, with its time, until the changes below it can be deleted
+   private final ArrayDeque<long[]> _marks = new ArrayDeque<long[]> ();
+   private ScheduledExecutorService _refresher;
+   private final LatencyHistogram _latency = new LatencyHistogram ();
+   private long _loads = 0;
+   private long _changes = 0;
+
+   /**
+    * Creates an empty index; refresh() loads it.
+    *
+    * @param sql the executor the tables are read through
+    */
+   public CatalogIndex (SqlExecutor sql) {
+      this._sql = sql;
+   }//end CatalogIndex
+
+   /**
+    * Method to read the rows written since the last refresh, or every row
+    * the first time, after a delete and after falling behind.
+    *
+    * @return the number of rows read
+    * @throws java.sql.SQLException when a table could not be read
+    */
+   public synchronized int refresh () throws SQLException {
+      long now = System.currentTimeMillis ();
+      long xmin = this._sql.queryForObject (XMIN, RowMappers.LONG);
+      //other readers may have deleted changes this one has not read, once it is that far behind
+      boolean current = this._since >= 0 && now - this._sinceAt < CHANGE_MINUTES * 60000L / 2;
+      if (current && this._sql.queryForObject (DELETED, RowMappers.LONG, this._since, xmin) == 0){
+         //read outside the lock, applied under it
+         final List<Object[]> suppliers = new ArrayList<Object[]> ();
+         final List<Object[]> parts = new ArrayList<Object[]> ();
+         final List<long[]> offers = new ArrayList<long[]> ();
+         int rows = read (CHANGED_SUPPLIERS, CHANGED_PARTS, CHANGED_CATALOG, new RowSink () {
+            public void supplier (int sid, String sname) { suppliers.add (new Object[] {sid, sname}); }
+            public void part (int pid, String pname, String color) { parts.add (new Object[] {pid, pname, color}); }
+            public void offer (int sid, int pid, long cents) { offers.add (new long[] {sid, pid, cents}); }
+         }, this._since, xmin);
+         this._lock.writeLock ().lock ();
+         try{
+            Data data = this._data;
+            for (Object[] row : suppliers){
+               int s = data.supplier ((Integer) row[0]);
+               data.snames[s] = (String) row[1];
+            }//end for
+            for (Object[] row : parts){
+               int p = data.part ((Integer) row[0]);
+               data.pnames[p] = (String) row[1];
+               data.colors[p] = (String) row[2];
+            }//end for
+            for (long[] row : offers)
+               data.put ((int) row[0], (int) row[1], row[2], true);
+            this._changes += rows;
+            //every recent change costs a move within the recent keys, so they are kept short
+            if (data.recentCount > Math.max (4096, data.slots >>> 4))
+               data.sort (false);
+         }finally{
+            this._lock.writeLock ().unlock ();
+         }//end try
+         advance (xmin, now);
+         return rows;
+      }//end if
+      //creating the triggers waits for running writers, so the rows read next include every write they did not log
+      if (!this._logged){
+         for (String ddl : CHANGE_LOG)
+            this._sql.executeUpdate (ddl);
+         this._logged = true;
+      }//end if
+      //read outside the lock, so lookups go on against the old data meanwhile
+      final Data fresh = new Data ();
+      int rows = read (SUPPLIERS, PARTS, CATALOG, new RowSink () {
+         public void supplier (int sid, String sname) {
+            //the arrays may grow, so the supplier comes before its name
+            int s = fresh.supplier (sid);
+            fresh.snames[s] = sname;
+         }
+         public void part (int pid, String pname, String color) {
+            int p = fresh.part (pid);
+            fresh.pnames[p] = pname;
+            fresh.colors[p] = color;
+         }
+         public void offer (int sid, int pid, long cents) { fresh.put (sid, pid, cents, false); }
+      });
+      fresh.sort (true);
+      replace (fresh);
+      advance (xmin, now);
+      return rows;
+   }//end refresh
+
+   //swaps in a fully loaded Data; lookups running on the old one finish first
+   void replace (Data fresh) {
+      this._lock.writeLock ().lock ();
+      try{
+         this._data = fresh;
+         this._loads++;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end replace
+
+   //moves the window past xmin and deletes the changes every reader current enough has read
+   private void advance (long xmin, long now) throws SQLException {
+      this._since = xmin;
+      this._sinceAt = now;
+      this._marks.addLast (new long[] {now, xmin});
+      long below = -1;
+      while (!this._marks.isEmpty () && now - this._marks.peekFirst ()[0] >= CHANGE_MINUTES * 60000L)
+         below = this._marks.pollFirst ()[1];
+      if (below >= 0)
+         this._sql.executeUpdate (PRUNE, below);
+   }//end advance
+
+   //receives the rows of one read
+   private interface RowSink {
+      void supplier (int sid, String sname);
+      void part (int pid, String pname, String color);
+      void offer (int sid, int pid, long cents);
+   }//end RowSink
+
+   private int read (String suppliers, String parts, String catalog, final RowSink sink, Object... params) throws SQLException {
+      int rows = this._sql.executeQueryAndStream (suppliers, new RowHandler () {
+         public void handle (Row row) throws SQLException {
+            sink.supplier (row.getInt (1), trim (row.getString (2)));
+         }
+      }, params);
+      rows += this._sql.executeQueryAndStream (parts, new RowHandler () {
+         public void handle (Row row) throws SQLException {
+            sink.part (row.getInt (1), trim (row.getString (2)), trim (row.getString (3)));
+         }
+      }, params);
+      rows += this._sql.executeQueryAndStream (catalog, new RowHandler () {
+         public void handle (Row row) throws SQLException {
+            sink.offer (row.getInt (1), row.getInt (2), row.getLong (3));
+         }
+      }, params);
+      return rows;
+   }//end read
+
+   /**
+    * Method to refresh the index every interval while the program runs.
+    *
+    * @param intervalMillis the pause between refreshes
+    */
+   public synchronized void start (long intervalMillis) {
+      if (this._refresher != null)
+         return;
+      this._refresher = Executors.newSingleThreadScheduledExecutor (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "catalog-index-refresh");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      this._refresher.scheduleWithFixedDelay (new Runnable () {
+         public void run () {
+            try{
+               refresh ();
+            }catch (SQLException e){
+               System.err.println ("Warning - catalog index refresh failed: " + e.getMessage ());
+            }//end try
+         }
+      }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   public synchronized void close () {
+      if (this._refresher != null)
+         this._refresher.shutdownNow ();
+   }//end close
+
+   /**
+    * Method to find the cheapest offers of a part.
+    *
+    * @param pid the part
+    * @param limit the most offers returned
+    * @return the offers, cheapest first; empty when nobody supplies the part
+    */
+   public List<Offer> cheapest (int pid, int limit) {
+      long start = System.nanoTime ();
+      this._lock.readLock ().lock ();
+      try{
+         Data data = this._data;
+         int p = data.partsById.get (pid);
+         if (p < 0)
+            return Collections.emptyList ();
+         int n = Math.min (limit, data.offerCount[p]);
+         List<Offer> offers = new ArrayList<Offer> (Math.max (0, n));
+         for (int i = 0; i < n; i++)
+            offers.add (data.offer (data.offers[p][i]));
+         return offers;
+      }finally{
+         this._lock.readLock ().unlock ();
+         this._latency.record (System.nanoTime () - start);
+      }//end try
+   }//end cheapest
+
+   /**
+    * Method to find the cheapest supplier of every part that has one.
+    *
+    * @return one offer per part, by part id
+    */
+   public List<Offer> cheapestPerPart () {
+      long start = System.nanoTime ();
+      List<Offer> offers = new ArrayList<Offer> ();
+      this._lock.readLock ().lock ();
+      try{
+         Data data = this._data;
+         for (int p = 0; p < data.parts; p++)
+            if (data.offerCount[p] > 0)
+               offers.add (data.offer (data.offers[p][0]));
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+      Collections.sort (offers, new Comparator<Offer> () {
+         public int compare (Offer a, Offer b) { return Integer.compare (a.pid, b.pid); }
+      });
+      this._latency.record (System.nanoTime () - start);
+      return offers;
+   }//end cheapestPerPart
+
+   /**
+    * Method to find the suppliers that supply every part of a list.
+    *
+    * @param pids the parts; repeated ids count once
+    * @param limit the most suppliers returned
+    * @return the suppliers, cheapest total first
+    */
+   public List<Cover> covering (int[] pids, int limit) {
+      long start = System.nanoTime ();
+      this._lock.readLock ().lock ();
+      try{
+         Data data = this._data;
+         int[] parts = new int[pids.length];
+         int count = 0;
+         for (int pid : pids){
+            int p = data.partsById.get (pid);
+            if (p < 0 || data.offerCount[p] == 0)
+               return Collections.emptyList ();
+            parts[count++] = p;
+         }//end for
+         if (count == 0)
+            return Collections.emptyList ();
+         Arrays.sort (parts, 0, count);
+         //the rarest part has the fewest candidates
+         int rarest = 0;
+         int distinct = 0;
+         for (int i = 0; i < count; i++){
+            if (i > 0 && parts[i] == parts[i - 1])
+               continue;
+            parts[distinct++] = parts[i];
+            if (data.offerCount[parts[distinct - 1]] < data.offerCount[parts[rarest]])
+               rarest = distinct - 1;
+         }//end for
+         List<Cover> covers = new ArrayList<Cover> ();
+         int[] candidates = data.offers[parts[rarest]];
+         for (int i = 0; i < data.offerCount[parts[rarest]]; i++){
+            int s = data.slotSupplier[candidates[i]];
+            boolean all = true;
+            for (int j = 0; j < distinct && all; j++)
+               all = data.hasPart (s, parts[j]);
+            if (!all)
+               continue;
+            long total = 0;
+            for (int j = 0; j < distinct; j++){
+               long key = ((long) data.sids[s] << 32) | (data.pids[parts[j]] & 0xffffffffL);
+               total += data.slotCents[data.slotsByKey.get (key)];
+            }//end for
+            covers.add (new Cover (data.sids[s], data.snames[s], total));
+         }//end for
+         Collections.sort (covers, new Comparator<Cover> () {
+            public int compare (Cover a, Cover b) {
+               int c = a.total.compareTo (b.total);
+               return c != 0 ? c : Integer.compare (a.sid, b.sid);
+            }
+         });
+         return covers.size () > limit ? new ArrayList<Cover> (covers.subList (0, limit)) : covers;
+      }finally{
+         this._lock.readLock ().unlock ();
+         this._latency.record (System.nanoTime () - start);
+      }//end try
+   }//end covering
+
+   /**
+    * Method to find the offers priced within a band, over every part.
+    *
+    * @param low the lowest cost, included
+    * @param high the highest cost, included
+    * @param limit the most offers returned
+    * @return the offers, cheapest first
+    */
+   public List<Offer> priceBand (BigDecimal low, BigDecimal high, int limit) {
+      long start = System.nanoTime ();
+      long lo = cents (low, true);
+      long hi = cents (high, false);
+      List<Offer> offers = new ArrayList<Offer> ();
+      if (lo > hi || limit < 1)
+         return offers;
+      this._lock.readLock ().lock ();
+      try{
+         Data data = this._data;
+         //merges the sorted band, less the stale keys of changed offers, with the recent keys
+         int at = lowerBound (data.band, data.band.length, lo << SLOT_BITS);
+         int r = lowerBound (data.recentKeys, data.recentCount, lo << SLOT_BITS);
+         while (offers.size () < limit){
+            while (at < data.band.length && data.recent[(int) (data.band[at] & SLOT_MASK)])
+               at++;
+            boolean inBand = at < data.band.length && (data.band[at] >> SLOT_BITS) <= hi;
+            boolean inRecent = r < data.recentCount && (data.recentKeys[r] >> SLOT_BITS) <= hi;
+            long key;
+            if (inBand && (!inRecent || data.band[at] < data.recentKeys[r]))
+               key = data.band[at++];
+            else if (inRecent)
+               key = data.recentKeys[r++];
+            else
+               break;
+            offers.add (data.offer ((int) (key & SLOT_MASK)));
+         }//end while
+         return offers;
+      }finally{
+         this._lock.readLock ().unlock ();
+         this._latency.record (System.nanoTime () - start);
+      }//end try
+   }//end priceBand
+
+   //the first of the first n keys that is not below the given one
+   private static int lowerBound (long[] keys, int n, long key) {
+      int lo = 0;
+      int hi = n;
+      while (lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (keys[mid] < key)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end lowerBound
+
+   //a bound in whole cents, rounded into the band
+   private static long cents (BigDecimal cost, boolean low) {
+      return cost.movePointRight (2).setScale (0, low ? RoundingMode.CEILING : RoundingMode.FLOOR).longValue ();
+   }//end cents
+
+   private static String trim (String value) {
+      return value == null ? "" : value.trim ();
+   }//end trim
+
+   /**
+    * @return the number of offers indexed
+    */
+   public int size () {
+      this._lock.readLock ().lock ();
+      try{
+         return this._data.slots;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end size
+
+   @Override
+   public String toString () {
+      this._lock.readLock ().lock ();
+      try{
+         Data data = this._data;
+         return String.format ("Catalog index: %d supplier(s), %d part(s), %d offer(s), %d recent, loads: %d, rows refreshed: %d, lookups: %d, mean %.1f us, p99 %.1f us",
+            data.suppliers, data.parts, data.slots, data.recentCount, this._loads, this._changes, this._latency.count (),
+            this._latency.meanNanos () / 1e3, this._latency.percentileNanos (99) / 1e3);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end toString
+
+   /*
+    * Open-addressing map from long keys (ids, or supplier and part ids
+    * together) to numbers, without boxing.
+    */
+   private static final class IntMap {
+      private long[] _keys = new long[16];
+      private int[] _values = new int[16];
+      private boolean[] _used = new boolean[16];
+      private int _size = 0;
+
+      int get (long key) {
+         int mask = this._keys.length - 1;
+         for (int i = hash (key) & mask; this._used[i]; i = (i + 1) & mask)
+            if (this._keys[i] == key)
+               return this._values[i];
+         return -1;
+      }//end get
+
+      void put (long key, int value) {
+         if ((this._size + 1) * 2 > this._keys.length)
+            grow ();
+         int mask = this._keys.length - 1;
+         int i = hash (key) & mask;
+         while (this._used[i] && this._keys[i] != key)
+            i = (i + 1) & mask;
+         if (!this._used[i])
+            this._size++;
+         this._used[i] = true;
+         this._keys[i] = key;
+         this._values[i] = value;
+      }//end put
+
+      private void grow () {
+         long[] keys = this._keys;
+         int[] values = this._values;
+         boolean[] used = this._used;
+         this._keys = new long[keys.length * 2];
+         this._values = new int[keys.length * 2];
+         this._used = new boolean[keys.length * 2];
+         this._size = 0;
+         for (int i = 0; i < keys.length; i++)
+            if (used[i])
+               put (keys[i], values[i]);
+      }//end grow
+
+      private static int hash (long key) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int) (h ^ (h >>> 32));
+      }//end hash
+   }//end IntMap
+}//end CatalogIndex
@@ -11,26 +11,28 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.io.File;
-import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.List;
+
+import mechanicshop.jdbc.SqlExecutor;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
+ * work with PostgreSQL JDBC drivers.  Statements run through the shared
+ * SqlExecutor, so they are prepared once, bound with '?' parameters and
+ * counted in the query metrics like MechanicShop's.
  *
  */
 public class EmbeddedSQL {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pooled connections, prepared statements and query metrics
+   private SqlExecutor _sql = null;
+
+   // suppliers, parts and catalog in memory for the parts desk lookups
+   private CatalogIndex _catalog = null;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -54,9 +56,19 @@ public class EmbeddedSQL {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // opens the pool with its minimum number of physical connections
+         this._sql = SqlExecutor.fromSystemProperties(url, user, passwd, dbname);
          System.out.println("Done");
+
+         // the lookups fall back to SQL when the catalog cannot be loaded
+         this._catalog = new CatalogIndex(this._sql);
+         try{
+            this._catalog.refresh();
+            this._catalog.start(Long.getLong("embeddedsql.catalog.refreshMs", 5000L));
+         }catch (SQLException e){
+            System.err.println("Warning - catalog index not loaded: " + e.getMessage());
+            this._catalog = null;
+         }//end try
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -68,18 +80,13 @@ public class EmbeddedSQL {
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, with '?' for each parameter
+    * @param params the values bound to the '?' placeholders in order
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      return this._sql.executeUpdate (sql, params);
    }//end executeUpdate
 
    /**
@@ -87,55 +94,33 @@ public class EmbeddedSQL {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string, with '?' for each parameter
+    * @param params the values bound to the '?' placeholders in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
+   public int executeQuery (String query, Object... params) throws SQLException {
+      // streams the rows to standard out, header first
+      return this._sql.executeQueryAndPrintResult (query, params);
    }//end executeQuery
 
    /**
-    * Method to close the physical connection if it is open.
+    * @return the in-memory catalog, or null when it failed to load
+    */
+   public CatalogIndex catalog(){
+      return this._catalog;
+   }//end catalog
+
+   /**
+    * Method to close the pooled connections.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      if (this._catalog != null){
+         this._catalog.close ();
+      }//end if
+      if (this._sql != null){
+         this._sql.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -177,7 +162,10 @@ public class EmbeddedSQL {
             System.out.println("4. For every supplier that supplies green part and red part, print the name and the price of the most expensive part that he supplies"); 
             System.out.println("5. Find the name of parts with cost lower than $_____");
             System.out.println("6. Find the address of the suppliers who supply _____________ (pname)");
-            System.out.println("9. < EXIT");
+            System.out.println("7. Find the cheapest suppliers of part _____ (pid, or Enter for every part)");
+            System.out.println("8. Find the suppliers that supply every part of _____________ (pids)");
+            System.out.println("9. Find the catalog offers priced between $_____ and $_____");
+            System.out.println("10. < EXIT");
 
             switch (readChoice()){
                case 0: QueryExample(esql); break;
@@ -187,7 +175,10 @@ public class EmbeddedSQL {
                case 4: Query4(esql); break;
                case 5: Query5(esql); break;
                case 6: Query6(esql); break;
-               case 9: keepon = false; break;
+               case 7: CheapestSuppliers(esql); break;
+               case 8: CoveringSuppliers(esql); break;
+               case 9: PriceBand(esql); break;
+               case 10: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -236,12 +227,11 @@ public class EmbeddedSQL {
 
    public static void QueryExample(EmbeddedSQL esql){
       try{
-         String query = "SELECT * FROM Catalog WHERE cost < ";
+         String query = "SELECT * FROM Catalog WHERE cost < ?";
          System.out.print("\tEnter cost: $");
-         String input = in.readLine();
-         query += input;
+         BigDecimal cost = new BigDecimal(in.readLine().trim());
 
-         int rowCount = esql.executeQuery(query);
+         int rowCount = esql.executeQuery(query, cost);
          System.out.println ("total row(s): " + rowCount);
       }catch(Exception e){
          System.err.println (e.getMessage());
@@ -284,4 +274,93 @@ public class EmbeddedSQL {
       // ...
    }//end Query6
 
+   public static void CheapestSuppliers(EmbeddedSQL esql){
+      try{
+         System.out.print("\tEnter pid (Enter for every part): ");
+         String input = in.readLine().trim();
+         int rowCount = 0;
+         if (esql.catalog() == null){
+            rowCount = input.length() == 0
+               ? esql.executeQuery("SELECT DISTINCT ON (c.pid) c.pid, c.sid, s.sname, c.cost FROM catalog c JOIN suppliers s ON s.sid = c.sid ORDER BY c.pid, c.cost, c.sid")
+               : esql.executeQuery("SELECT c.pid, c.sid, s.sname, c.cost FROM catalog c JOIN suppliers s ON s.sid = c.sid WHERE c.pid = ? ORDER BY c.cost, c.sid LIMIT 10", Integer.parseInt(input));
+         }else{
+            List<CatalogIndex.Offer> offers = input.length() == 0
+               ? esql.catalog().cheapestPerPart()
+               : esql.catalog().cheapest(Integer.parseInt(input), 10);
+            System.out.println("pid\tsid\tsname\tcost\t");
+            for (CatalogIndex.Offer o : offers)
+               System.out.println(o.pid + "\t" + o.sid + "\t" + o.sname + "\t" + o.cost + "\t");
+            rowCount = offers.size();
+         }//end if
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end CheapestSuppliers
+
+   public static void CoveringSuppliers(EmbeddedSQL esql){
+      try{
+         System.out.print("\tEnter pids, comma separated: ");
+         String[] items = in.readLine().split(",");
+         int[] pids = new int[items.length];
+         for (int i = 0; i < items.length; i++)
+            pids[i] = Integer.parseInt(items[i].trim());
+         int rowCount = 0;
+         if (esql.catalog() == null){
+            StringBuilder query = new StringBuilder("SELECT c.sid, s.sname, sum(c.cost) AS total FROM catalog c JOIN suppliers s ON s.sid = c.sid WHERE c.pid IN (");
+            Object[] params = new Object[pids.length + 1];
+            for (int i = 0; i < pids.length; i++){
+               query.append(i == 0 ? "?" : ", ?");
+               params[i] = pids[i];
+            }//end for
+            query.append(") GROUP BY c.sid, s.sname HAVING count(DISTINCT c.pid) = ? ORDER BY total, c.sid");
+            params[pids.length] = (long) countDistinct(pids);
+            rowCount = esql.executeQuery(query.toString(), params);
+         }else{
+            List<CatalogIndex.Cover> covers = esql.catalog().covering(pids, Integer.MAX_VALUE);
+            System.out.println("sid\tsname\ttotal\t");
+            for (CatalogIndex.Cover c : covers)
+               System.out.println(c.sid + "\t" + c.sname + "\t" + c.total + "\t");
+            rowCount = covers.size();
+         }//end if
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end CoveringSuppliers
+
+   private static int countDistinct(int[] values){
+      int count = 0;
+      for (int i = 0; i < values.length; i++){
+         boolean seen = false;
+         for (int j = 0; j < i && !seen; j++)
+            seen = values[j] == values[i];
+         if (!seen)
+            count++;
+      }//end for
+      return count;
+   }//end countDistinct
+
+   public static void PriceBand(EmbeddedSQL esql){
+      try{
+         System.out.print("\tEnter lowest cost: $");
+         BigDecimal low = new BigDecimal(in.readLine().trim());
+         System.out.print("\tEnter highest cost: $");
+         BigDecimal high = new BigDecimal(in.readLine().trim());
+         int rowCount = 0;
+         if (esql.catalog() == null){
+            rowCount = esql.executeQuery("SELECT c.sid, c.pid, p.pname, c.cost FROM catalog c JOIN parts p ON p.pid = c.pid WHERE c.cost BETWEEN ? AND ? ORDER BY c.cost, c.sid, c.pid LIMIT 100", low, high);
+         }else{
+            List<CatalogIndex.Offer> offers = esql.catalog().priceBand(low, high, 100);
+            System.out.println("sid\tpid\tpname\tcost\t");
+            for (CatalogIndex.Offer o : offers)
+               System.out.println(o.sid + "\t" + o.pid + "\t" + o.pname + "\t" + o.cost + "\t");
+            rowCount = offers.size();
+         }//end if
+         System.out.println ("total row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end PriceBand
+
 }//end EmbeddedSQL
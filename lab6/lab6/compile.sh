@@ -1,15 +1,8 @@
 #!/bin/sh
-# Indicate the path of the java compiler to use
-export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
-export PATH=$JAVA_HOME/bin:$PATH
-
-# Export classpath with the postgressql driver
-export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
-
-# compile the java program
-javac EmbeddedSQL.java
+# Build target/embeddedsql.jar, with the shared JDBC library and the
+# postgresql driver, through the top-level Maven build
+mvn -q -B -f ../../pom.xml -pl lab6/lab6 -am package -DskipTests || exit 1
 
 #run the java program
 #Use your database name, port number and login
-java EmbeddedSQL $USER"_DB" $PGPORT $USER
-
+java $JAVA_OPTS -jar target/embeddedsql.jar $USER"_DB" $PGPORT $USER
@@ -0,0 +1,143 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the price band lookups of CatalogIndex, merging the sorted band
+ * with the offers whose cost changed since, on data filled in memory.
+ *
+ */
+public class CatalogIndexTest {
+
+   private CatalogIndex _index;
+   private CatalogIndex.Data _data;
+
+   //suppliers 1 to 3 offering parts 10 and 20, loaded and sorted like a full load
+   @Before
+   public void load () {
+      this._index = new CatalogIndex (null);
+      this._data = new CatalogIndex.Data ();
+      this._data.put (1, 10, 500, false);
+      this._data.put (2, 10, 300, false);
+      this._data.put (3, 10, 700, false);
+      this._data.put (1, 20, 150, false);
+      this._data.put (2, 20, 900, false);
+      this._data.sort (true);
+      this._index.replace (this._data);
+   }//end load
+
+   //the offers as "sid/pid@cost", cheapest first
+   private static String show (List<CatalogIndex.Offer> offers) {
+      StringBuilder out = new StringBuilder ();
+      for (CatalogIndex.Offer offer : offers)
+         out.append (out.length () > 0 ? " " : "").append (offer.sid).append ('/').append (offer.pid).append ('@').append (offer.cost);
+      return out.toString ();
+   }//end show
+
+   private List<CatalogIndex.Offer> band (String low, String high, int limit) {
+      return this._index.priceBand (new BigDecimal (low), new BigDecimal (high), limit);
+   }//end band
+
+   //the recent keys must stay sorted for the merge, one per changed offer
+   private void assertRecentSorted (int count) {
+      assertEquals (count, this._data.recentCount);
+      for (int i = 1; i < this._data.recentCount; i++)
+         assertTrue (this._data.recentKeys[i - 1] < this._data.recentKeys[i]);
+   }//end assertRecentSorted
+
+   @Test
+   public void bandListsTheSortedOffersWithinIt () {
+      assertEquals ("2/10@3.00 1/10@5.00 3/10@7.00", show (band ("3.00", "7.00", 10)));
+      assertEquals ("1/20@1.50 2/10@3.00", show (band ("0", "10", 2)));
+      assertEquals (0, this._data.recentCount);
+   }
+
+   @Test
+   public void boundsAreRoundedIntoTheBand () {
+      assertEquals ("1/10@5.00", show (band ("3.001", "6.999", 10)));
+      assertEquals ("", show (band ("7.00", "3.00", 10)));
+      assertEquals ("", show (band ("0", "10", 0)));
+   }
+
+   @Test
+   public void changedCostMovesTheOfferWithinTheBand () {
+      this._data.put (3, 10, 200, true);
+      assertRecentSorted (1);
+      assertEquals ("1/20@1.50 3/10@2.00 2/10@3.00 1/10@5.00 2/20@9.00", show (band ("0", "10", 10)));
+      //the stale key at 7.00 is skipped
+      assertEquals ("", show (band ("6.00", "8.00", 10)));
+   }
+
+   @Test
+   public void everyChangeKeepsOneRecentKeyPerOffer () {
+      this._data.put (1, 10, 800, true);
+      this._data.put (2, 20, 100, true);
+      this._data.put (1, 10, 250, true);
+      assertRecentSorted (2);
+      assertEquals ("2/20@1.00 1/20@1.50 1/10@2.50 2/10@3.00 3/10@7.00", show (band ("0", "10", 10)));
+      assertEquals ("1/10@2.50 2/10@3.00", show (band ("2.00", "5.00", 10)));
+   }
+
+   @Test
+   public void unchangedCostAddsNoRecentKey () {
+      this._data.put (1, 10, 500, true);
+      assertRecentSorted (0);
+   }
+
+   @Test
+   public void newOfferJoinsTheBand () {
+      this._data.put (3, 20, 600, true);
+      this._data.put (4, 30, 50, true);
+      assertRecentSorted (2);
+      assertEquals ("4/30@0.50 1/20@1.50", show (band ("0", "2", 10)));
+      assertEquals ("1/10@5.00 3/20@6.00 3/10@7.00", show (band ("5", "8", 10)));
+      assertEquals (7, this._index.size ());
+   }
+
+   @Test
+   public void limitStopsTheMergeEitherSide () {
+      this._data.put (2, 20, 400, true);
+      this._data.put (3, 10, 100, true);
+      assertEquals ("3/10@1.00", show (band ("0", "10", 1)));
+      assertEquals ("3/10@1.00 1/20@1.50 2/10@3.00", show (band ("0", "10", 3)));
+   }
+
+   @Test
+   public void sortingAgainEmptiesTheRecentKeysWithTheSameBand () {
+      this._data.put (3, 10, 200, true);
+      this._data.put (2, 20, 100, true);
+      String before = show (band ("0", "10", 10));
+      this._data.sort (false);
+      assertRecentSorted (0);
+      assertEquals (before, show (band ("0", "10", 10)));
+   }
+
+   @Test
+   public void equalCostsListInSlotOrder () {
+      this._data.put (3, 10, 300, true);
+      assertEquals ("2/10@3.00 3/10@3.00", show (band ("3", "3", 10)));
+   }
+
+   @Test
+   public void changedCostReordersThePartsOffers () {
+      this._data.put (3, 10, 100, true);
+      assertEquals ("3/10@1.00 2/10@3.00 1/10@5.00", show (this._index.cheapest (10, 10)));
+   }
+}//end CatalogIndexTest
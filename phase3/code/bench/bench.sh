@@ -0,0 +1,21 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: ./bench.sh $LOGNAME"_bench" 5432 $USER
+# Runs against the server started by scripts/startPostgreSQL.sh.  The
+# benchmark database is dropped and reseeded whenever the scale changes,
+# so never point it at a database you care about.
+# Scale factors go through SCALES, extra JMH options after the user,
+# e.g. SCALES=1,10 ./bench.sh $LOGNAME"_bench" 5432 $USER -f 1 ".*SingleThreaded.*"
+createdb -h /tmp/$LOGNAME/sockets $DBNAME 2>/dev/null
+
+# builds the application and the JDBC library first, through the top-level Maven build
+mvn -q -B -f ../../../pom.xml -pl phase3/code/bench -am package -DskipTests || exit 1
+
+java -jar target/benchmarks.jar \
+	-rf json -rff results.json \
+	-p scale=${SCALES:-1,10,100} \
+	-jvmArgsAppend "-Dbench.db=$DBNAME -Dbench.port=$PORT -Dbench.user=$USER -Dbench.data=../data -Dbench.schema=../sql/create.sql" \
+	"${@:4}"
@@ -0,0 +1,229 @@
+package mechanicshop.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mechanicshop.BulkLoader;
+import mechanicshop.jdbc.ConnectionPool;
+
+/**
+ * Seeds the benchmark database from the phase3 CSVs at a given scale
+ * factor.  Every copy of the base data gets its ids shifted past the
+ * previous copy and its VINs prefixed with the copy number, so a scale of
+ * 10 holds ten disjoint copies of the sample shop.  The database is only
+ * reset when the requested scale differs from the one already seeded.
+ *
+ */
+public class BenchmarkDatabase {
+
+	//id columns shifted per copy, by table: column index -> id space
+	private static final String CUSTOMER = "customer";
+	private static final String MECHANIC = "mechanic";
+	private static final String OWNERSHIP = "ownership";
+	private static final String REQUEST = "request";
+	private static final String WORK = "work";
+	private static final String VIN = "vin";
+
+	private static final String[][] LAYOUT = {
+		/* customer.csv */        {CUSTOMER, null, null, null, null},
+		/* mechanic.csv */        {MECHANIC, null, null, null},
+		/* car.csv */             {VIN, null, null, null},
+		/* owns.csv */            {OWNERSHIP, CUSTOMER, VIN},
+		/* service_request.csv */ {REQUEST, CUSTOMER, VIN, null, null, null},
+		/* closed_request.csv */  {WORK, REQUEST, MECHANIC, null, null, null},
+	};
+	private static final String[] FILES = {
+		"customer.csv", "mechanic.csv", "car.csv", "owns.csv", "service_request.csv", "closed_request.csv",
+	};
+	//the id space whose largest value each file defines
+	private static final String[] OWNER = {CUSTOMER, MECHANIC, null, OWNERSHIP, REQUEST, WORK};
+
+	/**
+	 * Method to make sure the database holds the sample data at the given
+	 * scale, reseeding it from scratch when it does not.
+	 *
+	 * @param url the JDBC connection URL of the benchmark database
+	 * @param user the database user
+	 * @param dataDir the directory holding the phase3 CSVs
+	 * @param schema the create.sql script
+	 * @param scale the number of copies of the sample data
+	 * @throws Exception when seeding failed
+	 */
+	public static void seed(String url, String user, File dataDir, File schema, int scale) throws Exception {
+		try (Connection connection = DriverManager.getConnection(url, user, "")){
+			if (seededScale(connection) == scale)
+				return;
+			System.err.println("Seeding benchmark database at scale " + scale);
+			try (Statement stmt = connection.createStatement()){
+				stmt.execute("DROP SCHEMA public CASCADE");
+				stmt.execute("CREATE SCHEMA public");
+				for (String sql : schemaStatements(schema))
+					stmt.execute(sql);
+			}
+		}
+
+		File scaled = Files.createTempDirectory("mechanicshop-bench").toFile();
+		try{
+			writeScaledCopies(dataDir, scaled, scale);
+			ConnectionPool pool = new ConnectionPool(url, user, "", 1, 1, 30000L, 600000L, 5000L, 0L, 16);
+			try{
+				new BulkLoader(pool, 10000, Runtime.getRuntime().availableProcessors(), true, 0L)
+					.loadAll(scaled, Collections.<String>emptyList());
+			}finally{
+				pool.close();
+			}
+		}finally{
+			for (File f : scaled.listFiles())
+				f.delete();
+			scaled.delete();
+		}
+
+		try (Connection connection = DriverManager.getConnection(url, user, "");
+				Statement stmt = connection.createStatement()){
+			stmt.execute("ANALYZE");
+			stmt.execute("CREATE TABLE Bench_Seed (scale INTEGER NOT NULL)");
+			stmt.execute("INSERT INTO Bench_Seed VALUES (" + scale + ")");
+		}
+	}//end seed
+
+	private static int seededScale(Connection connection) {
+		try (Statement stmt = connection.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT scale FROM Bench_Seed")){
+			return rs.next() ? rs.getInt(1) : -1;
+		}catch (SQLException e){
+			return -1;
+		}
+	}//end seededScale
+
+	//create.sql without its COPY statements, which read server-side files
+	private static List<String> schemaStatements(File schema) throws IOException {
+		String script = new String(Files.readAllBytes(schema.toPath()), StandardCharsets.UTF_8);
+		List<String> statements = new ArrayList<String>();
+		for (String piece : split(script)){
+			StringBuilder sql = new StringBuilder();
+			for (String line : piece.split("\n")){
+				String trimmed = line.trim();
+				if (!trimmed.isEmpty() && !trimmed.startsWith("--"))
+					sql.append(line).append('\n');
+			}
+			String statement = sql.toString().trim();
+			if (!statement.isEmpty() && !statement.regionMatches(true, 0, "COPY", 0, 4))
+				statements.add(statement);
+		}
+		return statements;
+	}//end schemaStatements
+
+	//the script cut at the semicolons outside quotes, comments and $tag$ bodies such as plpgsql functions
+	static List<String> split(String script) {
+		List<String> pieces = new ArrayList<String>();
+		int start = 0;
+		int i = 0;
+		while (i < script.length()){
+			char c = script.charAt(i);
+			if (c == '-' && script.startsWith("--", i)){
+				int end = script.indexOf('\n', i);
+				i = end < 0 ? script.length() : end;
+			}else if (c == '\''){
+				int end = script.indexOf('\'', i + 1);
+				i = end < 0 ? script.length() : end + 1;
+			}else if (c == '$' && dollarTag(script, i) != null){
+				String tag = dollarTag(script, i);
+				int end = script.indexOf(tag, i + tag.length());
+				i = end < 0 ? script.length() : end + tag.length();
+			}else if (c == ';'){
+				pieces.add(script.substring(start, i));
+				start = ++i;
+			}else{
+				++i;
+			}
+		}
+		pieces.add(script.substring(start));
+		return pieces;
+	}//end split
+
+	//the $tag$ opening a dollar-quoted string at i, or null
+	private static String dollarTag(String script, int i) {
+		int j = i + 1;
+		while (j < script.length() && (Character.isLetterOrDigit(script.charAt(j)) || script.charAt(j) == '_'))
+			++j;
+		if (j >= script.length() || script.charAt(j) != '$' || (j > i + 1 && Character.isDigit(script.charAt(i + 1))))
+			return null;
+		return script.substring(i, j + 1);
+	}//end dollarTag
+
+	/**
+	 * Method to write 'scale' disjoint copies of every CSV into a directory.
+	 *
+	 * @param from the directory holding the sample CSVs
+	 * @param to the directory the scaled CSVs are written to
+	 * @param scale the number of copies
+	 * @throws IOException when a file cannot be read or written
+	 */
+	static void writeScaledCopies(File from, File to, int scale) throws IOException {
+		if (scale < 1 || scale > 999)
+			throw new IllegalArgumentException("scale must be between 1 and 999: " + scale);
+		Map<String, Integer> offsets = new HashMap<String, Integer>();
+		for (int f = 0; f < FILES.length; ++f){
+			if (OWNER[f] != null)
+				offsets.put(OWNER[f], maxId(new File(from, FILES[f])) + 1);
+		}
+
+		for (int f = 0; f < FILES.length; ++f){
+			String[] layout = LAYOUT[f];
+			try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(to, FILES[f])), StandardCharsets.UTF_8), 1 << 16)){
+				for (int copy = 0; copy < scale; ++copy){
+					try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(from, FILES[f])), StandardCharsets.UTF_8))){
+						String line;
+						while ((line = in.readLine()) != null){
+							if (line.isEmpty())
+								continue;
+							String[] fields = line.split(",", -1);
+							for (int c = 0; c < layout.length && c < fields.length; ++c){
+								if (layout[c] == null || copy == 0)
+									continue;
+								if (VIN.equals(layout[c]))
+									fields[c] = String.format("%03d", copy) + fields[c].substring(Math.min(3, fields[c].length()));
+								else
+									fields[c] = Integer.toString(Integer.parseInt(fields[c].trim()) + copy * offsets.get(layout[c]));
+							}
+							out.write(String.join(",", fields));
+							out.write('\n');
+						}
+					}
+				}
+			}
+		}
+	}//end writeScaledCopies
+
+	private static int maxId(File csv) throws IOException {
+		int max = 0;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8))){
+			String line;
+			while ((line = in.readLine()) != null){
+				if (line.isEmpty())
+					continue;
+				int comma = line.indexOf(',');
+				max = Math.max(max, Integer.parseInt(line.substring(0, comma).trim()));
+			}
+		}
+		return max;
+	}//end maxId
+}//end BenchmarkDatabase
@@ -0,0 +1,120 @@
+package mechanicshop.bench;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mechanicshop.MechanicShop;
+import mechanicshop.TopCars;
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+
+/**
+ * Benchmarks for the ten menu operations and the executeQuery* helpers.
+ * Throughput mode reports operations per millisecond and sample-time mode
+ * reports the latency distribution (p50 through p99.99) of each one.  The
+ * subclasses fix the thread count; the operations themselves live here.
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public abstract class MenuOperations {
+
+	//reads the first column of every row so the result is really fetched
+	private static RowHandler consume(final Blackhole bh) {
+		return new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				bh.consume(row.getString(1));
+			}
+		};
+	}
+
+	@Benchmark
+	public void addCustomer(ShopState s) throws SQLException {//1
+		MechanicShop.addCustomer(s.esql, "Bench", "Customer", "(951)555-0100", "900 University Ave. Riverside");
+	}
+
+	@Benchmark
+	public void addMechanic(ShopState s) throws SQLException {//2
+		MechanicShop.addMechanic(s.esql, "Bench", "Mechanic", 5);
+	}
+
+	@Benchmark
+	public void addCar(ShopState s) throws SQLException {//3
+		int ownership = s.randomOwnership();
+		MechanicShop.addCar(s.esql, s.nextVin(), "Toyota", "Prius", 2012, s.ownerId(ownership));
+	}
+
+	@Benchmark
+	public void insertServiceRequest(ShopState s) throws SQLException {//4
+		int ownership = s.randomOwnership();
+		MechanicShop.insertServiceRequest(s.esql, s.ownerId(ownership), s.ownedVin(ownership), "2016-10-17", 120000, "Burns too much gas");
+	}
+
+	@Benchmark
+	public boolean closeServiceRequest(ShopState s) throws SQLException {//5
+		return MechanicShop.closeServiceRequest(s.esql, s.randomRequest(), s.randomMechanic(), "2017-01-01", "Changed the oil", 120);
+	}
+
+	@Benchmark
+	public int listCustomersWithBillLessThan100(ShopState s, Blackhole bh) throws SQLException {//6
+		return MechanicShop.listCustomersWithBillLessThan100(s.esql, consume(bh));
+	}
+
+	@Benchmark
+	public int listCustomersWithMoreThan20Cars(ShopState s, Blackhole bh) throws SQLException {//7
+		return MechanicShop.listCustomersWithMoreThan20Cars(s.esql, consume(bh));
+	}
+
+	@Benchmark
+	public int listCarsBefore1995With50000Milles(ShopState s, Blackhole bh) throws SQLException {//8
+		return MechanicShop.listCarsBefore1995With50000Milles(s.esql, consume(bh));
+	}
+
+	@Benchmark
+	public List<TopCars.Entry> listKCarsWithTheMostServices(ShopState s) throws SQLException {//9
+		return MechanicShop.listKCarsWithTheMostServices(s.esql, 10);
+	}
+
+	@Benchmark
+	public int listCustomersInDescendingOrderOfTheirTotalBill(ShopState s, Blackhole bh) throws SQLException {//10
+		return MechanicShop.listCustomersInDescendingOrderOfTheirTotalBill(s.esql, consume(bh));
+	}
+
+	@Benchmark
+	public int executeQuery(ShopState s) throws SQLException {
+		return s.esql.executeQuery("SELECT Mechanic.id FROM Mechanic WHERE Mechanic.id = ?", s.randomMechanic());
+	}
+
+	@Benchmark
+	public List<List<String>> executeQueryAndReturnResult(ShopState s) throws SQLException {
+		return s.esql.executeQueryAndReturnResult("SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request WHERE customer_id = ?", s.ownerId(s.randomOwnership()));
+	}
+
+	@Benchmark
+	public int executeQueryAndPrintResult(ShopState s) throws SQLException {
+		return s.esql.executeQueryAndPrintResult("SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request WHERE customer_id = ?", s.ownerId(s.randomOwnership()));
+	}
+
+	@Benchmark
+	public int executeQueryAndStream(ShopState s, Blackhole bh) throws SQLException {
+		return s.esql.executeQueryAndStream("SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request WHERE customer_id = ?", consume(bh), s.ownerId(s.randomOwnership()));
+	}
+
+	@Benchmark
+	public int executeUpdate(ShopState s) throws SQLException {
+		return s.esql.executeUpdate("UPDATE Mechanic SET experience = experience WHERE id = ?", s.randomMechanic());
+	}
+}//end MenuOperations
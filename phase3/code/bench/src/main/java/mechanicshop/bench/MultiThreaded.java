@@ -0,0 +1,11 @@
+package mechanicshop.bench;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs every MenuOperations benchmark from one thread per core, all sharing
+ * one MechanicShop and its connection pool.
+ */
+@Threads(Threads.MAX)
+public class MultiThreaded extends MenuOperations {
+}
@@ -0,0 +1,128 @@
+package mechanicshop.bench;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import mechanicshop.MechanicShop;
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMappers;
+
+/**
+ * One MechanicShop instance shared by every benchmark thread, connected to
+ * a database seeded at the 'scale' parameter.  Connection settings come
+ * from the bench.* system properties passed by bench.sh.  Inserted rows
+ * get their ids from the MechanicShop id allocator, like the menu; new
+ * VINs come from a counter so that concurrent threads never collide, and
+ * it starts past the BENCH VINs earlier trials left in the database.
+ *
+ */
+@State(Scope.Benchmark)
+public class ShopState {
+
+	@Param({"1", "10", "100"})
+	public int scale;
+
+	public MechanicShop esql;
+
+	//existing (customer id, vin) ownership pairs and mechanic ids to draw from
+	private int[] ownerIds;
+	private String[] ownedVins;
+	private int[] mechanicIds;
+	private int[] requestIds;
+
+	private final AtomicInteger nextVin = new AtomicInteger();
+
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		String db = System.getProperty("bench.db");
+		String port = System.getProperty("bench.port", "5432");
+		String user = System.getProperty("bench.user", System.getProperty("user.name"));
+		if (db == null)
+			throw new IllegalStateException("set -Dbench.db to a scratch database, it is dropped and reseeded");
+		String url = "jdbc:postgresql://localhost:" + port + "/" + db;
+
+		Class.forName("org.postgresql.Driver");
+		BenchmarkDatabase.seed(url, user, new File(System.getProperty("bench.data", "../data")),
+			new File(System.getProperty("bench.schema", "../sql/create.sql")), this.scale);
+
+		//enough connections for every benchmark thread
+		if (System.getProperty("mechanicshop.pool.maxSize") == null)
+			System.setProperty("mechanicshop.pool.maxSize", Integer.toString(Math.max(8, Runtime.getRuntime().availableProcessors())));
+
+		//the printing helpers and connection messages would otherwise flood the run log
+		this.stdout = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {}
+			public void write(byte[] b, int off, int len) {}
+		}));
+		this.esql = new MechanicShop(db, port, user, "");
+
+		final List<Integer> owners = new ArrayList<Integer>();
+		final List<String> vins = new ArrayList<String>();
+		this.esql.executeQueryAndStream("SELECT customer_id, car_vin FROM Owns", new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				owners.add(row.getInt(1));
+				vins.add(row.getString(2));
+			}
+		});
+		this.ownerIds = toArray(owners);
+		this.ownedVins = vins.toArray(new String[vins.size()]);
+		this.mechanicIds = ids("SELECT id FROM Mechanic");
+		this.requestIds = ids("SELECT rid FROM Service_Request");
+		//the database keeps the cars of earlier trials while the scale stays the same
+		this.nextVin.set(this.esql.queryForObject(
+			"SELECT COALESCE(MAX(CAST(substr(vin, 6, 11) AS INTEGER)), -1) + 1 FROM Car WHERE vin LIKE 'BENCH%'", RowMappers.INT));
+	}//end setup
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (this.esql != null)
+			this.esql.cleanup();
+		if (this.stdout != null)
+			System.setOut(this.stdout);
+	}//end tearDown
+
+	/** @return a 16 character VIN no seeded or previously inserted car uses */
+	public String nextVin() { return String.format("BENCH%011d", this.nextVin.getAndIncrement()); }
+
+	/** @return the index of a random existing ownership */
+	public int randomOwnership() { return ThreadLocalRandom.current().nextInt(this.ownerIds.length); }
+	public int ownerId(int ownership) { return this.ownerIds[ownership]; }
+	public String ownedVin(int ownership) { return this.ownedVins[ownership]; }
+
+	public int randomMechanic() { return this.mechanicIds[ThreadLocalRandom.current().nextInt(this.mechanicIds.length)]; }
+	public int randomRequest() { return this.requestIds[ThreadLocalRandom.current().nextInt(this.requestIds.length)]; }
+
+	private int[] ids(String query) throws SQLException {
+		final List<Integer> ids = new ArrayList<Integer>();
+		this.esql.executeQueryAndStream(query, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				ids.add(row.getInt(1));
+			}
+		});
+		return toArray(ids);
+	}//end ids
+
+	private static int[] toArray(List<Integer> values) {
+		int[] result = new int[values.size()];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = values.get(i);
+		return result;
+	}//end toArray
+}//end ShopState
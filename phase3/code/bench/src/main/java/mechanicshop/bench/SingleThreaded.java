@@ -0,0 +1,10 @@
+package mechanicshop.bench;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs every MenuOperations benchmark from a single thread.
+ */
+@Threads(1)
+public class SingleThreaded extends MenuOperations {
+}
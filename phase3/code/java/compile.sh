@@ -1,3 +1,3 @@
 #! /bin/bash
-rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/MechanicShop.java -d bin/
+# Builds target/mechanicshop.jar, with the JDBC library and the driver, through the top-level Maven build
+mvn -q -B -f ../../../pom.xml -pl phase3/code/java -am package -DskipTests
@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+DATADIR=${4:-../data}
+
+# Example: ./load.sh flightDB 5432 user ../data
+# Tuning flags go through JAVA_OPTS, e.g. JAVA_OPTS="-Dmechanicshop.load.batchSize=50000"
+java $JAVA_OPTS -cp target/mechanicshop.jar mechanicshop.BulkLoader $DBNAME $PORT $USER $DATADIR "${@:5}"
@@ -4,4 +4,6 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+#          ./run.sh flightDB 5432 user batch feed.csv   (or - to read stdin)
+# Tuning flags go through JAVA_OPTS, e.g. JAVA_OPTS="-Dmechanicshop.stats=true"
+java $JAVA_OPTS -cp target/mechanicshop.jar mechanicshop.MechanicShop $DBNAME $PORT $USER "${@:4}"
@@ -0,0 +1,760 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import mechanicshop.jdbc.Row;
+
+/**
+ * This class keeps Customer, Car, Owns, Service_Request and Closed_Request
+ * in memory as columns of primitive arrays and answers reports 6 to 10 by
+ * scanning them, split across cores, instead of querying PostgreSQL.
+ * Strings are dictionary-encoded (one int code per value), dates are
+ * stored as days since 1970-01-01, and references between tables are
+ * resolved at load time to row numbers, so a report is a few tight loops
+ * over int arrays.
+ *
+ * The shop only ever inserts into these tables, so a refresh reads just
+ * the rows written since the previous one, through their primary keys:
+ * the ids above the highest one loaded plus those in the gaps below it
+ * (see KeyRanges), since ids are handed out in blocks and not committed in
+ * order; gaps nothing can fill any more are closed as KeyRanges.read()
+ * describes.  Rows whose parent row is not
+ * loaded yet are left out of the loaded ids, so their key is probed again
+ * with the gaps.  Cars are only used through their requests, so each car
+ * is loaded with the first request that names it.
+ *
+ * Reports see the data as of the last completed refresh.  One thread
+ * refreshes; readers use the arrays and row counts published at the end of
+ * a refresh, which later refreshes only append past.
+ *
+ */
+public class AnalyticsSnapshot {
+
+	//growable int column, appended by the refreshing thread only
+	static final class Ints {
+		int[] values = new int[1024];
+		int size = 0;
+
+		void add(int value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = value;
+		}
+	}//end Ints
+
+	//int to int map with open addressing, for keys to row numbers; -1 when absent
+	static final class IntIndex {
+		private int[] keys = new int[2048];
+		private int[] rows = new int[2048];
+		private boolean[] used = new boolean[2048];
+		private int size = 0;
+
+		int get(int key) {
+			int mask = this.keys.length - 1;
+			for (int i = mix(key) & mask; this.used[i]; i = (i + 1) & mask)
+				if (this.keys[i] == key)
+					return this.rows[i];
+			return -1;
+		}//end get
+
+		void put(int key, int row) {
+			if ((this.size + 1) * 2 > this.keys.length)
+				grow();
+			int mask = this.keys.length - 1;
+			int i = mix(key) & mask;
+			while (this.used[i] && this.keys[i] != key)
+				i = (i + 1) & mask;
+			if (!this.used[i])
+				this.size++;
+			this.used[i] = true;
+			this.keys[i] = key;
+			this.rows[i] = row;
+		}//end put
+
+		private void grow() {
+			int[] keys = this.keys, rows = this.rows;
+			boolean[] used = this.used;
+			this.keys = new int[keys.length * 2];
+			this.rows = new int[keys.length * 2];
+			this.used = new boolean[keys.length * 2];
+			this.size = 0;
+			for (int i = 0; i < keys.length; i++)
+				if (used[i])
+					put(keys[i], rows[i]);
+		}//end grow
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}//end IntIndex
+
+	//one dictionary for every string column
+	static final class Dictionary {
+		String[] values = new String[1024];
+		int size = 0;
+		private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+
+		int code(String value) {
+			Integer code = this._codes.get(value);
+			if (code != null)
+				return code;
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size] = value;
+			this._codes.put(value, this.size);
+			return this.size++;
+		}//end code
+	}//end Dictionary
+
+	/**
+	 * The columns as of one refresh.  Arrays may be longer than the row
+	 * counts; readers never look past the counts.
+	 */
+	static final class State {
+		final long refreshedAt;
+		final int customers, cars, owns, requests, closings;
+		final String[] words;
+		final int[] customerFname, customerLname;
+		final int[] carVin, carMake, carModel, carYear;
+		final int[] ownsCustomer;
+		final int[] requestCustomer, requestCar, requestDate, requestOdometer;
+		final int[] closingCustomer, closingDate, closingComment, closingBill;
+
+		State(AnalyticsSnapshot s, long refreshedAt) {
+			this.refreshedAt = refreshedAt;
+			this.words = s._words.values;
+			this.customers = s._customerFname.size;
+			this.customerFname = s._customerFname.values;
+			this.customerLname = s._customerLname.values;
+			this.cars = s._carVin.size;
+			this.carVin = s._carVin.values;
+			this.carMake = s._carMake.values;
+			this.carModel = s._carModel.values;
+			this.carYear = s._carYear.values;
+			this.owns = s._ownsCustomer.size;
+			this.ownsCustomer = s._ownsCustomer.values;
+			this.requests = s._requestCar.size;
+			this.requestCustomer = s._requestCustomer.values;
+			this.requestCar = s._requestCar.values;
+			this.requestDate = s._requestDate.values;
+			this.requestOdometer = s._requestOdometer.values;
+			this.closings = s._closingBill.size;
+			this.closingCustomer = s._closingCustomer.values;
+			this.closingDate = s._closingDate.values;
+			this.closingComment = s._closingComment.values;
+			this.closingBill = s._closingBill.values;
+		}//end State
+
+		String word(int code) {
+			return this.words[code];
+		}
+	}//end State
+
+	/**
+	 * A report answered from the snapshot.
+	 */
+	public static class Result {
+		public final String[] columns;
+		public final List<String[]> rows;
+		//when the data was read from the database, in milliseconds since the epoch
+		public final long asOf;
+
+		Result(String[] columns, List<String[]> rows, long asOf) {
+			this.columns = columns;
+			this.rows = rows;
+			this.asOf = asOf;
+		}
+	}//end Result
+
+	//the rows of [from, to) one worker scans
+	interface RangeScan {
+		void scan(int part, int from, int to);
+	}
+
+	//fewer rows than this are scanned on the calling thread
+	static final int PARALLEL_ROWS = 1 << 16;
+
+	//the rows outside the loaded ids, key first; see KeyRanges.unseen
+	static final String CUSTOMERS = KeyRanges.unseen("SELECT C.id, C.fname, C.lname FROM %1$s Customer C WHERE %2$s", "C.id");
+	static final String OWNS = KeyRanges.unseen("SELECT O.ownership_id, O.customer_id FROM %1$s Owns O WHERE %2$s", "O.ownership_id");
+	static final String REQUESTS = KeyRanges.unseen("SELECT SR.rid, SR.customer_id, SR.car_vin, CAST(SR.date - DATE '1970-01-01' AS INTEGER), SR.odometer, "
+		+ "C.make, C.model, C.year FROM %1$s Service_Request SR JOIN Car C ON C.vin = SR.car_vin WHERE %2$s", "SR.rid");
+	static final String CLOSINGS = KeyRanges.unseen("SELECT CR.wid, CR.rid, CAST(CR.date - DATE '1970-01-01' AS INTEGER), CR.comment, CR.bill "
+		+ "FROM %1$s Closed_Request CR WHERE %2$s", "CR.wid");
+
+	private final MechanicShop _esql;
+	private final ForkJoinPool _workers;
+	private final int _parallelism;
+	private ScheduledExecutorService _refresher;
+
+	//written by the refreshing thread only, under the lock of this object
+	private final Dictionary _words = new Dictionary();
+	private final IntIndex _customerRows = new IntIndex();
+	private final Ints _customerFname = new Ints(), _customerLname = new Ints();
+	private final Map<String, Integer> _carRows = new HashMap<String, Integer>();
+	private final Ints _carVin = new Ints(), _carMake = new Ints(), _carModel = new Ints(), _carYear = new Ints();
+	private final Ints _ownsCustomer = new Ints();
+	private final IntIndex _requestRows = new IntIndex();
+	private final Ints _requestCustomer = new Ints(), _requestCar = new Ints(), _requestDate = new Ints(), _requestOdometer = new Ints();
+	private final Ints _closingCustomer = new Ints(), _closingDate = new Ints(), _closingComment = new Ints(), _closingBill = new Ints();
+	//the ids of each table already loaded
+	private final KeyRanges _customers = new KeyRanges(), _owns = new KeyRanges(), _requests = new KeyRanges(), _closings = new KeyRanges();
+	private long _refreshes = 0;
+	private long _lastRefreshNanos = 0;
+	private long _lastRefreshRows = 0;
+
+	private volatile State _state = new State(this, 0);
+
+	/**
+	 * Creates an empty snapshot; refresh() loads it.
+	 *
+	 * @param esql the MechanicShop whose connections read the tables
+	 * @param parallelism the number of threads scanning the columns
+	 */
+	public AnalyticsSnapshot(MechanicShop esql, int parallelism) {
+		this._esql = esql;
+		this._parallelism = Math.max(1, parallelism);
+		this._workers = new ForkJoinPool(this._parallelism);
+	}
+
+	/**
+	 * Method to read the rows inserted since the last refresh, all of them
+	 * the first time, and publish them to the reports.
+	 *
+	 * @return the number of new rows
+	 * @throws java.sql.SQLException when a table could not be read; what was read is kept
+	 *         and read again next time
+	 */
+	public synchronized long refresh() throws SQLException {
+		long start = System.nanoTime();
+		long[] txids = this._esql.queryForObject(KeyRanges.SNAPSHOT, KeyRanges.TXIDS);
+		long rows = 0;
+
+		rows += this._customers.read(this._esql, CUSTOMERS, txids, new KeyRanges.KeyedRow() {
+			public boolean load(Row row) throws SQLException {
+				_customerRows.put(row.getInt(1), _customerFname.size);
+				_customerFname.add(_words.code(row.getString(2)));
+				_customerLname.add(_words.code(row.getString(3)));
+				return true;
+			}
+		});
+		rows += this._owns.read(this._esql, OWNS, txids, new KeyRanges.KeyedRow() {
+			public boolean load(Row row) throws SQLException {
+				int customer = _customerRows.get(row.getInt(2));
+				if (customer < 0)
+					return false;
+				_ownsCustomer.add(customer);
+				return true;
+			}
+		});
+		rows += this._requests.read(this._esql, REQUESTS, txids, new KeyRanges.KeyedRow() {
+			public boolean load(Row row) throws SQLException {
+				int customer = _customerRows.get(row.getInt(2));
+				if (customer < 0)
+					return false;
+				String vin = row.getString(3);
+				Integer car = _carRows.get(vin);
+				if (car == null){
+					car = _carVin.size;
+					_carRows.put(vin, car);
+					_carVin.add(_words.code(vin));
+					_carMake.add(_words.code(row.getString(6)));
+					_carModel.add(_words.code(row.getString(7)));
+					_carYear.add(row.getInt(8));
+				}//end if
+				_requestRows.put(row.getInt(1), _requestCar.size);
+				_requestCustomer.add(customer);
+				_requestCar.add(car);
+				_requestDate.add(row.getInt(4));
+				_requestOdometer.add(row.getInt(5));
+				return true;
+			}
+		});
+		rows += this._closings.read(this._esql, CLOSINGS, txids, new KeyRanges.KeyedRow() {
+			public boolean load(Row row) throws SQLException {
+				int request = _requestRows.get(row.getInt(2));
+				if (request < 0)
+					return false;
+				_closingCustomer.add(_requestCustomer.values[request]);
+				_closingDate.add(row.getInt(3));
+				String comment = row.getString(4);
+				_closingComment.add(_words.code(comment == null ? "" : comment));
+				_closingBill.add(row.getInt(5));
+				return true;
+			}
+		});
+
+		this._state = new State(this, System.currentTimeMillis());
+		this._refreshes++;
+		this._lastRefreshNanos = System.nanoTime() - start;
+		this._lastRefreshRows = rows;
+		return rows;
+	}//end refresh
+
+	/**
+	 * Method to refresh the snapshot every interval while the program runs.
+	 *
+	 * @param intervalMillis the pause between refreshes
+	 */
+	public synchronized void start(long intervalMillis) {
+		if (this._refresher != null)
+			return;
+		this._refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "analytics-refresh");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._refresher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try{
+					refresh();
+				}catch (SQLException e){
+					System.err.println("Warning - analytics refresh failed: " + e.getMessage());
+				}//end try
+			}
+		}, intervalMillis, Math.max(100, intervalMillis), TimeUnit.MILLISECONDS);
+	}//end start
+
+	public synchronized void close() {
+		if (this._refresher != null)
+			this._refresher.shutdownNow();
+		this._refresher = null;
+		this._workers.shutdownNow();
+	}//end close
+
+	private int parts(int rows) {
+		return rows < PARALLEL_ROWS ? 1 : this._parallelism;
+	}
+
+	//runs body over [0, rows) in 'parts' ranges at once, returning when all are done
+	private void scan(int rows, int parts, final RangeScan body) {
+		if (parts == 1){
+			body.scan(0, 0, rows);
+			return;
+		}//end if
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(parts);
+		for (int p = 0; p < parts; p++){
+			final int part = p;
+			final int from = (int) ((long) rows * p / parts);
+			final int to = (int) ((long) rows * (p + 1) / parts);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					body.scan(part, from, to);
+					return null;
+				}
+			});
+		}//end for
+		try{
+			for (Future<Void> done : this._workers.invokeAll(tasks))
+				done.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while scanning the snapshot", e);
+		}catch (ExecutionException e){
+			throw new IllegalStateException("snapshot scan failed", e.getCause());
+		}//end try
+	}//end scan
+
+	//sums per-worker counters into the first one
+	private static int[] merge(int[][] counts) {
+		int[] total = counts[0];
+		for (int p = 1; p < counts.length; p++)
+			for (int i = 0; i < total.length; i++)
+				total[i] += counts[p][i];
+		return total;
+	}//end merge
+
+	static int epochDay(String date, int unbounded) {
+		return date == null || date.trim().length() == 0 ? unbounded : (int) LocalDate.parse(date.trim()).toEpochDay();
+	}
+
+	/**
+	 * Report 6: the closings billed under the limit, closed in [from, to).
+	 *
+	 * @param from the first closing date, YYYY-MM-DD; null or blank for no start
+	 * @param to the day after the last closing date; null or blank for no end
+	 */
+	public Result billLessThan(int limit, String from, String to) {
+		State s = this._state;
+		ClosingScan scan = scanClosings(s, new Bounds(limit, from, to), false);
+		return billLessThanRows(s, scan.matches);
+	}//end billLessThan
+
+	/**
+	 * Report 7: the customers owning more than 'cars' cars.
+	 */
+	public Result customersWithMoreThan(int cars) {
+		State s = this._state;
+		return customersWithMoreThanRows(s, scanOwns(s), cars);
+	}//end customersWithMoreThan
+
+	/**
+	 * Report 8: the cars made before 'year' with a request under 'miles',
+	 * one row per request, requested in [from, to).
+	 *
+	 * @param from the first request date, YYYY-MM-DD; null or blank for no start
+	 * @param to the day after the last request date; null or blank for no end
+	 */
+	public Result carsBefore(int year, int miles, String from, String to) {
+		State s = this._state;
+		RequestScan scan = scanRequests(s, new Bounds(miles, from, to), year, false);
+		return carsBeforeRows(s, scan.matches);
+	}//end carsBefore
+
+	/**
+	 * Report 9: the k cars with the most service requests.
+	 */
+	public List<TopCars.Entry> topCars(int k) {
+		State s = this._state;
+		return topCarsRows(s, scanRequests(s, null, 0, true).counts, k);
+	}//end topCars
+
+	/**
+	 * Report 10: the customers with closed requests, by total bill, highest first.
+	 */
+	public Result customersByTotalBill() {
+		State s = this._state;
+		ClosingScan scan = scanClosings(s, null, true);
+		return customersByTotalBillRows(s, scan.sums, scan.counts);
+	}//end customersByTotalBill
+
+	//the value limit and date range of report 6 or 8
+	static final class Bounds {
+		final int below, first, last;
+
+		Bounds(int below, String from, String to) {
+			this.below = below;
+			this.first = epochDay(from, Integer.MIN_VALUE);
+			this.last = epochDay(to, Integer.MAX_VALUE);
+		}
+	}//end Bounds
+
+	//what one pass over the closings found: report 6's rows and report 10's totals
+	static final class ClosingScan {
+		Ints[] matches;
+		long[] sums;
+		int[] counts;
+	}//end ClosingScan
+
+	//what one pass over the requests found: report 8's cars and report 9's counts
+	static final class RequestScan {
+		Ints[] matches;
+		int[] counts;
+	}//end RequestScan
+
+	//one pass for report 6 (bill null to skip it) and report 10 (totals false to skip it)
+	private ClosingScan scanClosings(final State s, final Bounds bill, final boolean totals) {
+		int parts = parts(s.closings);
+		final ClosingScan out = new ClosingScan();
+		out.matches = new Ints[parts];
+		final long[][] sums = new long[parts][];
+		final int[][] counts = new int[parts][];
+		scan(s.closings, parts, new RangeScan() {
+			public void scan(int part, int from, int to) {
+				Ints found = new Ints();
+				long[] sum = totals ? new long[s.customers] : null;
+				int[] count = totals ? new int[s.customers] : null;
+				int[] customer = s.closingCustomer, amount = s.closingBill, date = s.closingDate;
+				for (int i = from; i < to; i++){
+					if (bill != null && amount[i] < bill.below && date[i] >= bill.first && date[i] < bill.last)
+						found.add(i);
+					if (totals){
+						sum[customer[i]] += amount[i];
+						count[customer[i]]++;
+					}//end if
+				}//end for
+				out.matches[part] = found;
+				sums[part] = sum;
+				counts[part] = count;
+			}
+		});
+		if (totals){
+			out.sums = sums[0];
+			for (int p = 1; p < parts; p++)
+				for (int c = 0; c < s.customers; c++)
+					out.sums[c] += sums[p][c];
+			out.counts = merge(counts);
+		}//end if
+		return out;
+	}//end scanClosings
+
+	//one pass for report 8 (miles null to skip it) and report 9 (counted false to skip it)
+	private RequestScan scanRequests(final State s, final Bounds miles, final int year, final boolean counted) {
+		int parts = parts(s.requests);
+		final RequestScan out = new RequestScan();
+		out.matches = new Ints[parts];
+		final int[][] counts = new int[parts][];
+		scan(s.requests, parts, new RangeScan() {
+			public void scan(int part, int from, int to) {
+				Ints found = new Ints();
+				int[] count = counted ? new int[s.cars] : null;
+				int[] car = s.requestCar, odometer = s.requestOdometer, date = s.requestDate, carYear = s.carYear;
+				for (int i = from; i < to; i++){
+					if (miles != null && odometer[i] < miles.below && carYear[car[i]] < year && date[i] >= miles.first && date[i] < miles.last)
+						found.add(car[i]);
+					if (counted)
+						count[car[i]]++;
+				}//end for
+				out.matches[part] = found;
+				counts[part] = count;
+			}
+		});
+		if (counted)
+			out.counts = merge(counts);
+		return out;
+	}//end scanRequests
+
+	//cars owned per customer row
+	private int[] scanOwns(final State s) {
+		int parts = parts(s.owns);
+		final int[][] counts = new int[parts][];
+		scan(s.owns, parts, new RangeScan() {
+			public void scan(int part, int from, int to) {
+				int[] count = new int[s.customers];
+				int[] owner = s.ownsCustomer;
+				for (int i = from; i < to; i++)
+					count[owner[i]]++;
+				counts[part] = count;
+			}
+		});
+		return merge(counts);
+	}//end scanOwns
+
+	private static Result billLessThanRows(State s, Ints[] matches) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (Ints found : matches)
+			for (int j = 0; j < found.size; j++){
+				int i = found.values[j];
+				rows.add(new String[] {LocalDate.ofEpochDay(s.closingDate[i]).toString(), s.word(s.closingComment[i]), String.valueOf(s.closingBill[i])});
+			}//end for
+		return new Result(new String[] {"date", "comment", "bill"}, rows, s.refreshedAt);
+	}//end billLessThanRows
+
+	private static Result customersWithMoreThanRows(State s, int[] owned, int cars) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (int c = 0; c < s.customers; c++)
+			if (owned[c] > cars)
+				rows.add(new String[] {s.word(s.customerFname[c]), s.word(s.customerLname[c]), String.valueOf(owned[c])});
+		return new Result(new String[] {"fname", "lname", "num_of_cars"}, rows, s.refreshedAt);
+	}//end customersWithMoreThanRows
+
+	private static Result carsBeforeRows(State s, Ints[] matches) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (Ints found : matches)
+			for (int j = 0; j < found.size; j++){
+				int c = found.values[j];
+				rows.add(new String[] {s.word(s.carMake[c]), s.word(s.carModel[c]), String.valueOf(s.carYear[c])});
+			}//end for
+		return new Result(new String[] {"make", "model", "year"}, rows, s.refreshedAt);
+	}//end carsBeforeRows
+
+	private static List<TopCars.Entry> topCarsRows(final State s, final int[] serviced, int k) {
+		//most serviced first, then by vin like TopCars
+		final Comparator<Integer> rank = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (serviced[a] != serviced[b])
+					return serviced[a] > serviced[b] ? -1 : 1;
+				return s.word(s.carVin[a]).compareTo(s.word(s.carVin[b]));
+			}
+		};
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, k), Collections.reverseOrder(rank));
+		for (int c = 0; c < s.cars && k > 0; c++){
+			if (serviced[c] == 0)
+				continue;
+			if (best.size() < k)
+				best.add(c);
+			else if (rank.compare(c, best.peek()) < 0){
+				best.poll();
+				best.add(c);
+			}//end if
+		}//end for
+		List<Integer> cars = new ArrayList<Integer>(best);
+		Collections.sort(cars, rank);
+		List<TopCars.Entry> top = new ArrayList<TopCars.Entry>(cars.size());
+		for (int c : cars)
+			top.add(new TopCars.Entry(s.word(s.carVin[c]), s.word(s.carMake[c]), s.word(s.carModel[c]), serviced[c]));
+		return top;
+	}//end topCarsRows
+
+	private static Result customersByTotalBillRows(State s, final long[] total, int[] closed) {
+		List<Integer> billed = new ArrayList<Integer>();
+		for (int c = 0; c < s.customers; c++)
+			if (closed[c] > 0)
+				billed.add(c);
+		Collections.sort(billed, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(total[b], total[a]);
+			}
+		});
+		List<String[]> rows = new ArrayList<String[]>(billed.size());
+		for (int c : billed)
+			rows.add(new String[] {s.word(s.customerFname[c]), s.word(s.customerLname[c]), String.valueOf(total[c])});
+		return new Result(new String[] {"fname", "lname", "total_bill"}, rows, s.refreshedAt);
+	}//end customersByTotalBillRows
+
+	/**
+	 * Method to answer several reports from one state of the snapshot,
+	 * scanning each table once for all of them: one pass over the closings
+	 * serves reports 6 and 10, one pass over the requests reports 8 and 9.
+	 * The scans run one after another, each across every worker; the
+	 * reports' rows are then built in parallel.
+	 *
+	 * @param reports the ReportSuite names of the reports to run
+	 * @param k the number of cars of report 9
+	 * @param millis receives the time of every scan and report, in the order they ran
+	 * @return the results by report name
+	 */
+	public Map<String, Result> suite(Collection<String> reports, final int k, Map<String, Double> millis) {
+		final State s = this._state;
+		boolean r6 = reports.contains(ReportSuite.BILL), r7 = reports.contains(ReportSuite.CARS_OWNED), r8 = reports.contains(ReportSuite.OLD_CARS),
+			r9 = reports.contains(ReportSuite.TOP_CARS), r10 = reports.contains(ReportSuite.TOTAL_BILL);
+
+		long start = System.nanoTime();
+		final ClosingScan closings = r6 || r10 ? scanClosings(s, r6 ? new Bounds(100, null, null) : null, r10) : null;
+		if (closings != null)
+			start = lap(millis, "scan Closed_Request", start);
+		final RequestScan requests = r8 || r9 ? scanRequests(s, r8 ? new Bounds(50000, null, null) : null, 1995, r9) : null;
+		if (requests != null)
+			start = lap(millis, "scan Service_Request", start);
+		final int[] owned = r7 ? scanOwns(s) : null;
+		if (owned != null)
+			lap(millis, "scan Owns", start);
+
+		final Map<String, Result> results = new ConcurrentHashMap<String, Result>();
+		final Map<String, Double> finished = new ConcurrentHashMap<String, Double>();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final String report : reports){
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					long begin = System.nanoTime();
+					Result result;
+					if (report.equals(ReportSuite.BILL))
+						result = billLessThanRows(s, closings.matches);
+					else if (report.equals(ReportSuite.CARS_OWNED))
+						result = customersWithMoreThanRows(s, owned, 20);
+					else if (report.equals(ReportSuite.OLD_CARS))
+						result = carsBeforeRows(s, requests.matches);
+					else if (report.equals(ReportSuite.TOP_CARS))
+						result = ReportSuite.topCarsResult(topCarsRows(s, requests.counts, k), s.refreshedAt);
+					else
+						result = customersByTotalBillRows(s, closings.sums, closings.counts);
+					results.put(report, result);
+					finished.put(report, (System.nanoTime() - begin) / 1e6);
+					return null;
+				}
+			});
+		}//end for
+		try{
+			for (Future<Void> done : this._workers.invokeAll(tasks))
+				done.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while building the reports", e);
+		}catch (ExecutionException e){
+			throw new IllegalStateException("report failed", e.getCause());
+		}//end try
+		for (String report : reports)
+			millis.put("build " + report, finished.get(report));
+		return results;
+	}//end suite
+
+	private static long lap(Map<String, Double> millis, String phase, long start) {
+		long now = System.nanoTime();
+		millis.put(phase, (now - start) / 1e6);
+		return now;
+	}//end lap
+
+	/**
+	 * Method to answer a report by its ShopServer name.
+	 *
+	 * @param report the name of report 6, 7, 8 or 10
+	 * @param from the first date of reports 6 and 8, YYYY-MM-DD; null or blank for no start
+	 * @param to the day after their last date; null or blank for no end
+	 * @return the report, or null when it is not one of the four
+	 */
+	public Result report(String report, String from, String to) {
+		if (report.equals("customers-with-bill-less-than-100"))
+			return billLessThan(100, from, to);
+		if (report.equals("customers-with-more-than-20-cars"))
+			return customersWithMoreThan(20);
+		if (report.equals("cars-before-1995-with-50000-miles"))
+			return carsBefore(1995, 50000, from, to);
+		if (report.equals("customers-by-total-bill"))
+			return customersByTotalBill();
+		return null;
+	}//end report
+
+	/**
+	 * Method to time every report on the current snapshot, for the
+	 * analytics command.
+	 *
+	 * @param runs how many times each report runs; the fastest run counts
+	 * @return one line per report with its rows and best time
+	 */
+	public String benchmark(int runs) {
+		String[] names = {"6 bill < 100", "7 more than 20 cars", "8 before 1995 under 50000 miles", "9 top 10 cars", "10 by total bill"};
+		StringBuilder out = new StringBuilder();
+		for (int r = 0; r < names.length; r++){
+			long best = Long.MAX_VALUE;
+			int rows = 0;
+			for (int i = 0; i < Math.max(1, runs); i++){
+				long start = System.nanoTime();
+				switch (r){
+					case 0: rows = billLessThan(100, null, null).rows.size(); break;
+					case 1: rows = customersWithMoreThan(20).rows.size(); break;
+					case 2: rows = carsBefore(1995, 50000, null, null).rows.size(); break;
+					case 3: rows = topCars(10).size(); break;
+					default: rows = customersByTotalBill().rows.size(); break;
+				}//end switch
+				best = Math.min(best, System.nanoTime() - start);
+			}//end for
+			out.append(String.format("  %-32s %8d row(s) %9.3f ms%n", names[r], rows, best / 1e6));
+		}//end for
+		return out.toString();
+	}//end benchmark
+
+	@Override
+	public String toString() {
+		State s = this._state;
+		synchronized (this){
+			return String.format("Analytics snapshot: %d customers, %d cars, %d owns, %d requests, %d closings, %d words; "
+				+ "%d refresh(es), last read %d row(s) in %.1f ms, %d worker(s)",
+				s.customers, s.cars, s.owns, s.requests, s.closings, this._words.size,
+				this._refreshes, this._lastRefreshRows, this._lastRefreshNanos / 1e6, this._parallelism);
+		}//end synchronized
+	}//end toString
+}//end AnalyticsSnapshot
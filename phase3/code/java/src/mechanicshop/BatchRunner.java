@@ -0,0 +1,490 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs a stream of MechanicShop operations without the menu.
+ * Each line holds one operation, either as a flat JSON object naming the
+ * operation in its "op" field:
+ *
+ *   {"op": "insert-request", "rid": 9001, "customer_id": 12, "vin": "1GNEK13Z93R298984", ...}
+ *
+ * or as CSV with the operation first and the fields in the order below:
+ *
+ *   insert-request,9001,12,1GNEK13Z93R298984,2017-02-03,23000,"Brakes squeal"
+ *
+ * Blank lines and lines starting with '#' are skipped.  Operations are
+ * grouped into transactions of 'txSize' and the groups run on 'workers'
+ * threads, each holding its own pooled connection.  A group that fails is
+ * rolled back and replayed one operation at a time, so a bad line only
+ * fails itself.  Groups run concurrently, so an operation that depends on
+ * one in a later group (closing a request opened further down the file)
+ * can fail the first time; failed operations are retried once, in file
+ * order, after every group finished.  Use one worker to keep file order.
+ *
+ * The new row's id (id, ownership_id or rid) may be left empty, or left
+ * out of a JSON line, to have one allocated; the report shows it.
+ */
+public class BatchRunner {
+
+	//field names of each operation, in CSV column order
+	static final Map<String, String[]> OPERATIONS = new HashMap<String, String[]>();
+	static {
+		OPERATIONS.put("add-customer", new String[] {"id", "fname", "lname", "phone", "address"});
+		OPERATIONS.put("add-mechanic", new String[] {"id", "fname", "lname", "experience"});
+		OPERATIONS.put("add-car", new String[] {"vin", "make", "model", "year", "ownership_id", "customer_id"});
+		OPERATIONS.put("insert-request", new String[] {"rid", "customer_id", "vin", "date", "odometer", "complaint"});
+		OPERATIONS.put("close-request", new String[] {"rid", "mid", "date", "comment", "bill"});
+	}
+
+	/**
+	 * One line of the input and its outcome.
+	 */
+	static class Op {
+		final long line;
+		final String name;
+		final Map<String, String> fields;
+		//null once the operation succeeded
+		String error;
+		//false when the line could not be parsed, so it is never executed
+		final boolean runnable;
+		//the id allocated for a field left empty, kept for replays and the report
+		String allocated;
+
+		Op(long line, String name, Map<String, String> fields, String error) {
+			this.line = line;
+			this.name = name;
+			this.fields = fields;
+			this.error = error;
+			this.runnable = error == null;
+		}
+
+		boolean has(String field) {
+			String value = this.fields.get(field);
+			return value != null && value.trim().length() > 0;
+		}
+
+		String text(String field) {
+			String value = this.fields.get(field);
+			if (value == null)
+				throw new IllegalArgumentException("missing field '" + field + "'");
+			return value;
+		}
+
+		int number(String field) {
+			String value = text(field).trim();
+			try{
+				return Integer.parseInt(value);
+			}catch (NumberFormatException e){
+				throw new IllegalArgumentException("field '" + field + "' is not an integer: " + value);
+			}//end try
+		}
+	}//end Op
+
+	private final MechanicShop _esql;
+	private final int _txSize;
+	private final int _workers;
+	private final PrintStream _report;
+
+	private long _ok = 0;
+	private long _failed = 0;
+
+	/**
+	 * Creates a runner.
+	 *
+	 * @param esql the MechanicShop whose pool runs the operations
+	 * @param txSize the number of operations per transaction
+	 * @param workers the number of groups running at once
+	 * @param report where the per-operation results and the summary go
+	 */
+	public BatchRunner(MechanicShop esql, int txSize, int workers, PrintStream report) {
+		this._esql = esql;
+		this._txSize = Math.max(1, txSize);
+		this._workers = Math.max(1, workers);
+		this._report = report;
+	}
+
+	/**
+	 * Creates a runner configured from the mechanicshop.batch.txSize
+	 * (default 100) and mechanicshop.batch.workers (default 4) system
+	 * properties, reporting to standard output.
+	 */
+	public static BatchRunner fromSystemProperties(MechanicShop esql) {
+		return new BatchRunner(esql, Integer.getInteger("mechanicshop.batch.txSize", 100),
+			Integer.getInteger("mechanicshop.batch.workers", 4), System.out);
+	}
+
+	/**
+	 * Method to run every operation read from the input.  Successful
+	 * operations are reported as their group completes; failures are
+	 * reported after the final retry.
+	 *
+	 * @param input the operations, one per line
+	 * @return the number of operations that failed
+	 * @throws java.io.IOException when the input cannot be read
+	 */
+	public long run(BufferedReader input) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(this._workers);
+		Deque<Future<List<Op>>> inFlight = new ArrayDeque<Future<List<Op>>>();
+		List<Op> retry = new ArrayList<Op>();
+		long start = System.nanoTime();
+		long lineNumber = 0;
+		try{
+			boolean eof = false;
+			while (!eof || !inFlight.isEmpty()){
+				//two groups per worker are queued so no worker waits on the reader
+				while (!eof && inFlight.size() < 2 * this._workers){
+					final List<Op> group = new ArrayList<Op>(this._txSize);
+					String line;
+					while (group.size() < this._txSize && (line = input.readLine()) != null){
+						lineNumber++;
+						String trimmed = line.trim();
+						if (trimmed.length() > 0 && !trimmed.startsWith("#"))
+							group.add(parse(lineNumber, trimmed));
+					}//end while
+					if (group.size() < this._txSize)
+						eof = true;
+					if (group.isEmpty())
+						break;
+					inFlight.add(workers.submit(new Callable<List<Op>>() {
+						public List<Op> call() {
+							runGroup(group);
+							return group;
+						}
+					}));
+				}//end while
+				if (inFlight.isEmpty())
+					break;
+
+				for (Op op : await(inFlight.poll())){
+					if (op.error == null)
+						succeeded(op);
+					else
+						retry.add(op);
+				}//end for
+			}//end while
+		}finally{
+			for (Future<List<Op>> f : inFlight)
+				f.cancel(true);
+			workers.shutdownNow();
+		}//end try
+
+		//groups ran concurrently, so give order-dependent failures one more chance
+		for (Op op : retry){
+			if (op.runnable)
+				runAlone(op);
+			if (op.error == null)
+				succeeded(op);
+			else
+				failed(op);
+		}//end for
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long total = this._ok + this._failed;
+		this._report.println(String.format("Batch: %d operation(s), %d ok, %d failed in %.2f s (%.0f ops/s)",
+			total, this._ok, this._failed, seconds, total / Math.max(seconds, 1e-9)));
+		this._report.flush();
+		return this._failed;
+	}//end run
+
+	private void succeeded(Op op) {
+		this._ok++;
+		this._report.println(op.line + "\t" + op.name + "\tOK" + (op.allocated != null ? "\t" + op.allocated : ""));
+	}
+
+	private void failed(Op op) {
+		this._failed++;
+		this._report.println(op.line + "\t" + op.name + "\tERROR\t" + op.error);
+	}
+
+	private static List<Op> await(Future<List<Op>> group) {
+		try{
+			return group.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for a batch group", e);
+		}catch (ExecutionException e){
+			throw new IllegalStateException("batch group failed", e.getCause());
+		}//end try
+	}//end await
+
+	/**
+	 * Method to run one group as a unit of work, so that groups colliding
+	 * with each other are retried, falling back to one transaction per
+	 * operation when any of them fails.
+	 *
+	 * @param group the operations, in file order
+	 */
+	void runGroup(final List<Op> group) {
+		if (group.size() == 1){
+			if (group.get(0).runnable)
+				runAlone(group.get(0));
+			return;
+		}//end if
+		try{
+			this._esql.transactions().run(new UnitOfWork.Work<Void>() {
+				public Void run(MechanicShop esql) throws SQLException {
+					for (Op op : group){
+						if (op.runnable)
+							execute(op);
+					}//end for
+					return null;
+				}
+			});
+			for (Op op : group){
+				if (op.runnable)
+					op.error = null;
+			}//end for
+			return;
+		}catch (Exception e){
+			//the unit of work rolled the group back
+		}//end try
+		//replays the group so only the offending operations fail
+		for (Op op : group){
+			if (op.runnable)
+				runAlone(op);
+		}//end for
+	}//end runGroup
+
+	private void runAlone(Op op) {
+		try{
+			execute(op);
+			op.error = null;
+		}catch (Exception e){
+			op.error = e.getMessage() != null ? e.getMessage().trim() : e.toString();
+		}//end try
+	}//end runAlone
+
+	/**
+	 * Method to run one operation through MechanicShop's non-interactive
+	 * operations, which also keep the in-memory caches current.
+	 *
+	 * @param op the parsed operation
+	 * @throws java.sql.SQLException when the database rejected it
+	 */
+	void execute(Op op) throws SQLException {
+		String previous = this._esql.metrics().enter(op.name);
+		try{
+			dispatch(op);
+		}finally{
+			this._esql.metrics().enter(previous);
+		}//end try
+	}//end execute
+
+	private void dispatch(Op op) throws SQLException {
+		if (op.name.equals("add-customer")){
+			allocate(op, "id", IdAllocator.CUSTOMER);
+			MechanicShop.addCustomer(this._esql, op.number("id"), op.text("fname"), op.text("lname"), op.text("phone"), op.text("address"));
+		}else if (op.name.equals("add-mechanic")){
+			allocate(op, "id", IdAllocator.MECHANIC);
+			MechanicShop.addMechanic(this._esql, op.number("id"), op.text("fname"), op.text("lname"), op.number("experience"));
+		}else if (op.name.equals("add-car")){
+			allocate(op, "ownership_id", IdAllocator.OWNERSHIP);
+			MechanicShop.addCar(this._esql, op.text("vin"), op.text("make"), op.text("model"), op.number("year"), op.number("ownership_id"), op.number("customer_id"));
+		}else if (op.name.equals("insert-request")){
+			allocate(op, "rid", IdAllocator.REQUEST);
+			MechanicShop.insertServiceRequest(this._esql, op.number("rid"), op.number("customer_id"), op.text("vin"), op.text("date"), op.number("odometer"), op.text("complaint"));
+		}else if (op.name.equals("close-request")){
+			if (!MechanicShop.closeServiceRequest(this._esql, op.number("rid"), op.number("mid"), op.text("date"), op.text("comment"), op.number("bill")))
+				throw new SQLException("request " + op.number("rid") + " does not exist or was opened after " + op.text("date"), "23503");
+		}else{
+			throw new IllegalArgumentException("unknown operation '" + op.name + "'");
+		}//end if
+	}//end dispatch
+
+	//fills an empty id field once, so a replayed operation keeps its id
+	private void allocate(Op op, String field, String sequence) throws SQLException {
+		if (op.has(field))
+			return;
+		int id = this._esql.ids().next(sequence);
+		op.fields.put(field, Integer.toString(id));
+		op.allocated = field + "=" + id;
+	}//end allocate
+
+	/**
+	 * Method to parse one non-blank input line.  Lines that cannot be
+	 * parsed become operations that carry their error and are not run.
+	 *
+	 * @param line the line number, for the report
+	 * @param text the trimmed line
+	 * @return the operation
+	 */
+	static Op parse(long line, String text) {
+		Map<String, String> fields;
+		String name;
+		try{
+			if (text.startsWith("{")){
+				fields = parseJson(text);
+				name = fields.remove("op");
+				if (name == null)
+					throw new IllegalArgumentException("missing field 'op'");
+			}else{
+				List<String> values = parseCsv(text);
+				name = values.get(0).trim();
+				String[] names = OPERATIONS.get(name);
+				if (names == null)
+					throw new IllegalArgumentException("unknown operation '" + name + "'");
+				if (values.size() - 1 != names.length)
+					throw new IllegalArgumentException(name + " takes " + names.length + " field(s), got " + (values.size() - 1));
+				fields = new HashMap<String, String>();
+				for (int i = 0; i < names.length; i++)
+					fields.put(names[i], values.get(i + 1));
+			}//end if
+		}catch (IllegalArgumentException e){
+			return new Op(line, "?", null, e.getMessage());
+		}//end try
+		if (!OPERATIONS.containsKey(name))
+			return new Op(line, name, fields, "unknown operation '" + name + "'");
+		return new Op(line, name, fields, null);
+	}//end parse
+
+	/**
+	 * Method to split a CSV line.  Fields may be double-quoted, in which
+	 * case they may hold commas and "" stands for a quote.
+	 */
+	static List<String> parseCsv(String text) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			if (quoted){
+				if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"'){
+					field.append('"');
+					i++;
+				}else if (c == '"'){
+					quoted = false;
+				}else{
+					field.append(c);
+				}//end if
+			}else if (c == '"'){
+				quoted = true;
+			}else if (c == ','){
+				values.add(field.toString());
+				field.setLength(0);
+			}else{
+				field.append(c);
+			}//end if
+		}//end for
+		if (quoted)
+			throw new IllegalArgumentException("unterminated quote");
+		values.add(field.toString());
+		return values;
+	}//end parseCsv
+
+	/**
+	 * Method to parse a flat JSON object of strings, numbers, booleans and
+	 * nulls into field values.  Nested objects and arrays are rejected.
+	 */
+	static Map<String, String> parseJson(String text) {
+		Map<String, String> fields = new HashMap<String, String>();
+		int[] at = {skipBlanks(text, 1)};
+		if (at[0] < text.length() && text.charAt(at[0]) == '}')
+			return fields;
+		while (true){
+			if (at[0] >= text.length() || text.charAt(at[0]) != '"')
+				throw new IllegalArgumentException("expected a field name at column " + (at[0] + 1));
+			String key = jsonString(text, at);
+			at[0] = skipBlanks(text, at[0]);
+			if (at[0] >= text.length() || text.charAt(at[0]) != ':')
+				throw new IllegalArgumentException("expected ':' at column " + (at[0] + 1));
+			at[0] = skipBlanks(text, at[0] + 1);
+			if (at[0] >= text.length())
+				throw new IllegalArgumentException("missing value for '" + key + "'");
+			char c = text.charAt(at[0]);
+			if (c == '"'){
+				fields.put(key, jsonString(text, at));
+			}else if (c == '{' || c == '['){
+				throw new IllegalArgumentException("nested values are not supported ('" + key + "')");
+			}else{
+				int end = at[0];
+				while (end < text.length() && ",} \t".indexOf(text.charAt(end)) < 0)
+					end++;
+				String literal = text.substring(at[0], end);
+				if (!literal.equals("null"))
+					fields.put(key, literal);
+				at[0] = end;
+			}//end if
+			at[0] = skipBlanks(text, at[0]);
+			if (at[0] >= text.length())
+				throw new IllegalArgumentException("unterminated object");
+			if (text.charAt(at[0]) == '}')
+				return fields;
+			if (text.charAt(at[0]) != ',')
+				throw new IllegalArgumentException("expected ',' at column " + (at[0] + 1));
+			at[0] = skipBlanks(text, at[0] + 1);
+		}//end while
+	}//end parseJson
+
+	//reads the string starting at at[0] and leaves at[0] past its closing quote
+	private static String jsonString(String text, int[] at) {
+		StringBuilder value = new StringBuilder();
+		int i = at[0] + 1;
+		while (i < text.length()){
+			char c = text.charAt(i++);
+			if (c == '"'){
+				at[0] = i;
+				return value.toString();
+			}//end if
+			if (c != '\\'){
+				value.append(c);
+				continue;
+			}//end if
+			if (i >= text.length())
+				break;
+			char e = text.charAt(i++);
+			switch (e){
+				case 'b': value.append('\b'); break;
+				case 'f': value.append('\f'); break;
+				case 'n': value.append('\n'); break;
+				case 'r': value.append('\r'); break;
+				case 't': value.append('\t'); break;
+				case 'u':
+					if (i + 4 > text.length())
+						throw new IllegalArgumentException("bad \\u escape");
+					try{
+						value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+					}catch (NumberFormatException ex){
+						throw new IllegalArgumentException("bad \\u escape");
+					}//end try
+					i += 4;
+					break;
+				default: value.append(e);
+			}//end switch
+		}//end while
+		throw new IllegalArgumentException("unterminated string");
+	}//end jsonString
+
+	private static int skipBlanks(String text, int i) {
+		while (i < text.length() && Character.isWhitespace(text.charAt(i)))
+			i++;
+		return i;
+	}
+
+}//end BatchRunner
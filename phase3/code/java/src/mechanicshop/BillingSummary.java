@@ -0,0 +1,93 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+
+import mechanicshop.jdbc.RowHandler;
+
+/**
+ * This class maintains the Customer_Bill summary table, which holds the
+ * running total bill and number of closed requests of every customer.
+ * CloseServiceRequest updates it in the same statement that inserts the
+ * Closed_Request row; the methods here read it and repair drift after
+ * writes that bypassed MechanicShop (bulk loads, manual SQL).
+ *
+ */
+public class BillingSummary {
+
+	//per-customer totals recomputed from the base tables
+	static final String FRESH_TOTALS =
+		"SELECT SR.customer_id, SUM(CR.bill) AS total_bill, COUNT(*) AS closed_count " +
+		"FROM Closed_Request CR, Service_Request SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id";
+
+	//replaces the summary with fresh totals in one statement, so readers never see it half built
+	static final String REBUILD =
+		"WITH fresh AS (" + FRESH_TOTALS + "), " +
+		"gone AS (DELETE FROM Customer_Bill B WHERE NOT EXISTS (SELECT 1 FROM fresh F WHERE F.customer_id = B.customer_id)) " +
+		"INSERT INTO Customer_Bill (customer_id, total_bill, closed_count) SELECT customer_id, total_bill, closed_count FROM fresh " +
+		"ON CONFLICT (customer_id) DO UPDATE SET total_bill = EXCLUDED.total_bill, closed_count = EXCLUDED.closed_count";
+
+	//customers whose stored totals differ from the base tables
+	static final String DRIFT =
+		"SELECT COALESCE(F.customer_id, B.customer_id) AS customer_id, F.total_bill AS expected_bill, B.total_bill AS stored_bill, " +
+		"F.closed_count AS expected_count, B.closed_count AS stored_count " +
+		"FROM (" + FRESH_TOTALS + ") AS F FULL OUTER JOIN Customer_Bill B ON F.customer_id = B.customer_id " +
+		"WHERE F.total_bill IS DISTINCT FROM B.total_bill OR F.closed_count IS DISTINCT FROM B.closed_count " +
+		"ORDER BY 1";
+
+	//customers by total bill, served from the summary's total_bill index
+	static final String TOP_CUSTOMERS =
+		"SELECT C.fname, C.lname, B.total_bill FROM Customer_Bill B, Customer C " +
+		"WHERE C.id = B.customer_id ORDER BY B.total_bill DESC";
+
+	/**
+	 * Method to stream customers in descending order of their total bill.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @param limit the number of customers wanted, 0 for all of them
+	 * @param handler receives the fname, lname and total_bill of each customer
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public static int topCustomers(MechanicShop esql, int limit, RowHandler handler) throws SQLException {
+		if (limit > 0)
+			return esql.executeQueryAndStream(TOP_CUSTOMERS + " LIMIT ?", handler, limit);
+		return esql.executeQueryAndStream(TOP_CUSTOMERS, handler);
+	}//end topCustomers
+
+	/**
+	 * Method to recompute the summary from Closed_Request and Service_Request.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @return the number of customer rows written
+	 * @throws java.sql.SQLException when the rebuild failed
+	 */
+	public static int rebuild(MechanicShop esql) throws SQLException {
+		int rows = esql.executeUpdate(REBUILD);
+		esql.results().written("Customer_Bill");
+		return rows;
+	}//end rebuild
+
+	/**
+	 * Method to compare the summary with the base tables and print every
+	 * customer whose stored totals have drifted.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @return the number of customers that differ
+	 * @throws java.sql.SQLException when the comparison failed
+	 */
+	public static int verify(MechanicShop esql) throws SQLException {
+		return esql.executeQueryAndPrintResult(DRIFT);
+	}//end verify
+}//end BillingSummary
@@ -0,0 +1,467 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mechanicshop.jdbc.ConnectionPool;
+import mechanicshop.jdbc.StatementCache;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class bulk loads the phase3 CSV datasets into the MechanicShop
+ * schema.  Files are read in chunks of mechanicshop.load.batchSize lines,
+ * each chunk is parsed and validated on a worker pool, and the parsed
+ * chunks are written in file order through the driver's COPY API (or JDBC
+ * batches when mechanicshop.load.mode=batch).  Tables are loaded parents
+ * first so foreign keys are always satisfied.
+ *
+ */
+public class BulkLoader {
+
+	private static final int INT = 0;
+	private static final int TEXT = 1;
+	private static final int DATE = 2;
+
+	/**
+	 * Describes how one CSV file maps onto one table.
+	 */
+	static class TableSpec {
+		final String table;
+		final String file;
+		final String[] columns;
+		final int[] types;
+
+		TableSpec(String table, String file, String[] columns, int[] types) {
+			this.table = table;
+			this.file = file;
+			this.columns = columns;
+			this.types = types;
+		}
+
+		String columnList() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < this.columns.length; ++i){
+				if (i > 0) sb.append(", ");
+				sb.append(this.columns[i]);
+			}
+			return sb.toString();
+		}
+
+		String copySql() {
+			return "COPY " + this.table + " (" + columnList() + ") FROM STDIN";
+		}
+
+		String insertSql() {
+			StringBuilder sb = new StringBuilder("INSERT INTO " + this.table + " (" + columnList() + ") VALUES (");
+			for (int i = 0; i < this.columns.length; ++i){
+				if (i > 0) sb.append(", ");
+				sb.append(this.types[i] == DATE ? "CAST(? AS DATE)" : "?");
+			}
+			return sb.append(")").toString();
+		}
+	}//end TableSpec
+
+	//parents before children so every foreign key already exists
+	static final TableSpec[] TABLES = {
+		new TableSpec("Customer", "customer.csv",
+			new String[] {"id", "fname", "lname", "phone", "address"},
+			new int[] {INT, TEXT, TEXT, TEXT, TEXT}),
+		new TableSpec("Mechanic", "mechanic.csv",
+			new String[] {"id", "fname", "lname", "experience"},
+			new int[] {INT, TEXT, TEXT, INT}),
+		new TableSpec("Car", "car.csv",
+			new String[] {"vin", "make", "model", "year"},
+			new int[] {TEXT, TEXT, TEXT, INT}),
+		new TableSpec("Owns", "owns.csv",
+			new String[] {"ownership_id", "customer_id", "car_vin"},
+			new int[] {INT, INT, TEXT}),
+		new TableSpec("Service_Request", "service_request.csv",
+			new String[] {"rid", "customer_id", "car_vin", "date", "odometer", "complain"},
+			new int[] {INT, INT, TEXT, DATE, INT, TEXT}),
+		new TableSpec("Closed_Request", "closed_request.csv",
+			new String[] {"wid", "rid", "mid", "date", "comment", "bill"},
+			new int[] {INT, INT, INT, DATE, TEXT, INT}),
+	};
+
+	/**
+	 * A parsed block of consecutive lines, ready to be written either as
+	 * COPY text or as batch parameters.
+	 */
+	static class Chunk {
+		final long firstLine;
+		final int rows;
+		final String copyText;
+		final List<Object[]> params;
+
+		Chunk(long firstLine, int rows, String copyText, List<Object[]> params) {
+			this.firstLine = firstLine;
+			this.rows = rows;
+			this.copyText = copyText;
+			this.params = params;
+		}
+	}//end Chunk
+
+	private final ConnectionPool _pool;
+	private final int _batchSize;
+	private final int _workers;
+	private final boolean _useCopy;
+	private final long _progressMillis;
+
+	/**
+	 * Creates a new loader
+	 *
+	 * @param pool the pool the loading connection is borrowed from
+	 * @param batchSize the number of rows parsed and committed together
+	 * @param workers the number of parser threads
+	 * @param useCopy true to write through COPY, false for JDBC batches
+	 * @param progressMillis how often progress is reported, 0 disables
+	 */
+	public BulkLoader(ConnectionPool pool, int batchSize, int workers, boolean useCopy, long progressMillis) {
+		if (batchSize < 1 || workers < 1)
+			throw new IllegalArgumentException("batch size and worker count must be positive");
+		this._pool = pool;
+		this._batchSize = batchSize;
+		this._workers = workers;
+		this._useCopy = useCopy;
+		this._progressMillis = progressMillis;
+	}//end BulkLoader
+
+	/**
+	 * Method to load every selected table from the data directory in
+	 * foreign-key order.
+	 *
+	 * @param dataDir the directory holding the CSV files
+	 * @param tables the table names to load, or an empty list for all of them
+	 * @return the total number of rows loaded
+	 * @throws Exception when a file cannot be read or parsed or a write fails
+	 */
+	public long loadAll(File dataDir, List<String> tables) throws Exception {
+		ExecutorService parsers = Executors.newFixedThreadPool(this._workers);
+		long total = 0;
+		long start = System.nanoTime();
+		try{
+			for (TableSpec spec : TABLES){
+				if (!tables.isEmpty() && !containsIgnoreCase(tables, spec.table))
+					continue;
+				total += load(spec, new File(dataDir, spec.file), parsers);
+			}//end for
+		}finally{
+			parsers.shutdownNow();
+		}//end try
+		refreshSummaries();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Loaded %d row(s) in %.2f s (%.0f rows/s)", total, seconds, total / Math.max(seconds, 1e-9)));
+		return total;
+	}//end loadAll
+
+	/**
+	 * Method to stream one CSV file into its table.  At most two chunks per
+	 * worker are parsed ahead of the writer, so memory stays bounded by the
+	 * batch size rather than the file size.
+	 *
+	 * @param spec the table description
+	 * @param csv the file to load
+	 * @param parsers the worker pool parsing chunks
+	 * @return the number of rows loaded
+	 * @throws Exception when the file cannot be read or parsed or a write fails
+	 */
+	long load(final TableSpec spec, File csv, ExecutorService parsers) throws Exception {
+		System.out.println("Loading " + spec.table + " from " + csv.getPath());
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8), 1 << 16);
+		Deque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+		long loaded = 0;
+		long start = System.nanoTime();
+		long lastReport = System.currentTimeMillis();
+		try{
+			Connection connection = pc.connection();
+			CopyManager copy = null;
+			if (this._useCopy){
+				try{
+					copy = connection.unwrap(PGConnection.class).getCopyAPI();
+				}catch (SQLException e){
+					System.err.println("COPY is not available, falling back to JDBC batches: " + e.getMessage());
+				}//end try
+			}//end if
+			final boolean useCopy = copy != null;
+			PreparedStatement insert = useCopy ? null : pc.statements().prepare(spec.insertSql());
+			connection.setAutoCommit(false);
+
+			long lineNumber = 1;
+			boolean eof = false;
+			while (!eof || !inFlight.isEmpty()){
+				//keeps the parsers busy while the writer drains completed chunks
+				while (!eof && inFlight.size() < 2 * this._workers){
+					final List<String> lines = new ArrayList<String>(this._batchSize);
+					String line;
+					while (lines.size() < this._batchSize && (line = reader.readLine()) != null){
+						if (line.length() > 0)
+							lines.add(line);
+					}//end while
+					if (lines.size() < this._batchSize)
+						eof = true;
+					if (lines.isEmpty())
+						break;
+					final long first = lineNumber;
+					lineNumber += lines.size();
+					inFlight.add(parsers.submit(new Callable<Chunk>() {
+						public Chunk call() throws Exception {
+							return parse(spec, lines, first, useCopy);
+						}
+					}));
+				}//end while
+				if (inFlight.isEmpty())
+					break;
+
+				Chunk chunk = await(inFlight.poll());
+				if (copy != null){
+					copy.copyIn(spec.copySql(), new StringReader(chunk.copyText));
+				}else{
+					for (Object[] row : chunk.params){
+						StatementCache.bind(insert, row);
+						insert.addBatch();
+					}//end for
+					insert.executeBatch();
+				}//end if
+				connection.commit();
+				loaded += chunk.rows;
+
+				long now = System.currentTimeMillis();
+				if (this._progressMillis > 0 && now - lastReport >= this._progressMillis){
+					lastReport = now;
+					double seconds = (System.nanoTime() - start) / 1e9;
+					System.out.println(String.format("  %s: %d row(s), %.0f rows/s", spec.table, loaded, loaded / Math.max(seconds, 1e-9)));
+				}//end if
+			}//end while
+		}finally{
+			for (Future<Chunk> f : inFlight)
+				f.cancel(true);
+			reader.close();
+			this._pool.release(pc);
+		}//end try
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("  %s: %d row(s) in %.2f s (%.0f rows/s)", spec.table, loaded, seconds, loaded / Math.max(seconds, 1e-9)));
+		return loaded;
+	}//end load
+
+	/**
+	 * Method to rebuild the summary tables, since COPY bypasses the
+	 * statements that keep them current, and move the id sequences past
+	 * the loaded ids.
+	 *
+	 * @throws java.sql.SQLException when a rebuild failed
+	 */
+	void refreshSummaries() throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			int customers = pc.statements().prepare(BillingSummary.REBUILD).executeUpdate();
+			System.out.println("Rebuilt Customer_Bill for " + customers + " customer(s)");
+			int cars = pc.statements().prepare(TopCars.REBUILD).executeUpdate();
+			System.out.println("Rebuilt Car_Service_Count for " + cars + " car(s)");
+			for (String resync : IdAllocator.RESYNC)
+				pc.statements().prepare(resync).executeQuery().close();
+			System.out.println("Resynchronized " + IdAllocator.RESYNC.length + " id sequence(s)");
+		}finally{
+			this._pool.release(pc);
+		}//end try
+	}//end refreshSummaries
+
+	/**
+	 * Method to parse and validate a block of CSV lines.  Integers are
+	 * checked, dates in M/d/yyyy [HH:mm] form are rewritten as ISO dates so
+	 * the result does not depend on the server's DateStyle.
+	 *
+	 * @param spec the table description
+	 * @param lines the raw lines
+	 * @param firstLine the line number of the first line, for error messages
+	 * @param copyText true to encode COPY text, false to build batch parameters
+	 * @return the parsed chunk
+	 * @throws IOException when a line does not match the table
+	 */
+	static Chunk parse(TableSpec spec, List<String> lines, long firstLine, boolean copyText) throws IOException {
+		int numCol = spec.columns.length;
+		StringBuilder copy = copyText ? new StringBuilder(lines.size() * 64) : null;
+		List<Object[]> params = copyText ? null : new ArrayList<Object[]>(lines.size());
+		String[] fields = new String[numCol];
+		for (int r = 0; r < lines.size(); ++r){
+			String line = lines.get(r);
+			long lineNumber = firstLine + r;
+			if (split(line, fields) != numCol)
+				throw new IOException(spec.file + ":" + lineNumber + ": expected " + numCol + " fields: " + line);
+			Object[] row = copyText ? null : new Object[numCol];
+			for (int c = 0; c < numCol; ++c){
+				String value = fields[c];
+				switch (spec.types[c]){
+					case INT:
+						value = value.trim();
+						int parsed;
+						try{
+							parsed = Integer.parseInt(value);
+						}catch (NumberFormatException e){
+							throw new IOException(spec.file + ":" + lineNumber + ": " + spec.columns[c] + " is not an integer: " + value);
+						}//end try
+						if (row != null) row[c] = parsed;
+						break;
+					case DATE:
+						value = isoDate(value.trim());
+						if (value == null)
+							throw new IOException(spec.file + ":" + lineNumber + ": " + spec.columns[c] + " is not a date: " + fields[c]);
+						if (row != null) row[c] = value;
+						break;
+					default:
+						if (row != null) row[c] = value;
+				}//end switch
+				if (copy != null){
+					if (c > 0) copy.append('\t');
+					escapeCopy(copy, value);
+				}//end if
+			}//end for
+			if (copy != null)
+				copy.append('\n');
+			else
+				params.add(row);
+		}//end for
+		return new Chunk(firstLine, lines.size(), copy == null ? null : copy.toString(), params);
+	}//end parse
+
+	//splits on commas into fields, returning the number of fields found
+	private static int split(String line, String[] fields) {
+		int count = 0;
+		int start = 0;
+		int end = line.length();
+		if (end > 0 && line.charAt(end - 1) == '\r')
+			end--;
+		for (int i = 0; i <= end; ++i){
+			if (i == end || line.charAt(i) == ','){
+				if (count < fields.length)
+					fields[count] = line.substring(start, i);
+				count++;
+				start = i + 1;
+			}//end if
+		}//end for
+		return count;
+	}//end split
+
+	//rewrites M/d/yyyy [HH:mm] or yyyy-MM-dd as yyyy-MM-dd, null if malformed
+	static String isoDate(String value) {
+		int space = value.indexOf(' ');
+		String date = space < 0 ? value : value.substring(0, space);
+		if (date.indexOf('-') > 0)
+			return date;
+		String[] parts = date.split("/");
+		if (parts.length != 3)
+			return null;
+		try{
+			int month = Integer.parseInt(parts[0]);
+			int day = Integer.parseInt(parts[1]);
+			int year = Integer.parseInt(parts[2]);
+			if (month < 1 || month > 12 || day < 1 || day > 31)
+				return null;
+			StringBuilder iso = new StringBuilder(10);
+			iso.append(year).append(month < 10 ? "-0" : "-").append(month).append(day < 10 ? "-0" : "-").append(day);
+			return iso.toString();
+		}catch (NumberFormatException e){
+			return null;
+		}//end try
+	}//end isoDate
+
+	//escapes a value for PostgreSQL COPY text format
+	private static void escapeCopy(StringBuilder sb, String value) {
+		for (int i = 0; i < value.length(); ++i){
+			char ch = value.charAt(i);
+			switch (ch){
+				case '\\': sb.append("\\\\"); break;
+				case '\t': sb.append("\\t"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				default: sb.append(ch);
+			}//end switch
+		}//end for
+	}//end escapeCopy
+
+	private static Chunk await(Future<Chunk> future) throws Exception {
+		try{
+			return future.get();
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}//end try
+	}//end await
+
+	private static boolean containsIgnoreCase(List<String> names, String name) {
+		for (String n : names)
+			if (n.equalsIgnoreCase(name))
+				return true;
+		return false;
+	}//end containsIgnoreCase
+
+	/**
+	 * The bulk load entry point
+	 *
+	 * @param args <dbname> <port> <user> <data directory> [table ...]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 4){
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + BulkLoader.class.getName() +
+					" <dbname> <port> <user> <data directory> [table ...]");
+			return;
+		}//end if
+
+		ConnectionPool pool = null;
+		boolean failed = false;
+		try{
+			Class.forName("org.postgresql.Driver");
+			String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0] + "?reWriteBatchedInserts=true";
+			pool = ConnectionPool.fromSystemProperties(url, args[2], "");
+			BulkLoader loader = new BulkLoader(pool,
+				Integer.getInteger("mechanicshop.load.batchSize", 10000),
+				Integer.getInteger("mechanicshop.load.workers", Runtime.getRuntime().availableProcessors()),
+				!"batch".equalsIgnoreCase(System.getProperty("mechanicshop.load.mode", "copy")),
+				Long.getLong("mechanicshop.load.progressMs", 2000L));
+			loader.loadAll(new File(args[3]), Arrays.asList(args).subList(4, args.length));
+		}catch (Exception e){
+			System.err.println("Bulk load failed: " + e.getMessage());
+			failed = true;
+		}finally{
+			if (pool != null)
+				pool.close();
+		}//end try
+		if (failed)
+			System.exit(1);
+	}//end main
+}//end BulkLoader
@@ -0,0 +1,673 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import mechanicshop.jdbc.LatencyHistogram;
+import mechanicshop.jdbc.Row;
+
+/**
+ * This class finds customers by what the operator types: part of a first
+ * or last name, in any case and with typos, or part of a phone number.
+ * Names and phone numbers are normalized (lower case letters and digits
+ * only, so CHAR padding, spaces and punctuation never matter) and indexed
+ * in memory by their trigrams and by the Soundex code of the names.
+ *
+ * Each word typed is scored against a customer's first name, last name
+ * and phone number, keeping the best: 1 for an exact match, 0.8 to 0.9
+ * for a prefix, 0.7 to 0.8 for a part, 0.6 to 0.8 for a name that sounds
+ * the same, otherwise the trigram similarity of pg_trgm (shared trigrams
+ * over all trigrams of both).  Numbers only match whole or in part,
+ * never by similarity.  Scores under 0.3 do not count.  With
+ * several words every word has to match; a customer's score is the mean
+ * over the words, and the best scores come first.
+ *
+ * The index is loaded by the first search (see MechanicShop.customers()).
+ * addCustomer() adds customers once their insert commits; a refresh every
+ * few seconds reads the customers other processes added since the last
+ * one, through the primary key (see KeyRanges).  The shop never updates
+ * or deletes customers, so changes made outside it are only seen when the
+ * program restarts.
+ *
+ */
+public class CustomerSearch {
+
+	/**
+	 * A customer found, with its score between 0 and 1.
+	 */
+	public static class Match {
+		public final int id;
+		public final String fname;
+		public final String lname;
+		public final String phone;
+		public final double score;
+
+		Match(int id, String fname, String lname, String phone, double score) {
+			this.id = id;
+			this.fname = fname;
+			this.lname = lname;
+			this.phone = phone;
+			this.score = score;
+		}
+	}//end Match
+
+	static final String CUSTOMERS = KeyRanges.unseen("SELECT C.id, C.fname, C.lname, C.phone FROM %1$s Customer C WHERE %2$s", "C.id");
+
+	static final double MIN_SCORE = 0.3;
+	static final double PHONETIC_SCORE = 0.6;
+
+	//fields of a posting, in its two low bits
+	private static final int FNAME = 0;
+	private static final int LNAME = 1;
+	private static final int PHONE = 2;
+	//trigrams are over ' ', a-z and 0-9
+	private static final int SYMBOLS = 37;
+	//marks the keys of a phonetic match in the scratch counts
+	private static final int SOUNDS_LIKE = 1 << 30;
+
+	//growable int list, small to start with since there is one per key and per trigram
+	private static final class IntList {
+		int[] values = new int[2];
+		int size = 0;
+
+		void add(int value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = value;
+		}
+	}//end IntList
+
+	private final MechanicShop _esql;
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	//one row per customer version, appended only
+	private int _size = 0;
+	private int[] _ids = new int[1024];
+	private String[] _fnames = new String[1024];
+	private String[] _lnames = new String[1024];
+	private String[] _phones = new String[1024];
+	private boolean[] _replaced = new boolean[1024];
+	private int _customers = 0;
+	private final AnalyticsSnapshot.IntIndex _rows = new AnalyticsSnapshot.IntIndex();
+
+	//distinct normalized names and numbers: many customers share a name, so words are scored once per key
+	private final Map<String, Integer> _keyIds = new HashMap<String, Integer>();
+	private int _keyCount = 0;
+	private String[] _keys = new String[1024];
+	//distinct trigrams of each key
+	private int[] _grams = new int[1024];
+	//rows having each key, as row * 4 + field
+	private IntList[] _postings = new IntList[1024];
+	//keys by trigram, and name keys by Soundex code
+	private final IntList[] _byTrigram = new IntList[SYMBOLS * SYMBOLS * SYMBOLS];
+	private final Map<String, IntList> _bySound = new HashMap<String, IntList>();
+
+	private final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>() {
+		protected Scratch initialValue() { return new Scratch(); }
+	};
+
+	//the customer ids already read by refresh()
+	private final KeyRanges _read = new KeyRanges();
+	private ScheduledExecutorService _refresher;
+	private final LatencyHistogram _latency = new LatencyHistogram();
+
+	//per-thread working space of search(), left zeroed after every search
+	private static final class Scratch {
+		//trigrams each key shares with the word, and the score of each matched key
+		int[] shared = new int[0];
+		double[] scores = new double[0];
+		//each row's best score for the word, and its total over the words
+		double[] word = new double[0];
+		double[] total = new double[0];
+		final IntList touched = new IntList();
+		final IntList matched = new IntList();
+		final IntList rows = new IntList();
+		final IntList found = new IntList();
+
+		void fit(int rows, int keys) {
+			if (this.shared.length < keys){
+				int capacity = Math.max(keys, this.shared.length * 2);
+				this.shared = new int[capacity];
+				this.scores = new double[capacity];
+			}//end if
+			if (this.word.length < rows){
+				int capacity = Math.max(rows, this.word.length * 2);
+				this.word = new double[capacity];
+				this.total = new double[capacity];
+			}//end if
+		}//end fit
+	}//end Scratch
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param esql the MechanicShop the customers are read through
+	 */
+	public CustomerSearch(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to read the customers added since the last refresh, all of
+	 * them the first time.
+	 *
+	 * @return the number of customers read
+	 * @throws java.sql.SQLException when Customer could not be read
+	 */
+	public synchronized int refresh() throws SQLException {
+		long[] txids = this._esql.queryForObject(KeyRanges.SNAPSHOT, KeyRanges.TXIDS);
+		return (int) this._read.read(this._esql, CUSTOMERS, txids, new KeyRanges.KeyedRow() {
+			public boolean load(Row row) throws SQLException {
+				add(row.getInt(1), row.getString(2), row.getString(3), row.getString(4));
+				return true;
+			}
+		});
+	}//end refresh
+
+	/**
+	 * Method to refresh the index every interval while the program runs.
+	 *
+	 * @param intervalMillis the pause between refreshes
+	 */
+	public synchronized void start(long intervalMillis) {
+		if (this._refresher != null)
+			return;
+		this._refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "customer-search-refresh");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._refresher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try{
+					refresh();
+				}catch (SQLException e){
+					System.err.println("Warning - customer search refresh failed: " + e.getMessage());
+				}//end try
+			}
+		}, intervalMillis, Math.max(100, intervalMillis), TimeUnit.MILLISECONDS);
+	}//end start
+
+	public synchronized void close() {
+		if (this._refresher != null)
+			this._refresher.shutdownNow();
+	}
+
+	/**
+	 * Method to index a customer, replacing an earlier version with the
+	 * same id.
+	 *
+	 * @param id the customer id
+	 * @param fname the first name
+	 * @param lname the last name
+	 * @param phone the phone number
+	 */
+	public void add(int id, String fname, String lname, String phone) {
+		fname = trim(fname);
+		lname = trim(lname);
+		phone = trim(phone);
+		this._lock.writeLock().lock();
+		try{
+			int old = this._rows.get(id);
+			if (old >= 0){
+				if (this._fnames[old].equals(fname) && this._lnames[old].equals(lname) && this._phones[old].equals(phone))
+					return;
+				this._replaced[old] = true;
+			}else{
+				this._customers++;
+			}//end if
+			int row = this._size;
+			if (row == this._ids.length)
+				grow();
+			this._ids[row] = id;
+			this._fnames[row] = fname;
+			this._lnames[row] = lname;
+			this._phones[row] = phone;
+			post(row * 4 + FNAME, letters(fname));
+			post(row * 4 + LNAME, letters(lname));
+			post(row * 4 + PHONE, digits(phone));
+			this._rows.put(id, row);
+			this._size++;
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}//end add
+
+	private void post(int posting, String key) {
+		if (key.length() == 0)
+			return;
+		Integer k = this._keyIds.get(key);
+		if (k == null){
+			k = this._keyCount;
+			if (k == this._keys.length){
+				this._keys = Arrays.copyOf(this._keys, k * 2);
+				this._grams = Arrays.copyOf(this._grams, k * 2);
+				this._postings = Arrays.copyOf(this._postings, k * 2);
+			}//end if
+			this._keys[k] = key;
+			this._postings[k] = new IntList();
+			int[] grams = trigrams(key);
+			this._grams[k] = grams.length;
+			for (int gram : grams){
+				if (this._byTrigram[gram] == null)
+					this._byTrigram[gram] = new IntList();
+				this._byTrigram[gram].add(k);
+			}//end for
+			String sound = soundex(key);
+			if (sound != null){
+				IntList alike = this._bySound.get(sound);
+				if (alike == null){
+					alike = new IntList();
+					this._bySound.put(sound, alike);
+				}//end if
+				alike.add(k);
+			}//end if
+			this._keyIds.put(key, k);
+			this._keyCount++;
+		}//end if
+		this._postings[k].add(posting);
+	}//end post
+
+	private void grow() {
+		int capacity = this._ids.length * 2;
+		this._ids = Arrays.copyOf(this._ids, capacity);
+		this._fnames = Arrays.copyOf(this._fnames, capacity);
+		this._lnames = Arrays.copyOf(this._lnames, capacity);
+		this._phones = Arrays.copyOf(this._phones, capacity);
+		this._replaced = Arrays.copyOf(this._replaced, capacity);
+	}//end grow
+
+	/**
+	 * Method to find the customers best matching what was typed.
+	 *
+	 * @param text names or a phone number, whole or in part
+	 * @param limit the most matches returned
+	 * @return the matches, best first
+	 */
+	public List<Match> search(String text, int limit) {
+		long start = System.nanoTime();
+		List<String> words = words(text);
+		if (words.isEmpty() || limit < 1)
+			return Collections.emptyList();
+		this._lock.readLock().lock();
+		try{
+			Scratch s = this._scratch.get();
+			s.fit(this._size, this._keyCount);
+			return words.size() == 1 ? best(words.get(0), limit, s) : best(words, limit, s);
+		}finally{
+			this._lock.readLock().unlock();
+			this._latency.record(System.nanoTime() - start);
+		}//end try
+	}//end search
+
+	//one word: the rows of the best keys first, each key's rows in the order they were added
+	private List<Match> best(String word, int limit, Scratch s) {
+		match(word, s);
+		List<Match> matches = new ArrayList<Match>(limit);
+		//every key has a row unless all its customers were replaced, so limit keys are usually enough
+		for (int wanted = limit; ; wanted = s.matched.size){
+			matches.clear();
+			s.rows.size = 0;
+			Integer[] keys = top(s, wanted);
+			for (int i = 0; i < keys.length && matches.size() < limit; i++){
+				IntList postings = this._postings[keys[i]];
+				for (int j = 0; j < postings.size && matches.size() < limit; j++){
+					int row = postings.values[j] >> 2;
+					//a row whose first and last name both match is listed once, under the better key
+					if (this._replaced[row] || s.word[row] != 0)
+						continue;
+					s.word[row] = 1;
+					s.rows.add(row);
+					matches.add(new Match(this._ids[row], this._fnames[row], this._lnames[row], this._phones[row], s.scores[keys[i]]));
+				}//end for
+			}//end for
+			for (int i = 0; i < s.rows.size; i++)
+				s.word[s.rows.values[i]] = 0;
+			if (matches.size() == limit || keys.length == s.matched.size)
+				return matches;
+		}//end for
+	}//end best
+
+	//the best n matched keys, best first
+	private Integer[] top(Scratch s, int n) {
+		final double[] scores = s.scores;
+		final Comparator<Integer> worstFirst = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(scores[a], scores[b]);
+				return c != 0 ? c : _keys[b].compareTo(_keys[a]);
+			}
+		};
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, Math.min(n, s.matched.size)) + 1, worstFirst);
+		for (int i = 0; i < s.matched.size; i++){
+			Integer k = s.matched.values[i];
+			if (best.size() < n){
+				best.add(k);
+			}else if (worstFirst.compare(k, best.peek()) > 0){
+				best.poll();
+				best.add(k);
+			}//end if
+		}//end for
+		Integer[] keys = new Integer[best.size()];
+		for (int i = keys.length - 1; i >= 0; i--)
+			keys[i] = best.poll();
+		return keys;
+	}//end top
+
+	//several words: the rows matching every word, by the sum of their best score per word
+	private List<Match> best(List<String> words, int limit, Scratch s) {
+		final double[] total = s.total;
+		double[] word = s.word;
+		//matched keys of every word, the word with the fewest rows first
+		int[][] keys = new int[words.size()][];
+		double[][] scores = new double[words.size()][];
+		final long[] rows = new long[words.size()];
+		Integer[] order = new Integer[words.size()];
+		for (int w = 0; w < keys.length; w++){
+			match(words.get(w), s);
+			keys[w] = Arrays.copyOf(s.matched.values, s.matched.size);
+			scores[w] = new double[keys[w].length];
+			for (int i = 0; i < keys[w].length; i++){
+				scores[w][i] = s.scores[keys[w][i]];
+				rows[w] += this._postings[keys[w][i]].size;
+			}//end for
+			order[w] = w;
+		}//end for
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) { return Long.compare(rows[a], rows[b]); }
+		});
+
+		s.found.size = 0;
+		for (int n = 0; n < order.length; n++){
+			int w = order[n];
+			for (int i = 0; i < keys[w].length; i++){
+				IntList postings = this._postings[keys[w][i]];
+				for (int j = 0; j < postings.size; j++){
+					int row = postings.values[j] >> 2;
+					if (n == 0){
+						if (this._replaced[row])
+							continue;
+						if (total[row] == 0)
+							s.found.add(row);
+						if (scores[w][i] > total[row])
+							total[row] = scores[w][i];
+					}else if (total[row] != 0 && scores[w][i] > word[row]){
+						word[row] = scores[w][i];
+					}//end if
+				}//end for
+			}//end for
+			if (n == 0)
+				continue;
+			//rows without this word drop out
+			int kept = 0;
+			for (int i = 0; i < s.found.size; i++){
+				int row = s.found.values[i];
+				if (word[row] == 0){
+					total[row] = 0;
+					continue;
+				}//end if
+				total[row] += word[row];
+				word[row] = 0;
+				s.found.values[kept++] = row;
+			}//end for
+			s.found.size = kept;
+		}//end for
+
+		//the best rows, kept in a heap whose head is the worst of them
+		Comparator<Integer> worstFirst = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(total[a], total[b]);
+				if (c != 0)
+					return c;
+				c = _lnames[b].compareTo(_lnames[a]);
+				return c != 0 ? c : Integer.compare(_ids[b], _ids[a]);
+			}
+		};
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(limit + 1, worstFirst);
+		for (int i = 0; i < s.found.size; i++){
+			Integer row = s.found.values[i];
+			if (best.size() < limit){
+				best.add(row);
+			}else if (worstFirst.compare(row, best.peek()) > 0){
+				best.poll();
+				best.add(row);
+			}//end if
+		}//end for
+		Match[] matches = new Match[best.size()];
+		for (int i = matches.length - 1; i >= 0; i--){
+			int row = best.poll();
+			matches[i] = new Match(this._ids[row], this._fnames[row], this._lnames[row], this._phones[row], total[row] / words.size());
+		}//end for
+		for (int i = 0; i < s.found.size; i++)
+			total[s.found.values[i]] = 0;
+		return Arrays.asList(matches);
+	}//end best
+
+	/*
+	 * Scores the keys sharing trigrams or the Soundex code with the word;
+	 * those scoring enough go to s.matched.  A key scores enough only when
+	 * it shares at least 'needed' trigrams (or sounds alike), so the
+	 * longest trigram lists only count for keys found in the shorter ones.
+	 * Numbers are looked for whole or in part, never misspelled, so their
+	 * keys must hold every trigram inside the number.
+	 */
+	private void match(String word, Scratch s) {
+		int[] shared = s.shared;
+		s.touched.size = 0;
+		s.matched.size = 0;
+		String sound = soundex(word);
+		boolean number = sound == null;
+		int[] grams = number ? inner(trigrams(word)) : trigrams(word);
+		int needed = grams.length;
+		if (!number){
+			needed = Math.min(grams.length - 1, (int) Math.ceil(MIN_SCORE * grams.length));
+			if (word.length() >= 3)
+				needed = Math.min(needed, grams.length - 3);
+			needed = Math.max(1, needed);
+		}//end if
+		final IntList[] lists = new IntList[grams.length];
+		Integer[] order = new Integer[grams.length];
+		for (int i = 0; i < grams.length; i++){
+			lists[i] = this._byTrigram[grams[i]];
+			order[i] = i;
+		}//end for
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(lists[a] == null ? 0 : lists[a].size, lists[b] == null ? 0 : lists[b].size);
+			}
+		});
+		//names sounding alike first, so that their shared trigrams are counted too
+		IntList alike = number ? null : this._bySound.get(sound);
+		if (alike != null){
+			for (int i = 0; i < alike.size; i++){
+				int k = alike.values[i];
+				shared[k] = SOUNDS_LIKE;
+				s.touched.add(k);
+			}//end for
+		}//end if
+		for (int n = 0; n < order.length; n++){
+			IntList keys = lists[order[n]];
+			if (keys == null)
+				continue;
+			boolean admit = n <= grams.length - needed;
+			for (int i = 0; i < keys.size; i++){
+				int k = keys.values[i];
+				if (shared[k] != 0)
+					shared[k]++;
+				else if (admit){
+					shared[k] = 1;
+					s.touched.add(k);
+				}//end if
+			}//end for
+		}//end for
+
+		for (int i = 0; i < s.touched.size; i++){
+			int k = s.touched.values[i];
+			int hits = shared[k];
+			shared[k] = 0;
+			int common = hits & ~SOUNDS_LIKE;
+			String key = this._keys[k];
+			double similarity = number ? 0 : (double) common / (grams.length + this._grams[k] - common);
+			double score;
+			if (key.equals(word))
+				score = 1.0;
+			else if (key.startsWith(word))
+				score = 0.8 + 0.1 * word.length() / key.length();
+			//inside the key it shares every trigram but the padded ones
+			else if (word.length() >= 3 && common >= (number ? grams.length : grams.length - 3) && key.contains(word))
+				score = 0.7 + 0.1 * word.length() / key.length();
+			else
+				score = similarity;
+			//names sounding alike rank by how alike they are written
+			if ((hits & SOUNDS_LIKE) != 0)
+				score = Math.max(score, PHONETIC_SCORE + 0.2 * similarity);
+			if (score >= MIN_SCORE){
+				s.scores[k] = score;
+				s.matched.add(k);
+			}//end if
+		}//end for
+	}//end match
+
+	//the words typed, normalized; a phone number is one word
+	static List<String> words(String text) {
+		List<String> words = new ArrayList<String>();
+		if (text == null)
+			return words;
+		String number = digits(text);
+		if (number.length() >= 3 && letters(text).equals(number)){
+			words.add(number);
+			return words;
+		}//end if
+		for (String part : text.trim().split("[\\s,]+")){
+			String word = letters(part);
+			if (word.length() > 0 && !words.contains(word))
+				words.add(word);
+		}//end for
+		return words;
+	}//end words
+
+	//lower case letters and digits only
+	static String letters(String text) {
+		StringBuilder out = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++){
+			char c = Character.toLowerCase(text.charAt(i));
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))
+				out.append(c);
+		}//end for
+		return out.toString();
+	}//end letters
+
+	static String digits(String text) {
+		StringBuilder out = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9')
+				out.append(c);
+		}//end for
+		return out.toString();
+	}//end digits
+
+	private static String trim(String value) {
+		return value == null ? "" : value.trim();
+	}
+
+	/*
+	 * The distinct trigrams of a normalized word padded like pg_trgm does:
+	 * two blanks before and one after, so "ab" has "  a", " ab" and "ab ".
+	 */
+	static int[] trigrams(String key) {
+		if (key.length() == 0)
+			return new int[0];
+		int[] grams = new int[key.length() + 1];
+		int a = 0, b = 0;
+		for (int i = 0; i <= key.length(); i++){
+			int c = i < key.length() ? symbol(key.charAt(i)) : 0;
+			grams[i] = (a * SYMBOLS + b) * SYMBOLS + c;
+			a = b;
+			b = c;
+		}//end for
+		Arrays.sort(grams);
+		int distinct = 0;
+		for (int i = 0; i < grams.length; i++)
+			if (i == 0 || grams[i] != grams[i - 1])
+				grams[distinct++] = grams[i];
+		return Arrays.copyOf(grams, distinct);
+	}//end trigrams
+
+	//the trigrams without padding, those found anywhere inside a key
+	private static int[] inner(int[] grams) {
+		int count = 0;
+		int[] inside = new int[grams.length];
+		for (int gram : grams)
+			if (gram / (SYMBOLS * SYMBOLS) != 0 && gram % SYMBOLS != 0)
+				inside[count++] = gram;
+		return Arrays.copyOf(inside, count);
+	}//end inner
+
+	private static int symbol(char c) {
+		return c >= 'a' && c <= 'z' ? c - 'a' + 1 : c - '0' + 27;
+	}
+
+	//American Soundex of a word of letters; null when it has digits
+	static String soundex(String word) {
+		if (word.length() == 0 || word.charAt(0) < 'a' || word.charAt(0) > 'z')
+			return null;
+		final String codes = "01230120022455012623010202";
+		StringBuilder out = new StringBuilder(4).append(Character.toUpperCase(word.charAt(0)));
+		char last = codes.charAt(word.charAt(0) - 'a');
+		for (int i = 1; i < word.length() && out.length() < 4; i++){
+			char c = word.charAt(i);
+			if (c < 'a' || c > 'z')
+				return null;
+			char code = codes.charAt(c - 'a');
+			if (code != '0' && code != last)
+				out.append(code);
+			//h and w do not separate equal codes, vowels do
+			if (c != 'h' && c != 'w')
+				last = code;
+		}//end for
+		while (out.length() < 4)
+			out.append('0');
+		return out.toString();
+	}//end soundex
+
+	public int size() {
+		this._lock.readLock().lock();
+		try{
+			return this._customers;
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}//end size
+
+	@Override
+	public String toString() {
+		return String.format("Customer search: %d customer(s), %d search(es), mean %.1f us, p99 %.1f us",
+			size(), this._latency.count(), this._latency.meanNanos() / 1e3, this._latency.percentileNanos(99) / 1e3);
+	}//end toString
+}//end CustomerSearch
@@ -0,0 +1,352 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is an append-only file of events, one JSON object per line.
+ * A record's offset is the byte position where its line starts, so a
+ * consumer reads from any offset it was given without an index, and the
+ * offset after a batch is where the next batch starts.  Records are never
+ * rewritten; a line cut short by a crash is removed when the log is next
+ * opened for writing.
+ *
+ * One process appends, holding a lock on the file; any number read, in
+ * the same process or others.  Readers waiting in poll() wake as soon as
+ * a record is appended in the same process, and check the file every
+ * 100 ms otherwise.  Named consumers can keep their offset next to the log
+ * in a file of their own, replaced atomically on every commit.
+ *
+ */
+public class EventLog {
+
+	/**
+	 * One record and the offset it starts at.
+	 */
+	public static final class Event {
+		public final long offset;
+		public final String json;
+
+		Event(long offset, String json) {
+			this.offset = offset;
+			this.json = json;
+		}
+	}//end Event
+
+	/**
+	 * The records of one read and the offset to read from next.
+	 */
+	public static final class Batch {
+		public final List<Event> events;
+		public final long next;
+
+		Batch(List<Event> events, long next) {
+			this.events = events;
+			this.next = next;
+		}
+	}//end Batch
+
+	private final Path _path;
+	private final FileChannel _reader;
+	//null when the log is opened for reading only
+	private final FileChannel _writer;
+	private final FileLock _lock;
+	//end of the last complete record written, guarded by this
+	private long _end;
+	private long _appended = 0;
+	private long _syncs = 0;
+
+	/**
+	 * Opens a log, creating the file if needed.
+	 *
+	 * @param path the log file
+	 * @param writable true to append, which needs the file's lock
+	 * @throws java.io.IOException when the file cannot be opened, or another process appends to it
+	 */
+	public EventLog(String path, boolean writable) throws IOException {
+		this._path = Paths.get(path);
+		try{
+			Files.createFile(this._path);
+		}catch (FileAlreadyExistsException e){
+			// appended to before.
+		}//end try
+		if (writable){
+			this._writer = FileChannel.open(this._path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			FileLock lock;
+			try{
+				lock = this._writer.tryLock();
+			}catch (OverlappingFileLockException e){
+				//held by this process already
+				lock = null;
+			}//end try
+			this._lock = lock;
+			if (this._lock == null){
+				this._writer.close();
+				throw new IOException("event log " + path + " is already being written");
+			}//end if
+			//drops a last line the previous writer did not finish
+			this._end = recordStart(this._writer, this._writer.size());
+			this._writer.truncate(this._end);
+		}else{
+			this._writer = null;
+			this._lock = null;
+		}//end if
+		this._reader = FileChannel.open(this._path, StandardOpenOption.READ);
+	}//end EventLog
+
+	//the start of the record holding position: just after the newline before it
+	private static long recordStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (position > 0){
+			long from = Math.max(0, position - buffer.capacity());
+			buffer.clear();
+			buffer.limit((int) (position - from));
+			readFully(channel, buffer, from);
+			for (int i = buffer.limit() - 1; i >= 0; i--)
+				if (buffer.get(i) == '\n')
+					return from + i + 1;
+			position = from;
+		}//end while
+		return 0;
+	}//end recordStart
+
+	//reads until the buffer is full or the file ends; the bytes read
+	private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()){
+			int n = channel.read(buffer, position + total);
+			if (n < 0)
+				break;
+			total += n;
+		}//end while
+		return total;
+	}//end readFully
+
+	/**
+	 * Method to append records and force them to disk before returning.
+	 *
+	 * @param records JSON objects without line breaks
+	 * @return the offset after the last record
+	 * @throws java.io.IOException when the log is read only or the write failed
+	 */
+	public synchronized long append(List<String> records) throws IOException {
+		if (this._writer == null)
+			throw new IOException("event log " + this._path + " is open for reading only");
+		StringBuilder lines = new StringBuilder();
+		for (String record : records){
+			if (record.indexOf('\n') >= 0)
+				throw new IllegalArgumentException("a record must be a single line");
+			lines.append(record).append('\n');
+		}//end for
+		ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+		long position = this._end;
+		while (bytes.hasRemaining())
+			position += this._writer.write(bytes, position);
+		this._writer.force(false);
+		this._end = position;
+		this._appended += records.size();
+		this._syncs++;
+		notifyAll();
+		return position;
+	}//end append
+
+	/**
+	 * Method to empty the log, for logs whose every reader is done with it;
+	 * offsets handed out before no longer apply.
+	 *
+	 * @throws java.io.IOException when the log is read only or cannot be truncated
+	 */
+	public synchronized void clear() throws IOException {
+		if (this._writer == null)
+			throw new IOException("event log " + this._path + " is open for reading only");
+		this._writer.truncate(0);
+		this._writer.force(false);
+		this._end = 0;
+	}//end clear
+
+	/**
+	 * Method to read the complete records from an offset on.
+	 *
+	 * @param offset 0 or an offset returned by this log
+	 * @param max the most records returned
+	 * @return the records, possibly none, and the offset after them
+	 * @throws java.io.IOException when the file cannot be read
+	 * @throws IllegalArgumentException when the offset is not the start of a record
+	 */
+	public Batch read(long offset, int max) throws IOException {
+		if (offset < 0 || offset > this._reader.size() || recordStart(this._reader, offset) != offset)
+			throw new IllegalArgumentException("offset " + offset + " is not the start of a record");
+		List<Event> events = new ArrayList<Event>();
+		long position = offset;
+		int size = 65536;
+		while (events.size() < max){
+			ByteBuffer chunk = ByteBuffer.allocate(size);
+			int n = readFully(this._reader, chunk, position);
+			byte[] bytes = chunk.array();
+			int start = 0;
+			for (int i = 0; i < n && events.size() < max; i++){
+				if (bytes[i] != '\n')
+					continue;
+				events.add(new Event(position + start, new String(bytes, start, i - start, StandardCharsets.UTF_8)));
+				start = i + 1;
+			}//end for
+			position += start;
+			if (n < size)
+				break;
+			//a record longer than the chunk
+			if (start == 0)
+				size *= 2;
+		}//end while
+		return new Batch(events, position);
+	}//end read
+
+	/**
+	 * Method to read records, waiting for some when there are none yet.
+	 *
+	 * @param offset 0 or an offset returned by this log
+	 * @param max the most records returned
+	 * @param waitMillis how long to wait for the first record
+	 * @return the records, none when the wait ran out, and the offset after them
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public Batch poll(long offset, int max, long waitMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + Math.max(0, waitMillis);
+		while (true){
+			Batch batch = read(offset, max);
+			long left = deadline - System.currentTimeMillis();
+			if (!batch.events.isEmpty() || left <= 0)
+				return batch;
+			synchronized (this){
+				try{
+					wait(Math.min(left, 100));
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					return batch;
+				}//end try
+			}//end synchronized
+		}//end while
+	}//end poll
+
+	/**
+	 * Method to read the last records of the log.
+	 *
+	 * @param count how many records
+	 * @return up to count records, oldest first
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public List<Event> last(int count) throws IOException {
+		long end = size();
+		for (long span = 65536; ; span *= 2){
+			long from = recordStart(this._reader, Math.max(0, end - span));
+			List<Event> events = read(from, Integer.MAX_VALUE).events;
+			if (events.size() >= count || from == 0)
+				return events.subList(Math.max(0, events.size() - count), events.size());
+		}//end for
+	}//end last
+
+	/**
+	 * @return the offset after the last complete record
+	 */
+	public long size() throws IOException {
+		if (this._writer != null){
+			synchronized (this){
+				return this._end;
+			}//end synchronized
+		}//end if
+		return recordStart(this._reader, this._reader.size());
+	}//end size
+
+	//the offset file of a consumer, next to the log
+	private Path offsetFile(String consumer) {
+		if (!consumer.matches("[A-Za-z0-9_.-]+"))
+			throw new IllegalArgumentException("consumer names are letters, digits, '.', '_' and '-'");
+		return this._path.resolveSibling(this._path.getFileName() + "." + consumer + ".offset");
+	}//end offsetFile
+
+	/**
+	 * Method to find where a consumer stopped.
+	 *
+	 * @param consumer the consumer's name
+	 * @return the offset it last committed, 0 when it never did or the file is unreadable
+	 * @throws java.io.IOException when the offset file cannot be read
+	 */
+	public long committed(String consumer) throws IOException {
+		Path file = offsetFile(consumer);
+		if (!Files.exists(file))
+			return 0;
+		String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+		try{
+			return Long.parseLong(text);
+		}catch (NumberFormatException e){
+			//a file cut short by a crash; consumers replay from the start, which they handle
+			System.err.println("Warning - offset file " + file + " holds '" + text + "', reading from offset 0");
+			return 0;
+		}//end try
+	}//end committed
+
+	/**
+	 * Method to record where a consumer has read up to, so that it resumes
+	 * there.  The file is written aside and moved over the old one.
+	 *
+	 * @param consumer the consumer's name
+	 * @param offset the offset after the last record it processed
+	 * @throws java.io.IOException when the offset file cannot be written
+	 */
+	public void commit(String consumer, long offset) throws IOException {
+		Path file = offsetFile(consumer);
+		Path next = file.resolveSibling(file.getFileName() + ".next");
+		FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			ByteBuffer bytes = ByteBuffer.wrap((offset + "\n").getBytes(StandardCharsets.UTF_8));
+			while (bytes.hasRemaining())
+				channel.write(bytes);
+			//on disk before the move, so the move never exposes an empty file
+			channel.force(true);
+		}finally{
+			channel.close();
+		}//end try
+		Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}//end commit
+
+	public synchronized void close() {
+		try{
+			if (this._lock != null)
+				this._lock.release();
+			if (this._writer != null)
+				this._writer.close();
+			this._reader.close();
+		}catch (IOException e){
+			// ignored, nothing is left to write.
+		}//end try
+	}//end close
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Event log %s: %d byte(s), %d record(s) appended in %d sync(s)",
+			this._path, this._writer != null ? this._end : -1, this._appended, this._syncs);
+	}//end toString
+}//end EventLog
@@ -0,0 +1,271 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import mechanicshop.jdbc.LatencyHistogram;
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+
+/**
+ * This class moves the request lifecycle events from the Request_Event
+ * outbox to an EventLog.  insertServiceRequest and closeServiceRequest
+ * write their event in the same statement as the request or closing, so
+ * an event exists exactly when its row was committed.  The relay takes
+ * the oldest events a batch at a time, locking them so that a second
+ * relay skips them, appends them to the log with one disk sync, and
+ * deletes them in the same transaction.  The outbox therefore only holds
+ * what has not reached the log yet.
+ *
+ * A crash between the log sync and the commit leaves a batch both in the
+ * log and in the outbox; the relay remembers the ids of the last batch it
+ * appended, read back from the log when it starts, and deletes those
+ * without appending them again.  A closing is always logged after the
+ * opening of its request.
+ *
+ * Events are relayed every poll interval, and at once after a write made
+ * by this process.
+ *
+ */
+public class EventRelay {
+
+	static final String BATCH =
+		"SELECT id, type, rid, wid, customer_id, car_vin, mid, CAST(date AS text), odometer, bill, CAST(at AS text), " +
+		"CAST(EXTRACT(EPOCH FROM clock_timestamp() - at) * 1000 AS bigint) " +
+		"FROM Request_Event ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+	static final String DELETE = "DELETE FROM Request_Event WHERE id = ANY(CAST(CAST(? AS text) AS bigint[]))";
+	//the fields of an event, in BATCH order; the quoted ones are text
+	static final String[] FIELDS = {"id", "type", "rid", "wid", "customer_id", "car_vin", "mid", "date", "odometer", "bill", "at"};
+	static final boolean[] QUOTED = {false, true, false, false, false, true, false, true, false, false, true};
+
+	private final MechanicShop _esql;
+	private final EventLog _log;
+	private final int _batchSize;
+	//ids of the last batch appended, which may still be in the outbox
+	private Set<Long> _logged = new HashSet<Long>();
+	private ScheduledExecutorService _relayer;
+	private final AtomicBoolean _woken = new AtomicBoolean();
+	private final Runnable _drain = new Runnable() {
+		public void run() {
+			_woken.set(false);
+			try{
+				drain();
+			}catch (Exception e){
+				System.err.println("Warning - event relay failed: " + e.getMessage());
+			}//end try
+		}
+	};
+
+	private long _relayed = 0;
+	private long _batches = 0;
+	private long _duplicates = 0;
+	//time from the write to the log append
+	private final LatencyHistogram _lag = new LatencyHistogram();
+
+	/**
+	 * Creates a relay; the ids of the last batch in the log are read back.
+	 *
+	 * @param esql the MechanicShop whose connections read the outbox
+	 * @param log the log appended to, open for writing
+	 * @param batchSize the most events per transaction and disk sync
+	 * @throws java.io.IOException when the log cannot be read
+	 */
+	public EventRelay(MechanicShop esql, EventLog log, int batchSize) throws IOException {
+		this._esql = esql;
+		this._log = log;
+		this._batchSize = Math.max(1, batchSize);
+		for (EventLog.Event event : log.last(this._batchSize)){
+			String id = BatchRunner.parseJson(event.json).get("id");
+			if (id != null)
+				this._logged.add(Long.parseLong(id));
+		}//end for
+	}//end EventRelay
+
+	/**
+	 * @return the log the events go to
+	 */
+	public EventLog log() {
+		return this._log;
+	}
+
+	/**
+	 * Method to move one batch of events from the outbox to the log.
+	 *
+	 * @return the number of events taken from the outbox
+	 * @throws java.sql.SQLException when the outbox could not be read or the batch deleted
+	 * @throws java.io.IOException when the log could not be written; the batch stays in the outbox
+	 */
+	public synchronized int relay() throws SQLException, IOException {
+		final List<Long> ids = new ArrayList<Long>();
+		final List<String> records = new ArrayList<String>();
+		final List<Long> lags = new ArrayList<Long>();
+		final Set<Long> logged = this._logged;
+		this._esql.beginTransaction();
+		try{
+			this._esql.executeQueryAndStream(BATCH, new RowHandler() {
+				public void handle(Row row) throws SQLException {
+					long id = row.getLong(1);
+					ids.add(id);
+					if (logged.contains(id))
+						return;
+					records.add(json(row));
+					lags.add(row.getLong(FIELDS.length + 1));
+				}
+			}, this._batchSize);
+			if (!records.isEmpty())
+				this._log.append(records);
+			this._logged = new HashSet<Long>(ids);
+			if (!ids.isEmpty())
+				this._esql.executeUpdate(DELETE, array(ids));
+			this._esql.commit();
+		}finally{
+			//nothing left to undo after a commit
+			this._esql.rollback();
+		}//end try
+		if (!ids.isEmpty())
+			this._batches++;
+		this._relayed += records.size();
+		this._duplicates += ids.size() - records.size();
+		for (long lag : lags)
+			this._lag.record(lag * 1000000L);
+		return ids.size();
+	}//end relay
+
+	/**
+	 * Method to relay batches until the outbox is empty.
+	 *
+	 * @return the number of events taken from the outbox
+	 */
+	public int drain() throws SQLException, IOException {
+		int total = 0;
+		for (int n = relay(); n > 0; n = n < this._batchSize ? 0 : relay())
+			total += n;
+		return total;
+	}//end drain
+
+	//one event as a flat JSON object, NULL fields left out
+	static String json(Row row) throws SQLException {
+		StringBuilder out = new StringBuilder("{");
+		for (int i = 0; i < FIELDS.length; i++){
+			String value = row.getString(i + 1);
+			if (value == null)
+				continue;
+			if (out.length() > 1)
+				out.append(',');
+			out.append('"').append(FIELDS[i]).append("\":");
+			if (QUOTED[i])
+				quote(value.trim(), out);
+			else
+				out.append(value);
+		}//end for
+		return out.append('}').toString();
+	}//end json
+
+	static void quote(String value, StringBuilder out) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				out.append('\\').append(c);
+			else if (c < 0x20)
+				out.append(String.format("\\u%04x", (int) c));
+			else
+				out.append(c);
+		}//end for
+		out.append('"');
+	}//end quote
+
+	private static String array(List<Long> ids) {
+		StringBuilder out = new StringBuilder("{");
+		for (long id : ids){
+			if (out.length() > 1)
+				out.append(',');
+			out.append(id);
+		}//end for
+		return out.append('}').toString();
+	}//end array
+
+	/**
+	 * Method to start relaying in the background.
+	 *
+	 * @param pollMillis how often the outbox is checked for other processes' events
+	 */
+	public synchronized void start(long pollMillis) {
+		if (this._relayer != null)
+			return;
+		this._relayer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "event-relay");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._relayer.scheduleWithFixedDelay(this._drain, 0, Math.max(10, pollMillis), TimeUnit.MILLISECONDS);
+	}//end start
+
+	/**
+	 * Method to relay soon, after this process wrote an event.  Calls made
+	 * while a relay is already due are merged into it.
+	 */
+	public void wake() {
+		ScheduledExecutorService relayer;
+		synchronized (this){
+			relayer = this._relayer;
+		}//end synchronized
+		if (relayer != null && this._woken.compareAndSet(false, true)){
+			try{
+				relayer.execute(this._drain);
+			}catch (RejectedExecutionException e){
+				// closing, the outbox keeps the event.
+			}//end try
+		}//end if
+	}//end wake
+
+	/**
+	 * Method to stop relaying, letting a batch under way finish, and close
+	 * the log.  Events not relayed yet stay in the outbox.
+	 */
+	public void close() {
+		ScheduledExecutorService relayer;
+		synchronized (this){
+			relayer = this._relayer;
+		}//end synchronized
+		if (relayer != null){
+			relayer.shutdown();
+			try{
+				relayer.awaitTermination(5, TimeUnit.SECONDS);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+		}//end if
+		this._log.close();
+	}//end close
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Event relay: %d event(s) in %d batch(es), %d duplicate(s) skipped, lag mean %.1f ms, p99 %.1f ms\n  %s",
+			this._relayed, this._batches, this._duplicates, this._lag.meanNanos() / 1e6, this._lag.percentileNanos(99) / 1e6, this._log);
+	}//end toString
+}//end EventRelay
@@ -0,0 +1,173 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+
+/**
+ * This class hands out new ids for the MechanicShop tables from the
+ * PostgreSQL sequences created by create.sql.  Instead of one nextval per
+ * insert, ids are fetched a block at a time in a single round trip and
+ * then handed out from memory, so an insert carries its id with it and
+ * costs no extra query.  Every id comes from the sequence, so concurrent
+ * sessions, other clients and the column defaults never collide.  Ids
+ * left in a block when the program exits are skipped, which leaves gaps
+ * but never duplicates.
+ *
+ * Readers that track the ids already read as ranges (KeyRanges,
+ * PartsDemand) close a gap for good once GAP_HOURS have passed, so no id
+ * may be handed out that long after its block was fetched.  A block is
+ * therefore dropped with its unused ids once it is older than a quarter of
+ * GAP_HOURS, leaving the rest for the transaction that takes the id to
+ * commit.
+ *
+ */
+public class IdAllocator {
+
+	public static final String CUSTOMER = "customer_id_seq";
+	public static final String MECHANIC = "mechanic_id_seq";
+	public static final String OWNERSHIP = "ownership_id_seq";
+	public static final String REQUEST = "rid_seq";
+	public static final String CLOSING = "wid_seq";
+	static final String[] SEQUENCES = {CUSTOMER, MECHANIC, OWNERSHIP, REQUEST, CLOSING};
+
+	//moves every sequence past the ids already in its table, run after bulk loads
+	static final String[] RESYNC = {
+		"SELECT setval('customer_id_seq', COALESCE(MAX(id), 0) + 1, false) FROM Customer",
+		"SELECT setval('mechanic_id_seq', COALESCE(MAX(id), 0) + 1, false) FROM Mechanic",
+		"SELECT setval('ownership_id_seq', COALESCE(MAX(ownership_id), 0) + 1, false) FROM Owns",
+		"SELECT setval('rid_seq', COALESCE(MAX(rid), 0) + 1, false) FROM Service_Request",
+		"SELECT setval('wid_seq', COALESCE(MAX(wid), 0) + 1, false) FROM Closed_Request"
+	};
+
+	//hours after which the gaps left by ids never used are closed by the readers tracking ids as ranges
+	public static final long GAP_HOURS = Long.getLong("mechanicshop.ids.gapHours", 24L);
+	//age at which a block is dropped with its unused ids, well below GAP_HOURS
+	static final long MAX_BLOCK_NANOS = GAP_HOURS * 3600L * 1000000000L / 4;
+
+	//one round trip returns a whole block, whatever the sequence's increment
+	static final String BLOCK = "SELECT nextval(CAST(? AS regclass)) FROM generate_series(1, ?)";
+
+	/**
+	 * The unused part of the last block fetched for one sequence, and its
+	 * usage counters.
+	 */
+	static class Block {
+		final String sequence;
+		int[] ids = new int[0];
+		int next = 0;
+		long fetchedAt = 0;
+		long blocks = 0;
+		long issued = 0;
+		long dropped = 0;
+		long fetchNanos = 0;
+
+		Block(String sequence) {
+			this.sequence = sequence;
+		}
+
+		int remaining() {
+			return this.ids.length - this.next;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d id(s) issued from %d block(s), %d left, %d dropped as too old, %.2f ms per block",
+				this.sequence, this.issued, this.blocks, remaining(), this.dropped, this.blocks == 0 ? 0 : this.fetchNanos / 1e6 / this.blocks);
+		}
+	}//end Block
+
+	private final MechanicShop _esql;
+	private final int _blockSize;
+	private final Map<String, Block> _blocks = new HashMap<String, Block>();
+
+	/**
+	 * Creates an allocator.
+	 *
+	 * @param esql the MechanicShop whose connections fetch the blocks
+	 * @param blockSize the number of ids fetched per round trip
+	 */
+	public IdAllocator(MechanicShop esql, int blockSize) {
+		this._esql = esql;
+		this._blockSize = Math.max(1, blockSize);
+		for (String sequence : SEQUENCES)
+			this._blocks.put(sequence, new Block(sequence));
+	}
+
+	/**
+	 * Method to take the next id of a sequence, fetching a new block when
+	 * the current one is used up or older than MAX_BLOCK_NANOS.  Callers
+	 * needing the same sequence wait only while a block is being fetched.
+	 *
+	 * @param sequence one of the sequence constants of this class
+	 * @return an id no other caller or session will get
+	 * @throws java.sql.SQLException when a new block could not be fetched
+	 */
+	public int next(String sequence) throws SQLException {
+		Block block = this._blocks.get(sequence);
+		if (block == null)
+			throw new IllegalArgumentException("unknown sequence " + sequence);
+		synchronized (block){
+			//an old block's ids may fall in gaps readers already closed
+			if (block.remaining() > 0 && System.nanoTime() - block.fetchedAt > MAX_BLOCK_NANOS){
+				block.dropped += block.remaining();
+				block.next = block.ids.length;
+			}//end if
+			if (block.remaining() == 0)
+				fetch(block);
+			block.issued++;
+			return block.ids[block.next++];
+		}//end synchronized
+	}//end next
+
+	//callers hold the block's lock
+	private void fetch(final Block block) throws SQLException {
+		final int[] ids = new int[this._blockSize];
+		final int[] count = {0};
+		long start = System.nanoTime();
+		block.fetchedAt = start;
+		this._esql.executeQueryAndStream(BLOCK, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				ids[count[0]++] = row.getInt(1);
+			}
+		}, block.sequence, this._blockSize);
+		if (count[0] != this._blockSize)
+			throw new SQLException("sequence " + block.sequence + " returned " + count[0] + " of " + this._blockSize + " id(s)");
+		block.fetchNanos += System.nanoTime() - start;
+		block.blocks++;
+		block.ids = ids;
+		block.next = 0;
+	}//end fetch
+
+	/**
+	 * Method to describe how the blocks are used.
+	 *
+	 * @return one line per sequence with ids issued, blocks fetched, ids left and fetch time
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder("Id blocks of " + this._blockSize + ":");
+		for (String sequence : SEQUENCES){
+			Block block = this._blocks.get(sequence);
+			synchronized (block){
+				out.append("\n  ").append(block);
+			}//end synchronized
+		}//end for
+		return out.toString();
+	}//end toString
+}//end IdAllocator
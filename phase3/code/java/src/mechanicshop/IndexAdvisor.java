@@ -0,0 +1,686 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import mechanicshop.jdbc.QueryMetrics;
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMappers;
+
+/**
+ * This class proposes indexes for the queries MechanicShop actually runs.
+ * The workload is the statement samples kept by QueryMetrics, after the
+ * menu's read paths have been exercised once, weighted by how often each
+ * statement ran.  For every read statement the advisor records which
+ * columns its predicates compare with values, which join two tables and
+ * which it selects, and derives candidates from them:
+ *
+ *   - equality columns followed by one range column;
+ *   - the same with the selected columns INCLUDEd, so the scan can be
+ *     index-only (PostgreSQL 11 and later);
+ *   - a partial index when a range predicate always uses the same value;
+ *   - the column of each side of a join.
+ *
+ * Each candidate is created inside a transaction, every statement on its
+ * table is EXPLAINed, and the transaction is rolled back, so nothing is
+ * left behind and other sessions never see it.  With the hypopg extension
+ * installed the candidates are hypothetical, cost nothing to create and
+ * lock nothing; otherwise each one is a real index build.  Candidates are
+ * picked greedily by weighted plan-cost saving, at most one per table and
+ * leading column.  In apply mode the picked indexes are built CONCURRENTLY, the
+ * tables analyzed, and every statement's plan cost and run time (EXPLAIN
+ * ANALYZE) compared with before.
+ *
+ * Without hypopg, evaluating a candidate builds the whole index, reading
+ * its entire table and holding a lock that blocks writes to the table
+ * until the build and its EXPLAINs end.  Each build is therefore limited
+ * to mechanicshop.advisor.buildMs (default 10000), skipping the
+ * candidates that take longer, and its time is printed; run the advisor
+ * off hours on a busy shop, or install hypopg.
+ *
+ */
+public class IndexAdvisor {
+
+	/**
+	 * One statement of the workload and what it cost.
+	 */
+	static class Query {
+		final String sql;
+		final Object[] params;
+		final long weight;
+		final String shape;
+		final Set<String> tables = new HashSet<String>();
+		double costBefore, costProjected, costAfter;
+		double msBefore = -1, msAfter = -1;
+
+		Query(String sql, Object[] params, long weight, String shape) {
+			this.sql = sql;
+			this.params = params;
+			this.weight = Math.max(1, weight);
+			this.shape = shape;
+		}
+	}//end Query
+
+	/**
+	 * One column a statement compares with a value or another column.
+	 */
+	static class Predicate {
+		final String table;
+		final String column;
+		final String op;
+		final boolean join;
+		//the value compared with, when it is known
+		final Object value;
+
+		Predicate(String table, String column, String op, boolean join, Object value) {
+			this.table = table;
+			this.column = column;
+			this.op = op;
+			this.join = join;
+			this.value = value;
+		}
+
+		boolean isRange() {
+			return !this.op.equals("=");
+		}
+	}//end Predicate
+
+	/**
+	 * A proposed index and what it would save.
+	 */
+	static class Candidate {
+		final String table;
+		final List<String> columns;
+		final List<String> include;
+		final String where;
+		final String reason;
+		double benefit;
+		double bestGain;
+
+		Candidate(String table, List<String> columns, List<String> include, String where, String reason) {
+			this.table = table;
+			this.columns = columns;
+			this.include = include;
+			this.where = where;
+			this.reason = reason;
+		}
+
+		String name() {
+			StringBuilder name = new StringBuilder(this.table);
+			for (String c : this.columns)
+				name.append('_').append(c);
+			if (!this.include.isEmpty())
+				name.append("_cov");
+			if (this.where != null)
+				name.append("_part");
+			name.append("_advidx");
+			return name.length() > 63 ? name.substring(0, 63) : name.toString();
+		}
+
+		String ddl(boolean concurrently) {
+			StringBuilder sql = new StringBuilder("CREATE INDEX ");
+			if (concurrently)
+				sql.append("CONCURRENTLY IF NOT EXISTS ");
+			return on(sql.append(name()).append(" ON "));
+		}
+
+		//the index of a partitioned table, invalid until every partition's index is attached
+		String parentDdl() {
+			return on(new StringBuilder("CREATE INDEX IF NOT EXISTS ").append(name()).append(" ON ONLY "));
+		}
+
+		//the same index on one partition
+		Candidate on(String partition) {
+			return new Candidate(partition, this.columns, this.include, this.where, this.reason);
+		}
+
+		private String on(StringBuilder sql) {
+			sql.append(this.table).append(" (").append(join(this.columns)).append(')');
+			if (!this.include.isEmpty())
+				sql.append(" INCLUDE (").append(join(this.include)).append(')');
+			if (this.where != null)
+				sql.append(" WHERE ").append(this.where);
+			return sql.toString();
+		}
+
+		//plain, covering and partial variants on the same leading column compete for one slot
+		String slot() {
+			return this.table + "." + this.columns.get(0);
+		}
+	}//end Candidate
+
+	//keeps a candidate only if it makes some statement at least this much cheaper
+	static final double MIN_GAIN = 0.10;
+	//the longest a candidate may take to build for real, when it cannot be hypothetical
+	static final long BUILD_MS = Long.getLong("mechanicshop.advisor.buildMs", 10000L);
+
+	static final String HYPOPG = "SELECT count(*) FROM pg_extension WHERE extname = 'hypopg'";
+	static final String HYPOTHETICAL = "SELECT indexrelid FROM hypopg_create_index(?)";
+	//hypothetical indexes belong to the session, not the transaction, so they are dropped by hand
+	static final String HYPOTHETICAL_RESET = "SELECT hypopg_reset()";
+
+	private static final Pattern FROM = Pattern.compile(
+		"\\bFROM\\s+([^()]*?)(?=\\s+WHERE\\b|\\s+GROUP\\b|\\s+ORDER\\b|\\s+LIMIT\\b|\\s+RETURNING\\b|\\s+ON\\s+CONFLICT\\b|\\)|;|$)",
+		Pattern.CASE_INSENSITIVE);
+	private static final Pattern FROM_ITEM = Pattern.compile("^\\s*(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PREDICATE = Pattern.compile(
+		"(?<![\\w.])(?:(\\w+)\\.)?(\\w+)\\s*(<=|>=|=|<|>|\\bLIKE\\b)\\s*(?:(\\w+)\\.)?(\\w+|\\?|'(?:[^']|'')*')",
+		Pattern.CASE_INSENSITIVE);
+	private static final Pattern SELECT_LIST = Pattern.compile("\\bSELECT\\s+(.*?)\\s+FROM\\b", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern COLUMN_REF = Pattern.compile("(?<![\\w.])(?:(\\w+)\\.)?(\\w+)(?![\\w(])");
+	private static final Pattern TOTAL_COST = Pattern.compile("\"Total Cost\":\\s*([0-9.eE+-]+)");
+	private static final Pattern EXECUTION_TIME = Pattern.compile("\"Execution Time\":\\s*([0-9.eE+-]+)");
+	private static final Pattern INDEX_COLUMNS = Pattern.compile("USING \\w+ \\(([^)]*)\\)(.*)$", Pattern.CASE_INSENSITIVE);
+
+	private final MechanicShop _esql;
+	private final PrintStream _out;
+	//columns of every table in the schema, lower case
+	private final Map<String, Set<String>> _columns = new HashMap<String, Set<String>>();
+	//leading columns and predicate of every existing index, by table
+	private final Map<String, List<String>> _indexes = new HashMap<String, List<String>>();
+	private boolean _canInclude = false;
+	private boolean _hypothetical = false;
+
+	public IndexAdvisor(MechanicShop esql, PrintStream out) {
+		this._esql = esql;
+		this._out = out;
+	}
+
+	/**
+	 * Method to run the advisor from the command line.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @param apply whether to build the proposed indexes, or only print them
+	 * @throws java.sql.SQLException when the catalog or a plan cannot be read
+	 */
+	public static void advise(MechanicShop esql, boolean apply) throws SQLException {
+		IndexAdvisor advisor = new IndexAdvisor(esql, System.out);
+		exercise(esql);
+		advisor.run(esql.metrics().samples(), apply);
+	}//end advise
+
+	/**
+	 * Method to run the menu's read paths once, so that their statements
+	 * are in the workload even in a fresh process.  Lookups use the first
+	 * customer, car, mechanic and request in the tables.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	static void exercise(MechanicShop esql) throws SQLException {
+		RowHandler discard = new RowHandler() {
+			public void handle(Row row) {}
+		};
+		//cached pages would not reach the database
+		esql.results().clear();
+		MechanicShop.listCustomersWithBillLessThan100(esql, discard);
+		MechanicShop.listCustomersWithMoreThan20Cars(esql, discard);
+		MechanicShop.listCarsBefore1995With50000Milles(esql, discard);
+		MechanicShop.listCustomersInDescendingOrderOfTheirTotalBill(esql, discard);
+		esql.executeQueryAndStream(TopCars.TOP, discard, 10);
+		for (String report : ReportPager.REPORTS.keySet()){
+			ReportPager.Page page = esql.pages().first(report, MechanicShop.PAGE_SIZE, null, null);
+			if (page.next != null)
+				esql.pages().next(page.next);
+		}//end for
+
+		for (List<String> c : esql.executeQueryAndReturnResult("SELECT lname, id FROM Customer LIMIT 1")){
+			esql.lookups().customersByLastName(c.get(0));
+			esql.lookups().carsOwnedBy(Integer.parseInt(c.get(1).trim()));
+		}//end for
+		for (List<String> car : esql.executeQueryAndReturnResult("SELECT vin FROM Car LIMIT 1"))
+			esql.lookups().carExists(car.get(0));
+		for (List<String> m : esql.executeQueryAndReturnResult("SELECT id FROM Mechanic LIMIT 1"))
+			esql.lookups().mechanicExists(Integer.parseInt(m.get(0).trim()));
+		for (List<String> r : esql.executeQueryAndReturnResult("SELECT rid FROM Service_Request LIMIT 1"))
+			esql.lookups().requestExists(Integer.parseInt(r.get(0).trim()));
+	}//end exercise
+
+	/**
+	 * Method to propose indexes for a workload and optionally build them.
+	 *
+	 * @param samples the statements to optimize, with their call counts
+	 * @param apply whether to build the proposed indexes
+	 * @return the proposed indexes
+	 * @throws java.sql.SQLException when the catalog or a plan cannot be read
+	 */
+	public List<Candidate> run(List<QueryMetrics.Sample> samples, boolean apply) throws SQLException {
+		loadCatalog();
+		List<Query> workload = new ArrayList<Query>();
+		Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+		for (QueryMetrics.Sample sample : samples){
+			if (!isRead(sample.sql))
+				continue;
+			Query query = new Query(sample.sql, sample.params, sample.calls(), this._esql.metrics().normalize(sample.sql));
+			for (Candidate c : propose(query))
+				if (!isCovered(c) && !candidates.containsKey(c.ddl(false)))
+					candidates.put(c.ddl(false), c);
+			if (!query.tables.isEmpty())
+				workload.add(query);
+		}//end for
+		this._out.println("Workload: " + workload.size() + " read statement(s), " + candidates.size() + " candidate index(es), "
+			+ (this._hypothetical ? "evaluated as hypothetical indexes (hypopg)" : "each built for real, up to " + BUILD_MS + " ms"));
+
+		for (Query q : workload){
+			q.costBefore = cost(q);
+			q.msBefore = time(q);
+		}//end for
+
+		for (Candidate c : candidates.values())
+			evaluate(c, workload);
+		List<Candidate> chosen = choose(new ArrayList<Candidate>(candidates.values()));
+
+		if (chosen.isEmpty()){
+			this._out.println("No index would make the workload at least " + Math.round(MIN_GAIN * 100) + "% cheaper");
+			return chosen;
+		}//end if
+		project(chosen, workload);
+		this._out.println("Proposed indexes:");
+		for (Candidate c : chosen)
+			this._out.println(String.format("  %s;  -- %s, saves %.0f weighted cost", c.ddl(false), c.reason, c.benefit));
+
+		if (apply){
+			Map<String, String> partitioned = this._esql.partitions().partitioned();
+			for (Candidate c : chosen){
+				this._out.println("Building " + c.name());
+				if (partitioned.containsKey(c.table))
+					buildPartitioned(c);
+				else
+					this._esql.executeUpdate(c.ddl(true));
+			}//end for
+			Set<String> analyzed = new HashSet<String>();
+			for (Candidate c : chosen)
+				if (analyzed.add(c.table))
+					this._esql.executeUpdate("ANALYZE " + c.table);
+			for (Query q : workload){
+				q.costAfter = cost(q);
+				q.msAfter = time(q);
+			}//end for
+		}//end if
+		report(workload, apply);
+		return chosen;
+	}//end run
+
+	//CONCURRENTLY is refused on a partitioned table: each partition's index is built concurrently and attached to the parent's
+	private void buildPartitioned(Candidate c) throws SQLException {
+		this._esql.executeUpdate(c.parentDdl());
+		for (List<String> child : this._esql.executeQueryAndReturnResult(Partitions.CHILDREN, c.table)){
+			Candidate part = c.on(child.get(0));
+			this._esql.executeUpdate(part.ddl(true));
+			this._esql.executeUpdate("ALTER INDEX " + c.name() + " ATTACH PARTITION " + part.name());
+		}//end for
+	}//end buildPartitioned
+
+	//only plain reads are explained, since EXPLAIN ANALYZE runs the statement
+	static boolean isRead(String sql) {
+		String s = sql.trim().toUpperCase(Locale.ROOT);
+		if (s.startsWith("SELECT"))
+			return !s.contains("CURRVAL(") && !s.contains("NEXTVAL(") && !s.contains("SETVAL(") && !s.contains("PG_");
+		return s.startsWith("WITH") && !s.matches("(?s).*\\b(INSERT|UPDATE|DELETE)\\b.*");
+	}//end isRead
+
+	private void loadCatalog() throws SQLException {
+		this._columns.clear();
+		this._indexes.clear();
+		for (List<String> col : this._esql.executeQueryAndReturnResult(
+				"SELECT lower(table_name), lower(column_name) FROM information_schema.columns WHERE table_schema = current_schema()")){
+			Set<String> columns = this._columns.get(col.get(0));
+			if (columns == null)
+				this._columns.put(col.get(0), columns = new HashSet<String>());
+			columns.add(col.get(1));
+		}//end for
+		for (List<String> idx : this._esql.executeQueryAndReturnResult(
+				"SELECT lower(tablename), lower(indexdef) FROM pg_indexes WHERE schemaname = current_schema()")){
+			List<String> defs = this._indexes.get(idx.get(0));
+			if (defs == null)
+				this._indexes.put(idx.get(0), defs = new ArrayList<String>());
+			defs.add(idx.get(1));
+		}//end for
+		this._canInclude = this._esql.queryForObject("SELECT current_setting('server_version_num')::int", RowMappers.INT) >= 110000;
+		this._hypothetical = this._esql.queryForObject(HYPOPG, RowMappers.LONG) > 0;
+	}//end loadCatalog
+
+	/**
+	 * Method to find the tables, predicates and selected columns of a
+	 * statement and derive index candidates from them.
+	 */
+	List<Candidate> propose(Query query) {
+		String sql = query.sql;
+		//alias or table name, lower case, to table
+		Map<String, String> tables = new HashMap<String, String>();
+		Matcher from = FROM.matcher(sql);
+		while (from.find()){
+			for (String item : from.group(1).split(",|\\bJOIN\\b")){
+				Matcher m = FROM_ITEM.matcher(item.replaceAll("(?is)\\bON\\b.*", "").replaceAll("(?i)\\b(INNER|LEFT|RIGHT|FULL|OUTER|CROSS)\\b", ""));
+				if (!m.matches())
+					continue;
+				String table = m.group(1).toLowerCase(Locale.ROOT);
+				if (!this._columns.containsKey(table))
+					continue;
+				tables.put(table, table);
+				if (m.group(2) != null)
+					tables.put(m.group(2).toLowerCase(Locale.ROOT), table);
+				query.tables.add(table);
+			}//end for
+		}//end while
+
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		Matcher p = PREDICATE.matcher(sql);
+		while (p.find()){
+			String left = resolve(tables, p.group(1), p.group(2));
+			if (left == null)
+				continue;
+			String op = p.group(3).toUpperCase(Locale.ROOT);
+			String right = p.group(5).equals("?") || p.group(5).startsWith("'") ? null : resolve(tables, p.group(4), p.group(5));
+			if (right != null){
+				if (op.equals("=")){
+					predicates.add(new Predicate(left, column(p.group(2)), op, true, null));
+					predicates.add(new Predicate(right, column(p.group(5)), op, true, null));
+				}//end if
+				continue;
+			}//end if
+			predicates.add(new Predicate(left, column(p.group(2)), op, false, value(sql, p, query.params)));
+		}//end while
+
+		//selected columns by table, for covering indexes
+		Map<String, Set<String>> selected = new HashMap<String, Set<String>>();
+		Matcher s = SELECT_LIST.matcher(sql);
+		while (s.find()){
+			Matcher ref = COLUMN_REF.matcher(s.group(1));
+			while (ref.find()){
+				String table = resolve(tables, ref.group(1), ref.group(2));
+				if (table == null)
+					continue;
+				Set<String> cols = selected.get(table);
+				if (cols == null)
+					selected.put(table, cols = new LinkedHashSet<String>());
+				cols.add(column(ref.group(2)));
+			}//end while
+		}//end while
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (String table : query.tables){
+			List<String> equal = new ArrayList<String>();
+			Predicate range = null;
+			for (Predicate pred : predicates){
+				if (!pred.table.equals(table))
+					continue;
+				if (pred.join){
+					candidates.add(new Candidate(table, Collections.singletonList(pred.column), Collections.<String>emptyList(), null, "join column"));
+				}else if (!pred.isRange()){
+					if (!equal.contains(pred.column))
+						equal.add(pred.column);
+				}else if (range == null){
+					range = pred;
+				}//end if
+			}//end for
+			if (equal.isEmpty() && range == null)
+				continue;
+
+			List<String> columns = new ArrayList<String>(equal);
+			if (range != null && !columns.contains(range.column))
+				columns.add(range.column);
+			candidates.add(new Candidate(table, columns, Collections.<String>emptyList(), null, describe(equal, range)));
+
+			List<String> include = new ArrayList<String>();
+			if (selected.containsKey(table))
+				for (String col : selected.get(table))
+					if (!columns.contains(col))
+						include.add(col);
+			if (this._canInclude && !include.isEmpty())
+				candidates.add(new Candidate(table, columns, include, null, describe(equal, range) + ", covering"));
+
+			String literal = range != null ? literal(range.value) : null;
+			if (equal.isEmpty() && literal != null && !range.op.equals("LIKE")){
+				String where = range.column + " " + range.op + " " + literal;
+				candidates.add(new Candidate(table, columns, Collections.<String>emptyList(), where, "partial on " + where));
+				if (this._canInclude && !include.isEmpty())
+					candidates.add(new Candidate(table, columns, include, where, "partial on " + where + ", covering"));
+			}//end if
+		}//end for
+		return candidates;
+	}//end propose
+
+	//the table a column reference belongs to, or null when it is not a column of the statement's tables
+	private String resolve(Map<String, String> tables, String qualifier, String name) {
+		String column = column(name);
+		if (qualifier != null){
+			String table = tables.get(qualifier.toLowerCase(Locale.ROOT));
+			return table != null && this._columns.get(table).contains(column) ? table : null;
+		}//end if
+		String found = null;
+		for (String table : new HashSet<String>(tables.values())){
+			if (this._columns.get(table).contains(column)){
+				if (found != null)
+					return null;
+				found = table;
+			}//end if
+		}//end for
+		return found;
+	}//end resolve
+
+	private static String column(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	//the parameter or literal a predicate compares with
+	private static Object value(String sql, Matcher p, Object[] params) {
+		if (p.group(5).startsWith("'"))
+			return p.group(5);
+		int index = 0;
+		for (int i = 0; i < p.start(3); i++)
+			if (sql.charAt(i) == '?')
+				index++;
+		return params != null && index < params.length ? params[index] : null;
+	}//end value
+
+	//the value as SQL, for a partial index predicate
+	private static String literal(Object value) {
+		if (value instanceof Number)
+			return value.toString();
+		if (value instanceof String && ((String) value).startsWith("'"))
+			return (String) value;
+		return null;
+	}//end literal
+
+	private static String describe(List<String> equal, Predicate range) {
+		StringBuilder why = new StringBuilder();
+		if (!equal.isEmpty())
+			why.append("equality on ").append(join(equal));
+		if (range != null)
+			why.append(why.length() > 0 ? ", " : "").append("range on ").append(range.column);
+		return why.toString();
+	}//end describe
+
+	//an existing index already leads with the candidate's columns, with nothing extra to offer
+	private boolean isCovered(Candidate c) {
+		List<String> defs = this._indexes.get(c.table);
+		if (defs == null)
+			return false;
+		for (String def : defs){
+			if (def.contains(c.name().toLowerCase(Locale.ROOT)))
+				return true;
+			Matcher m = INDEX_COLUMNS.matcher(def);
+			if (!m.find() || m.group(2).contains(" where "))
+				continue;
+			String[] cols = m.group(1).split(",\\s*");
+			if (cols.length < c.columns.size())
+				continue;
+			boolean prefix = true;
+			for (int i = 0; i < c.columns.size() && prefix; i++)
+				prefix = cols[i].trim().replace("\"", "").equals(c.columns.get(i));
+			if (prefix && c.include.isEmpty() && c.where == null)
+				return true;
+		}//end for
+		return false;
+	}//end isCovered
+
+	//creates the candidate in a transaction, explains the statements on its table and rolls back
+	private void evaluate(Candidate c, List<Query> workload) throws SQLException {
+		this._esql.beginTransaction();
+		try{
+			if (!create(c))
+				return;
+			for (Query q : workload){
+				if (!q.tables.contains(c.table) || q.costBefore <= 0)
+					continue;
+				double after = cost(q);
+				if (after < q.costBefore){
+					c.benefit += q.weight * (q.costBefore - after);
+					c.bestGain = Math.max(c.bestGain, (q.costBefore - after) / q.costBefore);
+				}//end if
+			}//end for
+			if (this._hypothetical)
+				this._esql.executeQueryAndReturnResult(HYPOTHETICAL_RESET);
+		}finally{
+			this._esql.rollback();
+		}//end try
+	}//end evaluate
+
+	/**
+	 * Method to put a candidate in place for the plans of the open
+	 * transaction: as a hypothetical index with hypopg, otherwise built for
+	 * real within BUILD_MS, printing how long the build took.
+	 *
+	 * @return false when the candidate could not be created; the transaction is then aborted
+	 */
+	private boolean create(Candidate c) throws SQLException {
+		if (this._hypothetical){
+			//left over by an evaluation that failed on this connection
+			this._esql.executeQueryAndReturnResult(HYPOTHETICAL_RESET);
+			try{
+				this._esql.executeQueryAndReturnResult(HYPOTHETICAL, c.ddl(false));
+				return true;
+			}catch (SQLException e){
+				this._out.println("  " + c.name() + ": hypopg cannot create it, skipped: " + e.getMessage().trim());
+				return false;
+			}//end try
+		}//end if
+		this._esql.executeUpdate("SET LOCAL statement_timeout = " + BUILD_MS);
+		long start = System.nanoTime();
+		try{
+			this._esql.executeUpdate(c.ddl(false));
+		}catch (SQLException e){
+			//57014 is query_canceled, raised by the timeout
+			if (!"57014".equals(e.getSQLState()))
+				throw e;
+			this._out.println("  " + c.name() + ": not built within " + BUILD_MS + " ms, skipped");
+			return false;
+		}//end try
+		this._out.println(String.format("  %s: built in %.0f ms", c.name(), (System.nanoTime() - start) / 1e6));
+		this._esql.executeUpdate("SET LOCAL statement_timeout TO DEFAULT");
+		return true;
+	}//end create
+
+	//greedy by weighted saving, one index per table and leading column
+	private static List<Candidate> choose(List<Candidate> candidates) {
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			public int compare(Candidate a, Candidate b) {
+				return Double.compare(b.benefit, a.benefit);
+			}
+		});
+		List<Candidate> chosen = new ArrayList<Candidate>();
+		Set<String> slots = new HashSet<String>();
+		for (Candidate c : candidates){
+			if (c.benefit <= 0 || c.bestGain < MIN_GAIN)
+				continue;
+			if (slots.add(c.slot()))
+				chosen.add(c);
+		}//end for
+		return chosen;
+	}//end choose
+
+	//plan costs with every chosen index in place, rolled back like the evaluations
+	private void project(List<Candidate> chosen, List<Query> workload) throws SQLException {
+		this._esql.beginTransaction();
+		try{
+			for (Candidate c : chosen){
+				if (!create(c)){
+					this._out.println("Projected costs left out, " + c.name() + " could not be created again");
+					for (Query q : workload)
+						q.costProjected = -1;
+					return;
+				}//end if
+			}//end for
+			for (Query q : workload)
+				q.costProjected = cost(q);
+			if (this._hypothetical)
+				this._esql.executeQueryAndReturnResult(HYPOTHETICAL_RESET);
+		}finally{
+			this._esql.rollback();
+		}//end try
+	}//end project
+
+	private double cost(Query q) throws SQLException {
+		return number(TOTAL_COST, explain("EXPLAIN (FORMAT JSON) ", q));
+	}
+
+	//runs the statement twice and keeps the faster, so the first run warms the cache
+	private double time(Query q) throws SQLException {
+		double best = -1;
+		for (int i = 0; i < 2; i++){
+			double ms = number(EXECUTION_TIME, explain("EXPLAIN (ANALYZE, FORMAT JSON) ", q));
+			best = best < 0 ? ms : Math.min(best, ms);
+		}//end for
+		return best;
+	}//end time
+
+	private String explain(String prefix, Query q) throws SQLException {
+		List<List<String>> plan = this._esql.executeQueryAndReturnResult(prefix + q.sql, q.params == null ? new Object[0] : q.params);
+		StringBuilder json = new StringBuilder();
+		for (List<String> row : plan)
+			json.append(row.get(0));
+		return json.toString();
+	}//end explain
+
+	private static double number(Pattern pattern, String json) {
+		Matcher m = pattern.matcher(json);
+		return m.find() ? Double.parseDouble(m.group(1)) : -1;
+	}//end number
+
+	private void report(List<Query> workload, boolean applied) {
+		this._out.println(applied ? "Plan cost and run time, before -> after:" : "Plan cost, now -> with the proposed indexes (run time now):");
+		for (Query q : workload){
+			String shape = q.shape.length() > 110 ? q.shape.substring(0, 107) + "..." : q.shape;
+			if (applied)
+				this._out.println(String.format("  %10.1f -> %10.1f  %9.2f -> %9.2f ms  x%-6d %s",
+					q.costBefore, q.costAfter, q.msBefore, q.msAfter, q.weight, shape));
+			else
+				this._out.println(String.format("  %10.1f -> %10.1f  %9.2f ms  x%-6d %s",
+					q.costBefore, q.costProjected, q.msBefore, q.weight, shape));
+		}//end for
+	}//end report
+
+	private static String join(List<String> values) {
+		StringBuilder out = new StringBuilder();
+		for (String v : values)
+			out.append(out.length() > 0 ? ", " : "").append(v);
+		return out.toString();
+	}//end join
+}//end IndexAdvisor
@@ -0,0 +1,195 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMapper;
+
+/**
+ * This class defines a set of ints kept as sorted, non-overlapping ranges,
+ * for the ids of a table already read.  Ids mostly arrive in runs, so a few
+ * ranges cover millions of them.  Ids come from sequences handed out in
+ * blocks (see IdAllocator) and are not committed in order, so the rows not
+ * read yet are those above max() plus those in the gaps(); unseen() builds
+ * the query that reads them through the primary key index.
+ *
+ * Sets kept in memory only read through read(), which also closes the
+ * gaps nothing can fill any more, as PartsDemand does for the sets it
+ * stores: once every transaction running at the read that left a gap has
+ * ended and IdAllocator.GAP_HOURS have passed, the gap is merged into the
+ * set after one last probe.  IdAllocator drops its blocks long before
+ * that, so no program still holds an id of a closed gap.
+ *
+ */
+class KeyRanges {
+
+	//adds one row read by read(), returning false to skip it, e.g. until its parent row is read
+	interface KeyedRow {
+		boolean load(Row row) throws SQLException;
+	}
+
+	//the oldest transaction still running, and the first one not started yet
+	static final String SNAPSHOT = "SELECT txid_snapshot_xmin(txid_current_snapshot()), txid_snapshot_xmax(txid_current_snapshot())";
+	static final RowMapper<long[]> TXIDS = new RowMapper<long[]>() {
+		public long[] map(Row row) throws SQLException {
+			return new long[] {row.getLong(1), row.getLong(2)};
+		}
+	};
+
+	//range start to range end, both included
+	private final TreeMap<Integer, Integer> _ranges = new TreeMap<Integer, Integer>();
+	//the highest id, the snapshot's xmax and the time of every read() that left gaps, oldest first
+	private final List<long[]> _horizons = new ArrayList<long[]>();
+
+	/**
+	 * Method to build the query reading the rows of a table outside the
+	 * set: the ids above max(), then those in its gaps, which drive index
+	 * probes of the key.  Its parameters are max() and the two columns of
+	 * gaps() as array(gaps, 0) and array(gaps, 1).
+	 *
+	 * @param rows the query, with %1$s where a table is put first in its FROM and %2$s for the condition on the key
+	 * @param key the key column as the query names it
+	 * @return the query
+	 */
+	static String unseen(String rows, String key) {
+		return String.format(rows, "", key + " > ?") + " UNION ALL "
+			+ String.format(rows, "unnest(CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS int[])) AS G(lo, hi),", key + " BETWEEN G.lo AND G.hi");
+	}//end unseen
+
+	//one column of the ranges as a PostgreSQL array literal
+	static String array(List<int[]> ranges, int column) {
+		StringBuilder out = new StringBuilder("{");
+		for (int[] range : ranges){
+			if (out.length() > 1)
+				out.append(',');
+			out.append(range[column]);
+		}//end for
+		return out.append('}').toString();
+	}//end array
+
+	/**
+	 * Method to read the rows outside the set and add the keys of those
+	 * the loader takes.  The caller makes sure reads of one set never
+	 * overlap.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @param query the query built by unseen(), key first
+	 * @param txids the SNAPSHOT read before the first of the reads that go together
+	 * @param loader takes the rows
+	 * @return the number of rows taken
+	 * @throws java.sql.SQLException when the rows could not be read
+	 */
+	long read(MechanicShop esql, String query, long[] txids, final KeyedRow loader) throws SQLException {
+		long now = System.currentTimeMillis();
+		//decided before the probes, whose later snapshot sees every row the closed gaps could have
+		int closeBelow = Integer.MIN_VALUE;
+		for (Iterator<long[]> it = this._horizons.iterator(); it.hasNext();){
+			long[] horizon = it.next();
+			if (horizon[1] > txids[0] || now - horizon[2] < IdAllocator.GAP_HOURS * 3600000L)
+				break;
+			closeBelow = (int) horizon[0];
+			it.remove();
+		}//end for
+		List<int[]> gaps = gaps();
+		final long[] rows = {0};
+		esql.executeQueryAndStream(query, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				int key = row.getInt(1);
+				if (contains(key) || !loader.load(row))
+					return;
+				add(key);
+				rows[0]++;
+			}
+		}, max(), array(gaps, 0), array(gaps, 1));
+		if (closeBelow > Integer.MIN_VALUE)
+			add(Integer.MIN_VALUE, closeBelow);
+		int max = max();
+		boolean covered = !this._horizons.isEmpty() && this._horizons.get(this._horizons.size() - 1)[0] >= max;
+		if (!gaps().isEmpty() && !covered)
+			this._horizons.add(new long[] {max, txids[1], now});
+		return rows[0];
+	}//end read
+
+	boolean contains(int key) {
+		Map.Entry<Integer, Integer> range = this._ranges.floorEntry(key);
+		return range != null && range.getValue() >= key;
+	}
+
+	void add(int key) {
+		if (contains(key))
+			return;
+		int lo = key, hi = key;
+		Map.Entry<Integer, Integer> below = this._ranges.floorEntry(key);
+		if (below != null && below.getValue() == key - 1){
+			lo = below.getKey();
+			this._ranges.remove(lo);
+		}//end if
+		Integer above = key == Integer.MAX_VALUE ? null : this._ranges.get(key + 1);
+		if (above != null){
+			hi = above;
+			this._ranges.remove(key + 1);
+		}//end if
+		this._ranges.put(lo, hi);
+	}//end add
+
+	void add(int lo, int hi) {
+		//merges every range overlapping or touching lo..hi, from the top down
+		for (Map.Entry<Integer, Integer> range = above(hi); range != null && range.getValue() >= lo - 1L; range = above(hi)){
+			lo = Math.min(lo, range.getKey());
+			hi = Math.max(hi, range.getValue());
+			this._ranges.remove(range.getKey());
+		}//end for
+		this._ranges.put(lo, hi);
+	}//end add
+
+	private Map.Entry<Integer, Integer> above(int hi) {
+		return this._ranges.floorEntry(hi == Integer.MAX_VALUE ? hi : hi + 1);
+	}
+
+	/** The highest id of the set, or Integer.MIN_VALUE when empty. */
+	int max() {
+		return this._ranges.isEmpty() ? Integer.MIN_VALUE : this._ranges.lastEntry().getValue();
+	}
+
+	int size() {
+		return this._ranges.size();
+	}
+
+	//the ranges as an int[] {lo, hi} each
+	List<int[]> ranges() {
+		List<int[]> ranges = new ArrayList<int[]>(this._ranges.size());
+		for (Map.Entry<Integer, Integer> range : this._ranges.entrySet())
+			ranges.add(new int[]{range.getKey(), range.getValue()});
+		return ranges;
+	}
+
+	//the ids below max() that are not in the set, as ranges
+	List<int[]> gaps() {
+		List<int[]> gaps = new ArrayList<int[]>();
+		long next = Integer.MIN_VALUE;
+		for (Map.Entry<Integer, Integer> range : this._ranges.entrySet()){
+			if (range.getKey() > next)
+				gaps.add(new int[]{(int) next, range.getKey() - 1});
+			next = range.getValue() + 1L;
+		}//end for
+		return gaps;
+	}
+}//end KeyRanges
@@ -0,0 +1,146 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class caches the lookups the service-desk operations repeat on
+ * every prompt: customers by last name, cars by owner, and whether a VIN,
+ * mechanic id or service request id exists.  Entries expire after
+ * mechanicshop.cache.ttlMs; writes made through MechanicShop invalidate
+ * the keys they touch right away.
+ *
+ */
+public class LookupCache {
+	private final MechanicShop _esql;
+	private final TtlCache<String, List<List<String>>> _customersByLastName;
+	private final TtlCache<Integer, List<List<String>>> _carsByOwner;
+	private final TtlCache<String, Boolean> _cars;
+	private final TtlCache<Integer, Boolean> _mechanics;
+	private final TtlCache<Integer, Boolean> _requests;
+
+	/**
+	 * Creates the caches
+	 *
+	 * @param esql the MechanicShop connection used to load missing entries
+	 * @param capacity the maximum number of entries per cache
+	 * @param ttlMillis how long an entry stays valid after it was loaded
+	 */
+	public LookupCache(MechanicShop esql, int capacity, long ttlMillis) {
+		this._esql = esql;
+		this._customersByLastName = new TtlCache<String, List<List<String>>>("customers by last name", capacity, ttlMillis);
+		this._carsByOwner = new TtlCache<Integer, List<List<String>>>("cars by owner", capacity, ttlMillis);
+		this._cars = new TtlCache<String, Boolean>("car vins", capacity, ttlMillis);
+		this._mechanics = new TtlCache<Integer, Boolean>("mechanic ids", capacity, ttlMillis);
+		this._requests = new TtlCache<Integer, Boolean>("service request ids", capacity, ttlMillis);
+	}//end LookupCache
+
+	/**
+	 * @param lname the last name as typed by the operator
+	 * @return the fname, lname and id of every customer with that last name
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public List<List<String>> customersByLastName(String lname) throws SQLException {
+		return this._customersByLastName.get(lastNameKey(lname), new TtlCache.Loader<String, List<List<String>>>() {
+			public List<List<String>> load(String key) throws SQLException {
+				return Collections.unmodifiableList(_esql.executeQueryAndReturnResult("SELECT fname, lname, id FROM Customer WHERE lname = ?", key));
+			}
+		});
+	}//end customersByLastName
+
+	/**
+	 * @param customerId the owner's customer id
+	 * @return the VIN of every car the customer owns, one per record
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public List<List<String>> carsOwnedBy(int customerId) throws SQLException {
+		return this._carsByOwner.get(customerId, new TtlCache.Loader<Integer, List<List<String>>>() {
+			public List<List<String>> load(Integer key) throws SQLException {
+				return Collections.unmodifiableList(_esql.executeQueryAndReturnResult("SELECT car_vin FROM Owns WHERE customer_id = ?", key));
+			}
+		});
+	}//end carsOwnedBy
+
+	/**
+	 * @param vin the VIN to check
+	 * @return true when a car with this VIN exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean carExists(String vin) throws SQLException {
+		return this._cars.get(vin, new TtlCache.Loader<String, Boolean>() {
+			public Boolean load(String key) throws SQLException {
+				return _esql.executeQuery("SELECT Car.vin FROM Car WHERE Car.vin = ?", key) > 0;
+			}
+		});
+	}//end carExists
+
+	/**
+	 * @param id the mechanic id to check
+	 * @return true when the mechanic exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean mechanicExists(int id) throws SQLException {
+		return this._mechanics.get(id, new TtlCache.Loader<Integer, Boolean>() {
+			public Boolean load(Integer key) throws SQLException {
+				return _esql.executeQuery("SELECT Mechanic.id FROM Mechanic WHERE Mechanic.id = ?", key) > 0;
+			}
+		});
+	}//end mechanicExists
+
+	/**
+	 * @param rid the service request id to check
+	 * @return true when the service request exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean requestExists(int rid) throws SQLException {
+		return this._requests.get(rid, new TtlCache.Loader<Integer, Boolean>() {
+			public Boolean load(Integer key) throws SQLException {
+				return _esql.executeQuery("SELECT SR.rid FROM Service_Request SR WHERE SR.rid = ?", key) > 0;
+			}
+		});
+	}//end requestExists
+
+	public void customerAdded(String lname) { this._customersByLastName.invalidate(lastNameKey(lname)); }
+	public void mechanicAdded(int id) { this._mechanics.invalidate(id); }
+	public void carAdded(String vin) { this._cars.invalidate(vin); }
+	public void ownershipAdded(int customerId) { this._carsByOwner.invalidate(customerId); }
+	public void requestAdded(int rid) { this._requests.invalidate(rid); }
+
+	/**
+	 * Method to drop every cached entry, e.g. after a bulk load.
+	 */
+	public void clear() {
+		this._customersByLastName.clear();
+		this._carsByOwner.clear();
+		this._cars.clear();
+		this._mechanics.clear();
+		this._requests.clear();
+	}//end clear
+
+	@Override
+	public String toString() {
+		return this._customersByLastName + "\n" + this._carsByOwner + "\n" + this._cars + "\n"
+			+ this._mechanics + "\n" + this._requests;
+	}//end toString
+
+	//lname is CHAR(32), so trailing blanks never matter in the comparison
+	private static String lastNameKey(String lname) {
+		int end = lname.length();
+		while (end > 0 && lname.charAt(end - 1) == ' ')
+			end--;
+		return lname.substring(0, end);
+	}//end lastNameKey
+}//end LookupCache
@@ -0,0 +1,1274 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import mechanicshop.jdbc.ConnectionPool;
+import mechanicshop.jdbc.QueryMetrics;
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMapper;
+import mechanicshop.jdbc.SqlExecutor;
+
+/**
+ * This class defines a simple embedded SQL utility class that is designed to
+ * work with PostgreSQL JDBC drivers.
+ *
+ */
+
+public class MechanicShop{
+	//pooled connections, prepared statements and query metrics shared by every operation
+	private SqlExecutor _sql = null;
+	//most serviced cars, kept current by InsertServiceRequest
+	private TopCars _topCars = null;
+	//customer, car, mechanic and request lookups repeated by the service desk
+	private LookupCache _lookups = null;
+	//rows written to standard out between flushes of the printer
+	static final int PRINT_FLUSH_ROWS = Integer.getInteger("mechanicshop.printFlushRows", 500);
+	//new customer, mechanic, ownership, request and closing ids
+	private IdAllocator _ids = null;
+	//runs multi-statement work in one transaction with serialization retries
+	private UnitOfWork _transactions = null;
+	//keeps date partitions of Service_Request and Closed_Request ready, when they are partitioned
+	private Partitions _partitions = null;
+	//reports 6, 7, 8 and 10 a page at a time
+	private ReportPager _pages = null;
+	//rows per page of the paged reports in the menu
+	static final int PAGE_SIZE = Integer.getInteger("mechanicshop.pageSize", 50);
+	//in-memory columns answering the reports, when enabled
+	private AnalyticsSnapshot _analytics = null;
+	//report results, dropped when their tables are written
+	private ReportCache _results = null;
+	//customers by any part of the name or phone, misspellings included, loaded by the first search
+	private volatile CustomerSearch _search = null;
+	private volatile boolean _searchLoaded = false;
+	//moves request lifecycle events from the outbox to the local event log, when one is configured
+	private EventRelay _events = null;
+	//acknowledges new service requests from a local write-ahead file, when one is configured
+	private WriteBehindIntake _intake = null;
+	//actions waiting for the calling thread's transaction to commit
+	private final ThreadLocal<List<Runnable>> _afterCommit = new ThreadLocal<List<Runnable>>() {
+		protected List<Runnable> initialValue() {
+			return new ArrayList<Runnable>();
+		}
+	};
+	//menu options, named in the query metrics
+	static final String[] MENU = {"AddCustomer", "AddMechanic", "AddCar", "InsertServiceRequest", "CloseServiceRequest",
+		"ListCustomersWithBillLessThan100", "ListCustomersWithMoreThan20Cars", "ListCarsBefore1995With50000Milles",
+		"ListKCarsWithTheMostServices", "ListCustomersInDescendingOrderOfTheirTotalBill"};
+	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	
+	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
+		System.out.print("Connecting to database...");
+		try{
+			// constructs the connection URL
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			System.out.println ("Connection URL: " + url + "\n");
+			
+			// opens the pool with its minimum number of physical connections
+	        this._sql = SqlExecutor.fromSystemProperties(url, user, passwd, dbname);
+	        System.out.println("Done");
+
+	        this._ids = new IdAllocator(this, Integer.getInteger("mechanicshop.ids.blockSize", 50));
+	        this._transactions = UnitOfWork.fromSystemProperties(this);
+	        this._partitions = new Partitions(this, Integer.getInteger("mechanicshop.partitions.ahead", 3));
+	        this._partitions.start(Long.getLong("mechanicshop.partitions.checkMs", 3600000L));
+	        // report results are cached while writes of every process can be heard
+	        int cachedRows = Integer.getInteger("mechanicshop.reportCache.rows", 100000);
+	        this._results = new ReportCache(cachedRows);
+	        // the top cars ranking hears other writers through the listener even when nothing is cached
+	        this._results.listen(url, user, passwd, Integer.getInteger("mechanicshop.reportCache.pollMs", 500));
+	        this._pages = ReportPager.fromSystemProperties(this);
+
+	        // reports come from memory when the analytics snapshot is enabled
+	        if (Boolean.getBoolean("mechanicshop.analytics")){
+	        	try{
+	        		this._analytics = loadAnalytics(this);
+	        		this._analytics.start(Long.getLong("mechanicshop.analytics.refreshMs", 5000L));
+	        	}catch(SQLException e){
+	        		System.err.println("Warning - analytics snapshot not loaded: " + e.getMessage());
+	        		this._analytics = null;
+	        	}
+	        }
+
+	        this._lookups = new LookupCache(this, Integer.getInteger("mechanicshop.cache.size", 10000),
+	        	Long.getLong("mechanicshop.cache.ttlMs", 60000L));
+
+	        // loads the in-memory rankings; the menu falls back to SQL without them
+	        this._topCars = new TopCars(Integer.getInteger("mechanicshop.topCars.capacity", 1000));
+	        final TopCars topCars = this._topCars;
+	        // its own writes are applied as they commit, so only other writers invalidate it
+	        this._results.watch("Car_Service_Count", this._sql.pool(), new Runnable() {
+	        	public void run() {
+	        		topCars.invalidate();
+	        	}
+	        });
+	        try{
+	        	this._topCars.warm(this);
+	        }catch(SQLException e){
+	        	System.err.println("Warning - top cars ranking not loaded: " + e.getMessage());
+	        }
+
+	        // only the process holding the event log relays the outbox to it
+	        String eventLog = System.getProperty("mechanicshop.events.log");
+	        if (eventLog != null){
+	        	try{
+	        		this._events = new EventRelay(this, new EventLog(eventLog, true), Integer.getInteger("mechanicshop.events.batchSize", 500));
+	        		this._events.start(Long.getLong("mechanicshop.events.pollMs", 200L));
+	        	}catch(IOException e){
+	        		System.err.println("Warning - events not relayed: " + e.getMessage());
+	        	}
+	        }
+
+	        // requests a previous run acknowledged are replayed before new ones are taken
+	        String intakeWal = System.getProperty("mechanicshop.intake.wal");
+	        if (intakeWal != null){
+	        	try{
+	        		this._intake = WriteBehindIntake.fromSystemProperties(this, intakeWal);
+	        	}catch(IOException e){
+	        		System.err.println("Warning - service requests written directly, write-behind intake not opened: " + e.getMessage());
+	        	}
+	        }
+		}catch(Exception e){
+			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
+	        System.out.println("Make sure you started postgres on this machine");
+	        System.exit(-1);
+		}
+	}
+
+	/**
+	 * Method to start a read committed transaction on the calling thread.
+	 * Every executor call the thread makes until commit() or rollback() runs
+	 * on the same connection inside that transaction.  Prefer
+	 * transactions().run(...), which also retries serialization failures.
+	 *
+	 * @throws java.sql.SQLException when no connection is available or a transaction is already open
+	 */
+	public void beginTransaction () throws SQLException {
+		this._sql.beginTransaction ();
+	}//end beginTransaction
+
+	/**
+	 * Method to start a transaction on the calling thread at the given
+	 * isolation level.
+	 *
+	 * @param isolation one of the Connection.TRANSACTION_* levels
+	 * @throws java.sql.SQLException when no connection is available or a transaction is already open
+	 */
+	public void beginTransaction (int isolation) throws SQLException {
+		this._sql.beginTransaction (isolation);
+	}//end beginTransaction
+
+	/**
+	 * Method to commit the calling thread's transaction and give its
+	 * connection back to the pool.
+	 *
+	 * @throws java.sql.SQLException when there is no open transaction or the commit failed
+	 */
+	public void commit () throws SQLException {
+		//a failed commit rolls back, so its actions are dropped either way
+		List<Runnable> actions = this._afterCommit.get();
+		this._afterCommit.remove();
+		this._sql.commit ();
+		for (Runnable action : actions)
+			action.run();
+	}//end commit
+
+	/**
+	 * Method to roll back the calling thread's transaction, if any, and give
+	 * its connection back to the pool.
+	 */
+	public void rollback () {
+		this._sql.rollback ();
+		this._afterCommit.remove();
+	}//end rollback
+
+	/**
+	 * Method to update in-memory state once the calling thread's writes are
+	 * committed: at the next commit(), or now when no transaction is open
+	 * and the writes were committed already.  A rollback drops the action.
+	 *
+	 * @param action what to do after the commit
+	 */
+	public void afterCommit (Runnable action) {
+		if (inTransaction ())
+			this._afterCommit.get().add(action);
+		else
+			action.run();
+	}//end afterCommit
+
+	/**
+	 * @return true when the calling thread has a transaction open
+	 */
+	public boolean inTransaction () {
+		return this._sql.inTransaction ();
+	}
+	
+	/**
+	 * Method to execute an update SQL statement.  Update SQL instructions
+	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+	 * 
+	 * @param sql the input SQL string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		return this._sql.executeUpdate (sql, params);
+	}//end executeUpdate
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * stream its rows to a handler.  The query runs inside a transaction on
+	 * a server-side cursor, so only mechanicshop.fetchSize rows are held in
+	 * memory at a time no matter how large the result is.
+	 * 
+	 * @param query the input query string, with '?' for each parameter
+	 * @param handler the callback receiving every row in order
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+		return this._sql.executeQueryAndStream (query, handler, params);
+	}//end executeQueryAndStream
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and outputs the results to
+	 * standard out.  Rows are streamed and written through one buffered
+	 * writer that is flushed every mechanicshop.printFlushRows rows.
+	 * 
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return this._sql.executeQueryAndPrintResult (query, params);
+	}
+	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results as
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * The whole result is kept in memory; use executeQueryAndStream for
+	 * large results.
+	 * 
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		return this._sql.executeQueryAndReturnResult (query, params);
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * map every row to a typed value, e.g. with one of RowMappers.
+	 * 
+	 * @param query the input query string, with '?' for each parameter
+	 * @param mapper turns each row into a value
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the values, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> query (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		return this._sql.query (query, mapper, params);
+	}//end query
+
+	/**
+	 * Method to execute a query returning at most one row and map it.
+	 * 
+	 * @param query the input query string, with '?' for each parameter
+	 * @param mapper turns the row into a value
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the value of the first row, null when there is none
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> T queryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		return this._sql.queryForObject (query, mapper, params);
+	}//end queryForObject
+	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 * 
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return this._sql.executeQuery (query, params);
+	}
+	
+	/**
+	 * Method to fetch the last value from sequence. This
+	 * method issues the query to the DBMS and returns the current 
+	 * value of sequence used for autogenerated keys.  currval is tracked per
+	 * session, so call it inside the transaction that ran nextval.  New
+	 * table ids come from ids(), which needs no query per id.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return current value of a sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	
+	public int getCurrSeqVal(String sequence) throws SQLException {
+		return this._sql.getCurrSeqVal (sequence);
+	}
+
+	/**
+	 * @return the executor running this program's SQL
+	 */
+	public SqlExecutor sql() {
+		return this._sql;
+	}
+
+	/**
+	 * @return the in-memory ranking of the most serviced cars
+	 */
+	public TopCars topCars() {
+		return this._topCars;
+	}
+
+	/**
+	 * @return the read-through cache of service-desk lookups
+	 */
+	public LookupCache lookups() {
+		return this._lookups;
+	}
+
+	/**
+	 * Method to describe the connection pool and prepared-statement cache
+	 * counters.
+	 *
+	 * @return pool usage followed by the statement cache hit, miss and eviction counts
+	 */
+	public String getConnectionStats() {
+		return this._sql.pool().toString() + "\n" + this._sql.pool().statementCacheStats();
+	}
+
+	/**
+	 * @return the pool every executor call borrows its connection from
+	 */
+	public ConnectionPool pool() {
+		return this._sql.pool();
+	}
+
+	/**
+	 * @return the runner of multi-statement transactions
+	 */
+	public UnitOfWork transactions() {
+		return this._transactions;
+	}
+
+	/**
+	 * @return the manager of the date partitions
+	 */
+	public Partitions partitions() {
+		return this._partitions;
+	}
+
+	/**
+	 * @return the in-memory analytics snapshot, or null when it is not enabled
+	 */
+	public AnalyticsSnapshot analytics() {
+		return this._analytics;
+	}
+
+	//reads a new snapshot, sized by mechanicshop.analytics.threads (default: all cores)
+	static AnalyticsSnapshot loadAnalytics(MechanicShop esql) throws SQLException {
+		AnalyticsSnapshot snapshot = new AnalyticsSnapshot(esql,
+			Integer.getInteger("mechanicshop.analytics.threads", Runtime.getRuntime().availableProcessors()));
+		long start = System.nanoTime();
+		long rows = snapshot.refresh();
+		System.out.println(String.format("Analytics snapshot loaded: %d row(s) in %.1f ms", rows, (System.nanoTime() - start) / 1e6));
+		return snapshot;
+	}//end loadAnalytics
+
+	/**
+	 * @return the cache of report results
+	 */
+	public ReportCache results() {
+		return this._results;
+	}
+
+	/**
+	 * Method to return the customer search, loading its index on the first
+	 * call, so that runs which never search (batches, one-shot commands,
+	 * benchmarks) neither scan Customer nor start its refresh thread.
+	 *
+	 * @return the customer search, or null when its index failed to load
+	 */
+	public CustomerSearch customers() {
+		if (this._searchLoaded)
+			return this._search;
+		synchronized (this){
+			if (!this._searchLoaded){
+				// the customer search falls back to last names without its index
+				CustomerSearch search = new CustomerSearch(this);
+				try{
+					search.refresh();
+					search.start(Long.getLong("mechanicshop.search.refreshMs", 5000L));
+					this._search = search;
+				}catch(SQLException e){
+					System.err.println("Warning - customer search not loaded: " + e.getMessage());
+				}
+				this._searchLoaded = true;
+			}//end if
+		}//end synchronized
+		return this._search;
+	}
+
+	/**
+	 * @return the relay of the request events to the event log, or null when this process does not relay
+	 */
+	public EventRelay events() {
+		return this._events;
+	}
+
+	/**
+	 * @return the write-behind intake of new service requests, or null when they are written directly
+	 */
+	public WriteBehindIntake intake() {
+		return this._intake;
+	}
+
+	/**
+	 * @return the pager of the reports
+	 */
+	public ReportPager pages() {
+		return this._pages;
+	}
+
+	/**
+	 * @return the allocator of new ids
+	 */
+	public IdAllocator ids() {
+		return this._ids;
+	}
+
+	/**
+	 * @return the latency and error counts of the executor calls
+	 */
+	public QueryMetrics metrics() {
+		return this._sql.metrics();
+	}
+
+	/**
+	 * Method to describe the hit rates of the lookup and report caches.
+	 *
+	 * @return one line of statistics per cache, then per cached report
+	 */
+	public String getCacheStats() {
+		return this._lookups.toString() + "\n" + this._results + (this._search != null ? "\n" + this._search : "");
+	}
+
+	/**
+	 * Method to close the pooled physical connections if they are open.
+	 */
+	public void cleanup(){
+		if (this._partitions != null){
+			this._partitions.close ();
+		}//end if
+		if (this._pages != null){
+			this._pages.close ();
+		}//end if
+		if (this._analytics != null){
+			this._analytics.close ();
+		}//end if
+		if (this._results != null){
+			this._results.close ();
+		}//end if
+		if (this._search != null){
+			this._search.close ();
+		}//end if
+		if (this._intake != null){
+			this._intake.close ();
+		}//end if
+		if (this._events != null){
+			this._events.close ();
+		}//end if
+		if (this._sql != null){
+			this._sql.close ();
+		}//end if
+	}//end cleanup
+
+	/**
+	 * The main execution method
+	 * 
+	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+	 */
+	public static void main (String[] args) {
+		if (args.length < 3 || args.length > 5) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
+		            " <dbname> <port> <user> [rebuild-billing|verify-billing|rebuild-service-counts|batch <file|->|serve [port]|advise-indexes [apply]|partition <month|year>|maintain-partitions|analytics|report-suite [6,7,8,9,10]|parts-demand|reorder-list|relay-events|tail-events [consumer]]");
+			return;
+		}//end if
+		
+		MechanicShop esql = null;
+		
+		try{
+			System.out.println("(1)");
+			
+			try {
+				Class.forName("org.postgresql.Driver");
+			}catch(Exception e){
+
+				System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
+				e.printStackTrace();
+				return;
+			}
+			
+			System.out.println("(2)");
+			String dbname = args[0];
+			String dbport = args[1];
+			String user = args[2];
+			
+			esql = new MechanicShop (dbname, dbport, user, "");
+			
+			//maintenance and batch commands run once instead of the menu
+			if (args.length > 3){
+				runCommand(esql, args[3], args.length > 4 ? args[4] : null);
+				return;
+			}//end if
+			
+			boolean keepon = true;
+			while(keepon){
+				System.out.println("MAIN MENU");
+				System.out.println("---------");
+				System.out.println("1. AddCustomer");
+				System.out.println("2. AddMechanic");
+				System.out.println("3. AddCar");
+				System.out.println("4. InsertServiceRequest");
+				System.out.println("5. CloseServiceRequest");
+				System.out.println("6. ListCustomersWithBillLessThan100");
+				System.out.println("7. ListCustomersWithMoreThan20Cars");
+				System.out.println("8. ListCarsBefore1995With50000Milles");
+				System.out.println("9. ListKCarsWithTheMostServices");
+				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
+				System.out.println("11. < EXIT");
+				
+				/*
+				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
+				 */
+				int choice = readChoice();
+				esql.metrics().enter(choice >= 1 && choice <= MENU.length ? MENU[choice - 1] : null);
+				try{
+					switch (choice){
+						case 1: AddCustomer(esql); break;
+						case 2: AddMechanic(esql); break;
+						case 3: AddCar(esql); break;
+						case 4: InsertServiceRequest(esql); break;
+						case 5: CloseServiceRequest(esql); break;
+						case 6: ListCustomersWithBillLessThan100(esql); break;
+						case 7: ListCustomersWithMoreThan20Cars(esql); break;
+						case 8: ListCarsBefore1995With50000Milles(esql); break;
+						case 9: ListKCarsWithTheMostServices(esql); break;
+						case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
+						case 11: keepon = false; break;
+					}
+				}finally{
+					esql.metrics().enter(null);
+				}
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			try{
+				if(esql != null) {
+					if (Boolean.getBoolean("mechanicshop.stats"))
+						System.out.println(esql.getConnectionStats() + "\n" + esql.getCacheStats() + "\n" + esql.ids() + "\n" + esql.transactions() + "\n" + esql.pages() + "\n" + (esql.analytics() != null ? esql.analytics() + "\n" : "") + (esql.events() != null ? esql.events() + "\n" : "") + (esql.intake() != null ? esql.intake() + "\n" : "") + esql.metrics().report());
+					System.out.print("Disconnecting from database...");
+					esql.cleanup ();
+					System.out.println("Done\n\nBye !");
+				}//end if				
+			}catch(Exception e){
+				// ignored.
+			}
+		}
+	}
+
+	/**
+	 * Method to run a non-interactive command.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @param command the command name given on the command line
+	 * @param operand the command's argument, or null; batch takes a file name or - for stdin,
+	 *        serve an optional port, advise-indexes apply to build the proposed indexes,
+	 *        partition month or year, report-suite the reports to run (default 6 to 10),
+	 *        tail-events the consumer whose offset is kept (default tail)
+	 * @throws java.sql.SQLException when the command failed
+	 * @throws java.io.IOException when the batch input or the parts dictionary cannot be read, or the server port bound
+	 */
+	public static void runCommand(MechanicShop esql, String command, String operand) throws SQLException, IOException {
+		if (command.equals("batch")){
+			if (operand == null){
+				System.err.println("batch needs a file name, or - for standard input");
+				return;
+			}//end if
+			BufferedReader input = operand.equals("-") ? in : new BufferedReader(new FileReader(operand));
+			try{
+				BatchRunner.fromSystemProperties(esql).run(input);
+			}finally{
+				if (input != in)
+					input.close();
+			}//end try
+		}else if (command.equals("serve")){
+			ShopServer.serve(esql, operand != null ? Integer.parseInt(operand) : Integer.getInteger("mechanicshop.server.port", 8166));
+		}else if (command.equals("advise-indexes")){
+			IndexAdvisor.advise(esql, "apply".equals(operand));
+		}else if (command.equals("partition")){
+			esql.partitions().migrate(operand == null ? Partitions.MONTH : operand.trim().toLowerCase());
+		}else if (command.equals("maintain-partitions")){
+			System.out.println(esql.partitions().maintain() + " partition(s) created");
+		}else if (command.equals("analytics")){
+			AnalyticsSnapshot snapshot = esql.analytics() != null ? esql.analytics() : loadAnalytics(esql);
+			System.out.println(snapshot);
+			System.out.print(snapshot.benchmark(5));
+			if (snapshot != esql.analytics())
+				snapshot.close();
+		}else if (command.equals("report-suite")){
+			ReportSuite.print(ReportSuite.fromSystemProperties(esql).run(ReportSuite.parse(operand), 10), System.out);
+		}else if (command.equals("parts-demand") || command.equals("reorder-list")){
+			PartsDemand demand = PartsDemand.fromSystemProperties(esql);
+			System.out.println(demand.update());
+			if (command.equals("reorder-list"))
+				demand.print(demand.reorderList(), System.out);
+		}else if (command.equals("relay-events")){
+			if (esql.events() == null){
+				System.err.println("relay-events needs -Dmechanicshop.events.log=<file> and the log to itself");
+				return;
+			}//end if
+			System.out.println(esql.events().drain() + " event(s) relayed\n" + esql.events());
+		}else if (command.equals("tail-events")){
+			tailEvents(esql, operand == null ? "tail" : operand);
+		}else if (command.equals("rebuild-billing")){
+			int rows = BillingSummary.rebuild(esql);
+			System.out.println("Customer_Bill rebuilt: " + rows + " customer(s)");
+		}else if (command.equals("rebuild-service-counts")){
+			int rows = esql.executeUpdate(TopCars.REBUILD);
+			esql.results().written("Car_Service_Count");
+			//counts may have dropped, which the ranking cannot follow by updates
+			esql.topCars().invalidate();
+			esql.topCars().warm(esql);
+			System.out.println("Car_Service_Count rebuilt: " + rows + " car(s)");
+		}else if (command.equals("verify-billing")){
+			int drifted = BillingSummary.verify(esql);
+			System.out.println(drifted == 0 ? "Customer_Bill is consistent" : drifted + " customer(s) differ, run rebuild-billing");
+		}else{
+			System.err.println("Unknown command: " + command);
+		}//end if
+	}//end runCommand
+
+	/**
+	 * Method to print the event log from where a consumer stopped, then
+	 * every event as it is appended, committing the consumer's offset after
+	 * each batch.  Runs until the program is stopped.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @param consumer the name the offset is kept under
+	 * @throws java.io.IOException when the log cannot be read or the offset written
+	 */
+	static void tailEvents(MechanicShop esql, String consumer) throws IOException {
+		String path = System.getProperty("mechanicshop.events.log");
+		if (path == null){
+			System.err.println("tail-events needs -Dmechanicshop.events.log=<file>");
+			return;
+		}//end if
+		EventLog log = esql.events() != null ? esql.events().log() : new EventLog(path, false);
+		long offset = log.committed(consumer);
+		int max = Integer.getInteger("mechanicshop.events.batchSize", 500);
+		while (!Thread.currentThread().isInterrupted()){
+			EventLog.Batch batch = log.poll(offset, max, 1000);
+			for (EventLog.Event event : batch.events)
+				System.out.println(event.offset + "\t" + event.json);
+			if (batch.next != offset)
+				log.commit(consumer, batch.next);
+			offset = batch.next;
+		}//end while
+	}//end tailEvents
+
+	public static int readChoice() {
+		int input;
+		// returns only if a correct value is given.
+		do {
+			System.out.print("Please make your choice: ");
+			try { // read the integer, parse it and break.
+				input = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}//end try
+		}while (true);
+		return input;
+	}//end readChoice
+	
+	public static void AddCustomer(MechanicShop esql){//1
+		try {
+			System.out.print("First name: "); 
+                	String fname = in.readLine();
+			System.out.print("Last name: ");
+			String lname = in.readLine();
+			System.out.print("Phone Number: ");
+			String phone = in.readLine();
+			System.out.print("Address: ");
+			String address = in.readLine();
+
+			int id = addCustomer(esql, fname, lname, phone, address);
+			System.out.println("Customer id: " + id);
+		}
+		catch (Exception e) {
+			System.out.println(e.getMessage());
+		}
+	}	
+		
+	public static void AddMechanic(MechanicShop esql){//2
+		try {
+                        System.out.print("First name: ");
+                        String fname = in.readLine();
+                        System.out.print("Last name: ");
+                        String lname = in.readLine();
+                        System.out.print("Years of experience: ");
+                        String experience = in.readLine();
+
+                        int id = addMechanic(esql, fname, lname, Integer.parseInt(experience.trim()));
+                        System.out.println("Mechanic id: " + id);
+                }
+                catch (Exception e) {
+                        System.out.println(e.getMessage());
+                }
+	}
+	
+	public static void AddCar(MechanicShop esql){//3
+		try{
+			System.out.print("VIN: ");
+			String vin = in.readLine();
+			if(esql.lookups().carExists(vin)) {
+				System.out.println("The vin you inputted already exists");
+			return;
+			}
+
+			System.out.print("Make: ");
+			String make = in.readLine();
+			System.out.print("Model: ");
+	 	        String model = in.readLine();
+	        	System.out.print("Year: ");
+	        	String year = in.readLine();
+			
+			//OWNS
+			System.out.print("Owner customer id: ");
+			String custID = in.readLine();
+			
+			int ownership_id = addCar(esql, vin, make, model, Integer.parseInt(year.trim()), Integer.parseInt(custID.trim()));
+			System.out.println("Ownership id: " + ownership_id);
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}		
+	}		
+	
+	public static void InsertServiceRequest(MechanicShop esql){//4
+	        try {
+        		boolean found;
+        		if (esql.customers() != null){
+        			System.out.print("Search customer (name or phone): ");
+        			List<CustomerSearch.Match> matches = esql.customers().search(in.readLine(), 10);
+        			for (CustomerSearch.Match m : matches)
+        				System.out.println(String.format("%6d  %-20s %-20s %-16s %.2f", m.id, m.fname, m.lname, m.phone, m.score));
+        			found = !matches.isEmpty();
+        		}else{
+        			System.out.print("Enter last name: ");
+        			List<List<String>> nameResults = esql.lookups().customersByLastName(in.readLine());
+        			System.out.println(nameResults);
+        			found = !nameResults.isEmpty();
+        		}
+  			
+        		String UserDecision = "";
+        		
+			
+        		if (!found) {
+        			System.out.print("ERROR: Customer not found. Create new customer? Y/N");
+				UserDecision = in.readLine();
+				if(UserDecision.equals ("Y") || UserDecision.equals ("y")){
+        			AddCustomer(esql); 
+				}
+				else{
+        			return;        
+				}
+        		}
+			//found customer
+			System.out.print("Enter customer id: ");
+			String cid = in.readLine();
+			
+			List<List<String>> carResult = esql.lookups().carsOwnedBy(Integer.parseInt(cid.trim()));
+          		System.out.println(carResult);
+			
+			UserDecision = ""; //clear userdecision
+	
+        		while(!UserDecision.equals("0") && !UserDecision.equals("1"))
+        		{
+            		System.out.print("Enter 0 to choose a listed car OR enter 1 to add a new car\n");
+            		UserDecision = in.readLine();
+   			}
+        		if (UserDecision.equals("1"))
+      			{
+        			AddCar(esql);
+        			return;
+		        }           
+    			
+        		else if(UserDecision.equals("0"))
+        		{
+			System.out.print("Choose vin: ");
+			String vin  = "";            		
+			vin = in.readLine();
+        					
+            		System.out.println ("Create new service request: ");
+            
+            		System.out.print("Enter date: ");
+            		String date = in.readLine();
+             
+            		System.out.print("Enter odometer reading: ");
+            		String odometer = in.readLine();
+             
+			System.out.print("Enter complaint: ");
+         		String complaint = in.readLine();
+                        
+			int rid = insertServiceRequest(esql, Integer.parseInt(cid.trim()), vin, date, Integer.parseInt(odometer.trim()), complaint);
+			System.out.println("Service request id: " + rid);
+        		}  
+            
+      		  } catch(Exception e){
+           		 System.err.println (e.getMessage());
+        	  }
+        
+	}
+
+	
+	public static void CloseServiceRequest(MechanicShop esql) throws Exception {//5
+		try{
+			System.out.print("Enter mechanic id: ");
+			String mechID = in.readLine();
+
+
+			//hello r u there sir mechanic :>
+			if (esql.lookups().mechanicExists(Integer.parseInt(mechID.trim()))){
+
+				System.out.print("Service request id: ");	
+				String serviceID = in.readLine();
+
+				if(esql.lookups().requestExists(Integer.parseInt(serviceID.trim()))){
+
+					System.out.print("Enter closing Date: ");
+					String closingDate = in.readLine();
+
+					System.out.print("Final comments: ");
+					String comment = in.readLine();
+
+					System.out.print("Final bill: ");
+					String bill = in.readLine();
+
+					//the closing date is checked by the insert itself
+					if(closeServiceRequest(esql, Integer.parseInt(serviceID.trim()), Integer.parseInt(mechID.trim()), closingDate, comment, Integer.parseInt(bill.trim()))){
+						return;
+					}
+
+					System.out.println("ERROR: closing date invalid");
+					return;
+
+				}
+
+				System.out.println("ERROR: request unavailable");
+					return;
+
+
+			}
+
+			System.out.println("ERROR: mechanic does not exist");
+					return;
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}	
+	}
+ 
+	//prints a report from the analytics snapshot when it is enabled, otherwise a page at a time
+	static int printReport(MechanicShop esql, String report, String from, String to) throws SQLException, IOException {
+		AnalyticsSnapshot.Result result = esql.analytics() != null ? esql.analytics().report(report, from, to) : null;
+		if (result == null)
+			return printPages(esql, report, from, to);
+		StringBuilder out = new StringBuilder();
+		for (String column : result.columns)
+			out.append(column).append('\t');
+		out.append('\n');
+		for (String[] row : result.rows){
+			for (String value : row)
+				out.append(value).append('\t');
+			out.append('\n');
+		}//end for
+		System.out.print(out);
+		System.out.println("(as of " + new java.sql.Timestamp(result.asOf) + ")");
+		return result.rows.size();
+	}//end printReport
+
+	//prints a report a page at a time, until its last page or the user stops
+	static int printPages(MechanicShop esql, String report, String from, String to) throws SQLException, IOException {
+		ReportPager.Page page = esql.pages().first(report, PAGE_SIZE, from, to);
+		int shown = 0;
+		while (true){
+			StringBuilder out = new StringBuilder();
+			if (shown == 0){
+				for (String column : page.columns)
+					out.append(column).append('\t');
+				out.append('\n');
+			}//end if
+			for (List<String> row : page.rows){
+				for (String value : row)
+					out.append(value).append('\t');
+				out.append('\n');
+			}//end for
+			System.out.print(out);
+			shown += page.rows.size();
+			if (page.next == null)
+				return shown;
+			System.out.print("-- " + shown + " row(s) shown, Enter for more, q to stop: ");
+			String answer = in.readLine();
+			if (answer == null || answer.trim().equalsIgnoreCase("q"))
+				return shown;
+			page = esql.pages().next(page.next);
+		}//end while
+	}//end printPages
+
+	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
+		try{
+			System.out.print("Closed from (YYYY-MM-DD, blank for all history): ");
+			String from = in.readLine().trim();
+			String to = "";
+			if (from.length() > 0){
+				System.out.print("Closed before (YYYY-MM-DD, blank for no end): ");
+				to = in.readLine().trim();
+			}//end if
+			int rowCount = printReport(esql, "customers-with-bill-less-than-100", from, to);
+			System.out.println("total row(s): " + rowCount);
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
+	
+	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
+		try{
+			int rowCount = printReport(esql, "customers-with-more-than-20-cars", null, null);
+                        System.out.println("total row(s): " + rowCount);
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}		
+	}
+	
+	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
+		try{
+			System.out.print("Requested from (YYYY-MM-DD, blank for all history): ");
+			String from = in.readLine().trim();
+			String to = "";
+			if (from.length() > 0){
+				System.out.print("Requested before (YYYY-MM-DD, blank for no end): ");
+				to = in.readLine().trim();
+			}//end if
+			int rowCount = printReport(esql, "cars-before-1995-with-50000-miles", from, to);
+                        System.out.println("total row(s): " + rowCount);
+                }
+                catch(Exception e){
+                        System.out.println(e.getMessage());
+                }
+	}
+	
+	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
+		try{
+			System.out.print("Enter the k number of cars you wish to display: ");
+			String k = in.readLine();
+			while(k.length() == 0 || !k.matches("[0-9]+")){	
+           			System.out.print("\nThe value you entered for k is invalid. Enter a different value: ");
+         			k = in.readLine();
+         		}
+	
+			List<TopCars.Entry> top = listKCarsWithTheMostServices(esql, Integer.parseInt(k));
+			if (!top.isEmpty())
+				System.out.println("make\tmodel\tcount\t");
+			for (TopCars.Entry car : top)
+				System.out.println(car.make + "\t" + car.model + "\t" + car.count + "\t");
+                        System.out.println("total row(s): " + top.size());
+                }
+                catch(Exception e){
+                        System.out.println(e.getMessage());
+                }
+		
+	}
+	
+	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//9
+		try{
+			int rowCount = printReport(esql, "customers-by-total-bill", null, null);
+                        System.out.println("total row(s): " + rowCount);
+                }
+                catch(Exception e){
+                        System.out.println(e.getMessage());
+                }		
+	}
+
+	/*
+	 * NON-INTERACTIVE OPERATIONS
+	 *
+	 * The database work behind each menu option, without the prompts, so
+	 * that batch jobs and benchmarks can drive it directly.  Each operation
+	 * also keeps the in-memory caches and rankings current once its writes
+	 * commit.
+	 */
+
+	public static void addCustomer(final MechanicShop esql, final int id, final String fname, final String lname, final String phone, String address) throws SQLException {//1
+		esql.executeUpdate("INSERT INTO Customer VALUES (?, ?, ?, ?, ?)", id, fname, lname, phone, address);
+		//a rolled back customer must not be found, nor an uncommitted one cached as missing
+		esql.afterCommit(new Runnable() {
+			public void run() {
+				esql.lookups().customerAdded(lname);
+				esql.results().written("Customer");
+				//an index not loaded yet reads the customer when it is
+				CustomerSearch search = esql._search;
+				if (search != null)
+					search.add(id, fname, lname, phone);
+			}
+		});
+	}
+
+	/**
+	 * Adds a customer under a newly allocated id.
+	 *
+	 * @return the customer's id
+	 */
+	public static int addCustomer(MechanicShop esql, String fname, String lname, String phone, String address) throws SQLException {//1
+		int id = esql.ids().next(IdAllocator.CUSTOMER);
+		addCustomer(esql, id, fname, lname, phone, address);
+		return id;
+	}
+
+	public static void addMechanic(final MechanicShop esql, final int id, String fname, String lname, int experience) throws SQLException {//2
+		esql.executeUpdate("INSERT INTO Mechanic VALUES (?, ?, ?, ?)", id, fname, lname, experience);
+		esql.afterCommit(new Runnable() {
+			public void run() {
+				esql.lookups().mechanicAdded(id);
+			}
+		});
+	}
+
+	/**
+	 * Adds a mechanic under a newly allocated id.
+	 *
+	 * @return the mechanic's id
+	 */
+	public static int addMechanic(MechanicShop esql, String fname, String lname, int experience) throws SQLException {//2
+		int id = esql.ids().next(IdAllocator.MECHANIC);
+		addMechanic(esql, id, fname, lname, experience);
+		return id;
+	}
+
+	/**
+	 * Registers a car and its owner.  Both rows are written by one
+	 * statement, so a car is never left without its ownership.
+	 */
+	public static void addCar(final MechanicShop esql, final String vin, String make, String model, int year, int ownershipId, final int customerId) throws SQLException {//3
+		String newCar = "WITH car AS (INSERT INTO Car VALUES (?, ?, ?, ?) RETURNING vin) "
+			+ "INSERT INTO Owns (ownership_id, customer_id, car_vin) SELECT ?, ?, vin FROM car";
+		esql.executeUpdate(newCar, vin, make, model, year, ownershipId, customerId);
+		esql.afterCommit(new Runnable() {
+			public void run() {
+				esql.lookups().carAdded(vin);
+				esql.lookups().ownershipAdded(customerId);
+				esql.results().written("Car", "Owns");
+			}
+		});
+	}
+
+	/**
+	 * Adds a car owned by a customer under a newly allocated ownership id.
+	 *
+	 * @return the ownership id
+	 */
+	public static int addCar(MechanicShop esql, String vin, String make, String model, int year, int customerId) throws SQLException {//3
+		int ownershipId = esql.ids().next(IdAllocator.OWNERSHIP);
+		addCar(esql, vin, make, model, year, ownershipId, customerId);
+		return ownershipId;
+	}
+
+	/**
+	 * Opens a service request under a newly allocated request id.
+	 *
+	 * @return the request id
+	 */
+	public static int insertServiceRequest(MechanicShop esql, int customerId, String vin, String date, int odometer, String complaint) throws SQLException {//4
+		int rid = esql.ids().next(IdAllocator.REQUEST);
+		insertServiceRequest(esql, rid, customerId, vin, date, odometer, complaint);
+		return rid;
+	}
+
+	/**
+	 * Opens a service request under the given request id.  With the
+	 * write-behind intake the request is acknowledged once it is in the
+	 * write-ahead file and reaches Service_Request shortly after; inside a
+	 * transaction it is always written directly, to commit with the rest.
+	 */
+	public static void insertServiceRequest(MechanicShop esql, int rid, int customerId, String vin, String date, int odometer, String complaint) throws SQLException {//4
+		if (esql.intake() != null && !esql.inTransaction())
+			esql.intake().submit(rid, customerId, vin, date, odometer, complaint);
+		else
+			openServiceRequest(esql, rid, customerId, vin, date, odometer, complaint);
+	}
+
+	static void openServiceRequest(final MechanicShop esql, final int rid, int customerId, String vin, String date, int odometer, String complaint) throws SQLException {
+		//bumps the car's service count in the same statement and returns it for the ranking
+		//and appends the opened event to the outbox, so the event commits with the request
+		String newRequest = "WITH opened AS (INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, CAST(? AS DATE), ?, ?) RETURNING rid, customer_id, car_vin, date, odometer), "
+			+ "evented AS (INSERT INTO Request_Event (type, rid, customer_id, car_vin, date, odometer) SELECT 'opened', rid, customer_id, car_vin, date, odometer FROM opened), "
+			+ "counted AS (INSERT INTO Car_Service_Count (car_vin, service_count) SELECT car_vin, 1 FROM opened ON CONFLICT (car_vin) DO UPDATE SET service_count = Car_Service_Count.service_count + 1 RETURNING car_vin, service_count) "
+			+ "SELECT C.vin, C.make, C.model, counted.service_count FROM counted, Car C WHERE C.vin = counted.car_vin";
+		final List<List<String>> counted = esql.executeQueryAndReturnResult(newRequest, rid, customerId, vin, date, odometer, complaint);
+		//a rolled back count must not reach the ranking
+		esql.afterCommit(new Runnable() {
+			public void run() {
+				esql.lookups().requestAdded(rid);
+				esql.results().written("Service_Request", "Car_Service_Count");
+				for (List<String> car : counted)
+					esql.topCars().update(car.get(0), car.get(1), car.get(2), Integer.parseInt(car.get(3)));
+				if (esql.events() != null)
+					esql.events().wake();
+			}
+		});
+	}
+
+	/**
+	 * Closes a service request.  The request must exist and must not be
+	 * dated after the closing date; the customer's running total is updated
+	 * in the same statement, hence the same transaction, and so is the closed
+	 * event of the outbox.  The closing gets a newly allocated wid.
+	 *
+	 * @return false when the request does not exist or the closing date is before it
+	 */
+	public static boolean closeServiceRequest(final MechanicShop esql, int rid, int mid, String date, String comment, int bill) throws SQLException {//5
+		String closeReq = "WITH closed AS (INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) SELECT ?, SR.rid, ?, CAST(? AS DATE), ?, ? FROM Service_Request SR WHERE SR.rid = ? AND SR.date <= CAST(? AS DATE) RETURNING wid, rid, mid, date, bill), "
+			+ "evented AS (INSERT INTO Request_Event (type, rid, wid, customer_id, car_vin, mid, date, bill) SELECT 'closed', closed.rid, closed.wid, SR.customer_id, SR.car_vin, closed.mid, closed.date, closed.bill FROM closed, Service_Request SR WHERE SR.rid = closed.rid) "
+			+ "INSERT INTO Customer_Bill (customer_id, total_bill, closed_count) SELECT SR.customer_id, closed.bill, 1 FROM closed, Service_Request SR WHERE SR.rid = closed.rid "
+			+ "ON CONFLICT (customer_id) DO UPDATE SET total_bill = Customer_Bill.total_bill + EXCLUDED.total_bill, closed_count = Customer_Bill.closed_count + 1";
+		int wid = esql.ids().next(IdAllocator.CLOSING);
+		boolean closed = esql.executeUpdate(closeReq, wid, mid, date, comment, bill, rid, date) > 0;
+		if (closed){
+			esql.afterCommit(new Runnable() {
+				public void run() {
+					esql.results().written("Closed_Request", "Customer_Bill");
+					if (esql.events() != null)
+						esql.events().wake();
+				}
+			});
+		}//end if
+		return closed;
+	}
+
+	public static int listCustomersWithBillLessThan100(MechanicShop esql, RowHandler handler) throws SQLException {//6
+		String query = "SELECT CR.date, CR.comment, CR.bill FROM Closed_Request CR WHERE CR.bill < ?";
+		return esql.executeQueryAndStream(query, handler, 100);
+	}
+
+	/**
+	 * Lists the closings billed under 100 with a closing date in [from, to),
+	 * reading only the Closed_Request partitions of that range.
+	 *
+	 * @param from the first closing date, YYYY-MM-DD; null or blank for no start
+	 * @param to the day after the last closing date; null or blank for no end
+	 */
+	public static int listCustomersWithBillLessThan100(MechanicShop esql, String from, String to, RowHandler handler) throws SQLException {//6
+		String query = "SELECT CR.date, CR.comment, CR.bill FROM Closed_Request CR WHERE CR.bill < ? AND CR.date >= CAST(? AS DATE) AND CR.date < CAST(? AS DATE)";
+		return esql.executeQueryAndStream(query, handler, 100, dateOr(from, "-infinity"), dateOr(to, "infinity"));
+	}
+
+	public static int listCustomersWithMoreThan20Cars(MechanicShop esql, RowHandler handler) throws SQLException {//7
+		String query = "SELECT cars.fname, cars.lname, cars.num_of_cars FROM (SELECT O.customer_id, C.fname, C.lname, COUNT(*) num_of_cars FROM Owns O, Customer C WHERE C.id = O.customer_id GROUP BY O.customer_id, C.fname, C.lname) AS cars WHERE num_of_cars > ?";
+		return esql.executeQueryAndStream(query, handler, 20);
+	}
+
+	public static int listCarsBefore1995With50000Milles(MechanicShop esql, RowHandler handler) throws SQLException {//8
+		String query = "SELECT C.make, C.model, C.year FROM Car C, Service_Request SR WHERE C.vin = SR.car_vin AND C.year < ? AND SR.odometer < ?";
+		return esql.executeQueryAndStream(query, handler, 1995, 50000);
+	}
+
+	/**
+	 * Lists the cars before 1995 with requests under 50000 miles dated in
+	 * [from, to), reading only the Service_Request partitions of that range.
+	 *
+	 * @param from the first request date, YYYY-MM-DD; null or blank for no start
+	 * @param to the day after the last request date; null or blank for no end
+	 */
+	public static int listCarsBefore1995With50000Milles(MechanicShop esql, String from, String to, RowHandler handler) throws SQLException {//8
+		String query = "SELECT C.make, C.model, C.year FROM Car C, Service_Request SR WHERE C.vin = SR.car_vin AND C.year < ? AND SR.odometer < ? "
+			+ "AND SR.date >= CAST(? AS DATE) AND SR.date < CAST(? AS DATE)";
+		return esql.executeQueryAndStream(query, handler, 1995, 50000, dateOr(from, "-infinity"), dateOr(to, "infinity"));
+	}
+
+	private static String dateOr(String date, String unbounded) {
+		return date == null || date.trim().length() == 0 ? unbounded : date.trim();
+	}
+
+	public static List<TopCars.Entry> listKCarsWithTheMostServices(final MechanicShop esql, final int k) throws SQLException {//9
+		if (esql.analytics() != null)
+			return esql.analytics().topCars(k);
+		//answered from memory when the ranking holds k cars
+		List<TopCars.Entry> top = esql.topCars().top(k);
+		if (top == null && !esql.topCars().isWarm()){
+			//warmed again after another writer changed the counts
+			esql.topCars().warm(esql);
+			top = esql.topCars().top(k);
+		}//end if
+		if (top != null)
+			return top;
+
+		//otherwise from the report cache, until Car or Car_Service_Count are written
+		return esql.results().get("top-cars", Arrays.asList(k), new ReportCache.Loader<List<TopCars.Entry>>() {
+			public List<TopCars.Entry> load() throws SQLException {
+				final List<TopCars.Entry> result = new ArrayList<TopCars.Entry>();
+				esql.executeQueryAndStream(TopCars.TOP, new RowHandler() {
+					public void handle(Row row) throws SQLException {
+						result.add(new TopCars.Entry(row.getString(1), row.getString(2), row.getString(3), row.getInt(4)));
+					}
+				}, k);
+				return Collections.unmodifiableList(result);
+			}
+		});
+	}
+
+	public static int listCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql, RowHandler handler) throws SQLException {//10
+		//served from the Customer_Bill summary kept current by CloseServiceRequest
+		return BillingSummary.topCustomers(esql, 0, handler);
+	}
+	
+}
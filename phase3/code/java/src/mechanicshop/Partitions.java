@@ -0,0 +1,376 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import mechanicshop.jdbc.RowMappers;
+
+/**
+ * This class range-partitions Service_Request and Closed_Request by date,
+ * one partition per month or per year, so that reports bounded by date
+ * read only the partitions of their range.  migrate() turns the existing
+ * tables into partitioned ones in a single transaction; maintain() keeps
+ * partitions ready for the coming periods and moves rows that landed in
+ * the catch-all default partition (bulk loads of old history, dates far
+ * ahead) into partitions of their own.
+ *
+ * A partitioned table's primary key has to include the partition key, so
+ * the keys become (rid, date) and (wid, date); rid and wid stay unique
+ * because they come from their sequences.  For the same reason
+ * Closed_Request.rid can no longer be a foreign key, and a trigger checks
+ * it on insert instead.  Needs PostgreSQL 11 or later.
+ *
+ */
+public class Partitions {
+
+	public static final String MONTH = "month";
+	public static final String YEAR = "year";
+
+	/**
+	 * How one table is partitioned and what it has to get back after the
+	 * migration.
+	 */
+	static class Spec {
+		final String table;
+		final String key;
+		final String sequence;
+		final String[] constraints;
+
+		Spec(String table, String key, String sequence, String... constraints) {
+			this.table = table;
+			this.key = key;
+			this.sequence = sequence;
+			this.constraints = constraints;
+		}
+
+		String name() {
+			return this.table.toLowerCase();
+		}
+	}//end Spec
+
+	static final Spec[] TABLES = {
+		new Spec("Service_Request", "rid", IdAllocator.REQUEST,
+			"ALTER TABLE Service_Request ADD FOREIGN KEY (customer_id) REFERENCES Customer(id)",
+			"ALTER TABLE Service_Request ADD FOREIGN KEY (car_vin) REFERENCES Car(vin)",
+			notifyWrite("Service_Request")),
+		new Spec("Closed_Request", "wid", IdAllocator.CLOSING,
+			"ALTER TABLE Closed_Request ADD FOREIGN KEY (mid) REFERENCES Mechanic(id)",
+			"CREATE OR REPLACE FUNCTION closed_request_rid_check() RETURNS trigger AS $$ BEGIN "
+				+ "IF NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = NEW.rid) THEN "
+				+ "RAISE EXCEPTION 'service request % does not exist', NEW.rid USING ERRCODE = 'foreign_key_violation'; "
+				+ "END IF; RETURN NULL; END $$ LANGUAGE plpgsql",
+			"CREATE TRIGGER closed_request_rid_check AFTER INSERT OR UPDATE OF rid ON Closed_Request "
+				+ "FOR EACH ROW EXECUTE PROCEDURE closed_request_rid_check()",
+			notifyWrite("Closed_Request"))
+	};
+
+	//the report cache's write notification of create.sql, when the database has it
+	private static String notifyWrite(String table) {
+		return "DO $$ BEGIN IF EXISTS (SELECT 1 FROM pg_proc WHERE proname = 'notify_write') THEN "
+			+ "CREATE TRIGGER " + table.toLowerCase() + "_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON " + table
+			+ " FOR EACH STATEMENT EXECUTE PROCEDURE notify_write(); END IF; END $$";
+	}//end notifyWrite
+
+	//partitioned tables of the schema, with the comment that records their granularity
+	static final String PARTITIONED =
+		"SELECT lower(c.relname), obj_description(c.oid, 'pg_class') FROM pg_partitioned_table p, pg_class c " +
+		"WHERE c.oid = p.partrelid AND c.relnamespace = CAST(current_schema() AS regnamespace)";
+	static final String CHILDREN =
+		"SELECT lower(c.relname) FROM pg_inherits i, pg_class c WHERE c.oid = i.inhrelid AND i.inhparent = CAST(CAST(? AS text) AS regclass)";
+
+	static final String OLD_SUFFIX = "_unpartitioned";
+
+	private final MechanicShop _esql;
+	private final int _ahead;
+	private ScheduledExecutorService _maintainer;
+
+	/**
+	 * Creates a partition manager.
+	 *
+	 * @param esql the MechanicShop whose connections run the DDL
+	 * @param ahead how many periods after the current one always have a partition
+	 */
+	public Partitions(MechanicShop esql, int ahead) {
+		this._esql = esql;
+		this._ahead = Math.max(0, ahead);
+	}
+
+	/**
+	 * Method to find the partitioned tables and their granularity.
+	 *
+	 * @return table name in lower case to month or year; empty when nothing is partitioned
+	 *         or the server predates declarative partitioning
+	 */
+	public Map<String, String> partitioned() {
+		Map<String, String> tables = new HashMap<String, String>();
+		try{
+			for (List<String> row : this._esql.executeQueryAndReturnResult(PARTITIONED)){
+				String comment = row.get(1) == null ? "" : row.get(1).trim();
+				tables.put(row.get(0), comment.endsWith(YEAR) ? YEAR : MONTH);
+			}//end for
+		}catch (SQLException e){
+			//no pg_partitioned_table before PostgreSQL 10
+		}//end try
+		return tables;
+	}//end partitioned
+
+	static LocalDate periodStart(LocalDate date, String granularity) {
+		return granularity.equals(YEAR) ? date.withDayOfYear(1) : date.withDayOfMonth(1);
+	}
+
+	static LocalDate nextPeriod(LocalDate start, String granularity) {
+		return granularity.equals(YEAR) ? start.plusYears(1) : start.plusMonths(1);
+	}
+
+	static String partitionName(Spec spec, LocalDate start, String granularity) {
+		return granularity.equals(YEAR)
+			? String.format("%s_y%04d", spec.name(), start.getYear())
+			: String.format("%s_m%04d_%02d", spec.name(), start.getYear(), start.getMonthValue());
+	}//end partitionName
+
+	private static void createPartition(MechanicShop esql, Spec spec, LocalDate start, String granularity) throws SQLException {
+		esql.executeUpdate("CREATE TABLE IF NOT EXISTS " + partitionName(spec, start, granularity) + " PARTITION OF " + spec.table
+			+ " FOR VALUES FROM ('" + start + "') TO ('" + nextPeriod(start, granularity) + "')");
+	}//end createPartition
+
+	//the start of every period a table or partition holds rows for
+	private static Set<LocalDate> periods(MechanicShop esql, String table, String granularity) throws SQLException {
+		Set<LocalDate> periods = new TreeSet<LocalDate>();
+		for (List<String> row : esql.executeQueryAndReturnResult(
+				"SELECT DISTINCT CAST(date_trunc(?, date) AS DATE) FROM " + table, granularity))
+			periods.add(LocalDate.parse(row.get(0).trim()));
+		return periods;
+	}//end periods
+
+	/**
+	 * Method to turn Service_Request and Closed_Request into partitioned
+	 * tables holding the same rows, indexes and constraints.  Everything
+	 * runs in one transaction, which locks both tables for its duration,
+	 * so stop other clients first.  The original tables are kept, renamed
+	 * with the _unpartitioned suffix, until they are dropped by hand.
+	 *
+	 * @param granularity month or year
+	 * @throws java.sql.SQLException when a table is partitioned already or the migration failed,
+	 *         in which case nothing was changed
+	 */
+	public void migrate(final String granularity) throws SQLException {
+		if (!granularity.equals(MONTH) && !granularity.equals(YEAR))
+			throw new IllegalArgumentException("partition by month or year, not " + granularity);
+		if (this._esql.queryForObject("SELECT current_setting('server_version_num')::int", RowMappers.INT) < 110000)
+			throw new SQLException("partitioning needs PostgreSQL 11 or later");
+		Map<String, String> partitioned = partitioned();
+		if (!partitioned.isEmpty())
+			throw new SQLException(partitioned.keySet() + " already partitioned, run maintain-partitions instead");
+
+		final LocalDate current = periodStart(LocalDate.now(), granularity);
+		this._esql.transactions().run(new UnitOfWork.Work<Void>() {
+			public Void run(MechanicShop esql) throws SQLException {
+				esql.executeUpdate("LOCK TABLE Service_Request, Closed_Request IN ACCESS EXCLUSIVE MODE");
+				for (Spec spec : TABLES)
+					migrate(esql, spec, granularity, current);
+				return null;
+			}
+		});
+		System.out.println("Drop the old tables once the new ones are verified: DROP TABLE Closed_Request"
+			+ OLD_SUFFIX + ", Service_Request" + OLD_SUFFIX + ";");
+	}//end migrate
+
+	private void migrate(MechanicShop esql, Spec spec, String granularity, LocalDate current) throws SQLException {
+		String old = spec.table + OLD_SUFFIX;
+		Set<LocalDate> periods = periods(esql, spec.table, granularity);
+		LocalDate period = current;
+		for (int i = 0; i <= this._ahead; i++, period = nextPeriod(period, granularity))
+			periods.add(period);
+
+		//the old indexes keep their definitions but give up their names
+		List<List<String>> indexes = esql.executeQueryAndReturnResult(
+			"SELECT indexname, indexdef FROM pg_indexes WHERE schemaname = current_schema() AND tablename = ?", spec.name());
+		esql.executeUpdate("ALTER TABLE " + spec.table + " RENAME TO " + old);
+		for (List<String> index : indexes){
+			String name = index.get(0);
+			String renamed = (name.length() > 63 - OLD_SUFFIX.length() ? name.substring(0, 63 - OLD_SUFFIX.length()) : name) + OLD_SUFFIX;
+			esql.executeUpdate("ALTER INDEX \"" + name + "\" RENAME TO \"" + renamed + "\"");
+		}//end for
+
+		esql.executeUpdate("CREATE TABLE " + spec.table + " (LIKE " + old + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS) PARTITION BY RANGE (date)");
+		esql.executeUpdate("ALTER TABLE " + spec.table + " ADD PRIMARY KEY (" + spec.key + ", date)");
+		esql.executeUpdate("COMMENT ON TABLE " + spec.table + " IS 'partitioned by " + granularity + "'");
+		esql.executeUpdate("CREATE TABLE " + spec.name() + "_default PARTITION OF " + spec.table + " DEFAULT");
+		for (LocalDate start : periods)
+			createPartition(esql, spec, start, granularity);
+		esql.executeUpdate("ALTER SEQUENCE " + spec.sequence + " OWNED BY " + spec.table + "." + spec.key);
+
+		int rows = esql.executeUpdate("INSERT INTO " + spec.table + " SELECT * FROM " + old);
+		for (List<String> index : indexes){
+			//unique indexes other than the primary key cannot exist without the date
+			if (index.get(1).startsWith("CREATE UNIQUE INDEX")){
+				if (!index.get(0).endsWith("_pkey"))
+					System.out.println("  " + spec.table + ": not recreated, unique without the date: " + index.get(1));
+				continue;
+			}//end if
+			esql.executeUpdate(index.get(1));
+		}//end for
+		for (String constraint : spec.constraints)
+			esql.executeUpdate(constraint);
+		esql.executeUpdate("ANALYZE " + spec.table);
+		System.out.println(String.format("%s: %d row(s) moved into %d %sly partition(s) and a default one",
+			spec.table, rows, periods.size(), granularity));
+	}//end migrate
+
+	/**
+	 * Method to give the rows of the default partitions partitions of
+	 * their own, then create any missing partition for the current period
+	 * and the ones ahead.  Moving rows locks the table while they move.
+	 *
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition could not be created or the rows moved
+	 */
+	public int maintain() throws SQLException {
+		int created = 0;
+		Map<String, String> partitioned = partitioned();
+		for (final Spec spec : TABLES){
+			final String granularity = partitioned.get(spec.name());
+			if (granularity == null)
+				continue;
+			Set<LocalDate> strays = periods(this._esql, spec.name() + "_default", granularity);
+			if (!strays.isEmpty()){
+				int moved = moveOut(spec, granularity, strays);
+				created += strays.size();
+				System.out.println(String.format("%s: %d row(s) moved out of the default partition", spec.table, moved));
+			}//end if
+			created += ensureAhead(spec, granularity);
+		}//end for
+		return created;
+	}//end maintain
+
+	//creates partitions for periods the default partition holds rows of, and moves those rows into them
+	private int moveOut(final Spec spec, final String granularity, final Set<LocalDate> periods) throws SQLException {
+		return this._esql.transactions().run(new UnitOfWork.Work<Integer>() {
+			public Integer run(MechanicShop esql) throws SQLException {
+				String fallback = spec.name() + "_default";
+				esql.executeUpdate("ALTER TABLE " + spec.table + " DETACH PARTITION " + fallback);
+				for (LocalDate start : periods)
+					createPartition(esql, spec, start, granularity);
+				int rows = esql.executeUpdate("WITH moved AS (DELETE FROM " + fallback + " WHERE CAST(date_trunc(?, date) AS DATE) = ANY(CAST(CAST(? AS text) AS date[])) RETURNING *) "
+					+ "INSERT INTO " + spec.table + " SELECT * FROM moved", granularity, "{" + String.join(",", toStrings(periods)) + "}");
+				esql.executeUpdate("ALTER TABLE " + spec.table + " ATTACH PARTITION " + fallback + " DEFAULT");
+				return rows;
+			}
+		});
+	}//end moveOut
+
+	private static List<String> toStrings(Set<LocalDate> dates) {
+		List<String> strings = new ArrayList<String>();
+		for (LocalDate date : dates)
+			strings.add(date.toString());
+		return strings;
+	}//end toStrings
+
+	//partitions for the current period and the ones ahead, only where missing; rows the default partition
+	//already holds for such a period are moved into the new partition, which could not be created otherwise
+	private int ensureAhead(Spec spec, String granularity) throws SQLException {
+		Set<String> existing = new HashSet<String>();
+		for (List<String> child : this._esql.executeQueryAndReturnResult(CHILDREN, spec.name()))
+			existing.add(child.get(0));
+		Set<LocalDate> missing = new TreeSet<LocalDate>();
+		LocalDate period = periodStart(LocalDate.now(), granularity);
+		for (int i = 0; i <= this._ahead; i++, period = nextPeriod(period, granularity)){
+			if (!existing.contains(partitionName(spec, period, granularity)))
+				missing.add(period);
+		}//end for
+		if (missing.isEmpty())
+			return 0;
+		Set<LocalDate> strays = periods(this._esql, spec.name() + "_default", granularity);
+		strays.retainAll(missing);
+		try{
+			if (!strays.isEmpty()){
+				int moved = moveOut(spec, granularity, strays);
+				System.out.println(String.format("%s: %d row(s) moved out of the default partition", spec.table, moved));
+			}//end if
+			for (LocalDate start : missing)
+				if (!strays.contains(start))
+					createPartition(this._esql, spec, start, granularity);
+		}catch (SQLException e){
+			throw new SQLException(spec.table + " has no partition for " + missing + ", its rows go to the default partition: " + e.getMessage(), e.getSQLState(), e);
+		}//end try
+		return missing.size();
+	}//end ensureAhead
+
+	/**
+	 * Method to keep partitions ready for the coming periods while the
+	 * program runs, checking now and every interval after.  Rows in the
+	 * default partitions are only moved here when a new partition needs
+	 * them, since moving them locks the table; the others are reported,
+	 * and maintain-partitions moves them.  Does nothing when no table is
+	 * partitioned.
+	 *
+	 * @param intervalMillis how often to check
+	 */
+	public synchronized void start(long intervalMillis) {
+		if (this._maintainer != null || partitioned().isEmpty())
+			return;
+		this._maintainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "partition-maintainer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._maintainer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				check();
+			}
+		}, 0, Math.max(1000, intervalMillis), TimeUnit.MILLISECONDS);
+	}//end start
+
+	private void check() {
+		try{
+			Map<String, String> partitioned = partitioned();
+			for (Spec spec : TABLES){
+				String granularity = partitioned.get(spec.name());
+				if (granularity == null)
+					continue;
+				try{
+					ensureAhead(spec, granularity);
+				}catch (SQLException e){
+					System.err.println("Error - " + e.getMessage());
+				}//end try
+				long stray = this._esql.queryForObject("SELECT count(*) FROM " + spec.name() + "_default", RowMappers.LONG);
+				if (stray > 0)
+					System.err.println("Warning - " + stray + " " + spec.table
+						+ " row(s) in the default partition, run maintain-partitions");
+			}//end for
+		}catch (SQLException e){
+			System.err.println("Warning - partition maintenance failed: " + e.getMessage());
+		}//end try
+	}//end check
+
+	public synchronized void close() {
+		if (this._maintainer != null)
+			this._maintainer.shutdownNow();
+		this._maintainer = null;
+	}//end close
+}//end Partitions
@@ -0,0 +1,483 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMappers;
+
+/**
+ * This class forecasts the demand for the lab 5 parts from what customers
+ * and mechanics write.  The complaint of every Service_Request and the
+ * comment of every Closed_Request is split into words and matched against
+ * a dictionary of part categories, each with the parts it needs and the
+ * words and phrases that point to it.  Every match counts one unit of
+ * demand for those parts on the request's or closing's date; a closing
+ * only counts the parts its request's complaint did not already.  The
+ * counts are kept per part and day in Part_Demand, and the reorder list
+ * sums them over rolling windows ending at the latest day counted,
+ * projects the fastest of those rates over the coming days and prices it
+ * at the cheapest catalog offer.
+ *
+ * update() only reads the requests and closings it has not counted yet.
+ * Their ids come from sequences but are handed out in blocks (see
+ * IdAllocator), so they are not committed in order and a plain "greater
+ * than the last id" watermark would miss late ones.  Instead the
+ * watermark is the set of ids already counted, stored as ranges in
+ * Part_Demand_Watermark, and each run reads the ids above the highest
+ * range plus the few gaps between ranges, all through the primary key
+ * index.  Some ids are never used (blocks lost on a restart, closings
+ * that failed), so gaps are closed once nothing can fill them any more:
+ * each run records its highest id with its transaction id in
+ * Part_Demand_Horizon, and once every transaction older than that run has
+ * ended (the xmin of the current snapshot is past it) and
+ * IdAllocator.GAP_HOURS have passed, the gaps below that id are merged
+ * into the ranges after one last probe.  IdAllocator drops the blocks
+ * running programs hold well before that, so no request or closing is
+ * written later with an id of a closed gap.  Counts and watermark are
+ * written in the same transaction, so a failed run counts nothing and the
+ * next one starts where it left off; runs lock the watermark and never
+ * overlap.
+ *
+ * Dictionary lines read "category | part ids | words and phrases", e.g.
+ *   brakes | 5 | brake, brake pad, squeal
+ * with the ids and phrases separated by commas and # starting a comment.
+ * Words are compared in lower case with a plural s removed.
+ *
+ */
+public class PartsDemand {
+
+	/**
+	 * One part of the reorder list.
+	 */
+	public static final class Reorder {
+		public final int pid;
+		public final String part;
+		//demand over each window, shortest first
+		public final int[] demand;
+		public final int quantity;
+		public final String supplier;
+		public final BigDecimal cost;
+
+		Reorder(int pid, String part, int[] demand, int quantity, String supplier, BigDecimal cost) {
+			this.pid = pid;
+			this.part = part;
+			this.demand = demand;
+			this.quantity = quantity;
+			this.supplier = supplier;
+			this.cost = cost;
+		}
+
+		/**
+		 * @return the quantity at the cheapest cost, or null when no supplier offers the part
+		 */
+		public BigDecimal total() {
+			return this.cost == null ? null : this.cost.multiply(BigDecimal.valueOf(this.quantity));
+		}
+	}//end Reorder
+
+	/**
+	 * What one update() read and counted.
+	 */
+	public static final class Run {
+		int requests = 0;
+		int closings = 0;
+		int units = 0;
+		int ranges = 0;
+		long nanos = 0;
+
+		@Override
+		public String toString() {
+			return String.format("Parts demand: %d new request(s), %d new closing(s), %d unit(s) of demand counted, %d watermark range(s), %.1f ms",
+				this.requests, this.closings, this.units, this.ranges, this.nanos / 1e6);
+		}
+	}//end Run
+
+	//a phrase of the dictionary and the category it points to
+	static final class Phrase {
+		final String[] words;
+		final int category;
+
+		Phrase(String[] words, int category) {
+			this.words = words;
+			this.category = category;
+		}
+	}//end Phrase
+
+	static final String[] SCHEMA = {
+		"CREATE TABLE IF NOT EXISTS Part_Demand (pid INTEGER NOT NULL, day DATE NOT NULL, demand INTEGER NOT NULL, PRIMARY KEY (pid, day))",
+		"CREATE TABLE IF NOT EXISTS Part_Demand_Watermark (source VARCHAR(32) NOT NULL, lo INTEGER NOT NULL, hi INTEGER NOT NULL, PRIMARY KEY (source, lo))",
+		"CREATE TABLE IF NOT EXISTS Part_Demand_Horizon (source VARCHAR(32) NOT NULL, hi INTEGER NOT NULL, txid BIGINT NOT NULL, "
+			+ "at TIMESTAMP NOT NULL DEFAULT clock_timestamp(), PRIMARY KEY (source, hi))"
+	};
+
+	//horizons no running transaction predates, old enough: the gaps below them are closed by this run
+	static final String CLOSE_HORIZONS =
+		"DELETE FROM Part_Demand_Horizon WHERE source = ? AND txid < txid_snapshot_xmin(txid_current_snapshot()) " +
+		"AND at < clock_timestamp() - CAST(? AS bigint) * interval '1 hour' RETURNING hi";
+	static final String ADD_HORIZON =
+		"INSERT INTO Part_Demand_Horizon (source, hi, txid) SELECT CAST(? AS text), ?, txid_current() " +
+		"WHERE NOT EXISTS (SELECT 1 FROM Part_Demand_Horizon WHERE source = ? AND hi >= ?)";
+
+	static final String LOCK = "LOCK TABLE Part_Demand_Watermark IN EXCLUSIVE MODE";
+	static final String RANGES = "SELECT lo, hi FROM Part_Demand_Watermark WHERE source = ?";
+	static final String CLEAR_RANGES = "DELETE FROM Part_Demand_Watermark WHERE source = ?";
+	static final String SAVE_RANGES =
+		"INSERT INTO Part_Demand_Watermark (source, lo, hi) SELECT CAST(? AS text), lo, hi " +
+		"FROM unnest(CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS int[])) AS R(lo, hi)";
+	static final String ADD_DEMAND =
+		"INSERT INTO Part_Demand (pid, day, demand) SELECT pid, day, demand " +
+		"FROM unnest(CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS date[]), CAST(CAST(? AS text) AS int[])) AS D(pid, day, demand) " +
+		"ON CONFLICT (pid, day) DO UPDATE SET demand = Part_Demand.demand + EXCLUDED.demand";
+
+	static final String REQUESTS = "Service_Request";
+	static final String CLOSINGS = "Closed_Request";
+
+	//key, date, text and the text already counted; %1$s is a table put first, %2$s the condition on the key
+	static final String REQUEST_ROWS = "SELECT SR.rid, SR.date, SR.complain, NULL FROM %1$s Service_Request SR WHERE %2$s";
+	static final String CLOSING_ROWS = "SELECT CR.wid, CR.date, CR.comment, SR.complain FROM %1$s Closed_Request CR LEFT JOIN Service_Request SR ON SR.rid = CR.rid WHERE %2$s";
+
+	static final String UNSEEN_REQUESTS = KeyRanges.unseen(REQUEST_ROWS, "SR.rid");
+	static final String UNSEEN_CLOSINGS = KeyRanges.unseen(CLOSING_ROWS, "CR.wid");
+
+	//demand of the last days up to the latest day counted, with each day's distance from it
+	static final String RECENT_DEMAND =
+		"SELECT D.pid, L.last - D.day, D.demand FROM Part_Demand D, (SELECT MAX(day) AS last FROM Part_Demand) L " +
+		"WHERE D.day > L.last - CAST(? AS integer)";
+	static final String LAST_DAY = "SELECT CAST(MAX(day) AS text) FROM Part_Demand";
+	static final String CATALOG = "SELECT CAST(to_regclass('catalog') AS text)";
+	static final String CHEAPEST =
+		"SELECT DISTINCT ON (C.pid) CAST(C.pid AS INTEGER), P.pname, S.sname, C.cost " +
+		"FROM catalog C, parts P, suppliers S WHERE P.pid = C.pid AND S.sid = C.sid ORDER BY C.pid, C.cost, C.sid";
+
+	private final MechanicShop _esql;
+	private final String[] _categories;
+	private final int[][] _pids;
+	//phrases by their first word
+	private final Map<String, List<Phrase>> _phrases = new HashMap<String, List<Phrase>>();
+	private final int[] _windows;
+	private final int _coverDays;
+
+	/**
+	 * Creates a demand pipeline.
+	 *
+	 * @param esql the MechanicShop whose connections read and write the demand
+	 * @param dictionary the dictionary lines, closed by the caller
+	 * @param windows the lengths in days of the rolling windows
+	 * @param coverDays the days of demand the reorder list orders for
+	 * @throws java.io.IOException when the dictionary cannot be read
+	 * @throws IllegalArgumentException when a dictionary line is malformed
+	 */
+	public PartsDemand(MechanicShop esql, BufferedReader dictionary, int[] windows, int coverDays) throws IOException {
+		this._esql = esql;
+		List<String> categories = new ArrayList<String>();
+		List<int[]> pids = new ArrayList<int[]>();
+		int number = 0;
+		for (String line = dictionary.readLine(); line != null; line = dictionary.readLine()){
+			number++;
+			int comment = line.indexOf('#');
+			line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+			if (line.isEmpty())
+				continue;
+			String[] fields = line.split("\\|");
+			if (fields.length != 3)
+				throw new IllegalArgumentException("dictionary line " + number + ": expected category | part ids | words");
+			int category = categories.size();
+			categories.add(fields[0].trim());
+			pids.add(parseInts(fields[1], "dictionary line " + number));
+			for (String phrase : fields[2].split(",")){
+				String[] words = words(phrase);
+				if (words.length == 0)
+					continue;
+				List<Phrase> starting = this._phrases.get(words[0]);
+				if (starting == null)
+					this._phrases.put(words[0], starting = new ArrayList<Phrase>());
+				starting.add(new Phrase(words, category));
+			}//end for
+		}//end for
+		this._categories = categories.toArray(new String[categories.size()]);
+		this._pids = pids.toArray(new int[pids.size()][]);
+		this._windows = windows.clone();
+		Arrays.sort(this._windows);
+		if (this._windows.length == 0 || this._windows[0] <= 0)
+			throw new IllegalArgumentException("demand windows must be positive days");
+		this._coverDays = Math.max(1, coverDays);
+	}//end PartsDemand
+
+	/**
+	 * Creates a pipeline configured from the mechanicshop.demand.dictionary
+	 * (default ../data/parts_dictionary.txt), mechanicshop.demand.windows
+	 * (days, default 7,30,90) and mechanicshop.demand.coverDays (default 30)
+	 * system properties.
+	 *
+	 * @throws java.io.IOException when the dictionary cannot be read
+	 */
+	public static PartsDemand fromSystemProperties(MechanicShop esql) throws IOException {
+		BufferedReader dictionary = new BufferedReader(new FileReader(System.getProperty("mechanicshop.demand.dictionary", "../data/parts_dictionary.txt")));
+		try{
+			return new PartsDemand(esql, dictionary, parseInts(System.getProperty("mechanicshop.demand.windows", "7,30,90"), "mechanicshop.demand.windows"),
+				Integer.getInteger("mechanicshop.demand.coverDays", 30));
+		}finally{
+			dictionary.close();
+		}//end try
+	}//end fromSystemProperties
+
+	static int[] parseInts(String list, String where) {
+		List<Integer> values = new ArrayList<Integer>();
+		for (String value : list.split(",")){
+			if (value.trim().isEmpty())
+				continue;
+			try{
+				values.add(Integer.parseInt(value.trim()));
+			}catch (NumberFormatException e){
+				throw new IllegalArgumentException(where + ": " + value.trim() + " is not a number");
+			}//end try
+		}//end for
+		int[] ints = new int[values.size()];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = values.get(i);
+		return ints;
+	}//end parseInts
+
+	//lower case words of the text, plural s removed
+	static String[] words(String text) {
+		if (text == null)
+			return new String[0];
+		List<String> words = new ArrayList<String>();
+		for (String word : text.toLowerCase().split("[^a-z0-9]+")){
+			if (word.isEmpty())
+				continue;
+			if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss"))
+				word = word.substring(0, word.length() - 1);
+			words.add(word);
+		}//end for
+		return words.toArray(new String[words.size()]);
+	}//end words
+
+	/**
+	 * Method to find the parts a text asks for.
+	 *
+	 * @param text a complaint or closing comment, may be null
+	 * @return the ids of the parts of every category the text matches, each once
+	 */
+	public Set<Integer> parts(String text) {
+		Set<Integer> parts = new HashSet<Integer>();
+		String[] words = words(text);
+		for (int i = 0; i < words.length; i++){
+			List<Phrase> starting = this._phrases.get(words[i]);
+			if (starting == null)
+				continue;
+			for (Phrase phrase : starting){
+				if (!matches(words, i, phrase.words))
+					continue;
+				for (int pid : this._pids[phrase.category])
+					parts.add(pid);
+			}//end for
+		}//end for
+		return parts;
+	}//end parts
+
+	private static boolean matches(String[] words, int at, String[] phrase) {
+		if (at + phrase.length > words.length)
+			return false;
+		for (int j = 1; j < phrase.length; j++)
+			if (!words[at + j].equals(phrase[j]))
+				return false;
+		return true;
+	}//end matches
+
+	/**
+	 * Method to count the requests and closings written since the last
+	 * run, in one transaction with the watermark.
+	 *
+	 * @return how many rows were read and units counted
+	 * @throws java.sql.SQLException when the rows could not be read or the counts written
+	 */
+	public Run update() throws SQLException {
+		for (String ddl : SCHEMA)
+			this._esql.executeUpdate(ddl);
+		final long start = System.nanoTime();
+		Run run = this._esql.transactions().run(new UnitOfWork.Work<Run>() {
+			public Run run(MechanicShop esql) throws SQLException {
+				Run run = new Run();
+				esql.executeUpdate(LOCK);
+				Map<Long, int[]> counts = new HashMap<Long, int[]>();
+				run.requests = count(esql, REQUESTS, UNSEEN_REQUESTS, counts, run);
+				run.closings = count(esql, CLOSINGS, UNSEEN_CLOSINGS, counts, run);
+				if (!counts.isEmpty()){
+					StringBuilder pids = new StringBuilder("{"), days = new StringBuilder("{"), demand = new StringBuilder("{");
+					for (Map.Entry<Long, int[]> count : counts.entrySet()){
+						if (pids.length() > 1){
+							pids.append(',');
+							days.append(',');
+							demand.append(',');
+						}//end if
+						pids.append((int) (count.getKey() >> 32));
+						days.append(LocalDate.ofEpochDay((int) (long) count.getKey()));
+						demand.append(count.getValue()[0]);
+					}//end for
+					esql.executeUpdate(ADD_DEMAND, pids.append('}').toString(), days.append('}').toString(), demand.append('}').toString());
+				}//end if
+				return run;
+			}
+		});
+		run.nanos = System.nanoTime() - start;
+		return run;
+	}//end update
+
+	//reads one source's rows outside its watermark into counts, then saves the grown watermark
+	private int count(MechanicShop esql, final String source, String query, final Map<Long, int[]> counts, final Run run) throws SQLException {
+		final KeyRanges seen = new KeyRanges();
+		esql.executeQueryAndStream(RANGES, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				seen.add(row.getInt(1), row.getInt(2));
+			}
+		}, source);
+		//read before the probes, whose later snapshot sees every row the closed gaps could have
+		List<List<String>> closed = esql.executeQueryAndReturnResult(CLOSE_HORIZONS, source, IdAllocator.GAP_HOURS);
+		List<int[]> gaps = seen.gaps();
+		final int[] rows = {0};
+		esql.executeQueryAndStream(query, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				int key = row.getInt(1);
+				if (seen.contains(key))
+					return;
+				seen.add(key);
+				rows[0]++;
+				long day = row.getDate(2).toLocalDate().toEpochDay();
+				Set<Integer> parts = parts(row.getString(3));
+				parts.removeAll(parts(row.getString(4)));
+				for (int pid : parts){
+					Long cell = ((long) pid << 32) | (day & 0xFFFFFFFFL);
+					int[] count = counts.get(cell);
+					if (count == null)
+						counts.put(cell, count = new int[1]);
+					count[0]++;
+					run.units++;
+				}//end for
+			}
+		}, seen.max(), KeyRanges.array(gaps, 0), KeyRanges.array(gaps, 1));
+		int closeBelow = Integer.MIN_VALUE;
+		for (List<String> horizon : closed)
+			closeBelow = Math.max(closeBelow, Integer.parseInt(horizon.get(0).trim()));
+		int before = seen.size();
+		if (closeBelow > Integer.MIN_VALUE)
+			seen.add(Integer.MIN_VALUE, closeBelow);
+		if (rows[0] > 0 || seen.size() != before){
+			List<int[]> ranges = seen.ranges();
+			esql.executeUpdate(CLEAR_RANGES, source);
+			esql.executeUpdate(SAVE_RANGES, source, KeyRanges.array(ranges, 0), KeyRanges.array(ranges, 1));
+		}//end if
+		if (!seen.gaps().isEmpty())
+			esql.executeUpdate(ADD_HORIZON, source, seen.max(), source, seen.max());
+		run.ranges += seen.size();
+		return rows[0];
+	}//end count
+
+	/**
+	 * Method to build the reorder list from the counted demand.  Each part's
+	 * demand over every window is turned into a daily rate, and the highest
+	 * rate times the cover days, rounded up, is the quantity to order.
+	 *
+	 * @return the parts with demand in the longest window, largest quantity first
+	 * @throws java.sql.SQLException when the demand or the catalog could not be read
+	 */
+	public List<Reorder> reorderList() throws SQLException {
+		for (String ddl : SCHEMA)
+			this._esql.executeUpdate(ddl);
+		final int[] windows = this._windows;
+		final Map<Integer, int[]> demand = new TreeMap<Integer, int[]>();
+		this._esql.executeQueryAndStream(RECENT_DEMAND, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				int pid = row.getInt(1), age = row.getInt(2), units = row.getInt(3);
+				int[] sums = demand.get(pid);
+				if (sums == null)
+					demand.put(pid, sums = new int[windows.length]);
+				for (int w = 0; w < windows.length; w++)
+					if (age < windows[w])
+						sums[w] += units;
+			}
+		}, windows[windows.length - 1]);
+
+		final Map<Integer, Object[]> offers = new HashMap<Integer, Object[]>();
+		if (this._esql.queryForObject(CATALOG, RowMappers.STRING) != null){
+			this._esql.executeQueryAndStream(CHEAPEST, new RowHandler() {
+				public void handle(Row row) throws SQLException {
+					offers.put(row.getInt(1), new Object[]{row.getString(2).trim(), row.getString(3).trim(), row.getObject(4)});
+				}
+			});
+		}//end if
+
+		List<Reorder> list = new ArrayList<Reorder>(demand.size());
+		for (Map.Entry<Integer, int[]> part : demand.entrySet()){
+			double rate = 0;
+			for (int w = 0; w < windows.length; w++)
+				rate = Math.max(rate, part.getValue()[w] / (double) windows[w]);
+			Object[] offer = offers.get(part.getKey());
+			list.add(new Reorder(part.getKey(), offer == null ? "part " + part.getKey() : (String) offer[0], part.getValue(),
+				(int) Math.ceil(rate * this._coverDays - 1e-9), offer == null ? null : (String) offer[1], offer == null ? null : (BigDecimal) offer[2]));
+		}//end for
+		Collections.sort(list, new Comparator<Reorder>() {
+			public int compare(Reorder a, Reorder b) {
+				return a.quantity != b.quantity ? Integer.compare(b.quantity, a.quantity) : Integer.compare(a.pid, b.pid);
+			}
+		});
+		return list;
+	}//end reorderList
+
+	/**
+	 * Method to print a reorder list as a table with its total cost.
+	 *
+	 * @param list the list from reorderList()
+	 * @param out where to print
+	 * @throws java.sql.SQLException when the latest day counted could not be read
+	 */
+	public void print(List<Reorder> list, PrintStream out) throws SQLException {
+		out.println("Reorder list for the next " + this._coverDays + " day(s), demand up to " + this._esql.queryForObject(LAST_DAY, RowMappers.STRING)
+			+ " from " + this._categories.length + " categories");
+		StringBuilder header = new StringBuilder(String.format("%-6s %-34s", "pid", "part"));
+		for (int window : this._windows)
+			header.append(String.format(" %6s", window + "d"));
+		out.println(header.append(String.format(" %6s  %-24s %10s %12s", "order", "cheapest supplier", "unit cost", "total")));
+		BigDecimal total = BigDecimal.ZERO;
+		for (Reorder line : list){
+			StringBuilder row = new StringBuilder(String.format("%-6d %-34s", line.pid, line.part));
+			for (int units : line.demand)
+				row.append(String.format(" %6d", units));
+			row.append(String.format(" %6d  %-24s %10s %12s", line.quantity, line.supplier == null ? "(not in catalog)" : line.supplier,
+				line.cost == null ? "" : line.cost.toPlainString(), line.total() == null ? "" : line.total().toPlainString()));
+			out.println(row);
+			if (line.total() != null)
+				total = total.add(line.total());
+		}//end for
+		out.println(list.size() + " part(s), total cost " + total.toPlainString());
+	}//end print
+}//end PartsDemand
@@ -0,0 +1,452 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import mechanicshop.jdbc.ConnectionPool;
+
+/**
+ * This class caches report results by report and parameters.  Every
+ * report depends on the tables it reads, and a write to one of them drops
+ * every cached result that read it:
+ *
+ *  - the write operations of MechanicShop call written() with the tables
+ *    they changed, so the next report reads the change;
+ *  - the notify_write triggers of create.sql send the name of every
+ *    written table on the mechanicshop_writes channel when the writing
+ *    transaction commits, so writes of other processes, of bulk loads and
+ *    of transactions committed after their written() call are seen too.
+ *
+ * A result loaded while one of its tables was written is returned but
+ * not cached, since it may predate the write.  While the listener is not
+ * connected nothing is cached, because a write could go unnoticed.  The
+ * cache holds at most a number of rows; the least recently used results
+ * are evicted first.
+ *
+ */
+public class ReportCache {
+
+	/**
+	 * Runs a report whose result is not cached.
+	 */
+	public interface Loader<V> {
+		/**
+		 * @return the result, never null
+		 * @throws java.sql.SQLException when the report failed
+		 */
+		V load() throws SQLException;
+	}//end Loader
+
+	public static final String CHANNEL = "mechanicshop_writes";
+
+	//tables each report reads, in lower case as the triggers send them
+	static final Map<String, String[]> DEPENDS = new HashMap<String, String[]>();
+	static {
+		DEPENDS.put("customers-with-bill-less-than-100", new String[] {"closed_request"});
+		DEPENDS.put("customers-with-more-than-20-cars", new String[] {"owns", "customer"});
+		DEPENDS.put("cars-before-1995-with-50000-miles", new String[] {"car", "service_request"});
+		DEPENDS.put("top-cars", new String[] {"car_service_count", "car"});
+		DEPENDS.put("customers-by-total-bill", new String[] {"customer_bill", "customer"});
+	}
+
+	private static class Entry {
+		final String report;
+		final Object value;
+		final int rows;
+
+		Entry(String report, Object value, int rows) {
+			this.report = report;
+			this.value = value;
+			this.rows = rows;
+		}
+	}//end Entry
+
+	private final int _capacity;
+	//access order turns the map into an LRU list
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, Set<String>> _byTable = new HashMap<String, Set<String>>();
+	//bumped by every write to the table, to catch writes during a load
+	private final Map<String, Long> _writes = new HashMap<String, Long>();
+	//bumped by clear()
+	private long _epoch = 0;
+	private int _rows = 0;
+	//false while a listener should be connected but is not
+	private boolean _caching = true;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _invalidations = 0;
+	private long _discarded = 0;
+	private long _notifications = 0;
+	//hits and misses per report
+	private final Map<String, long[]> _reports = new TreeMap<String, long[]>();
+
+	private static class Watcher {
+		final Runnable action;
+		//whose connections' notifications the action skips, or null
+		final ConnectionPool own;
+
+		Watcher(Runnable action, ConnectionPool own) {
+			this.action = action;
+			this.own = own;
+		}
+	}//end Watcher
+
+	//run when a notification names their table, and whenever the listener (re)connects
+	private final Map<String, List<Watcher>> _watchers = new HashMap<String, List<Watcher>>();
+	private Thread _listener;
+	private volatile boolean _closed = false;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity the maximum number of cached rows, 0 to cache nothing
+	 */
+	public ReportCache(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("invalid report cache capacity: " + capacity);
+		this._capacity = capacity;
+	}//end ReportCache
+
+	/**
+	 * Method to return the cached result of a report, loading and caching
+	 * it on a miss.
+	 *
+	 * @param report one of the ShopServer report names
+	 * @param params the report's parameters; equal lists share a result
+	 * @param loader runs the report
+	 * @return the cached or freshly loaded result
+	 * @throws java.sql.SQLException when the loader failed
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V get(String report, List<?> params, Loader<V> loader) throws SQLException {
+		String[] tables = DEPENDS.get(report);
+		if (tables == null)
+			throw new IllegalArgumentException("no cached report " + report);
+		String key = report + params;
+		long epoch;
+		long[] writes = new long[tables.length];
+		synchronized (this){
+			long[] counts = counts(report);
+			Entry e = this._entries.get(key);
+			if (e != null){
+				this._hits++;
+				counts[0]++;
+				return (V) e.value;
+			}//end if
+			this._misses++;
+			counts[1]++;
+			epoch = this._epoch;
+			for (int i = 0; i < tables.length; i++)
+				writes[i] = writes(tables[i]);
+		}//end synchronized
+		V value = loader.load();
+		put(key, report, tables, value, epoch, writes);
+		return value;
+	}//end get
+
+	private synchronized void put(String key, String report, String[] tables, Object value, long epoch, long[] writes) {
+		int rows = rows(value);
+		if (!this._caching || rows > this._capacity)
+			return;
+		boolean changed = epoch != this._epoch;
+		for (int i = 0; i < tables.length && !changed; i++)
+			changed = writes[i] != writes(tables[i]);
+		if (changed){
+			this._discarded++;
+			return;
+		}//end if
+		Entry old = this._entries.put(key, new Entry(report, value, rows));
+		if (old != null)
+			this._rows -= old.rows;
+		this._rows += rows;
+		for (String table : tables){
+			Set<String> keys = this._byTable.get(table);
+			if (keys == null){
+				keys = new HashSet<String>();
+				this._byTable.put(table, keys);
+			}//end if
+			keys.add(key);
+		}//end for
+		Iterator<Map.Entry<String, Entry>> eldest = this._entries.entrySet().iterator();
+		while (this._rows > this._capacity && eldest.hasNext()){
+			Map.Entry<String, Entry> e = eldest.next();
+			eldest.remove();
+			unindex(e.getKey(), e.getValue());
+			this._evictions++;
+		}//end while
+	}//end put
+
+	/**
+	 * Method to drop every result that read one of the tables, after the
+	 * application wrote them.
+	 *
+	 * @param tables the written tables, in any case
+	 */
+	public synchronized void written(String... tables) {
+		for (String name : tables){
+			String table = name.toLowerCase();
+			this._writes.put(table, writes(table) + 1);
+			Set<String> keys = this._byTable.remove(table);
+			if (keys == null)
+				continue;
+			for (String key : keys){
+				Entry e = this._entries.remove(key);
+				if (e != null){
+					unindex(key, e);
+					this._invalidations++;
+				}//end if
+			}//end for
+		}//end for
+	}//end written
+
+	/**
+	 * Method to drop every cached result.
+	 */
+	public synchronized void clear() {
+		this._invalidations += this._entries.size();
+		this._entries.clear();
+		this._byTable.clear();
+		this._rows = 0;
+		this._epoch++;
+	}//end clear
+
+	/**
+	 * Method to be told about writes to a table that other processes, or
+	 * transactions of this one, committed, for state other than cached
+	 * results that depends on it.  The action also runs whenever the
+	 * listener (re)connects, since writes may have gone unnoticed.  It runs
+	 * on the listener thread, so it should be quick.
+	 *
+	 * @param table the table, in any case
+	 * @param action what to do
+	 */
+	public void watch(String table, Runnable action) {
+		watch(table, null, action);
+	}//end watch
+
+	/**
+	 * Method to be told about writes to a table, except those committed
+	 * through the connections of a pool, for state the pool's users keep
+	 * current themselves.
+	 *
+	 * @param table the table, in any case
+	 * @param own the pool whose writes are skipped, null for none
+	 * @param action what to do
+	 */
+	public synchronized void watch(String table, ConnectionPool own, Runnable action) {
+		String key = table.toLowerCase();
+		List<Watcher> watchers = this._watchers.get(key);
+		if (watchers == null)
+			this._watchers.put(key, watchers = new ArrayList<Watcher>());
+		watchers.add(new Watcher(action, own));
+	}//end watch
+
+	//runs the watchers of a table, or of every table when it is null; sender is the notifying backend
+	private void notifyWatchers(String table, int sender) {
+		List<Watcher> watchers = new ArrayList<Watcher>();
+		synchronized (this){
+			for (Map.Entry<String, List<Watcher>> e : this._watchers.entrySet())
+				if (table == null || e.getKey().equals(table.toLowerCase()))
+					watchers.addAll(e.getValue());
+		}//end synchronized
+		for (Watcher w : watchers)
+			if (table == null || w.own == null || !w.own.owns(sender))
+				w.action.run();
+	}//end notifyWatchers
+
+	/**
+	 * Method to start listening for the notifications of the notify_write
+	 * triggers on a connection of its own.  Nothing is cached until the
+	 * listener is connected, and the cache is cleared whenever it
+	 * (re)connects, since writes may have gone unnoticed meanwhile.
+	 *
+	 * @param url the JDBC URL of the database
+	 * @param user the database user
+	 * @param passwd the user's password
+	 * @param pollMillis how long one wait for notifications lasts, which bounds how long close() takes
+	 */
+	public synchronized void listen(final String url, final String user, final String passwd, final int pollMillis) {
+		if (this._listener != null)
+			return;
+		this._caching = false;
+		this._listener = new Thread(new Runnable() {
+			public void run() { receive(url, user, passwd, Math.max(1, pollMillis)); }
+		}, "report-cache-listener");
+		this._listener.setDaemon(true);
+		this._listener.start();
+	}//end listen
+
+	private void receive(String url, String user, String passwd, int pollMillis) {
+		long backoff = 1000;
+		boolean warned = false;
+		while (!this._closed){
+			Connection connection = null;
+			try{
+				connection = DriverManager.getConnection(url, user, passwd);
+				Statement statement = connection.createStatement();
+				statement.execute("LISTEN " + CHANNEL);
+				if (!triggersInstalled(statement))
+					System.err.println("Warning - the notify_write triggers of create.sql are missing, "
+						+ "writes of other processes will not refresh cached reports");
+				statement.close();
+				synchronized (this){
+					clear();
+					this._caching = true;
+				}//end synchronized
+				notifyWatchers(null, 0);
+				backoff = 1000;
+				warned = false;
+				PGConnection notifications = connection.unwrap(PGConnection.class);
+				while (!this._closed){
+					PGNotification[] received = notifications.getNotifications(pollMillis);
+					if (received == null)
+						continue;
+					for (PGNotification n : received){
+						synchronized (this){
+							this._notifications++;
+						}//end synchronized
+						written(n.getParameter());
+						notifyWatchers(n.getParameter(), n.getPID());
+					}//end for
+				}//end while
+			}catch (SQLException e){
+				synchronized (this){
+					this._caching = false;
+					clear();
+				}//end synchronized
+				if (!warned && !this._closed)
+					System.err.println("Warning - report cache listener disconnected, caching paused: " + e.getMessage());
+				warned = true;
+				try{
+					Thread.sleep(backoff);
+				}catch (InterruptedException ie){
+					return;
+				}//end try
+				backoff = Math.min(backoff * 2, 30000);
+			}finally{
+				if (connection != null){
+					try{
+						connection.close();
+					}catch (SQLException e){
+						// ignored.
+					}//end try
+				}//end if
+			}//end try
+		}//end while
+	}//end receive
+
+	private static boolean triggersInstalled(Statement statement) throws SQLException {
+		ResultSet rs = statement.executeQuery("SELECT count(*) FROM pg_trigger WHERE tgname LIKE '%notify_write'");
+		try{
+			return rs.next() && rs.getInt(1) > 0;
+		}finally{
+			rs.close();
+		}//end try
+	}//end triggersInstalled
+
+	/**
+	 * Method to stop the listener.
+	 */
+	public void close() {
+		this._closed = true;
+		Thread listener;
+		synchronized (this){
+			listener = this._listener;
+		}//end synchronized
+		if (listener != null){
+			listener.interrupt();
+			try{
+				listener.join(10000);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+		}//end if
+	}//end close
+
+	private void unindex(String key, Entry e) {
+		this._rows -= e.rows;
+		for (String table : DEPENDS.get(e.report)){
+			Set<String> keys = this._byTable.get(table);
+			if (keys != null && keys.remove(key) && keys.isEmpty())
+				this._byTable.remove(table);
+		}//end for
+	}//end unindex
+
+	private long writes(String table) {
+		Long count = this._writes.get(table);
+		return count == null ? 0 : count;
+	}//end writes
+
+	private long[] counts(String report) {
+		long[] counts = this._reports.get(report);
+		if (counts == null){
+			counts = new long[2];
+			this._reports.put(report, counts);
+		}//end if
+		return counts;
+	}//end counts
+
+	//the rows a result holds, plus one so that empty results count too
+	private static int rows(Object value) {
+		if (value instanceof ReportPager.Page)
+			return ((ReportPager.Page) value).rows.size() + 1;
+		if (value instanceof Collection)
+			return ((Collection<?>) value).size() + 1;
+		return 1;
+	}//end rows
+
+	public synchronized long hits() { return this._hits; }
+	public synchronized long misses() { return this._misses; }
+
+	/**
+	 * @return the share of lookups answered from the cache, between 0 and 1
+	 */
+	public synchronized double hitRate() {
+		long lookups = this._hits + this._misses;
+		return lookups == 0 ? 0.0 : (double) this._hits / lookups;
+	}//end hitRate
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder out = new StringBuilder(String.format(
+			"Report results: %d entries, %d/%d rows%s, hits: %d, misses: %d, hit rate: %.1f%%, evictions: %d, invalidations: %d, discarded loads: %d, notifications: %d",
+			this._entries.size(), this._rows, this._capacity, this._caching ? "" : " (paused)", this._hits, this._misses,
+			100.0 * hitRate(), this._evictions, this._invalidations, this._discarded, this._notifications));
+		for (Map.Entry<String, long[]> report : this._reports.entrySet()){
+			long[] counts = report.getValue();
+			out.append(String.format("%n  %-36s hits: %d, misses: %d, hit rate: %.1f%%", report.getKey(), counts[0], counts[1],
+				100.0 * counts[0] / Math.max(1, counts[0] + counts[1])));
+		}//end for
+		return out.toString();
+	}//end toString
+}//end ReportCache
@@ -0,0 +1,349 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+
+/**
+ * This class serves reports 6, 7, 8 and 10 a page at a time.  Every report
+ * is ordered by a unique sort key, and a page continues from the last key
+ * of the page before it (keyset pagination), so the database seeks
+ * straight to the page through an index instead of reading and skipping
+ * all the rows before it as OFFSET would; page 100 costs what page 1 does.
+ *
+ * The continuation token carries the report, the page size, the date
+ * range and the last key, so a page can be fetched by any thread or
+ * server without state.  While the caller reads a page, the next one is
+ * fetched in the background and kept for a short while; reading forward
+ * then finds it ready.  Rows added or removed between pages shift nothing:
+ * a page shows the rows after the previous key as they are when it runs.
+ *
+ */
+public class ReportPager {
+
+	/**
+	 * One page of a report.
+	 */
+	public static class Page {
+		public final List<String> columns;
+		public final List<List<String>> rows;
+		//token of the following page, null on the last page
+		public final String next;
+
+		Page(List<String> columns, List<List<String>> rows, String next) {
+			this.columns = columns;
+			this.rows = rows;
+			this.next = next;
+		}
+	}//end Page
+
+	/**
+	 * A paged report.  Its query selects the shown columns followed by the
+	 * sort key columns, and takes the seek predicate when asked for a page
+	 * after the first.
+	 */
+	abstract static class Report {
+		final int keys;
+
+		Report(int keys) {
+			this.keys = keys;
+		}
+
+		abstract String sql(boolean seek);
+
+		//parameters in query order; key is null on the first page
+		abstract Object[] params(String from, String to, String[] key, int limit);
+	}//end Report
+
+	static final Map<String, Report> REPORTS = new LinkedHashMap<String, Report>();
+	static {
+		REPORTS.put("customers-with-bill-less-than-100", new Report(2) {
+			String sql(boolean seek) {
+				return "SELECT CR.date, CR.comment, CR.bill, CR.date, CR.wid FROM Closed_Request CR "
+					+ "WHERE CR.bill < ? AND CR.date >= CAST(? AS DATE) AND CR.date < CAST(? AS DATE) "
+					+ (seek ? "AND (CR.date, CR.wid) > (CAST(? AS DATE), CAST(? AS INTEGER)) " : "")
+					+ "ORDER BY CR.date, CR.wid LIMIT ?";
+			}
+			Object[] params(String from, String to, String[] key, int limit) {
+				return key == null ? new Object[] {100, from, to, limit} : new Object[] {100, from, to, key[0], key[1], limit};
+			}
+		});
+		REPORTS.put("customers-with-more-than-20-cars", new Report(1) {
+			String sql(boolean seek) {
+				return "SELECT cars.fname, cars.lname, cars.num_of_cars, cars.customer_id FROM "
+					+ "(SELECT O.customer_id, C.fname, C.lname, COUNT(*) num_of_cars FROM Owns O, Customer C WHERE C.id = O.customer_id "
+					+ (seek ? "AND O.customer_id > CAST(? AS INTEGER) " : "")
+					+ "GROUP BY O.customer_id, C.fname, C.lname) AS cars WHERE num_of_cars > ? ORDER BY cars.customer_id LIMIT ?";
+			}
+			Object[] params(String from, String to, String[] key, int limit) {
+				return key == null ? new Object[] {20, limit} : new Object[] {key[0], 20, limit};
+			}
+		});
+		REPORTS.put("cars-before-1995-with-50000-miles", new Report(1) {
+			String sql(boolean seek) {
+				return "SELECT C.make, C.model, C.year, SR.rid FROM Car C, Service_Request SR "
+					+ "WHERE C.vin = SR.car_vin AND C.year < ? AND SR.odometer < ? AND SR.date >= CAST(? AS DATE) AND SR.date < CAST(? AS DATE) "
+					+ (seek ? "AND SR.rid > CAST(? AS INTEGER) " : "")
+					+ "ORDER BY SR.rid LIMIT ?";
+			}
+			Object[] params(String from, String to, String[] key, int limit) {
+				return key == null ? new Object[] {1995, 50000, from, to, limit} : new Object[] {1995, 50000, from, to, key[0], limit};
+			}
+		});
+		REPORTS.put("customers-by-total-bill", new Report(2) {
+			String sql(boolean seek) {
+				return "SELECT C.fname, C.lname, B.total_bill, B.total_bill, B.customer_id FROM Customer_Bill B, Customer C "
+					+ "WHERE C.id = B.customer_id "
+					+ (seek ? "AND (B.total_bill, B.customer_id) < (CAST(? AS BIGINT), CAST(? AS INTEGER)) " : "")
+					+ "ORDER BY B.total_bill DESC, B.customer_id DESC LIMIT ?";
+			}
+			Object[] params(String from, String to, String[] key, int limit) {
+				return key == null ? new Object[] {limit} : new Object[] {key[0], key[1], limit};
+			}
+		});
+	}
+
+	static final int MAX_PAGE_SIZE = 10000;
+
+	/**
+	 * Where a page starts: the report, its size and range, and the sort
+	 * key of the last row before it.
+	 */
+	static class Cursor {
+		final String report;
+		final int size;
+		final String from;
+		final String to;
+		final String[] key;
+
+		Cursor(String report, int size, String from, String to, String[] key) {
+			this.report = report;
+			this.size = size;
+			this.from = from;
+			this.to = to;
+			this.key = key;
+		}
+
+		String token() {
+			StringBuilder text = new StringBuilder(this.report).append('\t').append(this.size)
+				.append('\t').append(this.from).append('\t').append(this.to);
+			for (String k : this.key)
+				text.append('\t').append(k);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+		}//end token
+
+		static Cursor parse(String token) {
+			String[] fields;
+			try{
+				fields = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8).split("\t", -1);
+			}catch (IllegalArgumentException e){
+				throw new IllegalArgumentException("invalid page token");
+			}//end try
+			Report report = fields.length > 4 ? REPORTS.get(fields[0]) : null;
+			if (report == null || fields.length != 4 + report.keys)
+				throw new IllegalArgumentException("invalid page token");
+			int size;
+			try{
+				size = Integer.parseInt(fields[1]);
+			}catch (NumberFormatException e){
+				throw new IllegalArgumentException("invalid page token");
+			}//end try
+			if (size < 1 || size > MAX_PAGE_SIZE)
+				throw new IllegalArgumentException("invalid page token");
+			return new Cursor(fields[0], size, fields[2], fields[3], Arrays.copyOfRange(fields, 4, fields.length));
+		}//end parse
+	}//end Cursor
+
+	private final MechanicShop _esql;
+	private final ExecutorService _prefetcher;
+	//next pages fetched ahead, by token
+	private final TtlCache<String, Future<Page>> _prefetched;
+
+	/**
+	 * Creates a pager.
+	 *
+	 * @param esql the MechanicShop running the queries
+	 * @param prefetchThreads the number of threads fetching next pages, 0 to fetch only on demand
+	 * @param prefetchCapacity the number of fetched-ahead pages kept
+	 * @param prefetchTtlMillis how long a fetched-ahead page may be served
+	 */
+	public ReportPager(MechanicShop esql, int prefetchThreads, int prefetchCapacity, long prefetchTtlMillis) {
+		this._esql = esql;
+		this._prefetched = new TtlCache<String, Future<Page>>("Prefetched pages", Math.max(1, prefetchCapacity), prefetchTtlMillis);
+		if (prefetchThreads <= 0){
+			this._prefetcher = null;
+			return;
+		}//end if
+		final AtomicInteger count = new AtomicInteger();
+		this._prefetcher = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(prefetchCapacity), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "page-prefetch-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	}//end ReportPager
+
+	/**
+	 * Creates a pager configured from the mechanicshop.pages.prefetchThreads
+	 * (default 2), mechanicshop.pages.prefetchCapacity (default 256) and
+	 * mechanicshop.pages.prefetchTtlMs (default 30000) system properties.
+	 */
+	public static ReportPager fromSystemProperties(MechanicShop esql) {
+		return new ReportPager(esql, Integer.getInteger("mechanicshop.pages.prefetchThreads", 2),
+			Integer.getInteger("mechanicshop.pages.prefetchCapacity", 256), Long.getLong("mechanicshop.pages.prefetchTtlMs", 30000L));
+	}
+
+	/**
+	 * Method to fetch the first page of a report.
+	 *
+	 * @param report one of the ShopServer report names of reports 6, 7, 8 and 10
+	 * @param size the number of rows per page
+	 * @param from the first date of reports 6 and 8, YYYY-MM-DD; null or blank for no start
+	 * @param to the day after their last date; null or blank for no end
+	 * @return the page, with the token of the next one
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public Page first(String report, int size, String from, String to) throws SQLException {
+		if (!REPORTS.containsKey(report))
+			throw new IllegalArgumentException("no paged report " + report + ", use one of " + REPORTS.keySet());
+		if (size < 1 || size > MAX_PAGE_SIZE)
+			throw new IllegalArgumentException("page size must be between 1 and " + MAX_PAGE_SIZE);
+		Page page = fetch(new Cursor(report, size, bound(from, "-infinity"), bound(to, "infinity"), null));
+		prefetch(page.next);
+		return page;
+	}//end first
+
+	/**
+	 * Method to fetch the page a token points to, from the pages fetched
+	 * ahead when it is there.
+	 *
+	 * @param token the next token of the previous page
+	 * @return the page, with the token of the next one
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public Page next(final String token) throws SQLException {
+		final Cursor cursor = Cursor.parse(token);
+		Future<Page> ahead = this._prefetched.get(token, new TtlCache.Loader<String, Future<Page>>() {
+			public Future<Page> load(String key) throws SQLException {
+				return CompletableFuture.completedFuture(fetch(cursor));
+			}
+		});
+		this._prefetched.invalidate(token);
+		Page page;
+		try{
+			page = ahead.get();
+		}catch (ExecutionException e){
+			page = fetch(cursor);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a page", e);
+		}//end try
+		prefetch(page.next);
+		return page;
+	}//end next
+
+	private void prefetch(String token) {
+		if (token == null || this._prefetcher == null)
+			return;
+		final Cursor cursor = Cursor.parse(token);
+		try{
+			this._prefetched.put(token, this._prefetcher.submit(new Callable<Page>() {
+				public Page call() throws SQLException {
+					return fetch(cursor);
+				}
+			}));
+		}catch (RejectedExecutionException e){
+			//the queue is full, so the page is fetched when asked for
+		}//end try
+	}//end prefetch
+
+	//from the report cache, which drops the page when its tables are written
+	private Page fetch(final Cursor cursor) throws SQLException {
+		return this._esql.results().get(cursor.report,
+			Arrays.asList(cursor.size, cursor.from, cursor.to, cursor.key == null ? "" : Arrays.toString(cursor.key)),
+			new ReportCache.Loader<Page>() {
+				public Page load() throws SQLException {
+					return query(cursor);
+				}
+			});
+	}//end fetch
+
+	//one row more than the page tells whether another page follows
+	private Page query(Cursor cursor) throws SQLException {
+		final Report report = REPORTS.get(cursor.report);
+		final List<String> columns = new ArrayList<String>();
+		final List<List<String>> rows = new ArrayList<List<String>>(cursor.size + 1);
+		final List<String[]> keys = new ArrayList<String[]>(cursor.size + 1);
+		this._esql.executeQueryAndStream(report.sql(cursor.key != null), new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				int shown = row.columnCount() - report.keys;
+				if (row.rowNumber() == 1)
+					for (int i = 1; i <= shown; i++)
+						columns.add(row.columnName(i));
+				List<String> values = new ArrayList<String>(shown);
+				for (int i = 1; i <= shown; i++)
+					values.add(row.getString(i));
+				String[] key = new String[report.keys];
+				for (int i = 0; i < report.keys; i++)
+					key[i] = row.getString(shown + 1 + i);
+				rows.add(values);
+				keys.add(key);
+			}
+		}, report.params(cursor.from, cursor.to, cursor.key, cursor.size + 1));
+
+		String next = null;
+		if (rows.size() > cursor.size){
+			rows.remove(cursor.size);
+			next = new Cursor(cursor.report, cursor.size, cursor.from, cursor.to, keys.get(cursor.size - 1)).token();
+		}//end if
+		return new Page(Collections.unmodifiableList(columns), Collections.unmodifiableList(rows), next);
+	}//end query
+
+	private static String bound(String date, String unbounded) {
+		return date == null || date.trim().length() == 0 ? unbounded : date.trim().replace('\t', ' ');
+	}
+
+	public void close() {
+		if (this._prefetcher != null)
+			this._prefetcher.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return this._prefetched.toString();
+	}
+}//end ReportPager
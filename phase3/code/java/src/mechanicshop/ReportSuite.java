@@ -0,0 +1,281 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+import mechanicshop.jdbc.RowMappers;
+
+/**
+ * This class runs several of reports 6 to 10 together, as for the
+ * end-of-day pack, and returns all their results with the time each took.
+ *
+ * With the analytics snapshot enabled the reports are planned together:
+ * every table is scanned once for all the reports that need it, and the
+ * results are built in parallel on the snapshot's workers.  Otherwise each
+ * report runs on its own pooled connection, in parallel, and all of them
+ * read one consistent state of the database: a coordinating REPEATABLE
+ * READ transaction exports its snapshot (pg_export_snapshot) and every
+ * report's transaction imports it before its query.  The coordinator
+ * holds a connection of its own meanwhile, so at most one fewer report
+ * than the pool's maximum runs at once.
+ *
+ */
+public class ReportSuite {
+
+	public static final String BILL = "customers-with-bill-less-than-100";
+	public static final String CARS_OWNED = "customers-with-more-than-20-cars";
+	public static final String OLD_CARS = "cars-before-1995-with-50000-miles";
+	public static final String TOP_CARS = "top-cars";
+	public static final String TOTAL_BILL = "customers-by-total-bill";
+	//in menu order, options 6 to 10
+	static final List<String> ALL = Arrays.asList(BILL, CARS_OWNED, OLD_CARS, TOP_CARS, TOTAL_BILL);
+	//the columns of each report, as the snapshot names them, so an empty result still has its header
+	private static final String[][] COLUMNS = {
+		{"date", "comment", "bill"},
+		{"fname", "lname", "num_of_cars"},
+		{"make", "model", "year"},
+		{"vin", "make", "model", "service_count"},
+		{"fname", "lname", "total_bill"}
+	};
+
+	/**
+	 * The results of one run and where the time went.
+	 */
+	public static class Run {
+		//in the order asked for
+		public final Map<String, AnalyticsSnapshot.Result> results = new LinkedHashMap<String, AnalyticsSnapshot.Result>();
+		//per report, and per shared scan when there were any
+		public final Map<String, Double> millis = new LinkedHashMap<String, Double>();
+		public double totalMillis;
+		public String source;
+	}//end Run
+
+	private final MechanicShop _esql;
+	private final int _connections;
+
+	/**
+	 * Creates a suite runner.
+	 *
+	 * @param esql the MechanicShop whose snapshot or connections run the reports
+	 * @param connections how many reports run at once against the database
+	 */
+	public ReportSuite(MechanicShop esql, int connections) {
+		this._esql = esql;
+		this._connections = Math.max(1, connections);
+	}
+
+	/**
+	 * Creates a runner using mechanicshop.suite.connections (default 4)
+	 * connections at once.
+	 */
+	public static ReportSuite fromSystemProperties(MechanicShop esql) {
+		return new ReportSuite(esql, Integer.getInteger("mechanicshop.suite.connections", 4));
+	}
+
+	/**
+	 * Method to read the reports to run from the command line.
+	 *
+	 * @param operand menu numbers 6 to 10 or report names, comma separated; null for all five
+	 * @return the report names, in the order given
+	 */
+	public static List<String> parse(String operand) {
+		if (operand == null || operand.trim().length() == 0)
+			return ALL;
+		List<String> reports = new ArrayList<String>();
+		for (String item : operand.split(",")){
+			String report = item.trim();
+			if (report.matches("[0-9]+")){
+				int option = Integer.parseInt(report);
+				if (option < 6 || option > 10)
+					throw new IllegalArgumentException("reports are options 6 to 10, not " + option);
+				report = ALL.get(option - 6);
+			}else if (!ALL.contains(report)){
+				throw new IllegalArgumentException("unknown report " + report + ", use 6 to 10 or one of " + ALL);
+			}//end if
+			if (!reports.contains(report))
+				reports.add(report);
+		}//end for
+		return reports;
+	}//end parse
+
+	/**
+	 * Method to run the reports.
+	 *
+	 * @param reports the report names
+	 * @param k the number of cars of the top-cars report
+	 * @return every report's result and timings
+	 * @throws java.sql.SQLException when a report query failed
+	 */
+	public Run run(List<String> reports, int k) throws SQLException {
+		long start = System.nanoTime();
+		Run run = new Run();
+		AnalyticsSnapshot snapshot = this._esql.analytics();
+		if (snapshot != null){
+			run.source = "analytics snapshot, shared scans";
+			Map<String, AnalyticsSnapshot.Result> results = snapshot.suite(reports, k, run.millis);
+			for (String report : reports)
+				run.results.put(report, results.get(report));
+		}else{
+			run.source = "database, " + workers(reports) + " connection(s) on one exported snapshot";
+			runOnDatabase(reports, k, run);
+		}//end if
+		run.totalMillis = (System.nanoTime() - start) / 1e6;
+		return run;
+	}//end run
+
+	//reports at once on the database, leaving the pool a connection for the coordinator
+	private int workers(List<String> reports) {
+		return Math.min(Math.min(this._connections, reports.size()), this._esql.pool().maxSize() - 1);
+	}//end workers
+
+	private void runOnDatabase(List<String> reports, final int k, Run run) throws SQLException {
+		if (this._esql.pool().maxSize() < 2)
+			throw new SQLException("the report suite needs a connection pool of at least 2, set mechanicshop.pool.maxSize");
+		final AtomicInteger count = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(workers(reports), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "report-suite-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		//the exporting transaction stays open until every report has imported its snapshot
+		this._esql.beginTransaction(Connection.TRANSACTION_REPEATABLE_READ);
+		try{
+			final String exported = this._esql.queryForObject("SELECT pg_export_snapshot()", RowMappers.TRIMMED);
+			Map<String, Future<AnalyticsSnapshot.Result>> running = new LinkedHashMap<String, Future<AnalyticsSnapshot.Result>>();
+			final Map<String, Double> millis = new ConcurrentHashMap<String, Double>();
+			for (final String report : reports){
+				running.put(report, workers.submit(new Callable<AnalyticsSnapshot.Result>() {
+					public AnalyticsSnapshot.Result call() throws SQLException {
+						long begin = System.nanoTime();
+						String previous = _esql.metrics().enter(report);
+						_esql.beginTransaction(Connection.TRANSACTION_REPEATABLE_READ);
+						try{
+							_esql.executeUpdate("SET TRANSACTION SNAPSHOT '" + exported + "'");
+							AnalyticsSnapshot.Result result = query(report, k);
+							_esql.commit();
+							return result;
+						}catch (SQLException e){
+							_esql.rollback();
+							throw e;
+						}finally{
+							_esql.metrics().enter(previous);
+							millis.put(report, (System.nanoTime() - begin) / 1e6);
+						}//end try
+					}
+				}));
+			}//end for
+			for (Map.Entry<String, Future<AnalyticsSnapshot.Result>> report : running.entrySet())
+				run.results.put(report.getKey(), await(report.getValue()));
+			for (String report : reports)
+				run.millis.put(report, millis.get(report));
+		}finally{
+			this._esql.rollback();
+			workers.shutdownNow();
+		}//end try
+	}//end runOnDatabase
+
+	//one report from the database, on the calling thread's transaction
+	private AnalyticsSnapshot.Result query(String report, int k) throws SQLException {
+		final List<String[]> rows = new ArrayList<String[]>();
+		RowHandler collect = new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				int numCol = row.columnCount();
+				String[] values = new String[numCol];
+				for (int i = 0; i < numCol; i++)
+					values[i] = row.getString(i + 1);
+				rows.add(values);
+			}
+		};
+		if (report.equals(BILL))
+			MechanicShop.listCustomersWithBillLessThan100(this._esql, collect);
+		else if (report.equals(CARS_OWNED))
+			MechanicShop.listCustomersWithMoreThan20Cars(this._esql, collect);
+		else if (report.equals(OLD_CARS))
+			MechanicShop.listCarsBefore1995With50000Milles(this._esql, collect);
+		else if (report.equals(TOP_CARS))
+			this._esql.executeQueryAndStream(TopCars.TOP, collect, k);
+		else
+			MechanicShop.listCustomersInDescendingOrderOfTheirTotalBill(this._esql, collect);
+		return new AnalyticsSnapshot.Result(columns(report), rows, System.currentTimeMillis());
+	}//end query
+
+	static String[] columns(String report) {
+		return COLUMNS[ALL.indexOf(report)].clone();
+	}//end columns
+
+	//top cars in the columns of TopCars.TOP
+	static AnalyticsSnapshot.Result topCarsResult(List<TopCars.Entry> top, long asOf) {
+		List<String[]> rows = new ArrayList<String[]>(top.size());
+		for (TopCars.Entry car : top)
+			rows.add(new String[] {car.vin, car.make, car.model, String.valueOf(car.count)});
+		return new AnalyticsSnapshot.Result(columns(TOP_CARS), rows, asOf);
+	}//end topCarsResult
+
+	private static AnalyticsSnapshot.Result await(Future<AnalyticsSnapshot.Result> result) throws SQLException {
+		try{
+			return result.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a report", e);
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException) e.getCause();
+			throw new SQLException("report failed", e.getCause());
+		}//end try
+	}//end await
+
+	/**
+	 * Method to print every result, tab separated like the menu, then the
+	 * timings.
+	 */
+	public static void print(Run run, PrintStream out) {
+		for (Map.Entry<String, AnalyticsSnapshot.Result> report : run.results.entrySet()){
+			AnalyticsSnapshot.Result result = report.getValue();
+			out.println("== " + report.getKey() + ": " + result.rows.size() + " row(s)");
+			StringBuilder text = new StringBuilder();
+			for (String column : result.columns)
+				text.append(column).append('\t');
+			text.append('\n');
+			for (String[] row : result.rows){
+				for (String value : row)
+					text.append(value).append('\t');
+				text.append('\n');
+			}//end for
+			out.print(text);
+		}//end for
+		out.println("== timings (" + run.source + ")");
+		for (Map.Entry<String, Double> phase : run.millis.entrySet())
+			out.println(String.format("  %-40s %9.3f ms", phase.getKey(), phase.getValue()));
+		out.println(String.format("  %-40s %9.3f ms", "total", run.totalMillis));
+	}//end print
+}//end ReportSuite
@@ -0,0 +1,633 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mechanicshop.jdbc.ResultPrinter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the ten menu operations over HTTP so that many
+ * terminals can use one MechanicShop, and its connection pool, at once.
+ * Each operation is a path; fields come from the query string, a form body
+ * or a flat JSON body, named as in batch mode:
+ *
+ *   POST /add-customer             fname, lname, phone, address (id optional)
+ *   POST /add-mechanic             fname, lname, experience (id optional)
+ *   POST /add-car                  vin, make, model, year, customer_id
+ *   POST /insert-request           customer_id, vin, date, odometer, complaint
+ *   POST /close-request            rid, mid, date, comment, bill
+ *   GET  /customers-with-bill-less-than-100
+ *   GET  /customers-with-more-than-20-cars
+ *   GET  /cars-before-1995-with-50000-miles
+ *   GET  /top-cars?k=10
+ *   GET  /customers-by-total-bill
+ *   GET  /customer-search?q=smith&limit=10
+ *   GET  /events?offset=0&max=100&waitMs=10000
+ *   GET  /stats
+ *
+ * Writes answer "OK" and any allocated id; reports stream tab-separated
+ * rows like the menu.  Reports 6, 7, 8 and 10 given size=n (and then
+ * page=<token>) answer one page, with the token of the next page in the
+ * X-Next-Page header.  Customer searches rank customers by name or phone
+ * from the in-memory index, and like stats they skip the limits.  Events
+ * answers the request events of the local event log from an offset, one
+ * JSON object per line, waiting up to waitMs for the first; the
+ * X-Next-Offset header is the offset to ask for next.  With the analytics
+ * snapshot enabled, reports come from memory and the X-Snapshot-Time
+ * header tells how current they are.  Requests run on virtual threads
+ * when the JVM has them and on a fixed pool otherwise.  Two limits keep
+ * the database from being swamped: requests beyond maxInFlight are
+ * refused at once, and each operation lets only 'limit' requests run
+ * together, the rest waiting up to waitMillis.  Refused requests, and
+ * those that time out waiting for a pooled connection, get 503 with a
+ * Retry-After header, so clients back off instead of piling up.
+ *
+ */
+public class ShopServer {
+
+	static final String[] REPORTS = {"customers-with-bill-less-than-100", "customers-with-more-than-20-cars",
+		"cars-before-1995-with-50000-miles", "top-cars", "customers-by-total-bill"};
+	static final String STATS = "stats";
+	static final String SEARCH = "customer-search";
+	static final String EVENTS = "events";
+
+	private final MechanicShop _esql;
+	private final BatchRunner _operations;
+	private final HttpServer _server;
+	private final ExecutorService _workers;
+	private final String _workerKind;
+	private final Semaphore _inFlight;
+	private final int _maxInFlight;
+	private final long _waitMillis;
+	//concurrency limit of every operation
+	private final Map<String, Semaphore> _limits = new TreeMap<String, Semaphore>();
+	private final CountDownLatch _stopped = new CountDownLatch(1);
+
+	private final AtomicLong _served = new AtomicLong();
+	private final AtomicLong _refused = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+
+	/**
+	 * Creates a server; start() begins accepting requests.
+	 *
+	 * @param esql the MechanicShop running the operations
+	 * @param address where to listen
+	 * @param workers the executor running the requests
+	 * @param workerKind a description of the executor, for the stats
+	 * @param maxInFlight the number of requests accepted at once, queued or running
+	 * @param limits the number of requests each operation may run at once
+	 * @param waitMillis how long a request waits for its operation's limit
+	 * @throws java.io.IOException when the address cannot be bound
+	 */
+	public ShopServer(MechanicShop esql, InetSocketAddress address, ExecutorService workers, String workerKind,
+			int maxInFlight, Map<String, Integer> limits, long waitMillis) throws IOException {
+		this._esql = esql;
+		this._operations = new BatchRunner(esql, 1, 1, System.out);
+		this._workers = workers;
+		this._workerKind = workerKind;
+		this._maxInFlight = Math.max(1, maxInFlight);
+		this._inFlight = new Semaphore(this._maxInFlight);
+		this._waitMillis = Math.max(0, waitMillis);
+		for (Map.Entry<String, Integer> limit : limits.entrySet())
+			this._limits.put(limit.getKey(), new Semaphore(Math.max(1, limit.getValue())));
+		this._server = HttpServer.create(address, 0);
+		this._server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) {
+				accept(exchange);
+			}
+		});
+		//the HTTP dispatcher only hands requests over, the workers run them
+		this._server.setExecutor(null);
+	}
+
+	/**
+	 * Creates a server configured from system properties:
+	 * mechanicshop.server.host (default 127.0.0.1),
+	 * mechanicshop.server.virtualThreads (default true),
+	 * mechanicshop.server.threads (default 16, without virtual threads),
+	 * mechanicshop.server.maxInFlight (default 256),
+	 * mechanicshop.server.limit (default mechanicshop.pool.maxSize, or 8),
+	 * mechanicshop.server.limit.&lt;operation&gt; and
+	 * mechanicshop.server.waitMs (default 2000).
+	 *
+	 * @param esql the MechanicShop running the operations
+	 * @param port the port to listen on
+	 */
+	public static ShopServer fromSystemProperties(MechanicShop esql, int port) throws IOException {
+		ExecutorService workers = null;
+		String kind;
+		if (Boolean.parseBoolean(System.getProperty("mechanicshop.server.virtualThreads", "true")))
+			workers = virtualThreads();
+		if (workers != null){
+			kind = "virtual threads";
+		}else{
+			int threads = Math.max(1, Integer.getInteger("mechanicshop.server.threads", 16));
+			workers = boundedPool(threads);
+			kind = threads + " thread(s)";
+		}//end if
+
+		int limit = Integer.getInteger("mechanicshop.server.limit", Integer.getInteger("mechanicshop.pool.maxSize", 8));
+		Map<String, Integer> limits = new HashMap<String, Integer>();
+		for (String op : BatchRunner.OPERATIONS.keySet())
+			limits.put(op, Integer.getInteger("mechanicshop.server.limit." + op, limit));
+		for (String report : REPORTS)
+			limits.put(report, Integer.getInteger("mechanicshop.server.limit." + report, limit));
+
+		return new ShopServer(esql, new InetSocketAddress(System.getProperty("mechanicshop.server.host", "127.0.0.1"), port),
+			workers, kind, Integer.getInteger("mechanicshop.server.maxInFlight", 256), limits,
+			Long.getLong("mechanicshop.server.waitMs", 2000L));
+	}//end fromSystemProperties
+
+	//Executors.newVirtualThreadPerTaskExecutor(), looked up so the code still runs on older JVMs
+	static ExecutorService virtualThreads() {
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (Exception e){
+			return null;
+		}//end try
+	}//end virtualThreads
+
+	//the queue is unbounded, but maxInFlight caps what can be in it
+	static ExecutorService boundedPool(int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "shop-server-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}//end boundedPool
+
+	/**
+	 * Method to serve until the JVM is asked to stop, then finish the
+	 * requests under way.
+	 *
+	 * @param esql the MechanicShop running the operations
+	 * @param port the port to listen on
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public static void serve(MechanicShop esql, int port) throws IOException {
+		final ShopServer server = fromSystemProperties(esql, port);
+		final Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread("shop-server-shutdown") {
+			public void run() {
+				server.stop();
+				//lets main() close the pool before the JVM exits
+				try{
+					main.join(10000);
+				}catch (InterruptedException e){
+					// ignored, the JVM is exiting.
+				}//end try
+			}
+		});
+		server.start();
+		System.out.println("Serving MechanicShop on http://" + server.address() + "/ with " + server._workerKind + ", Ctrl-C to stop");
+		server.awaitStop();
+	}//end serve
+
+	public void start() {
+		this._server.start();
+	}
+
+	public String address() {
+		InetSocketAddress address = this._server.getAddress();
+		return address.getHostString() + ":" + address.getPort();
+	}
+
+	/**
+	 * Method to stop accepting requests, give the ones under way a few
+	 * seconds to finish and release awaitStop().
+	 */
+	public void stop() {
+		if (this._stopped.getCount() == 0)
+			return;
+		this._server.stop(2);
+		this._workers.shutdown();
+		try{
+			this._workers.awaitTermination(5, TimeUnit.SECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+		this._stopped.countDown();
+	}//end stop
+
+	public void awaitStop() {
+		try{
+			this._stopped.await();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}//end awaitStop
+
+	//runs on the HTTP dispatcher thread, so it only admits or refuses
+	private void accept(final HttpExchange exchange) {
+		final String name = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "");
+		if (!this._limits.containsKey(name) && !name.equals(STATS) && !name.equals(SEARCH) && !name.equals(EVENTS)){
+			reply(exchange, 404, "unknown operation '" + name + "'\n");
+			return;
+		}//end if
+		if (!this._inFlight.tryAcquire()){
+			refuse(exchange, "server busy, " + this._maxInFlight + " request(s) already in flight");
+			return;
+		}//end if
+		try{
+			this._workers.execute(new Runnable() {
+				public void run() {
+					try{
+						handle(exchange, name);
+					}finally{
+						ShopServer.this._inFlight.release();
+						exchange.close();
+					}//end try
+				}
+			});
+		}catch (RejectedExecutionException e){
+			this._inFlight.release();
+			refuse(exchange, "server is shutting down");
+		}//end try
+	}//end accept
+
+	private void handle(HttpExchange exchange, String name) {
+		if (name.equals(STATS)){
+			reply(exchange, 200, stats());
+			return;
+		}//end if
+		if (name.equals(SEARCH)){
+			search(exchange);
+			return;
+		}//end if
+		if (name.equals(EVENTS)){
+			events(exchange);
+			return;
+		}//end if
+		Semaphore limit = this._limits.get(name);
+		try{
+			if (!limit.tryAcquire(this._waitMillis, TimeUnit.MILLISECONDS)){
+				refuse(exchange, name + " is busy, try again");
+				return;
+			}//end if
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			refuse(exchange, "server is shutting down");
+			return;
+		}//end try
+		try{
+			if (BatchRunner.OPERATIONS.containsKey(name))
+				write(exchange, name);
+			else
+				report(exchange, name);
+			this._served.incrementAndGet();
+		}catch (IOException e){
+			//the client went away
+			this._failed.incrementAndGet();
+		}finally{
+			limit.release();
+		}//end try
+	}//end handle
+
+	private void write(HttpExchange exchange, String name) throws IOException {
+		BatchRunner.Op op = new BatchRunner.Op(0, name, fields(exchange), null);
+		try{
+			this._operations.execute(op);
+			reply(exchange, 200, "OK" + (op.allocated != null ? "\t" + op.allocated : "") + "\n");
+		}catch (IllegalArgumentException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, e.getMessage() + "\n");
+		}catch (SQLTransientException e){
+			//the pool ran out of connections, so the request may work later
+			refuse(exchange, e.getMessage().trim());
+		}catch (SQLException e){
+			this._failed.incrementAndGet();
+			//constraint and data errors are the client's; anything else is ours
+			String state = e.getSQLState();
+			boolean client = state != null && (state.startsWith("22") || state.startsWith("23"));
+			reply(exchange, client ? 409 : 500, e.getMessage().trim() + "\n");
+		}catch (RuntimeException e){
+			this._failed.incrementAndGet();
+			System.err.println("Error - " + name + " failed: " + e);
+			reply(exchange, 500, "internal error: " + e + "\n");
+		}//end try
+	}//end write
+
+	private void report(HttpExchange exchange, String name) throws IOException {
+		Map<String, String> fields = fields(exchange);
+		if (ReportPager.REPORTS.containsKey(name) && (fields.containsKey("size") || fields.containsKey("page"))){
+			page(exchange, name, fields);
+			return;
+		}//end if
+		if (this._esql.analytics() != null && ReportPager.REPORTS.containsKey(name)){
+			snapshot(exchange, name, fields);
+			return;
+		}//end if
+		//checked before the status is sent, which a bad k could no longer change
+		int k = 10;
+		if (fields.containsKey("k")){
+			try{
+				k = Integer.parseInt(fields.get("k").trim());
+			}catch (NumberFormatException e){
+				k = 0;
+			}//end try
+			if (k < 1){
+				this._failed.incrementAndGet();
+				reply(exchange, 400, "k is not a positive number\n");
+				return;
+			}//end if
+		}//end if
+		String previous = this._esql.metrics().enter(name);
+		exchange.getResponseHeaders().set("Content-Type", "text/tab-separated-values; charset=utf-8");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream body = exchange.getResponseBody();
+		ResultPrinter printer = new ResultPrinter(body, MechanicShop.PRINT_FLUSH_ROWS);
+		try{
+			if (name.equals("customers-with-bill-less-than-100")){
+				if (fields.containsKey("from") || fields.containsKey("to"))
+					MechanicShop.listCustomersWithBillLessThan100(this._esql, fields.get("from"), fields.get("to"), printer);
+				else
+					MechanicShop.listCustomersWithBillLessThan100(this._esql, printer);
+			}else if (name.equals("customers-with-more-than-20-cars")){
+				MechanicShop.listCustomersWithMoreThan20Cars(this._esql, printer);
+			}else if (name.equals("cars-before-1995-with-50000-miles")){
+				if (fields.containsKey("from") || fields.containsKey("to"))
+					MechanicShop.listCarsBefore1995With50000Milles(this._esql, fields.get("from"), fields.get("to"), printer);
+				else
+					MechanicShop.listCarsBefore1995With50000Milles(this._esql, printer);
+			}else if (name.equals("customers-by-total-bill")){
+				MechanicShop.listCustomersInDescendingOrderOfTheirTotalBill(this._esql, printer);
+			}else{
+				List<TopCars.Entry> top = MechanicShop.listKCarsWithTheMostServices(this._esql, k);
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+				out.println("make\tmodel\tcount\t");
+				for (TopCars.Entry car : top)
+					out.println(car.make + "\t" + car.model + "\t" + car.count + "\t");
+				out.flush();
+			}//end if
+			printer.flush();
+		}catch (SQLException e){
+			//the status is already sent, so the error ends the body
+			printer.flush();
+			this._failed.incrementAndGet();
+			body.write(("ERROR\t" + e.getMessage().trim() + "\n").getBytes(StandardCharsets.UTF_8));
+		}catch (RuntimeException e){
+			printer.flush();
+			this._failed.incrementAndGet();
+			System.err.println("Error - " + name + " failed: " + e);
+			body.write(("ERROR\tinternal error: " + e + "\n").getBytes(StandardCharsets.UTF_8));
+		}finally{
+			this._esql.metrics().enter(previous);
+		}//end try
+	}//end report
+
+	//ranks customers from the in-memory index, without touching the database
+	private void search(HttpExchange exchange) {
+		CustomerSearch index = this._esql.customers();
+		if (index == null){
+			reply(exchange, 503, "customer search is not loaded\n");
+			return;
+		}//end if
+		List<CustomerSearch.Match> matches;
+		try{
+			Map<String, String> fields = fields(exchange);
+			String q = fields.get("q");
+			if (q == null){
+				this._failed.incrementAndGet();
+				reply(exchange, 400, "q is required\n");
+				return;
+			}//end if
+			String limit = fields.get("limit");
+			matches = index.search(q, limit == null ? 10 : Integer.parseInt(limit.trim()));
+		}catch (NumberFormatException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, "limit is not a number\n");
+			return;
+		}catch (IOException e){
+			this._failed.incrementAndGet();
+			return;
+		}//end try
+		StringBuilder out = new StringBuilder("id\tfname\tlname\tphone\tscore\t\n");
+		for (CustomerSearch.Match m : matches)
+			out.append(m.id).append('\t').append(m.fname).append('\t').append(m.lname).append('\t')
+				.append(m.phone).append('\t').append(String.format("%.2f", m.score)).append("\t\n");
+		this._served.incrementAndGet();
+		reply(exchange, 200, out.toString());
+	}//end search
+
+	//long-polls the event log this process relays to, without touching the database
+	private void events(HttpExchange exchange) {
+		EventRelay relay = this._esql.events();
+		if (relay == null){
+			reply(exchange, 503, "this server does not relay events, start it with -Dmechanicshop.events.log=<file>\n");
+			return;
+		}//end if
+		EventLog.Batch batch;
+		try{
+			Map<String, String> fields = fields(exchange);
+			long offset = fields.containsKey("offset") ? Long.parseLong(fields.get("offset").trim()) : 0;
+			int max = fields.containsKey("max") ? Integer.parseInt(fields.get("max").trim()) : 100;
+			long wait = fields.containsKey("waitMs") ? Long.parseLong(fields.get("waitMs").trim()) : 0;
+			batch = relay.log().poll(offset, Math.max(1, max), Math.min(wait, 30000));
+		}catch (NumberFormatException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, "offset, max and waitMs are numbers\n");
+			return;
+		}catch (IllegalArgumentException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, e.getMessage() + "\n");
+			return;
+		}catch (IOException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 500, e.getMessage() + "\n");
+			return;
+		}//end try
+		StringBuilder out = new StringBuilder();
+		for (EventLog.Event event : batch.events)
+			out.append(event.json).append('\n');
+		exchange.getResponseHeaders().set("X-Next-Offset", String.valueOf(batch.next));
+		this._served.incrementAndGet();
+		reply(exchange, 200, out.toString());
+	}//end events
+
+	//answers a report from the analytics snapshot
+	private void snapshot(HttpExchange exchange, String name, Map<String, String> fields) {
+		AnalyticsSnapshot.Result result;
+		try{
+			result = this._esql.analytics().report(name, fields.get("from"), fields.get("to"));
+		}catch (DateTimeParseException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, "dates are YYYY-MM-DD\n");
+			return;
+		}//end try
+		StringBuilder out = new StringBuilder();
+		for (String column : result.columns)
+			out.append(column).append('\t');
+		out.append('\n');
+		for (String[] row : result.rows){
+			for (String value : row)
+				out.append(value).append('\t');
+			out.append('\n');
+		}//end for
+		exchange.getResponseHeaders().set("X-Snapshot-Time", String.valueOf(result.asOf));
+		reply(exchange, 200, out.toString());
+	}//end snapshot
+
+	private void page(HttpExchange exchange, String name, Map<String, String> fields) throws IOException {
+		String previous = this._esql.metrics().enter(name);
+		ReportPager.Page page;
+		try{
+			String token = fields.get("page");
+			page = token != null
+				? this._esql.pages().next(token)
+				: this._esql.pages().first(name, Integer.parseInt(fields.get("size").trim()), fields.get("from"), fields.get("to"));
+		}catch (NumberFormatException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, "size is not a number\n");
+			return;
+		}catch (IllegalArgumentException e){
+			this._failed.incrementAndGet();
+			reply(exchange, 400, e.getMessage() + "\n");
+			return;
+		}catch (SQLTransientException e){
+			refuse(exchange, e.getMessage().trim());
+			return;
+		}catch (SQLException e){
+			this._failed.incrementAndGet();
+			//a malformed date is the client's
+			String state = e.getSQLState();
+			reply(exchange, state != null && state.startsWith("22") ? 400 : 500, e.getMessage().trim() + "\n");
+			return;
+		}finally{
+			this._esql.metrics().enter(previous);
+		}//end try
+
+		StringBuilder out = new StringBuilder();
+		for (String column : page.columns)
+			out.append(column).append('\t');
+		out.append('\n');
+		for (List<String> row : page.rows){
+			for (String value : row)
+				out.append(value).append('\t');
+			out.append('\n');
+		}//end for
+		if (page.next != null)
+			exchange.getResponseHeaders().set("X-Next-Page", page.next);
+		reply(exchange, 200, out.toString());
+	}//end page
+
+	/**
+	 * Method to collect the request's fields from the query string and the
+	 * body, which may be a flat JSON object or a form.
+	 */
+	static Map<String, String> fields(HttpExchange exchange) throws IOException {
+		Map<String, String> fields = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null)
+			decodeForm(query, fields);
+		String body = readBody(exchange.getRequestBody()).trim();
+		if (body.startsWith("{"))
+			fields.putAll(BatchRunner.parseJson(body));
+		else if (body.length() > 0)
+			decodeForm(body, fields);
+		return fields;
+	}//end fields
+
+	private static void decodeForm(String form, Map<String, String> fields) throws UnsupportedEncodingException {
+		for (String pair : form.split("&")){
+			if (pair.isEmpty())
+				continue;
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+			String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			fields.put(key, value);
+		}//end for
+	}//end decodeForm
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			body.write(buffer, 0, n);
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}//end readBody
+
+	private void refuse(HttpExchange exchange, String why) {
+		this._refused.incrementAndGet();
+		exchange.getResponseHeaders().set("Retry-After", "1");
+		reply(exchange, 503, why + "\n");
+	}//end refuse
+
+	private static void reply(HttpExchange exchange, int status, String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		try{
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}catch (IOException e){
+			// ignored, the client went away.
+		}finally{
+			exchange.close();
+		}//end try
+	}//end reply
+
+	private String stats() {
+		return this + "\n" + this._esql.getConnectionStats() + "\n" + this._esql.getCacheStats() + "\n"
+			+ this._esql.ids() + "\n" + this._esql.transactions() + "\n"
+			+ (this._esql.events() != null ? this._esql.events() + "\n" : "")
+			+ (this._esql.intake() != null ? this._esql.intake() + "\n" : "") + this._esql.metrics().report();
+	}//end stats
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder(String.format("Server on %s with %s: %d served, %d refused, %d failed, %d of %d in flight",
+			address(), this._workerKind, this._served.get(), this._refused.get(), this._failed.get(),
+			this._maxInFlight - this._inFlight.availablePermits(), this._maxInFlight));
+		for (Map.Entry<String, Semaphore> limit : this._limits.entrySet())
+			out.append("\n  ").append(limit.getKey()).append(": ").append(limit.getValue().availablePermits()).append(" free");
+		return out.toString();
+	}//end toString
+}//end ShopServer
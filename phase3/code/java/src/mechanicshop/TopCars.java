@@ -0,0 +1,194 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import mechanicshop.jdbc.Row;
+import mechanicshop.jdbc.RowHandler;
+
+/**
+ * This class keeps the cars with the most service requests in memory so
+ * that ListKCarsWithTheMostServices does not touch the database.  Service
+ * counts live in the Car_Service_Count table, which InsertServiceRequest
+ * updates in the same statement as its insert and which returns the new
+ * absolute count; the count is applied once that insert commits, unless
+ * a larger one already was.  Between those inserts counts only grow, so
+ * keeping the top 'capacity' cars is enough: a car outside the set can
+ * only enter it through one of those updates.  Updates and evictions are
+ * O(log capacity).
+ *
+ * Any other change to Car_Service_Count (inserts of other processes, bulk
+ * loads) is heard through the report cache's notifications and calls
+ * invalidate(); the ranking then answers nothing until it is warmed again.
+ * Notifications of this process's own pooled connections are skipped,
+ * since their counts arrive through update(); rebuild-service-counts,
+ * which can lower counts, invalidates the ranking itself.
+ *
+ */
+public class TopCars {
+
+	/**
+	 * One ranked car.  Entries are immutable; an update replaces the entry.
+	 */
+	public static class Entry {
+		public final String vin;
+		public final String make;
+		public final String model;
+		public final int count;
+
+		public Entry(String vin, String make, String model, int count) {
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.count = count;
+		}
+	}//end Entry
+
+	//most serviced first, ties broken by VIN so the order is stable
+	private static final Comparator<Entry> RANK = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			if (a.count != b.count)
+				return a.count > b.count ? -1 : 1;
+			return a.vin.compareTo(b.vin);
+		}
+	};
+
+	//per-car counts recomputed from Service_Request
+	static final String REBUILD =
+		"WITH fresh AS (SELECT car_vin, COUNT(*) AS service_count FROM Service_Request GROUP BY car_vin), " +
+		"gone AS (DELETE FROM Car_Service_Count S WHERE NOT EXISTS (SELECT 1 FROM fresh F WHERE F.car_vin = S.car_vin)) " +
+		"INSERT INTO Car_Service_Count (car_vin, service_count) SELECT car_vin, service_count FROM fresh " +
+		"ON CONFLICT (car_vin) DO UPDATE SET service_count = EXCLUDED.service_count";
+
+	static final String TOP =
+		"SELECT C.vin, C.make, C.model, S.service_count FROM Car_Service_Count S, Car C " +
+		"WHERE C.vin = S.car_vin ORDER BY S.service_count DESC, C.vin LIMIT ?";
+
+	private final int _capacity;
+	private final TreeSet<Entry> _ranked = new TreeSet<Entry>(RANK);
+	private final Map<String, Entry> _byVin = new HashMap<String, Entry>();
+	private boolean _warm = false;
+	//bumped by invalidate(), to drop a warm that read the table before the write
+	private long _generation = 0;
+	private long _invalidations = 0;
+
+	/**
+	 * Creates an empty ranking
+	 *
+	 * @param capacity the number of cars kept in memory
+	 */
+	public TopCars(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("top cars capacity must be positive: " + capacity);
+		this._capacity = capacity;
+	}//end TopCars
+
+	/**
+	 * Method to load the most serviced cars from Car_Service_Count.
+	 *
+	 * @param esql the MechanicShop connection
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public void warm(MechanicShop esql) throws SQLException {
+		long generation;
+		synchronized (this){
+			generation = this._generation;
+		}//end synchronized
+		final List<Entry> loaded = new ArrayList<Entry>();
+		esql.executeQueryAndStream(TOP, new RowHandler() {
+			public void handle(Row row) throws SQLException {
+				loaded.add(new Entry(row.getString(1), row.getString(2), row.getString(3), row.getInt(4)));
+			}
+		}, this._capacity);
+		synchronized (this){
+			this._ranked.clear();
+			this._byVin.clear();
+			for (Entry e : loaded)
+				put(e);
+			this._warm = generation == this._generation;
+		}//end synchronized
+	}//end warm
+
+	/**
+	 * Method to stop answering from memory after Car_Service_Count was
+	 * written by someone else, until the next warm().
+	 */
+	public synchronized void invalidate() {
+		this._generation++;
+		this._warm = false;
+		this._invalidations++;
+	}//end invalidate
+
+	/**
+	 * Method to record the new service count of a car.  Two transactions
+	 * bumping the same car may apply their counts in either order after
+	 * they commit, and counts only grow between rebuilds, so a count lower
+	 * than the one kept is stale and ignored.
+	 *
+	 * @param vin the car's VIN
+	 * @param make the car's make
+	 * @param model the car's model
+	 * @param count the car's current number of service requests
+	 */
+	public synchronized void update(String vin, String make, String model, int count) {
+		Entry old = this._byVin.get(vin);
+		if (old != null){
+			if (old.count >= count)
+				return;
+			this._byVin.remove(vin);
+			this._ranked.remove(old);
+		}//end if
+		put(new Entry(vin, make, model, count));
+	}//end update
+
+	/**
+	 * Method to list the k most serviced cars.
+	 *
+	 * @param k the number of cars wanted
+	 * @return the cars in rank order, or null when the answer is not in memory
+	 */
+	public synchronized List<Entry> top(int k) {
+		if (!this._warm || k > this._capacity)
+			return null;
+		List<Entry> result = new ArrayList<Entry>(Math.min(k, this._ranked.size()));
+		Iterator<Entry> it = this._ranked.iterator();
+		while (result.size() < k && it.hasNext())
+			result.add(it.next());
+		return result;
+	}//end top
+
+	public synchronized boolean isWarm() { return this._warm; }
+	public synchronized int size() { return this._ranked.size(); }
+	public synchronized long invalidations() { return this._invalidations; }
+
+	//callers hold the lock
+	private void put(Entry e) {
+		if (this._ranked.size() >= this._capacity){
+			Entry last = this._ranked.last();
+			if (RANK.compare(e, last) >= 0)
+				return;
+			this._ranked.pollLast();
+			this._byVin.remove(last.vin);
+		}//end if
+		this._ranked.add(e);
+		this._byVin.put(e.vin, e);
+	}//end put
+}//end TopCars
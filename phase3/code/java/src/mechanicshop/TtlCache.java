@@ -0,0 +1,172 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class defines a bounded read-through cache whose entries expire a
+ * fixed time after they were loaded.  When the cache is full the least
+ * recently used entry is evicted.  Loaders run outside the lock, so two
+ * threads missing on the same key may both load it; the last one wins.
+ * A load that overlaps an invalidation is returned but not cached, since
+ * it may have read the value from before the change.
+ *
+ */
+public class TtlCache<K, V> {
+
+	/**
+	 * Loads the value of a key that is missing from the cache.
+	 */
+	public interface Loader<K, V> {
+		/**
+		 * @param key the missing key
+		 * @return the value to cache, never null
+		 * @throws java.sql.SQLException when the value could not be loaded
+		 */
+		V load(K key) throws SQLException;
+	}//end Loader
+
+	private static class Entry<V> {
+		final V value;
+		final long expiresAt;
+
+		Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}//end Entry
+
+	private final String _name;
+	private final int _capacity;
+	private final long _ttlNanos;
+	private final LinkedHashMap<K, Entry<V>> _entries;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+	private long _invalidations = 0;
+	//bumped by every invalidation, so a load can tell one happened while it ran
+	private long _generation = 0;
+
+	/**
+	 * Creates an empty cache
+	 *
+	 * @param name the name used in statistics
+	 * @param capacity the maximum number of entries
+	 * @param ttlMillis how long an entry stays valid after it was loaded
+	 */
+	public TtlCache(String name, int capacity, long ttlMillis) {
+		if (capacity < 1 || ttlMillis < 0)
+			throw new IllegalArgumentException("invalid cache capacity or ttl: " + capacity + ", " + ttlMillis);
+		this._name = name;
+		this._capacity = capacity;
+		this._ttlNanos = ttlMillis * 1000000L;
+		//access order turns the map into an LRU list
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	}//end TtlCache
+
+	/**
+	 * Method to return the cached value of a key, loading and caching it
+	 * on a miss or after it expired.
+	 *
+	 * @param key the key to look up
+	 * @param loader loads the value when it is not cached
+	 * @return the cached or freshly loaded value
+	 * @throws java.sql.SQLException when the loader failed
+	 */
+	public V get(K key, Loader<K, V> loader) throws SQLException {
+		long generation;
+		synchronized (this){
+			Entry<V> e = this._entries.get(key);
+			if (e != null){
+				if (System.nanoTime() - e.expiresAt < 0){
+					this._hits++;
+					return e.value;
+				}//end if
+				this._entries.remove(key);
+				this._expirations++;
+			}//end if
+			this._misses++;
+			generation = this._generation;
+		}//end synchronized
+		V value = loader.load(key);
+		synchronized (this){
+			if (generation == this._generation)
+				put(key, value);
+		}//end synchronized
+		return value;
+	}//end get
+
+	/**
+	 * Method to cache a value, evicting the least recently used entry when
+	 * the cache is full.
+	 *
+	 * @param key the key
+	 * @param value the value, never null
+	 */
+	public synchronized void put(K key, V value) {
+		if (value == null)
+			throw new IllegalArgumentException("cannot cache a null value for " + key);
+		this._entries.put(key, new Entry<V>(value, System.nanoTime() + this._ttlNanos));
+		if (this._entries.size() > this._capacity){
+			Iterator<Map.Entry<K, Entry<V>>> eldest = this._entries.entrySet().iterator();
+			eldest.next();
+			eldest.remove();
+			this._evictions++;
+		}//end if
+	}//end put
+
+	/**
+	 * Method to drop a key after the application changed its value.
+	 *
+	 * @param key the key to drop
+	 */
+	public synchronized void invalidate(K key) {
+		this._generation++;
+		if (this._entries.remove(key) != null)
+			this._invalidations++;
+	}//end invalidate
+
+	/**
+	 * Method to drop every entry.
+	 */
+	public synchronized void clear() {
+		this._generation++;
+		this._invalidations += this._entries.size();
+		this._entries.clear();
+	}//end clear
+
+	public synchronized int size() { return this._entries.size(); }
+	public synchronized long hits() { return this._hits; }
+	public synchronized long misses() { return this._misses; }
+
+	/**
+	 * @return the share of lookups answered from the cache, between 0 and 1
+	 */
+	public synchronized double hitRate() {
+		long lookups = this._hits + this._misses;
+		return lookups == 0 ? 0.0 : (double) this._hits / lookups;
+	}//end hitRate
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s: %d/%d entries, hits: %d, misses: %d, hit rate: %.1f%%, evictions: %d, expirations: %d, invalidations: %d",
+			this._name, this._entries.size(), this._capacity, this._hits, this._misses, 100.0 * hitRate(),
+			this._evictions, this._expirations, this._invalidations);
+	}//end toString
+}//end TtlCache
@@ -0,0 +1,161 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs a multi-step operation as one transaction.  Every
+ * executor call the work makes goes to the same pooled connection, at the
+ * configured isolation level, and is committed together or not at all.
+ * When PostgreSQL aborts the transaction because of a serialization
+ * failure or a deadlock (SQLSTATE 40001 or 40P01), the whole work is run
+ * again after a randomized, exponentially growing pause.  Work started
+ * while the thread already has a transaction open joins that transaction
+ * instead, and any retry is left to whoever opened it.
+ *
+ * The work may run more than once, so it must not have side effects
+ * outside the database.  In-memory state such as the MechanicShop caches
+ * is updated through MechanicShop.afterCommit(...), whose actions run
+ * only once the transaction commits and are dropped when an attempt rolls
+ * back.
+ *
+ */
+public class UnitOfWork {
+
+	/**
+	 * The operation to run inside the transaction.
+	 */
+	public interface Work<T> {
+		T run(MechanicShop esql) throws SQLException;
+	}
+
+	private final MechanicShop _esql;
+	private final int _isolation;
+	private final int _maxAttempts;
+	private final long _backoffMillis;
+
+	private final AtomicLong _committed = new AtomicLong();
+	private final AtomicLong _retried = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+
+	/**
+	 * Creates a unit-of-work runner.
+	 *
+	 * @param esql the MechanicShop whose connections run the work
+	 * @param isolation one of the Connection.TRANSACTION_* levels
+	 * @param maxAttempts how many times the work runs before a serialization failure is given up
+	 * @param backoffMillis the pause before the first retry, doubled for each one after it
+	 */
+	public UnitOfWork(MechanicShop esql, int isolation, int maxAttempts, long backoffMillis) {
+		this._esql = esql;
+		this._isolation = isolation;
+		this._maxAttempts = Math.max(1, maxAttempts);
+		this._backoffMillis = Math.max(0, backoffMillis);
+	}
+
+	/**
+	 * Creates a runner configured from the mechanicshop.tx.isolation
+	 * (read-committed, repeatable-read or serializable; default
+	 * read-committed), mechanicshop.tx.maxAttempts (default 5) and
+	 * mechanicshop.tx.backoffMs (default 10) system properties.
+	 */
+	public static UnitOfWork fromSystemProperties(MechanicShop esql) {
+		return new UnitOfWork(esql, isolationLevel(System.getProperty("mechanicshop.tx.isolation", "read-committed")),
+			Integer.getInteger("mechanicshop.tx.maxAttempts", 5), Long.getLong("mechanicshop.tx.backoffMs", 10L));
+	}
+
+	static int isolationLevel(String name) {
+		String level = name.trim().toLowerCase().replace('_', '-').replace(' ', '-');
+		if (level.equals("read-committed"))
+			return Connection.TRANSACTION_READ_COMMITTED;
+		if (level.equals("repeatable-read"))
+			return Connection.TRANSACTION_REPEATABLE_READ;
+		if (level.equals("serializable"))
+			return Connection.TRANSACTION_SERIALIZABLE;
+		throw new IllegalArgumentException("unknown isolation level " + name + ", use read-committed, repeatable-read or serializable");
+	}//end isolationLevel
+
+	/**
+	 * Method to run the work in one transaction, retrying it when the
+	 * database could not serialize it.
+	 *
+	 * @param work the operation
+	 * @return what the last, committed run of the work returned
+	 * @throws java.sql.SQLException when the work failed for another reason, or kept failing to serialize
+	 */
+	public <T> T run(Work<T> work) throws SQLException {
+		if (this._esql.inTransaction())
+			return work.run(this._esql);
+
+		for (int attempt = 1; ; attempt++){
+			try{
+				this._esql.beginTransaction(this._isolation);
+				T result = work.run(this._esql);
+				this._esql.commit();
+				this._committed.incrementAndGet();
+				return result;
+			}catch (SQLException e){
+				this._esql.rollback();
+				if (!isRetryable(e) || attempt >= this._maxAttempts){
+					this._failed.incrementAndGet();
+					throw e;
+				}//end if
+				this._retried.incrementAndGet();
+				backoff(attempt);
+			}catch (RuntimeException e){
+				this._esql.rollback();
+				this._failed.incrementAndGet();
+				throw e;
+			}//end try
+		}//end for
+	}//end run
+
+	//sleeps a random time up to backoff * 2^(attempt-1), so retries of colliding transactions spread out
+	private void backoff(int attempt) throws SQLException {
+		long ceiling = this._backoffMillis << Math.min(attempt - 1, 16);
+		if (ceiling <= 0)
+			return;
+		try{
+			Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting to retry a transaction", e);
+		}//end try
+	}//end backoff
+
+	/**
+	 * @param e a failure of the work or of its commit
+	 * @return true when PostgreSQL aborted the transaction only because of concurrent ones
+	 */
+	static boolean isRetryable(SQLException e) {
+		for (Throwable t = e; t != null; t = t.getCause()){
+			if (t instanceof SQLException){
+				for (SQLException s = (SQLException) t; s != null; s = s.getNextException()){
+					if ("40001".equals(s.getSQLState()) || "40P01".equals(s.getSQLState()))
+						return true;
+				}//end for
+			}//end if
+		}//end for
+		return false;
+	}//end isRetryable
+
+	@Override
+	public String toString() {
+		return String.format("Transactions: %d committed, %d retried, %d failed",
+			this._committed.get(), this._retried.get(), this._failed.get());
+	}
+}//end UnitOfWork
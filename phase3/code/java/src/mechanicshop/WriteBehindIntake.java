@@ -0,0 +1,535 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import mechanicshop.jdbc.LatencyHistogram;
+import mechanicshop.jdbc.RowMappers;
+
+/**
+ * This class takes new service requests faster than PostgreSQL can commit
+ * them one by one.  A request is acknowledged as soon as it is on disk in
+ * a local write-ahead file (an EventLog of JSON lines); a background
+ * flusher then inserts the requests written since its last checkpoint
+ * with one statement and one commit per batch, and moves the checkpoint,
+ * kept next to the file, past them.
+ *
+ * Requests arriving together share a disk sync: the first caller to find
+ * no sync under way writes every request queued so far, while the others
+ * wait for it and return once their request is covered.  The acknowledged
+ * requests the database does not have yet are bounded in time: when the
+ * oldest is older than the maximum lag, new requests wait for the flusher
+ * to catch up, and are refused if it does not within that lag again (e.g.
+ * while the database is down).
+ *
+ * On startup the requests after the checkpoint are replayed; a request
+ * that reached the database before a crash is recognized by its rid and
+ * not inserted twice.  A batch the database rejects is retried one request
+ * at a time, and a request that still fails on its data (an unknown
+ * customer or car, say) is appended with the error to the .rejected file
+ * next to the write-ahead file, since it was already acknowledged.  A
+ * failed write of the file itself stops the intake.
+ *
+ * Until a request is flushed it is not in Service_Request, so it cannot
+ * be closed yet and reports do not count it.
+ *
+ */
+public class WriteBehindIntake {
+
+	//consumer name of the flusher's checkpoint in the write-ahead file
+	static final String FLUSHED = "flushed";
+	//a fully flushed file is emptied once it grows past this
+	static final long CLEAR_BYTES = 1L << 24;
+
+	//the batch of insertServiceRequest, skipping rids already inserted by a flush the crash interrupted
+	static final String OPEN_BATCH =
+		"WITH opened AS (INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) " +
+		"SELECT N.rid, N.customer_id, N.car_vin, N.date, N.odometer, N.complain " +
+		"FROM unnest(CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS text[]), " +
+		"CAST(CAST(? AS text) AS date[]), CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS text[])) AS N(rid, customer_id, car_vin, date, odometer, complain) " +
+		"WHERE NOT EXISTS (SELECT 1 FROM Service_Request SR WHERE SR.rid = N.rid) RETURNING rid, customer_id, car_vin, date, odometer), " +
+		"evented AS (INSERT INTO Request_Event (type, rid, customer_id, car_vin, date, odometer) SELECT 'opened', rid, customer_id, car_vin, date, odometer FROM opened), " +
+		"counted AS (INSERT INTO Car_Service_Count (car_vin, service_count) SELECT car_vin, COUNT(*) FROM opened GROUP BY car_vin " +
+		"ON CONFLICT (car_vin) DO UPDATE SET service_count = Car_Service_Count.service_count + EXCLUDED.service_count RETURNING car_vin, service_count) " +
+		"SELECT C.vin, C.make, C.model, counted.service_count FROM counted, Car C WHERE C.vin = counted.car_vin";
+
+	static final String NORMALIZE_DATE = "SELECT to_char(CAST(? AS DATE), 'YYYY-MM-DD')";
+	static final DateTimeFormatter US_DATE = DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+	/**
+	 * One request of the write-ahead file.
+	 */
+	static final class Entry {
+		final int rid;
+		final int customerId;
+		final String vin;
+		final String date;
+		final int odometer;
+		final String complaint;
+
+		Entry(int rid, int customerId, String vin, String date, int odometer, String complaint) {
+			this.rid = rid;
+			this.customerId = customerId;
+			this.vin = vin;
+			this.date = date;
+			this.odometer = odometer;
+			this.complaint = complaint;
+		}
+
+		static Entry parse(String json) {
+			Map<String, String> fields = BatchRunner.parseJson(json);
+			return new Entry(Integer.parseInt(fields.get("rid")), Integer.parseInt(fields.get("customer_id")), fields.get("vin"),
+				fields.get("date"), Integer.parseInt(fields.get("odometer")), fields.get("complaint"));
+		}
+
+		String json() {
+			StringBuilder out = new StringBuilder("{\"rid\":").append(this.rid).append(",\"customer_id\":").append(this.customerId).append(",\"vin\":");
+			EventRelay.quote(this.vin, out);
+			out.append(",\"date\":");
+			EventRelay.quote(this.date, out);
+			out.append(",\"odometer\":").append(this.odometer);
+			if (this.complaint != null){
+				out.append(",\"complaint\":");
+				EventRelay.quote(this.complaint, out);
+			}//end if
+			return out.append('}').toString();
+		}
+	}//end Entry
+
+	private final MechanicShop _esql;
+	private final EventLog _wal;
+	private final Path _rejected;
+	private final int _batchSize;
+	private final long _maxLagMillis;
+
+	//group commit: requests queued for the next sync, and how far the syncs got
+	private final Object _syncLock = new Object();
+	private List<String> _pending = new ArrayList<String>();
+	private long _queued = 0;
+	private long _synced = 0;
+	private IOException _broken = null;
+	//file offset after each synced group not flushed yet, with its acknowledgement time
+	private final Deque<long[]> _unflushed = new ArrayDeque<long[]>();
+
+	//one flush at a time; the checkpoint only moves under this lock
+	private final Object _flushLock = new Object();
+	private volatile long _checkpoint;
+	private ScheduledExecutorService _flusher;
+	private final AtomicBoolean _woken = new AtomicBoolean();
+	private final Runnable _flush = new Runnable() {
+		public void run() {
+			_woken.set(false);
+			try{
+				flush();
+			}catch (Exception e){
+				System.err.println("Warning - write-behind flush failed, will retry: " + e.getMessage());
+			}//end try
+		}
+	};
+
+	private long _acknowledged = 0;
+	private long _flushed = 0;
+	private long _batches = 0;
+	private long _rejectedCount = 0;
+	private long _refused = 0;
+	//time to acknowledge a request, and from acknowledgement to commit
+	private final LatencyHistogram _ackLatency = new LatencyHistogram();
+	private final LatencyHistogram _flushLag = new LatencyHistogram();
+
+	/**
+	 * Opens the write-ahead file, locking it for this process.  Requests
+	 * left after the checkpoint are flushed by recover().
+	 *
+	 * @param esql the MechanicShop whose connections insert the requests
+	 * @param path the write-ahead file
+	 * @param batchSize the most requests per insert statement
+	 * @param maxLagMillis how long an acknowledged request may wait for its commit before new ones wait
+	 * @throws java.io.IOException when the file cannot be opened or another process uses it
+	 */
+	public WriteBehindIntake(MechanicShop esql, String path, int batchSize, long maxLagMillis) throws IOException {
+		this._esql = esql;
+		this._wal = new EventLog(path, true);
+		this._rejected = Paths.get(path + ".rejected");
+		this._batchSize = Math.max(1, batchSize);
+		this._maxLagMillis = Math.max(1, maxLagMillis);
+		long checkpoint = this._wal.committed(FLUSHED);
+		this._checkpoint = checkpoint <= this._wal.size() ? checkpoint : 0;
+		if (this._checkpoint < this._wal.size())
+			this._unflushed.add(new long[]{this._wal.size(), System.currentTimeMillis()});
+	}//end WriteBehindIntake
+
+	/**
+	 * Creates an intake configured from the mechanicshop.intake.batchSize
+	 * (default 500), mechanicshop.intake.maxLagMs (default 1000) and
+	 * mechanicshop.intake.flushMs (default 20) system properties, replays
+	 * what a previous run left and starts the flusher.
+	 *
+	 * @param esql the MechanicShop whose connections insert the requests
+	 * @param path the write-ahead file
+	 * @throws java.io.IOException when the file cannot be opened or another process uses it
+	 */
+	public static WriteBehindIntake fromSystemProperties(MechanicShop esql, String path) throws IOException {
+		WriteBehindIntake intake = new WriteBehindIntake(esql, path, Integer.getInteger("mechanicshop.intake.batchSize", 500),
+			Long.getLong("mechanicshop.intake.maxLagMs", 1000L));
+		try{
+			int replayed = intake.recover();
+			if (replayed > 0)
+				System.out.println("Write-behind intake: " + replayed + " request(s) replayed from " + path);
+		}catch (SQLException e){
+			System.err.println("Warning - write-behind requests not replayed yet: " + e.getMessage());
+		}//end try
+		intake.start(Long.getLong("mechanicshop.intake.flushMs", 20L));
+		return intake;
+	}//end fromSystemProperties
+
+	/**
+	 * Method to flush the requests a previous run acknowledged but did not
+	 * insert.
+	 *
+	 * @return the number of requests replayed
+	 * @throws java.sql.SQLException when the database did not take them; they stay in the file
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public int recover() throws SQLException, IOException {
+		return flush();
+	}
+
+	/**
+	 * Method to acknowledge a new service request once it is on disk.
+	 *
+	 * @param rid the request id, allocated by the caller
+	 * @param date the request date, in any form CAST(? AS DATE) reads
+	 * @throws java.sql.SQLException when the date is not valid, the flusher is too far behind or the file cannot be written
+	 */
+	public void submit(int rid, int customerId, String vin, String date, int odometer, String complaint) throws SQLException {
+		long start = System.nanoTime();
+		String json = new Entry(rid, customerId, vin == null ? "" : vin.trim(), date(date), odometer, complaint).json();
+		awaitLag();
+		long ticket;
+		synchronized (this){
+			this._pending.add(json);
+			ticket = ++this._queued;
+		}//end synchronized
+		try{
+			sync(ticket);
+		}catch (IOException e){
+			throw new SQLException("write-behind intake stopped, the write-ahead file failed: " + e.getMessage(), "58030", e);
+		}//end try
+		this._ackLatency.record(System.nanoTime() - start);
+		synchronized (this){
+			this._acknowledged++;
+			if (this._queued - this._flushed >= this._batchSize)
+				wake();
+		}//end synchronized
+	}//end submit
+
+	/*
+	 * The date normalized to YYYY-MM-DD, so a bad one is refused before the
+	 * acknowledgement.  The direct insert takes whatever CAST(? AS DATE)
+	 * takes, so anything but the usual YYYY-MM-DD and M/D/YYYY [time] is
+	 * read by the database the same way.  When the database cannot be
+	 * reached the text is kept, and the flush casts it as the direct insert
+	 * would, rejecting it then if it is no date.
+	 */
+	String date(String date) throws SQLException {
+		String text = date == null ? "" : date.trim();
+		String iso = isoDate(text);
+		if (iso != null)
+			return iso;
+		try{
+			return this._esql.queryForObject(NORMALIZE_DATE, RowMappers.TRIMMED, text);
+		}catch (SQLException e){
+			if (isDataError(e))
+				throw e;
+			return text;
+		}//end try
+	}//end date
+
+	//YYYY-MM-DD or M/D/YYYY, with an optional time after a space; null for anything else
+	static String isoDate(String text) {
+		int space = text.indexOf(' ');
+		String day = space > 0 ? text.substring(0, space) : text;
+		try{
+			return (day.indexOf('/') >= 0 ? LocalDate.parse(day, US_DATE) : LocalDate.parse(day)).toString();
+		}catch (DateTimeParseException e){
+			return null;
+		}//end try
+	}//end isoDate
+
+	//waits while the oldest acknowledged request is older than the maximum lag, at most that lag again
+	private void awaitLag() throws SQLException {
+		long deadline = System.currentTimeMillis() + this._maxLagMillis;
+		synchronized (this){
+			while (true){
+				long now = System.currentTimeMillis();
+				long[] oldest = this._unflushed.peekFirst();
+				if (oldest == null || now - oldest[1] <= this._maxLagMillis)
+					return;
+				if (now >= deadline){
+					this._refused++;
+					throw new SQLException("write-behind intake is " + (now - oldest[1]) + " ms behind the database, try again", "57014");
+				}//end if
+				wake();
+				try{
+					wait(Math.min(deadline - now, 50));
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new SQLException("interrupted while waiting for the write-behind flusher", "57014");
+				}//end try
+			}//end while
+		}//end synchronized
+	}//end awaitLag
+
+	//returns once the request with this ticket is on disk, syncing it and everything queued with it if nobody else is
+	private void sync(long ticket) throws IOException {
+		synchronized (this._syncLock){
+			if (this._synced >= ticket)
+				return;
+			if (this._broken != null)
+				throw this._broken;
+			List<String> group;
+			long upTo;
+			synchronized (this){
+				group = this._pending;
+				upTo = this._queued;
+				this._pending = new ArrayList<String>();
+			}//end synchronized
+			try{
+				long end = this._wal.append(group);
+				synchronized (this){
+					this._unflushed.addLast(new long[]{end, System.currentTimeMillis()});
+				}//end synchronized
+			}catch (IOException e){
+				this._broken = e;
+				throw e;
+			}//end try
+			this._synced = upTo;
+		}//end synchronized
+	}//end sync
+
+	/**
+	 * Method to insert the requests written since the checkpoint, a batch
+	 * per statement, and move the checkpoint past them.
+	 *
+	 * @return the number of requests taken from the file
+	 * @throws java.sql.SQLException when the database did not take a batch; it stays in the file
+	 * @throws java.io.IOException when the file or the checkpoint cannot be read or written
+	 */
+	public int flush() throws SQLException, IOException {
+		int total = 0;
+		synchronized (this._flushLock){
+			while (true){
+				EventLog.Batch batch = this._wal.read(this._checkpoint, this._batchSize);
+				if (batch.events.isEmpty())
+					break;
+				write(batch.events);
+				advance(batch.next, batch.events.size());
+				total += batch.events.size();
+				if (batch.events.size() < this._batchSize)
+					break;
+			}//end while
+			clearIfFlushed();
+		}//end synchronized
+		return total;
+	}//end flush
+
+	//inserts one batch; data errors fall back to one request at a time
+	private void write(List<EventLog.Event> events) throws SQLException, IOException {
+		List<Entry> entries = new ArrayList<Entry>(events.size());
+		for (EventLog.Event event : events)
+			entries.add(Entry.parse(event.json));
+		List<List<String>> counted;
+		try{
+			counted = this._esql.executeQueryAndReturnResult(OPEN_BATCH, ints(entries, 0), ints(entries, 1), texts(entries, 2),
+				texts(entries, 3), ints(entries, 4), texts(entries, 5));
+		}catch (SQLException e){
+			if (!isDataError(e))
+				throw e;
+			for (Entry entry : entries)
+				writeOne(entry);
+			return;
+		}//end try
+		for (Entry entry : entries)
+			this._esql.lookups().requestAdded(entry.rid);
+		this._esql.results().written("Service_Request", "Car_Service_Count");
+		for (List<String> car : counted)
+			this._esql.topCars().update(car.get(0), car.get(1), car.get(2), Integer.parseInt(car.get(3)));
+		if (this._esql.events() != null)
+			this._esql.events().wake();
+	}//end write
+
+	private void writeOne(Entry entry) throws SQLException, IOException {
+		try{
+			MechanicShop.openServiceRequest(this._esql, entry.rid, entry.customerId, entry.vin, entry.date, entry.odometer, entry.complaint);
+		}catch (SQLException e){
+			//the request got in before a crash
+			if ("23505".equals(e.getSQLState()))
+				return;
+			if (!isDataError(e))
+				throw e;
+			String line = entry.json() + "\t" + e.getMessage().trim().replace('\n', ' ') + "\n";
+			Files.write(this._rejected, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			synchronized (this){
+				this._rejectedCount++;
+			}//end synchronized
+			System.err.println("Warning - acknowledged service request " + entry.rid + " rejected, see " + this._rejected);
+		}//end try
+	}//end writeOne
+
+	//invalid data or a violated constraint: retrying will not help
+	private static boolean isDataError(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && (state.startsWith("22") || state.startsWith("23"));
+	}//end isDataError
+
+	//records the checkpoint on disk, then lets the waiting requests in
+	private void advance(long next, int requests) throws IOException {
+		this._wal.commit(FLUSHED, next);
+		this._checkpoint = next;
+		long now = System.currentTimeMillis();
+		synchronized (this){
+			while (!this._unflushed.isEmpty() && this._unflushed.peekFirst()[0] <= next)
+				this._flushLag.record((now - this._unflushed.pollFirst()[1]) * 1000000L);
+			this._flushed += requests;
+			this._batches++;
+			notifyAll();
+		}//end synchronized
+	}//end advance
+
+	//empties a large file once everything in it is flushed; the checkpoint goes first, replaying flushed requests is harmless
+	private void clearIfFlushed() throws IOException {
+		if (this._checkpoint < CLEAR_BYTES)
+			return;
+		synchronized (this._syncLock){
+			if (this._checkpoint != this._wal.size())
+				return;
+			this._wal.commit(FLUSHED, 0);
+			this._wal.clear();
+			this._checkpoint = 0;
+		}//end synchronized
+	}//end clearIfFlushed
+
+	private static String ints(List<Entry> entries, int column) {
+		StringBuilder out = new StringBuilder("{");
+		for (Entry entry : entries){
+			if (out.length() > 1)
+				out.append(',');
+			out.append(column == 0 ? entry.rid : column == 1 ? entry.customerId : entry.odometer);
+		}//end for
+		return out.append('}').toString();
+	}//end ints
+
+	//a PostgreSQL text array literal, every element quoted
+	private static String texts(List<Entry> entries, int column) {
+		StringBuilder out = new StringBuilder("{");
+		for (Entry entry : entries){
+			if (out.length() > 1)
+				out.append(',');
+			String value = column == 2 ? entry.vin : column == 3 ? entry.date : entry.complaint;
+			if (value == null){
+				out.append("NULL");
+				continue;
+			}//end if
+			out.append('"');
+			for (int i = 0; i < value.length(); i++){
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\')
+					out.append('\\');
+				out.append(c);
+			}//end for
+			out.append('"');
+		}//end for
+		return out.append('}').toString();
+	}//end texts
+
+	public synchronized void start(long flushMillis) {
+		if (this._flusher != null)
+			return;
+		this._flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "write-behind-flush");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._flusher.scheduleWithFixedDelay(this._flush, flushMillis, Math.max(1, flushMillis), TimeUnit.MILLISECONDS);
+	}//end start
+
+	//flushes soon instead of at the next interval; callers hold this
+	private void wake() {
+		if (this._flusher != null && this._woken.compareAndSet(false, true)){
+			try{
+				this._flusher.execute(this._flush);
+			}catch (RejectedExecutionException e){
+				// closing, close() flushes.
+			}//end try
+		}//end if
+	}//end wake
+
+	/**
+	 * Method to stop the flusher and flush what is left.  Requests the
+	 * database does not take now stay in the file for the next start.
+	 */
+	public void close() {
+		ScheduledExecutorService flusher;
+		synchronized (this){
+			flusher = this._flusher;
+		}//end synchronized
+		if (flusher != null){
+			flusher.shutdown();
+			try{
+				flusher.awaitTermination(5, TimeUnit.SECONDS);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+		}//end if
+		try{
+			flush();
+		}catch (Exception e){
+			System.err.println("Warning - write-behind requests left for the next start: " + e.getMessage());
+		}//end try
+		this._wal.close();
+	}//end close
+
+	@Override
+	public synchronized String toString() {
+		long[] oldest = this._unflushed.peekFirst();
+		return String.format("Write-behind intake: %d acknowledged (mean %.2f ms, p99 %.2f ms), %d flushed in %d batch(es), %d waiting (oldest %d ms), "
+			+ "%d refused, %d rejected, ack to commit mean %.1f ms, p99 %.1f ms",
+			this._acknowledged, this._ackLatency.meanNanos() / 1e6, this._ackLatency.percentileNanos(99) / 1e6, this._flushed, this._batches,
+			this._acknowledged - this._flushed < 0 ? 0 : this._acknowledged - this._flushed, oldest == null ? 0 : System.currentTimeMillis() - oldest[1],
+			this._refused, this._rejectedCount, this._flushLag.meanNanos() / 1e6, this._flushLag.percentileNanos(99) / 1e6);
+	}//end toString
+}//end WriteBehindIntake
@@ -1 +1,3 @@
-testing file la la la la
+#! /bin/bash
+# Runs the unit tests of MechanicShop and the JDBC library through the top-level Maven build
+mvn -q -B -f ../../../pom.xml -pl phase3/code/java -am test
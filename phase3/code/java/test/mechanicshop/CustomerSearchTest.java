@@ -0,0 +1,192 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the normalization, trigrams, Soundex codes and scoring of
+ * CustomerSearch on an index filled in memory.
+ *
+ */
+public class CustomerSearchTest {
+
+	private static final double EPSILON = 1e-9;
+
+	private CustomerSearch _search;
+
+	@Before
+	public void fill() {
+		this._search = new CustomerSearch(null);
+		this._search.add(1, "John", "Smith", "9515551234");
+		this._search.add(2, "Jon", "Smithers", "9515559999");
+		this._search.add(3, "Robert", "Jones", "3105550000");
+		this._search.add(4, "Rupert", "Brown", "2135551111");
+	}
+
+	private static int[] ids(List<CustomerSearch.Match> matches) {
+		int[] ids = new int[matches.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = matches.get(i).id;
+		return ids;
+	}
+
+	@Test
+	public void wordsAreNormalizedAndDistinct() {
+		assertEquals(Arrays.asList("john", "smith", "jr"), CustomerSearch.words("  John  Smith, Jr. "));
+		assertEquals(Arrays.asList("oneil"), CustomerSearch.words("O'Neil o'neil"));
+		assertEquals(Arrays.asList("apt", "12"), CustomerSearch.words("Apt 12"));
+		assertEquals(Collections.<String>emptyList(), CustomerSearch.words(null));
+	}
+
+	@Test
+	public void phoneNumberIsOneWord() {
+		assertEquals(Arrays.asList("9515551234"), CustomerSearch.words("(951) 555-1234"));
+		assertEquals(Arrays.asList("5551234"), CustomerSearch.words("555 1234"));
+	}
+
+	@Test
+	public void lettersAndDigitsDropEverythingElse() {
+		assertEquals("oneil2", CustomerSearch.letters(" O'Neil #2 "));
+		assertEquals("9515551234", CustomerSearch.digits("(951) 555-1234"));
+	}
+
+	@Test
+	public void trigramsArePaddedLikePgTrgm() {
+		//"  a", " ab", "ab "
+		assertEquals(3, CustomerSearch.trigrams("ab").length);
+		//"  a", " aa", "aaa" twice, "aa "
+		assertEquals(4, CustomerSearch.trigrams("aaaa").length);
+		assertEquals(0, CustomerSearch.trigrams("").length);
+		assertArrayEquals(CustomerSearch.trigrams("smith"), CustomerSearch.trigrams("smith"));
+	}
+
+	@Test
+	public void trigramsAreSortedAndDistinct() {
+		int[] grams = CustomerSearch.trigrams("banana");
+		//"  b", " ba", "ban", "ana", "nan", "na "
+		assertEquals(6, grams.length);
+		for (int i = 1; i < grams.length; i++)
+			assertTrue(grams[i - 1] < grams[i]);
+	}
+
+	@Test
+	public void soundexCodesNamesThatSoundAlike() {
+		assertEquals("R163", CustomerSearch.soundex("robert"));
+		assertEquals("R163", CustomerSearch.soundex("rupert"));
+		assertEquals("A261", CustomerSearch.soundex("ashcraft"));
+		assertEquals("T522", CustomerSearch.soundex("tymczak"));
+		assertEquals("P236", CustomerSearch.soundex("pfister"));
+		assertEquals("L000", CustomerSearch.soundex("lee"));
+	}
+
+	@Test
+	public void soundexIsNullForNumbers() {
+		assertNull(CustomerSearch.soundex("r2d2"));
+		assertNull(CustomerSearch.soundex("951"));
+		assertNull(CustomerSearch.soundex(""));
+	}
+
+	@Test
+	public void exactMatchScoresOneBeforeAPrefix() {
+		List<CustomerSearch.Match> matches = this._search.search("Smith", 10);
+		assertArrayEquals(new int[] {1, 2}, ids(matches));
+		assertEquals(1.0, matches.get(0).score, EPSILON);
+		assertEquals(0.8 + 0.1 * 5 / 8, matches.get(1).score, EPSILON);
+	}
+
+	@Test
+	public void partOfANameScoresByItsLength() {
+		List<CustomerSearch.Match> matches = this._search.search("mith", 10);
+		assertArrayEquals(new int[] {1, 2}, ids(matches));
+		assertEquals(0.7 + 0.1 * 4 / 5, matches.get(0).score, EPSILON);
+		assertEquals(0.7 + 0.1 * 4 / 8, matches.get(1).score, EPSILON);
+	}
+
+	@Test
+	public void misspelledNameSoundingAlikeStillMatches() {
+		List<CustomerSearch.Match> matches = this._search.search("smiht", 10);
+		assertEquals(1, matches.get(0).id);
+		assertTrue(matches.get(0).score >= CustomerSearch.PHONETIC_SCORE);
+		assertTrue(matches.get(0).score < 0.8);
+	}
+
+	@Test
+	public void namesSoundingAlikeRankBelowTheExactOne() {
+		List<CustomerSearch.Match> matches = this._search.search("robert", 10);
+		assertArrayEquals(new int[] {3, 4}, ids(matches));
+		assertEquals(1.0, matches.get(0).score, EPSILON);
+		assertTrue(matches.get(1).score >= CustomerSearch.PHONETIC_SCORE);
+	}
+
+	@Test
+	public void phoneNumbersMatchOnlyWholeOrInPart() {
+		List<CustomerSearch.Match> matches = this._search.search("555-1234", 10);
+		assertArrayEquals(new int[] {1}, ids(matches));
+		assertEquals(0.7 + 0.1 * 7 / 10, matches.get(0).score, EPSILON);
+		assertEquals(0, this._search.search("555-1235", 10).size());
+	}
+
+	@Test
+	public void phonePrefixMatchesEveryNumberStartingWithIt() {
+		List<CustomerSearch.Match> matches = this._search.search("951", 10);
+		assertArrayEquals(new int[] {1, 2}, ids(matches));
+		assertEquals(0.8 + 0.1 * 3 / 10, matches.get(1).score, EPSILON);
+	}
+
+	@Test
+	public void everyWordHasToMatchAndScoresAreAveraged() {
+		List<CustomerSearch.Match> matches = this._search.search("john smith", 10);
+		assertArrayEquals(new int[] {1, 2}, ids(matches));
+		assertEquals(1.0, matches.get(0).score, EPSILON);
+		assertTrue(matches.get(1).score < 1.0);
+		assertEquals(0, this._search.search("robert smith", 10).size());
+	}
+
+	@Test
+	public void limitCutsTheWorstMatches() {
+		assertArrayEquals(new int[] {1}, ids(this._search.search("smith", 1)));
+		assertArrayEquals(new int[] {1}, ids(this._search.search("john smith", 1)));
+		assertEquals(0, this._search.search("smith", 0).size());
+		assertEquals(0, this._search.search(" ,. ", 10).size());
+	}
+
+	@Test
+	public void paddedColumnsAreTrimmed() {
+		this._search.add(5, "Ann       ", "O'Neil    ", "7145550000  ");
+		List<CustomerSearch.Match> matches = this._search.search("oneil", 10);
+		assertArrayEquals(new int[] {5}, ids(matches));
+		assertEquals(1.0, matches.get(0).score, EPSILON);
+		assertEquals("O'Neil", matches.get(0).lname);
+	}
+
+	@Test
+	public void customerAddedAgainReplacesItsOldRow() {
+		this._search.add(1, "John", "Smythe", "9515551234");
+		assertEquals(4, this._search.size());
+		assertArrayEquals(new int[] {2}, ids(this._search.search("smithers", 10)));
+		assertEquals(1, this._search.search("smythe", 10).get(0).id);
+		for (CustomerSearch.Match match : this._search.search("smith", 10))
+			assertTrue(match.id != 1 || match.lname.equals("Smythe"));
+	}
+}//end CustomerSearchTest
@@ -0,0 +1,133 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the range merging and gap computation of KeyRanges.
+ *
+ */
+public class KeyRangesTest {
+
+	//the ranges as "lo-hi" strings, for readable failures
+	private static String show(List<int[]> ranges) {
+		StringBuilder out = new StringBuilder();
+		for (int[] range : ranges)
+			out.append(out.length() > 0 ? " " : "").append(range[0]).append('-').append(range[1]);
+		return out.toString();
+	}
+
+	private static KeyRanges of(int... keys) {
+		KeyRanges set = new KeyRanges();
+		for (int key : keys)
+			set.add(key);
+		return set;
+	}
+
+	@Test
+	public void emptySetHasNoRangesOrGaps() {
+		KeyRanges set = new KeyRanges();
+		assertEquals(0, set.size());
+		assertEquals(Integer.MIN_VALUE, set.max());
+		assertTrue(set.gaps().isEmpty());
+		assertFalse(set.contains(0));
+	}
+
+	@Test
+	public void adjacentKeysJoinOneRange() {
+		KeyRanges set = of(3, 1, 2, 5);
+		assertEquals("1-3 5-5", show(set.ranges()));
+		assertEquals(5, set.max());
+		assertTrue(set.contains(2));
+		assertFalse(set.contains(4));
+	}
+
+	@Test
+	public void keyFillingAGapJoinsBothSides() {
+		KeyRanges set = of(1, 2, 4, 5);
+		assertEquals(2, set.size());
+		set.add(3);
+		assertEquals("1-5", show(set.ranges()));
+	}
+
+	@Test
+	public void addingAKeyTwiceChangesNothing() {
+		KeyRanges set = of(1, 2, 3);
+		set.add(2);
+		assertEquals("1-3", show(set.ranges()));
+	}
+
+	@Test
+	public void gapsRunFromTheSmallestIntUpToMax() {
+		KeyRanges set = of(1, 2, 6, 9, 10);
+		assertEquals(Integer.MIN_VALUE + "-0 3-5 7-8", show(set.gaps()));
+	}
+
+	@Test
+	public void rangeMergesEveryOverlappingAndTouchingRange() {
+		KeyRanges set = of(1, 2, 5, 6, 10, 11, 12, 20);
+		set.add(3, 9);
+		assertEquals("1-12 20-20", show(set.ranges()));
+		set.add(13, 19);
+		assertEquals("1-20", show(set.ranges()));
+	}
+
+	@Test
+	public void rangeInsideAnotherChangesNothing() {
+		KeyRanges set = new KeyRanges();
+		set.add(1, 100);
+		set.add(10, 20);
+		assertEquals("1-100", show(set.ranges()));
+	}
+
+	@Test
+	public void closingEveryGapBelowAKeyLeavesTheGapsAbove() {
+		KeyRanges set = of(1, 4, 8, 9);
+		set.add(Integer.MIN_VALUE, 4);
+		assertEquals(Integer.MIN_VALUE + "-4 8-9", show(set.ranges()));
+		assertEquals("5-7", show(set.gaps()));
+	}
+
+	@Test
+	public void keysAtTheEndsOfIntDoNotOverflow() {
+		KeyRanges set = of(Integer.MAX_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE);
+		assertEquals(Integer.MIN_VALUE + "-" + Integer.MIN_VALUE + " " + (Integer.MAX_VALUE - 1) + "-" + Integer.MAX_VALUE, show(set.ranges()));
+		set.add(0, Integer.MAX_VALUE);
+		assertEquals(Integer.MIN_VALUE + "-" + Integer.MIN_VALUE + " 0-" + Integer.MAX_VALUE, show(set.ranges()));
+		assertEquals((Integer.MIN_VALUE + 1) + "--1", show(set.gaps()));
+	}
+
+	@Test
+	public void arrayIsOneColumnAsAnArrayLiteral() {
+		List<int[]> ranges = Arrays.asList(new int[] {1, 3}, new int[] {7, 9});
+		assertEquals("{1,7}", KeyRanges.array(ranges, 0));
+		assertEquals("{3,9}", KeyRanges.array(ranges, 1));
+		assertEquals("{}", KeyRanges.array(Arrays.<int[]>asList(), 0));
+	}
+
+	@Test
+	public void unseenReadsAboveMaxThenTheGaps() {
+		String query = KeyRanges.unseen("SELECT T.id FROM %1$s T WHERE %2$s", "T.id");
+		assertEquals("SELECT T.id FROM  T WHERE T.id > ? UNION ALL "
+			+ "SELECT T.id FROM unnest(CAST(CAST(? AS text) AS int[]), CAST(CAST(? AS text) AS int[])) AS G(lo, hi), T WHERE T.id BETWEEN G.lo AND G.hi",
+			query);
+	}
+}//end KeyRangesTest
@@ -0,0 +1,468 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class defines a small bounded pool of PostgreSQL connections.  Idle
+ * connections are validated when they are borrowed, closed once they stay
+ * idle for too long (down to the minimum size), and connections held longer
+ * than the leak threshold are reported together with the place they were
+ * borrowed from.  Each pooled connection carries its own statement cache.
+ *
+ */
+public class ConnectionPool {
+
+	/**
+	 * A physical connection handed out by the pool together with the
+	 * prepared statements cached on it.
+	 */
+	public static class PooledConnection {
+		private final Connection _connection;
+		private final StatementCache _statements;
+		private long _lastUsed;
+		private long _borrowedAt;
+		private Throwable _borrowSite;
+		private boolean _leakReported;
+		//isolation level last set on the session; the server default until then
+		private int _isolation = Connection.TRANSACTION_READ_COMMITTED;
+		//the server process, as PGNotification.getPID() names the sender
+		private final int _backendPid;
+
+		private PooledConnection(Connection connection, int backendPid, int statementCacheSize) {
+			this._connection = connection;
+			this._backendPid = backendPid;
+			this._statements = new StatementCache(connection, statementCacheSize);
+			this._lastUsed = System.currentTimeMillis();
+		}
+
+		public Connection connection() { return this._connection; }
+		public StatementCache statements() { return this._statements; }
+
+		/**
+		 * Method to set the session's isolation level for the transactions
+		 * that follow.  The level stays on the connection, so it costs a
+		 * round trip only when it changes.
+		 *
+		 * @param level one of the Connection.TRANSACTION_* levels
+		 * @throws java.sql.SQLException when a transaction is already under way
+		 */
+		public void isolation(int level) throws SQLException {
+			if (level == this._isolation)
+				return;
+			this._connection.setTransactionIsolation(level);
+			this._isolation = level;
+		}//end isolation
+
+		private void closeQuietly() {
+			this._statements.close();
+			try{
+				this._connection.close();
+			}catch (SQLException e){
+				// ignored.
+			}//end try
+		}//end closeQuietly
+	}//end PooledConnection
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _acquireTimeoutMillis;
+	private final long _idleTimeoutMillis;
+	private final long _validationIntervalMillis;
+	private final long _leakThresholdMillis;
+	private final int _statementCacheSize;
+
+	//idle connections, most recently returned first
+	private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final Map<PooledConnection, Boolean> _borrowed = new IdentityHashMap<PooledConnection, Boolean>();
+	//connections being opened outside the lock still count against the maximum
+	private int _pending = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _housekeeper;
+
+	private long _created = 0;
+	private long _borrows = 0;
+	private long _timeouts = 0;
+	private long _validationFailures = 0;
+	private long _idleEvictions = 0;
+	private long _leaks = 0;
+
+	/**
+	 * Creates a new pool and opens the minimum number of connections
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the user name used to login to the database
+	 * @param passwd the user login password
+	 * @param minSize the number of connections kept open at all times
+	 * @param maxSize the maximum number of open connections
+	 * @param acquireTimeoutMillis how long borrow() waits for a free connection
+	 * @param idleTimeoutMillis how long a connection above minSize may stay idle
+	 * @param validationIntervalMillis connections idle longer than this are validated on borrow
+	 * @param leakThresholdMillis borrow time after which a connection is reported as leaked, 0 disables
+	 * @param statementCacheSize capacity of each connection's statement cache
+	 * @throws java.sql.SQLException when the initial connections could not be opened
+	 */
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+			long acquireTimeoutMillis, long idleTimeoutMillis, long validationIntervalMillis,
+			long leakThresholdMillis, int statementCacheSize) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("invalid pool size: min " + minSize + ", max " + maxSize);
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._acquireTimeoutMillis = acquireTimeoutMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._validationIntervalMillis = validationIntervalMillis;
+		this._leakThresholdMillis = leakThresholdMillis;
+		this._statementCacheSize = statementCacheSize;
+
+		for (int i = 0; i < minSize; ++i)
+			this._idle.push(open());
+
+		this._housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "connection-pool-housekeeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000L, Math.min(idleTimeoutMillis, leakThresholdMillis > 0 ? leakThresholdMillis : idleTimeoutMillis) / 2);
+		this._housekeeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() { housekeep(); }
+		}, period, period, TimeUnit.MILLISECONDS);
+	}//end ConnectionPool
+
+	/**
+	 * Creates a pool configured from the mechanicshop.pool.* system properties
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the user name used to login to the database
+	 * @param passwd the user login password
+	 * @return the new pool
+	 * @throws java.sql.SQLException when the initial connections could not be opened
+	 */
+	public static ConnectionPool fromSystemProperties(String url, String user, String passwd) throws SQLException {
+		return new ConnectionPool(url, user, passwd,
+			Integer.getInteger("mechanicshop.pool.minSize", 1),
+			Integer.getInteger("mechanicshop.pool.maxSize", 8),
+			Long.getLong("mechanicshop.pool.acquireTimeoutMs", 30000L),
+			Long.getLong("mechanicshop.pool.idleTimeoutMs", 600000L),
+			Long.getLong("mechanicshop.pool.validationIntervalMs", 5000L),
+			Long.getLong("mechanicshop.pool.leakThresholdMs", 60000L),
+			Integer.getInteger("mechanicshop.statementCacheSize", 64));
+	}//end fromSystemProperties
+
+	/**
+	 * Method to borrow a connection.  An idle connection is reused when one
+	 * is available, a new one is opened while the pool is below its maximum,
+	 * and otherwise the caller waits up to the acquire timeout.
+	 *
+	 * @return a validated connection that must be given back with release()
+	 * @throws java.sql.SQLTimeoutException when no connection became available in time
+	 * @throws java.sql.SQLException when the pool is closed or a connection cannot be opened
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + this._acquireTimeoutMillis;
+		while (true){
+			PooledConnection pc = null;
+			boolean mayOpen = false;
+			synchronized (this){
+				while (true){
+					if (this._closed)
+						throw new SQLException("connection pool is closed");
+					if (!this._idle.isEmpty()){
+						//counted as borrowed while it is validated outside the lock
+						pc = this._idle.pop();
+						markBorrowed(pc);
+						break;
+					}//end if
+					if (size() < this._maxSize){
+						this._pending++;
+						mayOpen = true;
+						break;
+					}//end if
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0){
+						this._timeouts++;
+						throw new SQLTimeoutException("timed out after " + this._acquireTimeoutMillis
+							+ " ms waiting for a database connection (" + this._borrowed.size() + " in use)");
+					}//end if
+					try{
+						wait(remaining);
+					}catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("interrupted while waiting for a database connection");
+					}//end try
+				}//end while
+			}//end synchronized
+
+			if (mayOpen){
+				try{
+					pc = open();
+				}finally{
+					synchronized (this){
+						this._pending--;
+						if (pc != null)
+							markBorrowed(pc);
+						else
+							notifyAll();
+					}//end synchronized
+				}//end try
+			}else if (!validate(pc)){
+				pc.closeQuietly();
+				synchronized (this){
+					this._borrowed.remove(pc);
+					this._validationFailures++;
+					notifyAll();
+				}//end synchronized
+				continue;
+			}//end if
+
+			synchronized (this){
+				this._borrows++;
+				pc._borrowSite = this._leakThresholdMillis > 0 ? new Throwable("connection borrowed here") : null;
+			}//end synchronized
+			return pc;
+		}//end while
+	}//end borrow
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  Connections
+	 * that were left inside a transaction are rolled back first; broken
+	 * connections are closed instead of being reused.
+	 *
+	 * @param pc the connection obtained from borrow()
+	 */
+	public void release(PooledConnection pc) {
+		if (pc == null)
+			return;
+		boolean reusable = true;
+		try{
+			if (pc._connection.isClosed()){
+				reusable = false;
+			}else if (!pc._connection.getAutoCommit()){
+				pc._connection.rollback();
+				pc._connection.setAutoCommit(true);
+			}//end if
+		}catch (SQLException e){
+			reusable = false;
+		}//end try
+
+		synchronized (this){
+			if (this._borrowed.remove(pc) == null)
+				return;
+			pc._lastUsed = System.currentTimeMillis();
+			pc._borrowSite = null;
+			if (reusable && !this._closed)
+				this._idle.push(pc);
+			else
+				pc.closeQuietly();
+			notifyAll();
+		}//end synchronized
+	}//end release
+
+	/**
+	 * Method to close every idle connection and stop the housekeeping
+	 * thread.  Connections still borrowed are closed when they are released.
+	 */
+	public void close() {
+		this._housekeeper.shutdownNow();
+		synchronized (this){
+			this._closed = true;
+			for (PooledConnection pc : this._idle)
+				pc.closeQuietly();
+			this._idle.clear();
+			notifyAll();
+		}//end synchronized
+	}//end close
+
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+		int backendPid;
+		try{
+			Statement statement = connection.createStatement();
+			try{
+				ResultSet rs = statement.executeQuery("SELECT pg_backend_pid()");
+				rs.next();
+				backendPid = rs.getInt(1);
+			}finally{
+				statement.close();
+			}//end try
+		}catch (SQLException e){
+			connection.close();
+			throw e;
+		}//end try
+		synchronized (this){
+			this._created++;
+		}//end synchronized
+		return new PooledConnection(connection, backendPid, this._statementCacheSize);
+	}//end open
+
+	private boolean validate(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc._lastUsed < this._validationIntervalMillis)
+			return true;
+		try{
+			return pc._connection.isValid(5);
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}//end validate
+
+	/*
+	 * Closes connections idle past the timeout while keeping the minimum
+	 * size, and reports connections borrowed for longer than the leak
+	 * threshold.
+	 */
+	private void housekeep() {
+		List<PooledConnection> expired = new ArrayList<PooledConnection>();
+		List<Throwable> leaked = new ArrayList<Throwable>();
+		int missing;
+		synchronized (this){
+			if (this._closed)
+				return;
+			long now = System.currentTimeMillis();
+			//the oldest idle connections sit at the tail of the deque
+			Iterator<PooledConnection> it = this._idle.descendingIterator();
+			while (it.hasNext() && size() > this._minSize){
+				PooledConnection pc = it.next();
+				if (now - pc._lastUsed < this._idleTimeoutMillis)
+					break;
+				it.remove();
+				expired.add(pc);
+				this._idleEvictions++;
+			}//end while
+			if (this._leakThresholdMillis > 0){
+				for (PooledConnection pc : this._borrowed.keySet()){
+					if (!pc._leakReported && now - pc._borrowedAt > this._leakThresholdMillis){
+						pc._leakReported = true;
+						leaked.add(pc._borrowSite);
+						this._leaks++;
+					}//end if
+				}//end for
+			}//end if
+			missing = this._minSize - size();
+			this._pending += Math.max(0, missing);
+		}//end synchronized
+
+		for (PooledConnection pc : expired)
+			pc.closeQuietly();
+		for (Throwable site : leaked){
+			System.err.println("WARNING: database connection held for more than " + this._leakThresholdMillis + " ms, possible leak");
+			if (site != null)
+				site.printStackTrace();
+		}//end for
+		for (int i = 0; i < missing; ++i){
+			PooledConnection pc = null;
+			try{
+				pc = open();
+			}catch (SQLException e){
+				// retried on the next run.
+			}finally{
+				synchronized (this){
+					this._pending--;
+					if (pc != null){
+						this._idle.addLast(pc);
+						notifyAll();
+					}//end if
+				}//end synchronized
+			}//end try
+		}//end for
+	}//end housekeep
+
+	//callers hold the lock
+	private void markBorrowed(PooledConnection pc) {
+		this._borrowed.put(pc, Boolean.TRUE);
+		pc._borrowedAt = System.currentTimeMillis();
+		pc._leakReported = false;
+	}//end markBorrowed
+
+	//number of open or opening connections; callers hold the lock
+	private int size() {
+		return this._idle.size() + this._borrowed.size() + this._pending;
+	}//end size
+
+	/**
+	 * @return the maximum number of open connections
+	 */
+	public int maxSize() {
+		return this._maxSize;
+	}
+
+	/**
+	 * Method to tell whether a server process serves one of the pool's
+	 * connections, e.g. to recognize the notifications of its own writes.
+	 *
+	 * @param backendPid the process id, as pg_backend_pid() returns it
+	 * @return true when an open connection of the pool runs in that process
+	 */
+	public synchronized boolean owns(int backendPid) {
+		for (PooledConnection pc : this._idle)
+			if (pc._backendPid == backendPid)
+				return true;
+		for (PooledConnection pc : this._borrowed.keySet())
+			if (pc._backendPid == backendPid)
+				return true;
+		return false;
+	}//end owns
+
+	/**
+	 * Method to describe the statement caches of the pooled connections.
+	 *
+	 * @return the summed hit, miss and eviction counts over open connections
+	 */
+	public synchronized String statementCacheStats() {
+		long hits = 0, misses = 0, evictions = 0;
+		int cached = 0;
+		List<PooledConnection> all = new ArrayList<PooledConnection>(this._idle);
+		all.addAll(this._borrowed.keySet());
+		for (PooledConnection pc : all){
+			hits += pc._statements.hits();
+			misses += pc._statements.misses();
+			evictions += pc._statements.evictions();
+			cached += pc._statements.size();
+		}//end for
+		long lookups = hits + misses;
+		double hitRate = lookups == 0 ? 0.0 : (100.0 * hits) / lookups;
+		return String.format("statements cached: %d over %d connection(s), hits: %d, misses: %d, evictions: %d, hit rate: %.1f%%",
+			cached, all.size(), hits, misses, evictions, hitRate);
+	}//end statementCacheStats
+
+	@Override
+	public synchronized String toString() {
+		return String.format("pool size: %d (idle %d, in use %d, min %d, max %d), created: %d, borrows: %d, timeouts: %d, validation failures: %d, idle evictions: %d, leaks: %d",
+			size(), this._idle.size(), this._borrowed.size(), this._minSize, this._maxSize,
+			this._created, this._borrows, this._timeouts, this._validationFailures, this._idleEvictions, this._leaks);
+	}//end toString
+}//end ConnectionPool
@@ -0,0 +1,106 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram.  Values are
+ * bucketed log-linearly: every power of two is split into 32 equal
+ * sub-buckets, so any recorded value is reported within about 3% of its
+ * true value while the whole nanosecond range fits in under 2000 counters.
+ * Recording is a couple of atomic increments and safe from any thread.
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one value.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long v = Math.max(0, nanos);
+		this._counts.incrementAndGet(index(v));
+		this._count.incrementAndGet();
+		this._sum.addAndGet(v);
+		long max;
+		while (v > (max = this._max.get()) && !this._max.compareAndSet(max, v))
+			;
+	}//end record
+
+	public long count() { return this._count.get(); }
+	public long totalNanos() { return this._sum.get(); }
+	public long maxNanos() { return this._max.get(); }
+
+	public double meanNanos() {
+		long n = this._count.get();
+		return n == 0 ? 0 : (double) this._sum.get() / n;
+	}
+
+	/**
+	 * Method to estimate a percentile.  Concurrent recording may make the
+	 * answer lag by the values recorded while it is computed.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile, in nanoseconds
+	 */
+	public long percentileNanos(double percentile) {
+		long total = this._count.get();
+		if (total == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++){
+			seen += this._counts.get(i);
+			if (seen >= target)
+				return Math.min(lowerBound(i + 1) - 1, this._max.get());
+		}//end for
+		return this._max.get();
+	}//end percentileNanos
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			this._counts.set(i, 0);
+		this._count.set(0);
+		this._sum.set(0);
+		this._max.set(0);
+	}//end reset
+
+	//values below SUB_COUNT get a bucket each, then SUB_COUNT buckets per power of two
+	static int index(long v) {
+		if (v < SUB_COUNT)
+			return (int) v;
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+	}//end index
+
+	static long lowerBound(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		if (index >= BUCKETS)
+			return Long.MAX_VALUE;
+		int exp = index / SUB_COUNT + SUB_BITS - 1;
+		return (1L << exp) | ((long) (index % SUB_COUNT) << (exp - SUB_BITS));
+	}//end lowerBound
+}//end LatencyHistogram
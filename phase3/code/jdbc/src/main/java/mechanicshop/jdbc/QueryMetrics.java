@@ -0,0 +1,419 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class records what the SqlExecutor methods cost.  Every
+ * call is filed twice: under its normalized SQL (whitespace collapsed,
+ * literals replaced by '?') and under the action running on the calling
+ * thread, which is the menu option or batch operation that issued it.
+ * Both keep a latency histogram and counts of calls, rows moved, bytes
+ * fetched and errors.  Calls slower than the threshold are written to the
+ * slow-query log.  The numbers are published through JMX and can be
+ * dumped periodically.
+ *
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+	/**
+	 * Totals for one statement or action.
+	 */
+	public static class Stats {
+		final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+
+		Stats(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos, long rowCount, long byteCount, boolean failed) {
+			this.latency.record(nanos);
+			this.rows.addAndGet(rowCount);
+			this.bytes.addAndGet(byteCount);
+			if (failed)
+				this.errors.incrementAndGet();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%8d %6d %10d %12d %9.2f %9.2f %9.2f %9.2f %9.2f  %s",
+				this.latency.count(), this.errors.get(), this.rows.get(), this.bytes.get(),
+				this.latency.meanNanos() / 1e6, this.latency.percentileNanos(50) / 1e6,
+				this.latency.percentileNanos(90) / 1e6, this.latency.percentileNanos(99) / 1e6,
+				this.latency.maxNanos() / 1e6, this.name);
+		}
+	}//end Stats
+
+	/**
+	 * The first successful execution of a statement, kept so that tools such
+	 * as the index advisor can replay the workload.
+	 */
+	public static class Sample {
+		public final String sql;
+		public final Object[] params;
+		final Stats stats;
+
+		Sample(String sql, Object[] params, Stats stats) {
+			this.sql = sql;
+			this.params = params;
+			this.stats = stats;
+		}
+
+		/** @return how many times the statement has run */
+		public long calls() { return this.stats.latency.count(); }
+	}//end Sample
+
+	static final String HEADER = String.format("%8s %6s %10s %12s %9s %9s %9s %9s %9s  %s",
+		"calls", "errors", "rows", "bytes", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms", "name");
+	//action used when no menu option or batch operation is running
+	static final String NO_ACTION = "(none)";
+	//raw SQL strings remembered with their normalized form
+	private static final int NORMALIZED_CACHE = 1024;
+
+	private final ConcurrentMap<String, Stats> _statements = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentMap<String, Stats> _actions = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentMap<String, String> _normalized = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, Sample> _samples = new ConcurrentHashMap<String, Sample>();
+	private final ThreadLocal<String> _action = new ThreadLocal<String>();
+	private final AtomicLong _slow = new AtomicLong();
+	private volatile long _slowNanos;
+	private final PrintStream _slowLog;
+	private ScheduledExecutorService _dumper = null;
+	private ObjectName _jmxName = null;
+
+	/**
+	 * Creates the metrics.
+	 *
+	 * @param slowQueryMillis calls at least this slow are logged, 0 or less disables the log
+	 * @param slowLog where slow calls are written
+	 */
+	public QueryMetrics(long slowQueryMillis, PrintStream slowLog) {
+		this._slowNanos = slowQueryMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowQueryMillis) : Long.MAX_VALUE;
+		this._slowLog = slowLog;
+	}
+
+	/**
+	 * Creates the metrics configured from the mechanicshop.slowQueryMs
+	 * (default 500), mechanicshop.slowQueryLog (a file appended to,
+	 * standard error when unset) and mechanicshop.metrics.dumpMs (default
+	 * 0, no dump) system properties, registered with the platform MBean
+	 * server under the database name.
+	 *
+	 * @param dbname the database, used to name the MBean
+	 */
+	public static QueryMetrics fromSystemProperties(String dbname) {
+		PrintStream slowLog = System.err;
+		String path = System.getProperty("mechanicshop.slowQueryLog");
+		if (path != null){
+			try{
+				slowLog = new PrintStream(new FileOutputStream(path, true), true);
+			}catch (IOException e){
+				System.err.println("Warning - slow query log " + path + " not opened, using standard error: " + e.getMessage());
+			}//end try
+		}//end if
+		QueryMetrics metrics = new QueryMetrics(Long.getLong("mechanicshop.slowQueryMs", 500L), slowLog);
+		metrics.register(dbname);
+		long dumpMillis = Long.getLong("mechanicshop.metrics.dumpMs", 0L);
+		if (dumpMillis > 0)
+			metrics.startDump(dumpMillis, System.err);
+		return metrics;
+	}//end fromSystemProperties
+
+	/**
+	 * Method to name the action the calling thread is running, so that the
+	 * statements it issues are also counted under it.
+	 *
+	 * @param action the menu option or operation, or null when it is over
+	 * @return the previous action, to restore when actions nest
+	 */
+	public String enter(String action) {
+		String previous = this._action.get();
+		if (action == null)
+			this._action.remove();
+		else
+			this._action.set(action);
+		return previous;
+	}//end enter
+
+	/**
+	 * Method to record one executor call.
+	 *
+	 * @param executor the executor method that ran the statement
+	 * @param sql the statement as given to the executor
+	 * @param params the values bound to the statement
+	 * @param nanos how long the call took
+	 * @param rows rows returned or affected
+	 * @param bytes bytes fetched from the server
+	 * @param failed whether the call threw
+	 */
+	public void record(String executor, String sql, Object[] params, long nanos, long rows, long bytes, boolean failed) {
+		String statement = normalize(sql);
+		String action = this._action.get();
+		if (action == null)
+			action = NO_ACTION;
+		Stats stats = stats(this._statements, statement);
+		stats.record(nanos, rows, bytes, failed);
+		if (!failed && !this._samples.containsKey(statement))
+			this._samples.putIfAbsent(statement, new Sample(sql, params, stats));
+		stats(this._actions, action).record(nanos, rows, bytes, failed);
+		if (nanos >= this._slowNanos){
+			this._slow.incrementAndGet();
+			this._slowLog.println(String.format("%tF %<tT slow query %.1f ms, %d row(s)%s, action %s, %s: %s",
+				new Date(), nanos / 1e6, rows, failed ? ", failed" : "", action, executor, statement));
+		}//end if
+	}//end record
+
+	private static Stats stats(ConcurrentMap<String, Stats> map, String name) {
+		Stats s = map.get(name);
+		if (s == null){
+			Stats created = new Stats(name);
+			s = map.putIfAbsent(name, created);
+			if (s == null)
+				s = created;
+		}//end if
+		return s;
+	}//end stats
+
+	/**
+	 * Method to reduce a statement to its shape: runs of whitespace become
+	 * one blank and string and numeric literals become '?', so statements
+	 * that differ only in their constants are counted together.
+	 *
+	 * @param sql the statement
+	 * @return the normalized statement
+	 */
+	public String normalize(String sql) {
+		String cached = this._normalized.get(sql);
+		if (cached != null)
+			return cached;
+		StringBuilder out = new StringBuilder(sql.length());
+		int n = sql.length();
+		for (int i = 0; i < n; i++){
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)){
+				while (i + 1 < n && Character.isWhitespace(sql.charAt(i + 1)))
+					i++;
+				if (out.length() > 0 && i + 1 < n)
+					out.append(' ');
+			}else if (c == '\''){
+				//'' inside a literal is an escaped quote
+				for (i++; i < n; i++){
+					if (sql.charAt(i) != '\'')
+						continue;
+					if (i + 1 < n && sql.charAt(i + 1) == '\'')
+						i++;
+					else
+						break;
+				}//end for
+				out.append('?');
+			}else if (Character.isDigit(c) && (out.length() == 0 || !isIdentifierPart(out.charAt(out.length() - 1)))){
+				while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+					i++;
+				out.append('?');
+			}else{
+				out.append(c);
+			}//end if
+		}//end for
+		String normalized = out.toString();
+		if (this._normalized.size() < NORMALIZED_CACHE)
+			this._normalized.put(sql, normalized);
+		return normalized;
+	}//end normalize
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	/**
+	 * Method to print report() every period on a daemon thread.
+	 *
+	 * @param periodMillis the time between dumps
+	 * @param out where the report goes
+	 */
+	public synchronized void startDump(long periodMillis, final PrintStream out) {
+		if (this._dumper != null)
+			return;
+		this._dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "query-metrics-dump");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._dumper.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				out.println(report());
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}//end startDump
+
+	/**
+	 * Method to publish the metrics through the platform MBean server.  A
+	 * second instance for the same database gets a numbered name.
+	 *
+	 * @param dbname the database name
+	 */
+	synchronized void register(String dbname) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (int attempt = 0; this._jmxName == null && attempt < 100; attempt++){
+			try{
+				ObjectName name = new ObjectName("mechanicshop:type=QueryMetrics,name="
+					+ ObjectName.quote(attempt == 0 ? dbname : dbname + "-" + attempt));
+				server.registerMBean(this, name);
+				this._jmxName = name;
+			}catch (InstanceAlreadyExistsException e){
+				//another MechanicShop in this JVM uses the database, tries the next name
+			}catch (Exception e){
+				System.err.println("Warning - query metrics not published through JMX: " + e.getMessage());
+				return;
+			}//end try
+		}//end for
+	}//end register
+
+	/**
+	 * Method to stop the dump and withdraw the MBean.
+	 */
+	public synchronized void close() {
+		if (this._dumper != null){
+			this._dumper.shutdownNow();
+			this._dumper = null;
+		}//end if
+		if (this._jmxName != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._jmxName);
+			}catch (Exception e){
+				// ignored, the JVM is going away with it
+			}//end try
+			this._jmxName = null;
+		}//end if
+		if (this._slowLog != System.err && this._slowLog != System.out)
+			this._slowLog.close();
+	}//end close
+
+	private static List<Stats> sorted(ConcurrentMap<String, Stats> map) {
+		List<Stats> all = new ArrayList<Stats>(map.values());
+		Collections.sort(all, new Comparator<Stats>() {
+			public int compare(Stats a, Stats b) {
+				long ta = a.latency.totalNanos(), tb = b.latency.totalNanos();
+				return ta != tb ? (ta > tb ? -1 : 1) : a.name.compareTo(b.name);
+			}
+		});
+		return all;
+	}//end sorted
+
+	private static String[] lines(ConcurrentMap<String, Stats> map) {
+		List<Stats> all = sorted(map);
+		String[] lines = new String[all.size()];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = all.get(i).toString();
+		return lines;
+	}//end lines
+
+	//every call is filed under exactly one action, so the actions add up to the totals
+	public long getCalls() {
+		long total = 0;
+		for (Stats s : this._actions.values())
+			total += s.latency.count();
+		return total;
+	}
+
+	public long getErrors() {
+		long total = 0;
+		for (Stats s : this._actions.values())
+			total += s.errors.get();
+		return total;
+	}
+
+	public long getRowsMoved() {
+		long total = 0;
+		for (Stats s : this._actions.values())
+			total += s.rows.get();
+		return total;
+	}
+
+	public long getBytesFetched() {
+		long total = 0;
+		for (Stats s : this._actions.values())
+			total += s.bytes.get();
+		return total;
+	}
+	public long getSlowQueries() { return this._slow.get(); }
+
+	public long getSlowQueryThresholdMs() {
+		long nanos = this._slowNanos;
+		return nanos == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	public void setSlowQueryThresholdMs(long millis) {
+		this._slowNanos = millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return one sample of every statement that has run successfully
+	 */
+	public List<Sample> samples() {
+		return new ArrayList<Sample>(this._samples.values());
+	}
+
+	public String[] getStatementSummaries() { return lines(this._statements); }
+	public String[] getActionSummaries() { return lines(this._actions); }
+
+	public String report() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("Query metrics at %tF %<tT: %d call(s), %d error(s), %d slow%n", new Date(), getCalls(), getErrors(), getSlowQueries()));
+		out.append("By action").append(String.format("%n")).append(HEADER).append(String.format("%n"));
+		for (String line : getActionSummaries())
+			out.append(line).append(String.format("%n"));
+		out.append("By statement").append(String.format("%n")).append(HEADER).append(String.format("%n"));
+		for (String line : getStatementSummaries())
+			out.append(line).append(String.format("%n"));
+		return out.toString();
+	}//end report
+
+	public void reset() {
+		this._statements.clear();
+		this._samples.clear();
+		this._actions.clear();
+		this._slow.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Query metrics: %d call(s), %d error(s), %d row(s), %d byte(s), %d slow",
+			getCalls(), getErrors(), getRowsMoved(), getBytesFetched(), getSlowQueries());
+	}
+}//end QueryMetrics
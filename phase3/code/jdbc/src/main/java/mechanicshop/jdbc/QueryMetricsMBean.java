@@ -0,0 +1,40 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+/**
+ * JMX view of QueryMetrics, registered as
+ * mechanicshop:type=QueryMetrics,name=&lt;dbname&gt;.
+ *
+ */
+public interface QueryMetricsMBean {
+	long getCalls();
+	long getErrors();
+	long getSlowQueries();
+	long getRowsMoved();
+	long getBytesFetched();
+
+	long getSlowQueryThresholdMs();
+	void setSlowQueryThresholdMs(long millis);
+
+	/** @return one line per normalized statement, slowest total first */
+	String[] getStatementSummaries();
+
+	/** @return one line per menu action or batch operation, slowest total first */
+	String[] getActionSummaries();
+
+	/** @return the full report printed by the periodic dump */
+	String report();
+
+	void reset();
+}//end QueryMetricsMBean
@@ -0,0 +1,67 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+
+/**
+ * RowHandler that prints streamed rows as tab separated text, preceded by a
+ * header line when the first row arrives.  Output goes through one buffered
+ * writer that is flushed every 'flushRows' rows; call flush() once the
+ * query is done.
+ *
+ */
+public class ResultPrinter implements RowHandler {
+	private final PrintWriter _out;
+	private final int _flushRows;
+
+	/**
+	 * Creates a printer
+	 *
+	 * @param out the stream the rows are written to; it is never closed
+	 * @param flushRows the number of rows written between flushes
+	 */
+	public ResultPrinter(OutputStream out, int flushRows) {
+		this._out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), 1 << 16));
+		this._flushRows = Math.max(1, flushRows);
+	}//end ResultPrinter
+
+	public void handle(Row row) throws SQLException {
+		int numCol = row.columnCount();
+		if (row.rowNumber() == 1){
+			for (int i = 1; i <= numCol; i++){
+				this._out.print(row.columnName(i));
+				this._out.print('\t');
+			}
+			this._out.println();
+		}
+		for (int i = 1; i <= numCol; ++i){
+			this._out.print(row.getString(i));
+			this._out.print('\t');
+		}
+		this._out.println();
+		if (row.rowNumber() % this._flushRows == 0)
+			this._out.flush();
+	}//end handle
+
+	/**
+	 * Method to write out any buffered rows.
+	 */
+	public void flush() {
+		this._out.flush();
+	}//end flush
+}//end ResultPrinter
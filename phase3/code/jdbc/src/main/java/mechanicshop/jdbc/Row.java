@@ -0,0 +1,99 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Typed, read-only view of the current row of a streamed query.  A single
+ * instance is reused for every row so that streaming does not allocate per
+ * row; columns are numbered from 1 like in JDBC.
+ *
+ */
+public class Row {
+	private final ResultSet _rs;
+	private final ResultSetMetaData _rsmd;
+	private final int _numCol;
+	private long _rowNumber = 0;
+
+	Row(ResultSet rs) throws SQLException {
+		this._rs = rs;
+		this._rsmd = rs.getMetaData();
+		this._numCol = this._rsmd.getColumnCount();
+	}//end Row
+
+	//moves the view to the next row of the result set
+	boolean next() throws SQLException {
+		if (!this._rs.next())
+			return false;
+		this._rowNumber++;
+		return true;
+	}//end next
+
+	/** @return the 1-based position of the current row in the result */
+	public long rowNumber() { return this._rowNumber; }
+
+	/** @return the number of columns in the result */
+	public int columnCount() { return this._numCol; }
+
+	/**
+	 * @param i the column number
+	 * @return the column label as reported by the server
+	 * @throws java.sql.SQLException when the column does not exist
+	 */
+	public String columnName(int i) throws SQLException { return this._rsmd.getColumnName(i); }
+
+	public String getString(int i) throws SQLException { return this._rs.getString(i); }
+	public int getInt(int i) throws SQLException { return this._rs.getInt(i); }
+	public long getLong(int i) throws SQLException { return this._rs.getLong(i); }
+	public double getDouble(int i) throws SQLException { return this._rs.getDouble(i); }
+	public Date getDate(int i) throws SQLException { return this._rs.getDate(i); }
+	public Object getObject(int i) throws SQLException { return this._rs.getObject(i); }
+
+	//by column label, for row mappers that should not depend on column order
+	public String getString(String column) throws SQLException { return this._rs.getString(column); }
+	public int getInt(String column) throws SQLException { return this._rs.getInt(column); }
+	public long getLong(String column) throws SQLException { return this._rs.getLong(column); }
+	public double getDouble(String column) throws SQLException { return this._rs.getDouble(column); }
+	public Date getDate(String column) throws SQLException { return this._rs.getDate(column); }
+
+	/**
+	 * @param i the column number
+	 * @return the column as an Integer, null for SQL NULL
+	 * @throws java.sql.SQLException when the column does not exist or is not a number
+	 */
+	public Integer getInteger(int i) throws SQLException {
+		int value = this._rs.getInt(i);
+		return this._rs.wasNull() ? null : value;
+	}//end getInteger
+
+	/**
+	 * @return true when the last column read was SQL NULL
+	 * @throws java.sql.SQLException when no column has been read yet
+	 */
+	public boolean wasNull() throws SQLException { return this._rs.wasNull(); }
+
+	//size of the current row as sent by the server, for the query metrics
+	long wireBytes() throws SQLException {
+		long bytes = 0;
+		for (int i = 1; i <= this._numCol; i++){
+			byte[] value = this._rs.getBytes(i);
+			if (value != null)
+				bytes += value.length;
+		}//end for
+		return bytes;
+	}//end wireBytes
+}//end Row
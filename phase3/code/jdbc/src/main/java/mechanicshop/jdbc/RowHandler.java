@@ -0,0 +1,31 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Callback that receives the rows of a streamed query one at a time.  The
+ * Row passed in is only valid until handle() returns; copy any values that
+ * must outlive the call.
+ *
+ */
+public interface RowHandler {
+	/**
+	 * Method called once for every row of the result, in result order.
+	 *
+	 * @param row the current row
+	 * @throws java.sql.SQLException when reading the row failed; stops the query
+	 */
+	void handle(Row row) throws SQLException;
+}//end RowHandler
@@ -0,0 +1,32 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a query into a value of type T, so that callers
+ * get typed results instead of lists of strings.  RowMappers holds the
+ * common ones.
+ *
+ */
+public interface RowMapper<T> {
+	/**
+	 * Method called once for every row of the result, in result order.
+	 *
+	 * @param row the current row, only valid until map() returns
+	 * @return the value the row stands for
+	 * @throws java.sql.SQLException when reading the row failed; stops the query
+	 */
+	T map(Row row) throws SQLException;
+}//end RowMapper
@@ -0,0 +1,65 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the row mappers most queries need: the first column as
+ * a string or a number, and the whole row as strings.
+ *
+ */
+public final class RowMappers {
+
+	private RowMappers() {
+	}
+
+	/** The first column, as text. */
+	public static final RowMapper<String> STRING = new RowMapper<String>() {
+		public String map(Row row) throws SQLException { return row.getString(1); }
+	};
+
+	/** The first column, trimmed of the padding of CHAR columns. */
+	public static final RowMapper<String> TRIMMED = new RowMapper<String>() {
+		public String map(Row row) throws SQLException {
+			String value = row.getString(1);
+			return value == null ? null : value.trim();
+		}
+	};
+
+	/** The first column as an Integer, null for SQL NULL. */
+	public static final RowMapper<Integer> INT = new RowMapper<Integer>() {
+		public Integer map(Row row) throws SQLException { return row.getInteger(1); }
+	};
+
+	/** The first column as a Long, null for SQL NULL. */
+	public static final RowMapper<Long> LONG = new RowMapper<Long>() {
+		public Long map(Row row) throws SQLException {
+			long value = row.getLong(1);
+			return row.wasNull() ? null : value;
+		}
+	};
+
+	/** Every column, as text. */
+	public static final RowMapper<List<String>> STRINGS = new RowMapper<List<String>>() {
+		public List<String> map(Row row) throws SQLException {
+			int numCol = row.columnCount();
+			List<String> record = new ArrayList<String>(numCol);
+			for (int i = 1; i <= numCol; ++i)
+				record.add(row.getString(i));
+			return record;
+		}
+	};
+}//end RowMappers
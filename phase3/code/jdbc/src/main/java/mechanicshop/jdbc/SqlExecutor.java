@@ -0,0 +1,420 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs SQL for the front ends on a pool of connections.  Every
+ * statement is prepared once per connection and bound with '?'
+ * parameters, queries stream their rows from a server-side cursor
+ * fetchSize rows at a time, and every call is timed into the query
+ * metrics.  A thread can open a transaction; until it commits or rolls
+ * back, all of its calls run on the transaction's connection.
+ *
+ */
+public class SqlExecutor {
+	private final ConnectionPool _pool;
+	private final QueryMetrics _metrics;
+	private final int _fetchSize;
+	private final int _printFlushRows;
+	//connection of the transaction open on each thread, if any
+	private final ThreadLocal<ConnectionPool.PooledConnection> _transaction = new ThreadLocal<ConnectionPool.PooledConnection>();
+
+	/**
+	 * Creates an executor; close() closes the pool and the metrics.
+	 *
+	 * @param pool the connections to run on
+	 * @param metrics where every call is recorded
+	 * @param fetchSize the rows held in memory at a time by streamed queries
+	 * @param printFlushRows the rows printed between flushes by executeQueryAndPrintResult
+	 */
+	public SqlExecutor (ConnectionPool pool, QueryMetrics metrics, int fetchSize, int printFlushRows) {
+		this._pool = pool;
+		this._metrics = metrics;
+		this._fetchSize = Math.max (1, fetchSize);
+		this._printFlushRows = Math.max (1, printFlushRows);
+	}//end SqlExecutor
+
+	/**
+	 * Creates an executor configured from the mechanicshop.pool.*,
+	 * mechanicshop.fetchSize (default 1000), mechanicshop.printFlushRows
+	 * (default 500) and query metrics system properties.
+	 *
+	 * @param url the JDBC URL of the database
+	 * @param user the database user
+	 * @param passwd the user's password
+	 * @param name the name the metrics are published under, usually the database
+	 * @throws java.sql.SQLException when the pool cannot open its first connections
+	 */
+	public static SqlExecutor fromSystemProperties (String url, String user, String passwd, String name) throws SQLException {
+		QueryMetrics metrics = QueryMetrics.fromSystemProperties (name);
+		try{
+			return new SqlExecutor (ConnectionPool.fromSystemProperties (url, user, passwd), metrics,
+				Integer.getInteger ("mechanicshop.fetchSize", 1000), Integer.getInteger ("mechanicshop.printFlushRows", 500));
+		}catch (SQLException e){
+			metrics.close ();
+			throw e;
+		}
+	}//end fromSystemProperties
+
+	/**
+	 * Method to start a read committed transaction on the calling thread.
+	 *
+	 * @throws java.sql.SQLException when no connection is available or a transaction is already open
+	 */
+	public void beginTransaction () throws SQLException {
+		beginTransaction (Connection.TRANSACTION_READ_COMMITTED);
+	}//end beginTransaction
+
+	/**
+	 * Method to start a transaction on the calling thread at the given
+	 * isolation level.
+	 *
+	 * @param isolation one of the Connection.TRANSACTION_* levels
+	 * @throws java.sql.SQLException when no connection is available or a transaction is already open
+	 */
+	public void beginTransaction (int isolation) throws SQLException {
+		if (this._transaction.get () != null)
+			throw new SQLException ("a transaction is already open on this thread");
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			pc.isolation (isolation);
+			pc.connection ().setAutoCommit (false);
+		}catch (SQLException e){
+			this._pool.release (pc);
+			throw e;
+		}
+		this._transaction.set (pc);
+	}//end beginTransaction
+
+	/**
+	 * Method to commit the calling thread's transaction and give its
+	 * connection back to the pool.
+	 *
+	 * @throws java.sql.SQLException when there is no open transaction or the commit failed
+	 */
+	public void commit () throws SQLException {
+		ConnectionPool.PooledConnection pc = this._transaction.get ();
+		if (pc == null)
+			throw new SQLException ("no transaction is open on this thread");
+		this._transaction.remove ();
+		try{
+			pc.connection ().commit ();
+			pc.connection ().setAutoCommit (true);
+		}finally{
+			//the pool rolls back whatever a failed commit left behind
+			this._pool.release (pc);
+		}
+	}//end commit
+
+	/**
+	 * Method to roll back the calling thread's transaction, if any, and give
+	 * its connection back to the pool.
+	 */
+	public void rollback () {
+		ConnectionPool.PooledConnection pc = this._transaction.get ();
+		if (pc == null)
+			return;
+		this._transaction.remove ();
+		this._pool.release (pc);
+	}//end rollback
+
+	/**
+	 * @return true when the calling thread has a transaction open
+	 */
+	public boolean inTransaction () {
+		return this._transaction.get () != null;
+	}
+
+	//the thread's transaction connection, or a freshly borrowed one
+	private ConnectionPool.PooledConnection acquire () throws SQLException {
+		ConnectionPool.PooledConnection pc = this._transaction.get ();
+		return pc != null ? pc : this._pool.borrow ();
+	}//end acquire
+
+	//returns a connection from acquire() unless it belongs to an open transaction
+	private void releaseUnbound (ConnectionPool.PooledConnection pc) {
+		if (pc != this._transaction.get ())
+			this._pool.release (pc);
+	}//end releaseUnbound
+
+	/**
+	 * Method to execute an update SQL statement.  Update SQL instructions
+	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+	 *
+	 * @param sql the input SQL string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			ConnectionPool.PooledConnection pc = acquire ();
+			try{
+				// fetches the cached statement for this query shape and binds it
+				PreparedStatement stmt = pc.statements ().prepare (sql, params);
+
+				// issues the update instruction
+				rowCount = stmt.executeUpdate ();
+				failed = false;
+				return rowCount;
+			}finally{
+				releaseUnbound (pc);
+			}
+		}finally{
+			this._metrics.record ("executeUpdate", sql, params, System.nanoTime () - start, rowCount, 0, failed);
+		}
+	}//end executeUpdate
+
+	/**
+	 * Method to execute a query and stream its rows to a handler.  The query
+	 * runs inside a transaction on a server-side cursor, so only fetchSize
+	 * rows are held in memory at a time no matter how large the result is.
+	 *
+	 * @param query the input query string, with '?' for each parameter
+	 * @param handler the callback receiving every row in order
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+		return stream ("executeQueryAndStream", query, handler, params);
+	}//end executeQueryAndStream
+
+	//streams the query, filing the call under the public executor that asked for it
+	private int stream (String executor, String query, RowHandler handler, Object[] params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		long bytes = 0;
+		boolean failed = true;
+		try{
+			ConnectionPool.PooledConnection pc = acquire ();
+			try{
+				//the driver only uses a cursor when autocommit is off
+				boolean autoCommit = pc.connection ().getAutoCommit ();
+				if (autoCommit)
+					pc.connection ().setAutoCommit (false);
+
+				//fetches the cached statement for this query shape and binds it
+				PreparedStatement stmt = pc.statements ().prepare (query, params);
+				stmt.setFetchSize (this._fetchSize);
+
+				//issues the query instruction and hands every row to the handler
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					Row row = new Row (rs);
+					while (row.next ()){
+						handler.handle (row);
+						bytes += row.wireBytes ();
+						++rowCount;
+					}//end while
+				}finally{
+					rs.close ();
+				}
+				if (autoCommit){
+					pc.connection ().commit ();
+					pc.connection ().setAutoCommit (true);
+				}//end if
+				failed = false;
+				return rowCount;
+			}finally{
+				releaseUnbound (pc);
+			}
+		}finally{
+			this._metrics.record (executor, query, params, System.nanoTime () - start, rowCount, bytes, failed);
+		}
+	}//end stream
+
+	/**
+	 * Method to execute a query and print its rows, tab separated under a
+	 * header line, to standard out.
+	 *
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return executeQueryAndPrintResult (System.out, query, params);
+	}//end executeQueryAndPrintResult
+
+	/**
+	 * Method to execute a query and print its rows, tab separated under a
+	 * header line.  Rows are streamed and written through one buffered
+	 * writer that is flushed every printFlushRows rows.
+	 *
+	 * @param out where the rows go; it is flushed, never closed
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (OutputStream out, String query, Object... params) throws SQLException {
+		ResultPrinter printer = new ResultPrinter (out, this._printFlushRows);
+		try{
+			return stream ("executeQueryAndPrintResult", query, printer, params);
+		}finally{
+			printer.flush ();
+		}
+	}//end executeQueryAndPrintResult
+
+	/**
+	 * Method to execute a query and return its rows as lists of strings.
+	 * The whole result is kept in memory; use executeQueryAndStream for
+	 * large results.
+	 *
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		return collect ("executeQueryAndReturnResult", query, RowMappers.STRINGS, params);
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a query and map every row to a value.
+	 *
+	 * @param query the input query string, with '?' for each parameter
+	 * @param mapper turns each row into a value
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the values, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> query (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		return collect ("query", query, mapper, params);
+	}//end query
+
+	/**
+	 * Method to execute a query expected to return at most one row.
+	 *
+	 * @param query the input query string, with '?' for each parameter
+	 * @param mapper turns the row into a value
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return the value of the first row, null when there is none
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> T queryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		List<T> values = collect ("queryForObject", query, mapper, params);
+		return values.isEmpty () ? null : values.get (0);
+	}//end queryForObject
+
+	private <T> List<T> collect (String executor, String query, final RowMapper<T> mapper, Object[] params) throws SQLException {
+		final List<T> result = new ArrayList<T> ();
+		stream (executor, query, new RowHandler () {
+			public void handle (Row row) throws SQLException {
+				result.add (mapper.map (row));
+			}
+		}, params);
+		return result;
+	}//end collect
+
+	/**
+	 * Method to tell whether a query returns any row.
+	 *
+	 * @param query the input query string, with '?' for each parameter
+	 * @param params the values bound to the '?' placeholders in order
+	 * @return 1 when the query returned a row, otherwise 0
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			ConnectionPool.PooledConnection pc = acquire ();
+			try{
+				//fetches the cached statement for this query shape and binds it
+				PreparedStatement stmt = pc.statements ().prepare (query, params);
+
+				//issues the query instruction
+				ResultSet rs = stmt.executeQuery ();
+				if (rs.next ())
+					rowCount++;
+				rs.close ();
+				failed = false;
+				return rowCount;
+			}finally{
+				releaseUnbound (pc);
+			}
+		}finally{
+			this._metrics.record ("executeQuery", query, params, System.nanoTime () - start, rowCount, 0, failed);
+		}
+	}//end executeQuery
+
+	/**
+	 * Method to fetch the last value of a sequence in this session.  currval
+	 * is tracked per session, so call it inside the transaction that ran
+	 * nextval.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return current value of a sequence, -1 when there is none
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int getCurrSeqVal (String sequence) throws SQLException {
+		String query = "SELECT currval(CAST(? AS regclass))";
+		long start = System.nanoTime ();
+		boolean failed = true;
+		try{
+			ConnectionPool.PooledConnection pc = acquire ();
+			try{
+				PreparedStatement stmt = pc.statements ().prepare (query, sequence);
+
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					int value = rs.next () ? rs.getInt (1) : -1;
+					failed = false;
+					return value;
+				}finally{
+					rs.close ();
+				}
+			}finally{
+				releaseUnbound (pc);
+			}
+		}finally{
+			this._metrics.record ("getCurrSeqVal", query, new Object[] {sequence}, System.nanoTime () - start, failed ? 0 : 1, 0, failed);
+		}
+	}//end getCurrSeqVal
+
+	/**
+	 * @return the pool the calls run on
+	 */
+	public ConnectionPool pool () {
+		return this._pool;
+	}
+
+	/**
+	 * @return the latency and error counts of the calls
+	 */
+	public QueryMetrics metrics () {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to close the pooled connections and stop the metrics.
+	 */
+	public void close () {
+		this._pool.close ();
+		this._metrics.close ();
+	}//end close
+}//end SqlExecutor
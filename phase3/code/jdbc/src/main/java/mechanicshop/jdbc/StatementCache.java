@@ -0,0 +1,149 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package mechanicshop.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of prepared
+ * statements for a single physical connection.  Statements are keyed by
+ * their SQL text with '?' placeholders (the query shape), so repeated
+ * operations reuse the server-side parse and plan instead of sending a new
+ * statement every time.
+ *
+ */
+public class StatementCache {
+	//connection that owns every cached statement
+	private final Connection _connection;
+	private final int _capacity;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	/**
+	 * Creates a new statement cache
+	 *
+	 * @param connection the connection the statements are prepared on
+	 * @param capacity the maximum number of statements kept open
+	 */
+	public StatementCache(Connection connection, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("statement cache capacity must be positive: " + capacity);
+		this._connection = connection;
+		this._capacity = capacity;
+		//access order turns the map into an LRU list
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}//end StatementCache
+
+	/**
+	 * Method to fetch the prepared statement for a query shape, preparing it
+	 * on a miss and evicting the least recently used statement when the
+	 * cache is full.
+	 *
+	 * @param sql the SQL text with '?' placeholders
+	 * @return an open prepared statement for the given SQL
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()){
+			this._hits++;
+			stmt.clearParameters();
+			return stmt;
+		}//end if
+
+		this._misses++;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		if (this._statements.size() > this._capacity){
+			Iterator<Map.Entry<String, PreparedStatement>> eldest = this._statements.entrySet().iterator();
+			closeQuietly(eldest.next().getValue());
+			eldest.remove();
+			this._evictions++;
+		}//end if
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to fetch the prepared statement for a query shape and bind the
+	 * given parameters to it in order.
+	 *
+	 * @param sql the SQL text with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return an open prepared statement ready to execute
+	 * @throws java.sql.SQLException when preparing or binding failed
+	 */
+	public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = prepare(sql);
+		bind(stmt, params);
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to bind positional parameters to a prepared statement.  A null
+	 * value is bound as an untyped SQL NULL.
+	 *
+	 * @param stmt the statement to bind
+	 * @param params the values bound to the placeholders
+	 * @throws java.sql.SQLException when binding failed
+	 */
+	public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		if (params == null)
+			return;
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null)
+				stmt.setNull(i + 1, java.sql.Types.NULL);
+			else
+				stmt.setObject(i + 1, params[i]);
+		}//end for
+	}//end bind
+
+	/**
+	 * Method to close every cached statement.  The cache can still be used
+	 * afterwards; statements are prepared again on demand.
+	 */
+	public synchronized void close() {
+		for (PreparedStatement stmt : this._statements.values())
+			closeQuietly(stmt);
+		this._statements.clear();
+	}//end close
+
+	public synchronized int size() { return this._statements.size(); }
+	public int capacity() { return this._capacity; }
+	public synchronized long hits() { return this._hits; }
+	public synchronized long misses() { return this._misses; }
+	public synchronized long evictions() { return this._evictions; }
+
+	@Override
+	public synchronized String toString() {
+		long lookups = this._hits + this._misses;
+		double hitRate = lookups == 0 ? 0.0 : (100.0 * this._hits) / lookups;
+		return String.format("statements cached: %d/%d, hits: %d, misses: %d, evictions: %d, hit rate: %.1f%%",
+			this._statements.size(), this._capacity, this._hits, this._misses, this._evictions, hitRate);
+	}//end toString
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try{
+			stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}//end closeQuietly
+}//end StatementCache
@@ -4,6 +4,17 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Customer_Bill CASCADE;--OK
+DROP TABLE IF EXISTS Car_Service_Count CASCADE;--OK
+DROP TABLE IF EXISTS Part_Demand CASCADE;--OK
+DROP TABLE IF EXISTS Part_Demand_Watermark CASCADE;--OK
+DROP TABLE IF EXISTS Part_Demand_Horizon CASCADE;--OK
+DROP TABLE IF EXISTS Request_Event CASCADE;--OK
+DROP SEQUENCE IF EXISTS customer_id_seq;--OK
+DROP SEQUENCE IF EXISTS mechanic_id_seq;--OK
+DROP SEQUENCE IF EXISTS ownership_id_seq;--OK
+DROP SEQUENCE IF EXISTS rid_seq;--OK
+DROP SEQUENCE IF EXISTS wid_seq;--OK
 
 
 -------------
@@ -18,12 +29,22 @@ CREATE DOMAIN _PZEROINTEGER AS int4 CHECK(VALUE >= 0);
 CREATE DOMAIN _YEARS AS int4 CHECK(VALUE >= 0 AND VALUE < 100);
 CREATE DOMAIN _YEAR AS int4 CHECK(VALUE >= 1970);
 
+---------------
+---SEQUENCES---
+---------------
+-- New ids, handed out in blocks by IdAllocator and moved past the loaded data at the end
+CREATE SEQUENCE customer_id_seq;
+CREATE SEQUENCE mechanic_id_seq;
+CREATE SEQUENCE ownership_id_seq;
+CREATE SEQUENCE rid_seq;
+CREATE SEQUENCE wid_seq;
+
 ------------
 ---TABLES---
 ------------
 CREATE TABLE Customer
 (
-	id INTEGER NOT NULL,
+	id INTEGER NOT NULL DEFAULT nextval('customer_id_seq'),
 	fname CHAR(32) NOT NULL,
 	lname CHAR(32) NOT NULL,
 	phone CHAR(13) NOT NULL,
@@ -33,7 +54,7 @@ CREATE TABLE Customer
 
 CREATE TABLE Mechanic
 (
-	id INTEGER NOT NULL,
+	id INTEGER NOT NULL DEFAULT nextval('mechanic_id_seq'),
 	fname CHAR(32) NOT NULL,
 	lname CHAR(32) NOT NULL,
 	experience _YEARS NOT NULL,
@@ -53,7 +74,7 @@ CREATE TABLE Car
 ---------------
 CREATE TABLE Owns
 (
-	ownership_id INTEGER NOT NULL,
+	ownership_id INTEGER NOT NULL DEFAULT nextval('ownership_id_seq'),
 	customer_id INTEGER NOT NULL,
 	car_vin VARCHAR(16) NOT NULL,
 	PRIMARY KEY (ownership_id),
@@ -63,7 +84,7 @@ CREATE TABLE Owns
 
 CREATE TABLE Service_Request
 (
-	rid INTEGER NOT NULL,
+	rid INTEGER NOT NULL DEFAULT nextval('rid_seq'),
 	customer_id INTEGER NOT NULL,
 	car_vin VARCHAR(16) NOT NULL,
 	date DATE NOT NULL,
@@ -76,7 +97,7 @@ CREATE TABLE Service_Request
 
 CREATE TABLE Closed_Request
 (
-	wid INTEGER NOT NULL,
+	wid INTEGER NOT NULL DEFAULT nextval('wid_seq'),
 	rid INTEGER NOT NULL,
 	mid INTEGER NOT NULL,
 	date DATE NOT NULL,
@@ -87,6 +108,77 @@ CREATE TABLE Closed_Request
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
 
+ALTER SEQUENCE customer_id_seq OWNED BY Customer.id;
+ALTER SEQUENCE mechanic_id_seq OWNED BY Mechanic.id;
+ALTER SEQUENCE ownership_id_seq OWNED BY Owns.ownership_id;
+ALTER SEQUENCE rid_seq OWNED BY Service_Request.rid;
+ALTER SEQUENCE wid_seq OWNED BY Closed_Request.wid;
+
+---------------
+---SUMMARIES---
+---------------
+-- Running bill total per customer, updated by CloseServiceRequest
+CREATE TABLE Customer_Bill
+(
+	customer_id INTEGER NOT NULL,
+	total_bill BIGINT NOT NULL,
+	closed_count INTEGER NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+CREATE INDEX customer_bill_total_index ON Customer_Bill (total_bill DESC, customer_id DESC);
+
+-- Number of service requests per car, updated by InsertServiceRequest
+CREATE TABLE Car_Service_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	service_count INTEGER NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+CREATE INDEX car_service_count_index ON Car_Service_Count (service_count DESC);
+
+------------
+---EVENTS---
+------------
+-- Outbox of request lifecycle events, written in the same statement as the
+-- request (opened) or the closing (closed, with the bill); EventRelay moves
+-- them to the local event log and deletes them
+CREATE TABLE Request_Event
+(
+	id BIGSERIAL,
+	type VARCHAR(8) NOT NULL CHECK (type IN ('opened', 'closed')),
+	rid INTEGER NOT NULL,
+	wid INTEGER,
+	customer_id INTEGER NOT NULL,
+	car_vin VARCHAR(16) NOT NULL,
+	mid INTEGER,
+	date DATE NOT NULL,
+	odometer INTEGER,
+	bill INTEGER,
+	at TIMESTAMP NOT NULL DEFAULT clock_timestamp(),
+	PRIMARY KEY (id)
+);
+
+-------------------
+---NOTIFICATIONS---
+-------------------
+-- Names every written table on the mechanicshop_writes channel at commit,
+-- so that MechanicShop drops the cached reports that read it
+CREATE OR REPLACE FUNCTION notify_write() RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('mechanicshop_writes', lower(TG_TABLE_NAME));
+	RETURN NULL;
+END $$ LANGUAGE plpgsql;
+
+CREATE TRIGGER customer_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Customer FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+CREATE TRIGGER car_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Car FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+CREATE TRIGGER owns_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Owns FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+CREATE TRIGGER service_request_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Service_Request FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+CREATE TRIGGER closed_request_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Closed_Request FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+CREATE TRIGGER customer_bill_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Customer_Bill FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+CREATE TRIGGER car_service_count_notify_write AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Car_Service_Count FOR EACH STATEMENT EXECUTE PROCEDURE notify_write();
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -147,4 +239,21 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+INSERT INTO Customer_Bill (customer_id, total_bill, closed_count)
+SELECT SR.customer_id, SUM(CR.bill), COUNT(*)
+FROM Closed_Request CR, Service_Request SR
+WHERE CR.rid = SR.rid
+GROUP BY SR.customer_id;
+
+INSERT INTO Car_Service_Count (car_vin, service_count)
+SELECT car_vin, COUNT(*)
+FROM Service_Request
+GROUP BY car_vin;
+
+SELECT setval('customer_id_seq', COALESCE(MAX(id), 0) + 1, false) FROM Customer;
+SELECT setval('mechanic_id_seq', COALESCE(MAX(id), 0) + 1, false) FROM Mechanic;
+SELECT setval('ownership_id_seq', COALESCE(MAX(ownership_id), 0) + 1, false) FROM Owns;
+SELECT setval('rid_seq', COALESCE(MAX(rid), 0) + 1, false) FROM Service_Request;
+SELECT setval('wid_seq', COALESCE(MAX(wid), 0) + 1, false) FROM Closed_Request;
\ No newline at end of file
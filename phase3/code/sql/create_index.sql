@@ -1,11 +1,32 @@
-CREATE INDEX custID_index 
-ON Customer
-(id)
+-- Indexes for the predicates MechanicShop's queries use.  The primary keys
+-- (Customer.id, Mechanic.id, Car.vin, ...) are indexed by PostgreSQL already.
+-- Run after create.sql; to tune for the live workload instead, run
+--   ./run.sh $LOGNAME"_DB" 5432 $USER advise-indexes [apply]
 
-CREATE INDEX mechID_index 
-ON Mechanic 
-(id)
+-- foreign keys: ownership and request lookups, joins of reports 7 and 8
+CREATE INDEX IF NOT EXISTS owns_customer_id_index ON Owns (customer_id);
+CREATE INDEX IF NOT EXISTS owns_car_vin_index ON Owns (car_vin);
+CREATE INDEX IF NOT EXISTS service_request_car_vin_index ON Service_Request (car_vin);
+CREATE INDEX IF NOT EXISTS service_request_customer_id_index ON Service_Request (customer_id);
+CREATE INDEX IF NOT EXISTS closed_request_rid_index ON Closed_Request (rid);
+CREATE INDEX IF NOT EXISTS closed_request_mid_index ON Closed_Request (mid);
 
-CREATE INDEX carVin_index 
-ON Car 
-(vin)
+-- customer search by last name
+CREATE INDEX IF NOT EXISTS customer_lname_index ON Customer (lname);
+
+-- report 6: closed requests billed under 100; the partial index is in the
+-- order the paged report reads them
+CREATE INDEX IF NOT EXISTS closed_request_bill_index ON Closed_Request (bill);
+CREATE INDEX IF NOT EXISTS closed_request_low_bill_index ON Closed_Request (date, wid) WHERE bill < 100;
+
+-- report 8: cars before 1995 with requests under 50000 miles; the partial
+-- indexes hold only the qualifying rows, with the join column alongside
+CREATE INDEX IF NOT EXISTS car_year_index ON Car (year);
+CREATE INDEX IF NOT EXISTS car_before_1995_index ON Car (vin, make, model, year) WHERE year < 1995;
+CREATE INDEX IF NOT EXISTS service_request_low_odometer_index ON Service_Request (car_vin, odometer) WHERE odometer < 50000;
+
+ANALYZE Customer;
+ANALYZE Car;
+ANALYZE Owns;
+ANALYZE Service_Request;
+ANALYZE Closed_Request;